@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.bloomfilter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.util.hash.Hash;
+
+/**
+ * A Bloom filter that keeps all of the bits for a key inside one 64 byte block. A membership test reads one block, so it touches a single cache line and
+ * can be answered by reading just that block out of a serialized filter, without deserializing the rest of it.
+ * <p>
+ * A key is hashed once to a 64 bit value. The high 32 bits select the block and the low 32 bits are used to double hash the bit positions within the block.
+ * The serialized form is just the blocks, the number of blocks and hash functions must be stored elsewhere.
+ */
+public class BlockedBloomFilter {
+
+  public static final int BLOCK_BYTES = 64;
+  private static final int BLOCK_LONGS = BLOCK_BYTES / 8;
+  private static final int BLOCK_BITS = BLOCK_BYTES * 8;
+
+  private final long[] bits;
+  private final int numBlocks;
+  private final int nbHash;
+
+  /**
+   * @param numBlocks
+   *          number of 64 byte blocks in the filter
+   * @param nbHash
+   *          number of bits set in a block for each key
+   */
+  public BlockedBloomFilter(int numBlocks, int nbHash) {
+    this.numBlocks = numBlocks;
+    this.nbHash = nbHash;
+    this.bits = new long[numBlocks * BLOCK_LONGS];
+  }
+
+  /**
+   * @return the number of blocks needed to hold numKeys keys at bitsPerKey bits each
+   */
+  public static int numBlocks(int numKeys, double bitsPerKey) {
+    return (int) Math.ceil(numKeys * bitsPerKey / BLOCK_BITS);
+  }
+
+  public static long hash(Hash hash, byte[] key) {
+    int h1 = hash.hash(key, key.length, 0);
+    int h2 = hash.hash(key, key.length, h1);
+    return ((long) h1 << 32) | (h2 & 0xffffffffl);
+  }
+
+  /**
+   * @return the offset in bytes of the block that holds the bits for the hashed key
+   */
+  public static int blockOffset(long hash, int numBlocks) {
+    return (int) (((hash >>> 32) & Integer.MAX_VALUE) % numBlocks) * BLOCK_BYTES;
+  }
+
+  private static int bit(long hash, int i) {
+    int h = (int) hash;
+    return (h + i * ((h >>> 16) | 1)) & (BLOCK_BITS - 1);
+  }
+
+  public void add(long hash) {
+    int start = blockOffset(hash, numBlocks) / 8;
+    for (int i = 0; i < nbHash; i++) {
+      int b = bit(hash, i);
+      bits[start + (b >>> 6)] |= 1l << (b & 63);
+    }
+  }
+
+  public boolean membershipTest(long hash) {
+    int start = blockOffset(hash, numBlocks) / 8;
+    for (int i = 0; i < nbHash; i++) {
+      int b = bit(hash, i);
+      if ((bits[start + (b >>> 6)] & (1l << (b & 63))) == 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Test a hashed key against a serialized block.
+   *
+   * @param in
+   *          positioned at the start of the block returned by {@link #blockOffset(long, int)}
+   */
+  public static boolean membershipTest(long hash, int nbHash, DataInput in) throws IOException {
+    long[] block = new long[BLOCK_LONGS];
+    for (int i = 0; i < BLOCK_LONGS; i++)
+      block[i] = in.readLong();
+
+    for (int i = 0; i < nbHash; i++) {
+      int b = bit(hash, i);
+      if ((block[b >>> 6] & (1l << (b & 63))) == 0)
+        return false;
+    }
+    return true;
+  }
+
+  public int getNumBlocks() {
+    return numBlocks;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    for (long l : bits)
+      out.writeLong(l);
+  }
+}
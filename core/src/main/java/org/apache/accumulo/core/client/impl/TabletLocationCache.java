@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.client.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.accumulo.core.client.impl.TabletLocator.TabletLocation;
+import org.apache.accumulo.core.data.KeyExtent;
+import org.apache.hadoop.io.Text;
+
+/**
+ * The tablet locations of one table, sorted by end row. Locations are kept in fixed size arrays instead of a tree, which saves a tree entry per tablet for
+ * tables with many tablets. The arrays are split into chunks so that adding or removing a location only shifts the entries of one chunk. The extents are also
+ * indexed by tablet server, so that invalidating a server does not scan every location.
+ *
+ * This class is not thread safe, {@link TabletLocatorImpl} guards it with its read write lock.
+ */
+class TabletLocationCache implements Iterable<TabletLocation> {
+  
+  static final int CHUNK_SIZE = 256;
+  
+  private static class Chunk {
+    // a null end row sorts last, it is the end row of the last tablet
+    final Text[] endRows = new Text[CHUNK_SIZE];
+    final TabletLocation[] locations = new TabletLocation[CHUNK_SIZE];
+    int size;
+    
+    Text lastEndRow() {
+      return endRows[size - 1];
+    }
+  }
+  
+  private final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+  private final HashMap<String,Set<KeyExtent>> extentsByServer = new HashMap<String,Set<KeyExtent>>();
+  private int size = 0;
+  
+  private static int compare(Text endRow, Text row) {
+    if (endRow == null)
+      return row == null ? 0 : 1;
+    if (row == null)
+      return -1;
+    return endRow.compareTo(row);
+  }
+  
+  /**
+   * @return the index of the first chunk whose last end row is at or after row, or the number of chunks if there is none
+   */
+  private int findChunk(Text row, boolean inclusive) {
+    int low = 0;
+    int high = chunks.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(chunks.get(mid).lastEndRow(), row);
+      if (cmp < 0 || (cmp == 0 && !inclusive))
+        low = mid + 1;
+      else
+        high = mid - 1;
+    }
+    return low;
+  }
+  
+  private static int findIndex(Chunk chunk, Text row, boolean inclusive) {
+    int low = 0;
+    int high = chunk.size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(chunk.endRows[mid], row);
+      if (cmp < 0 || (cmp == 0 && !inclusive))
+        low = mid + 1;
+      else
+        high = mid - 1;
+    }
+    return low;
+  }
+  
+  /**
+   * @return the first location whose end row is at or after row, or after row when not inclusive
+   */
+  private TabletLocation find(Text row, boolean inclusive) {
+    int c = findChunk(row, inclusive);
+    if (c == chunks.size())
+      return null;
+    Chunk chunk = chunks.get(c);
+    return chunk.locations[findIndex(chunk, row, inclusive)];
+  }
+  
+  private static boolean contains(TabletLocation tl, Text row) {
+    Text prevEndRow = tl.tablet_extent.getPrevEndRow();
+    return prevEndRow == null || prevEndRow.compareTo(row) < 0;
+  }
+  
+  /**
+   * @return the location of the tablet that contains row, or null if it is not cached
+   */
+  TabletLocation locate(Text row) {
+    TabletLocation tl = find(row, true);
+    if (tl != null && contains(tl, row))
+      return tl;
+    return null;
+  }
+  
+  /**
+   * Find the location of the tablet that follows a cached tablet, without building the row that starts it.
+   *
+   * @return the location of the tablet that contains the row right after endRow, or null if it is not cached
+   */
+  TabletLocation locateAfter(Text endRow) {
+    TabletLocation tl = find(endRow, false);
+    // the next tablet contains endRow + \0 when its prev end row is not after endRow
+    if (tl != null && (tl.tablet_extent.getPrevEndRow() == null || tl.tablet_extent.getPrevEndRow().compareTo(endRow) <= 0))
+      return tl;
+    return null;
+  }
+  
+  /**
+   * Add a location. Overlapping locations must have been removed first.
+   */
+  void put(TabletLocation tl) {
+    Text endRow = tl.tablet_extent.getEndRow();
+    
+    int c = findChunk(endRow, true);
+    if (c == chunks.size()) {
+      if (c == 0 || chunks.get(c - 1).size == CHUNK_SIZE)
+        chunks.add(new Chunk());
+      else
+        c--;
+    }
+    
+    Chunk chunk = chunks.get(c);
+    int index = findIndex(chunk, endRow, true);
+    if (index < chunk.size && compare(chunk.endRows[index], endRow) == 0) {
+      unindex(chunk.locations[index]);
+      chunk.locations[index] = tl;
+      index(tl);
+      return;
+    }
+    
+    if (chunk.size == CHUNK_SIZE) {
+      // split the full chunk in half and insert into the half that covers the end row
+      Chunk right = new Chunk();
+      int half = CHUNK_SIZE / 2;
+      System.arraycopy(chunk.endRows, half, right.endRows, 0, CHUNK_SIZE - half);
+      System.arraycopy(chunk.locations, half, right.locations, 0, CHUNK_SIZE - half);
+      for (int i = half; i < CHUNK_SIZE; i++) {
+        chunk.endRows[i] = null;
+        chunk.locations[i] = null;
+      }
+      right.size = CHUNK_SIZE - half;
+      chunk.size = half;
+      chunks.add(c + 1, right);
+      
+      if (index > half) {
+        chunk = right;
+        index -= half;
+      }
+    }
+    
+    System.arraycopy(chunk.endRows, index, chunk.endRows, index + 1, chunk.size - index);
+    System.arraycopy(chunk.locations, index, chunk.locations, index + 1, chunk.size - index);
+    chunk.endRows[index] = endRow;
+    chunk.locations[index] = tl;
+    chunk.size++;
+    size++;
+    index(tl);
+  }
+  
+  private void index(TabletLocation tl) {
+    Set<KeyExtent> extents = extentsByServer.get(tl.tablet_location);
+    if (extents == null) {
+      extents = new HashSet<KeyExtent>();
+      extentsByServer.put(tl.tablet_location, extents);
+    }
+    extents.add(tl.tablet_extent);
+  }
+  
+  private void unindex(TabletLocation tl) {
+    Set<KeyExtent> extents = extentsByServer.get(tl.tablet_location);
+    if (extents != null && extents.remove(tl.tablet_extent) && extents.isEmpty())
+      extentsByServer.remove(tl.tablet_location);
+  }
+  
+  /**
+   * @return the extents of the cached tablets hosted by server, which must not be modified
+   */
+  Collection<KeyExtent> getExtents(String server) {
+    Set<KeyExtent> extents = extentsByServer.get(server);
+    if (extents == null)
+      return Collections.emptySet();
+    return extents;
+  }
+  
+  /**
+   * Remove the locations of every tablet that overlaps the given extent.
+   */
+  void removeOverlapping(KeyExtent nke) {
+    int c;
+    int index;
+    if (nke.getPrevEndRow() == null) {
+      c = 0;
+      index = 0;
+    } else {
+      // tablets that end at or before the prev end row do not overlap
+      c = findChunk(nke.getPrevEndRow(), false);
+      if (c == chunks.size())
+        return;
+      index = findIndex(chunks.get(c), nke.getPrevEndRow(), false);
+    }
+    
+    while (c < chunks.size()) {
+      Chunk chunk = chunks.get(c);
+      int end = index;
+      while (end < chunk.size && !stopRemoving(nke, chunk.locations[end].tablet_extent))
+        end++;
+      
+      int removed = end - index;
+      if (removed > 0) {
+        for (int i = index; i < end; i++)
+          unindex(chunk.locations[i]);
+        System.arraycopy(chunk.endRows, end, chunk.endRows, index, chunk.size - end);
+        System.arraycopy(chunk.locations, end, chunk.locations, index, chunk.size - end);
+        for (int i = chunk.size - removed; i < chunk.size; i++) {
+          chunk.endRows[i] = null;
+          chunk.locations[i] = null;
+        }
+        chunk.size -= removed;
+        size -= removed;
+      }
+      
+      if (index < chunk.size)
+        return;
+      
+      if (chunk.size == 0)
+        chunks.remove(c);
+      else
+        c++;
+      index = 0;
+    }
+  }
+  
+  private static boolean stopRemoving(KeyExtent nke, KeyExtent ke) {
+    return ke.getPrevEndRow() != null && nke.getEndRow() != null && ke.getPrevEndRow().compareTo(nke.getEndRow()) >= 0;
+  }
+  
+  void clear() {
+    chunks.clear();
+    extentsByServer.clear();
+    size = 0;
+  }
+  
+  int size() {
+    return size;
+  }
+  
+  @Override
+  public Iterator<TabletLocation> iterator() {
+    return new Iterator<TabletLocation>() {
+      int c = 0;
+      int index = 0;
+      
+      @Override
+      public boolean hasNext() {
+        return c < chunks.size() && index < chunks.get(c).size;
+      }
+      
+      @Override
+      public TabletLocation next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        Chunk chunk = chunks.get(c);
+        TabletLocation tl = chunk.locations[index++];
+        if (index == chunk.size) {
+          c++;
+          index = 0;
+        }
+        return tl;
+      }
+      
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
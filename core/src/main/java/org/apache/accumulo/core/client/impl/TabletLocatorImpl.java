@@ -21,13 +21,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -51,37 +48,9 @@ public class TabletLocatorImpl extends TabletLocator {
   
   private static final Logger log = Logger.getLogger(TabletLocatorImpl.class);
   
-  // there seems to be a bug in TreeMap.tailMap related to
-  // putting null in the treemap.. therefore instead of
-  // putting null, put MAX_TEXT
-  static final Text MAX_TEXT = new Text();
-  
-  private static class EndRowComparator implements Comparator<Text> {
-    
-    public int compare(Text o1, Text o2) {
-      
-      int ret;
-      
-      if (o1 == MAX_TEXT)
-        if (o2 == MAX_TEXT)
-          ret = 0;
-        else
-          ret = 1;
-      else if (o2 == MAX_TEXT)
-        ret = -1;
-      else
-        ret = o1.compareTo(o2);
-      
-      return ret;
-    }
-    
-  }
-  
-  static final EndRowComparator endRowComparator = new EndRowComparator();
-  
   protected Text tableId;
   protected TabletLocator parent;
-  protected TreeMap<Text,TabletLocation> metaCache = new TreeMap<Text,TabletLocation>(endRowComparator);
+  protected TabletLocationCache metaCache = new TabletLocationCache();
   protected TabletLocationObtainer locationObtainer;
   protected Text lastTabletRow;
   
@@ -90,6 +59,11 @@ public class TabletLocatorImpl extends TabletLocator {
   private Lock rLock = rwLock.readLock();
   private Lock wLock = rwLock.writeLock();
   
+  private AtomicLong cacheHits = new AtomicLong(0);
+  private AtomicLong cacheMisses = new AtomicLong(0);
+  private AtomicLong lookups = new AtomicLong(0);
+  private AtomicLong lookupNanos = new AtomicLong(0);
+  
   public static interface TabletLocationObtainer {
     /**
      * @return null when unable to read information successfully
@@ -117,6 +91,7 @@ public class TabletLocatorImpl extends TabletLocator {
     if (log.isTraceEnabled())
       opTimer = new OpTimer(log, Level.TRACE).start("Binning " + mutations.size() + " mutations for table " + tableId);
     
+    long t1 = System.nanoTime();
     ArrayList<Mutation> notInCache = new ArrayList<Mutation>();
     Text row = new Text();
     
@@ -130,19 +105,28 @@ public class TabletLocatorImpl extends TabletLocator {
       // For this to be efficient, need to avoid fine grained synchronization and fine grained logging.
       // Therefore methods called by this are not synchronized and should not log.
       
+      // mutations that are sorted or grouped by tablet are binned in one pass, reusing the last tablet until a row falls outside of it
+      TabletLocation last = null;
       for (Mutation mutation : mutations) {
         row.set(mutation.getRow());
-        TabletLocation tl = locateTabletInCache(row);
+        TabletLocation tl;
+        if (last != null && containsRow(last, row))
+          tl = last;
+        else
+          tl = metaCache.locate(row);
         if (tl == null)
           notInCache.add(mutation);
         else
           addMutation(binnedMutations, mutation, tl);
-        
+        last = tl;
       }
     } finally {
       rLock.unlock();
     }
     
+    cacheHits.addAndGet(mutations.size() - notInCache.size());
+    cacheMisses.addAndGet(notInCache.size());
+    
     if (notInCache.size() > 0) {
       Collections.sort(notInCache, new Comparator<Mutation>() {
         public int compare(Mutation o1, Mutation o2) {
@@ -177,10 +161,19 @@ public class TabletLocatorImpl extends TabletLocator {
       }
     }
     
+    lookups.incrementAndGet();
+    lookupNanos.addAndGet(System.nanoTime() - t1);
+    
     if (opTimer != null)
       opTimer.stop("Binned " + mutations.size() + " mutations for table " + tableId + " to " + binnedMutations.size() + " tservers in %DURATION%");
   }
   
+  private static boolean containsRow(TabletLocation tl, Text row) {
+    Text prevEndRow = tl.tablet_extent.getPrevEndRow();
+    Text endRow = tl.tablet_extent.getEndRow();
+    return (prevEndRow == null || prevEndRow.compareTo(row) < 0) && (endRow == null || endRow.compareTo(row) >= 0);
+  }
+  
   private void addMutation(Map<String,TabletServerMutations> binnedMutations, Mutation mutation, TabletLocation tl) {
     TabletServerMutations tsm = binnedMutations.get(tl.tablet_location);
     
@@ -227,9 +220,7 @@ public class TabletLocatorImpl extends TabletLocator {
       
       while (tl.tablet_extent.getEndRow() != null && !range.afterEndKey(new Key(tl.tablet_extent.getEndRow()).followingKey(PartialKey.ROW))) {
         if (useCache) {
-          Text row = new Text(tl.tablet_extent.getEndRow());
-          row.append(new byte[] {0}, 0, 1);
-          tl = locateTabletInCache(row);
+          tl = locateTabletInCache(tl);
         } else {
           tl = _locateTablet(tl.tablet_extent.getEndRow(), true, false, false);
         }
@@ -265,6 +256,7 @@ public class TabletLocatorImpl extends TabletLocator {
     if (log.isTraceEnabled())
       opTimer = new OpTimer(log, Level.TRACE).start("Binning " + ranges.size() + " ranges for table " + tableId);
     
+    long t1 = System.nanoTime();
     List<Range> failures;
     rLock.lock();
     try {
@@ -293,6 +285,9 @@ public class TabletLocatorImpl extends TabletLocator {
       }
     }
     
+    lookups.incrementAndGet();
+    lookupNanos.addAndGet(System.nanoTime() - t1);
+    
     if (opTimer != null)
       opTimer.stop("Binned " + ranges.size() + " ranges for table " + tableId + " to " + binnedRanges.size() + " tservers in %DURATION%");
     
@@ -329,11 +324,9 @@ public class TabletLocatorImpl extends TabletLocator {
     
     wLock.lock();
     try {
-      for (TabletLocation cacheEntry : metaCache.values())
-        if (cacheEntry.tablet_location.equals(server)) {
-          badExtents.add(cacheEntry.tablet_extent);
-          invalidatedCount++;
-        }
+      Collection<KeyExtent> extents = metaCache.getExtents(server);
+      badExtents.addAll(extents);
+      invalidatedCount = extents.size();
     } finally {
       wLock.unlock();
     }
@@ -365,6 +358,7 @@ public class TabletLocatorImpl extends TabletLocator {
       opTimer = new OpTimer(log, Level.TRACE).start("Locating tablet  table=" + tableId + " row=" + TextUtil.truncate(row) + "  skipRow=" + skipRow + " retry="
           + retry);
     
+    long t1 = System.nanoTime();
     while (true) {
       
       TabletLocation tl;
@@ -378,6 +372,9 @@ public class TabletLocatorImpl extends TabletLocator {
         continue;
       }
       
+      lookups.incrementAndGet();
+      lookupNanos.addAndGet(System.nanoTime() - t1);
+      
       if (opTimer != null)
         opTimer.stop("Located tablet " + (tl == null ? null : tl.tablet_extent) + " at " + (tl == null ? null : tl.tablet_location) + " in %DURATION%");
       
@@ -454,52 +451,15 @@ public class TabletLocatorImpl extends TabletLocator {
     }
     
     // clear out any overlapping extents in cache
-    removeOverlapping(metaCache, tabletLocation.tablet_extent);
+    metaCache.removeOverlapping(tabletLocation.tablet_extent);
     
     // add it to cache
-    Text er = tabletLocation.tablet_extent.getEndRow();
-    if (er == null)
-      er = MAX_TEXT;
-    metaCache.put(er, tabletLocation);
+    metaCache.put(tabletLocation);
     
     if (badExtents.size() > 0)
       removeOverlapping(badExtents, tabletLocation.tablet_extent);
   }
   
-  static void removeOverlapping(TreeMap<Text,TabletLocation> metaCache, KeyExtent nke) {
-    Iterator<Entry<Text,TabletLocation>> iter = null;
-    
-    if (nke.getPrevEndRow() == null) {
-      iter = metaCache.entrySet().iterator();
-    } else {
-      Text row = rowAfterPrevRow(nke);
-      SortedMap<Text,TabletLocation> tailMap = metaCache.tailMap(row);
-      iter = tailMap.entrySet().iterator();
-    }
-    
-    while (iter.hasNext()) {
-      Entry<Text,TabletLocation> entry = iter.next();
-      
-      KeyExtent ke = entry.getValue().tablet_extent;
-      
-      if (stopRemoving(nke, ke)) {
-        break;
-      }
-      
-      iter.remove();
-    }
-  }
-  
-  private static boolean stopRemoving(KeyExtent nke, KeyExtent ke) {
-    return ke.getPrevEndRow() != null && nke.getEndRow() != null && ke.getPrevEndRow().compareTo(nke.getEndRow()) >= 0;
-  }
-  
-  private static Text rowAfterPrevRow(KeyExtent nke) {
-    Text row = new Text(nke.getPrevEndRow());
-    row.append(new byte[] {0}, 0, 1);
-    return row;
-  }
-  
   static void removeOverlapping(TreeSet<KeyExtent> extents, KeyExtent nke) {
     for (KeyExtent overlapping : KeyExtent.findOverlapping(nke, extents)) {
       extents.remove(overlapping);
@@ -507,15 +467,18 @@ public class TabletLocatorImpl extends TabletLocator {
   }
   
   private TabletLocation locateTabletInCache(Text row) {
-    
-    Entry<Text,TabletLocation> entry = metaCache.ceilingEntry(row);
-    
-    if (entry != null) {
-      KeyExtent ke = entry.getValue().tablet_extent;
-      if (ke.getPrevEndRow() == null || ke.getPrevEndRow().compareTo(row) < 0)
-        return entry.getValue();
-    }
-    return null;
+    TabletLocation tl = metaCache.locate(row);
+    (tl == null ? cacheMisses : cacheHits).incrementAndGet();
+    return tl;
+  }
+  
+  /**
+   * @return the cached location of the tablet that follows the given tablet
+   */
+  private TabletLocation locateTabletInCache(TabletLocation tl) {
+    TabletLocation next = metaCache.locateAfter(tl.tablet_extent.getEndRow());
+    (next == null ? cacheMisses : cacheHits).incrementAndGet();
+    return next;
   }
   
   protected TabletLocation _locateTablet(Text row, boolean skipRow, boolean retry, boolean lock) throws AccumuloException, AccumuloSecurityException,
@@ -532,7 +495,10 @@ public class TabletLocatorImpl extends TabletLocator {
       rLock.lock();
     try {
       processInvalidated();
-      tl = locateTabletInCache(row);
+      tl = metaCache.locate(row);
+      // callers that bin under their own lock counted this row when they first looked for it in the cache
+      if (lock)
+        (tl == null ? cacheMisses : cacheHits).incrementAndGet();
     } finally {
       if (lock)
         rLock.unlock();
@@ -545,7 +511,7 @@ public class TabletLocatorImpl extends TabletLocator {
         // not in cache, so obtain info
         lookupTabletLocation(row, retry);
         
-        tl = locateTabletInCache(row);
+        tl = metaCache.locate(row);
       } finally {
         if (lock)
           wLock.unlock();
@@ -569,18 +535,18 @@ public class TabletLocatorImpl extends TabletLocator {
           return;
       }
       
-      List<Range> lookups = new ArrayList<Range>(badExtents.size());
+      List<Range> metadataRanges = new ArrayList<Range>(badExtents.size());
       
       for (KeyExtent be : badExtents) {
-        lookups.add(be.toMetadataRange());
-        removeOverlapping(metaCache, be);
+        metadataRanges.add(be.toMetadataRange());
+        metaCache.removeOverlapping(be);
       }
       
-      lookups = Range.mergeOverlapping(lookups);
+      metadataRanges = Range.mergeOverlapping(metadataRanges);
       
       Map<String,Map<KeyExtent,List<Range>>> binnedRanges = new HashMap<String,Map<KeyExtent,List<Range>>>();
       
-      parent.binRanges(lookups, binnedRanges);
+      parent.binRanges(metadataRanges, binnedRanges);
       
       // randomize server order
       ArrayList<String> tabletServers = new ArrayList<String>(binnedRanges.keySet());
@@ -617,4 +583,32 @@ public class TabletLocatorImpl extends TabletLocator {
     tabletsRanges.add(range);
   }
   
+  /**
+   * @return the number of rows and tablets that were found in the location cache
+   */
+  public long getCacheHits() {
+    return cacheHits.get();
+  }
+  
+  /**
+   * @return the number of rows and tablets that were not found in the location cache
+   */
+  public long getCacheMisses() {
+    return cacheMisses.get();
+  }
+  
+  /**
+   * @return the number of calls made to bin mutations, bin ranges or locate a tablet
+   */
+  public long getLookups() {
+    return lookups.get();
+  }
+  
+  /**
+   * @return the total time in nanoseconds spent in the calls counted by {@link #getLookups()}
+   */
+  public long getLookupTime() {
+    return lookupNanos.get();
+  }
+  
 }
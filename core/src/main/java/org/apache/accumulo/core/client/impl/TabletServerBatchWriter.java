@@ -149,6 +149,8 @@ public class TabletServerBatchWriter {
   private Throwable lastUnknownError = null;
   
   private Map<String,TimeoutTracker> timeoutTrackers;
+  
+  private Map<String,ServerSendStats> serverSendStats;
 
   private static class TimeoutTracker {
     
@@ -187,6 +189,41 @@ public class TabletServerBatchWriter {
       return timeOut;
     }
   }
+  
+  /**
+   * Tracks how fast a tablet server has been accepting mutations, so that the amount sent to it in one session can be sized to take about the same time on
+   * fast and slow servers.
+   */
+  private static class ServerSendStats {
+    // weight given to the most recent send in the moving average rate
+    private static final double ALPHA = 0.25;
+    
+    private long sends = 0;
+    private long bytesSent = 0;
+    private long sendTime = 0;
+    private double rate = -1;
+    
+    synchronized void sent(long bytes, long time) {
+      sends++;
+      bytesSent += bytes;
+      sendTime += time;
+      double r = bytes / (double) Math.max(1, time);
+      rate = rate < 0 ? r : ALPHA * r + (1 - ALPHA) * rate;
+    }
+    
+    /**
+     * @return the moving average send rate in bytes per millisecond, or -1 if nothing has been sent
+     */
+    synchronized double getRate() {
+      return rate;
+    }
+    
+    synchronized long getBatchSize(long targetTime, long minSize) {
+      if (rate < 0)
+        return Long.MAX_VALUE;
+      return Math.max(minSize, (long) (rate * targetTime));
+    }
+  }
 
   public TabletServerBatchWriter(Instance instance, AuthInfo credentials, BatchWriterConfig config) {
     this.instance = instance;
@@ -209,6 +246,7 @@ public class TabletServerBatchWriter {
     failedMutations = new FailedMutations();
     
     timeoutTrackers = Collections.synchronizedMap(new HashMap<String,TabletServerBatchWriter.TimeoutTracker>());
+    serverSendStats = Collections.synchronizedMap(new HashMap<String,ServerSendStats>());
 
     if (this.maxLatency != Long.MAX_VALUE) {
       jtimer.schedule(new TimerTask() {
@@ -400,6 +438,7 @@ public class TabletServerBatchWriter {
       log.trace(String.format("tservers per batch   : %,8.2f avg  %,6d min %,6d max", (tabletServersBatchSum / (double) numBatches), minTabletServersBatch,
           maxTabletServersBatch));
       log.trace(String.format("tablets per batch    : %,8.2f avg  %,6d min %,6d max", (tabletBatchSum / (double) numBatches), minTabletBatch, maxTabletBatch));
+      logServerSendStats();
       log.trace("");
       log.trace("SYSTEM STATISTICS");
       log.trace(String.format("JVM GC Time          : %,10.2f secs", ((finalGCTimes - initialGCTimes) / 1000.0)));
@@ -410,11 +449,54 @@ public class TabletServerBatchWriter {
     }
   }
   
+  private void logServerSendStats() {
+    double minRate = Double.MAX_VALUE, maxRate = 0;
+    String slowest = null;
+    long sends = 0, bytes = 0, time = 0;
+    synchronized (serverSendStats) {
+      for (Entry<String,ServerSendStats> entry : serverSendStats.entrySet()) {
+        ServerSendStats stats = entry.getValue();
+        synchronized (stats) {
+          sends += stats.sends;
+          bytes += stats.bytesSent;
+          time += stats.sendTime;
+          if (stats.rate >= 0 && stats.rate < minRate) {
+            minRate = stats.rate;
+            slowest = entry.getKey();
+          }
+          maxRate = Math.max(maxRate, stats.rate);
+        }
+      }
+    }
+    
+    if (slowest == null)
+      return;
+    
+    log.trace(String.format("tservers sent to     : %,10d servers %,d sessions", serverSendStats.size(), sends));
+    log.trace(String.format("tserver send rate    : %,10.2f avg %,10.2f min %,10.2f max KB/sec", bytes / (double) Math.max(1, time), minRate, maxRate));
+    log.trace(String.format("slowest tserver      : %s", slowest));
+  }
+  
   private void updateSendStats(long count, long time) {
     totalSent.addAndGet(count);
     totalSendTime.addAndGet(time);
   }
   
+  private void updateServerSendStats(String server, long bytes, long time) {
+    getServerSendStats(server).sent(bytes, time);
+  }
+  
+  private ServerSendStats getServerSendStats(String server) {
+    synchronized (serverSendStats) {
+      ServerSendStats stats = serverSendStats.get(server);
+      if (stats == null) {
+        stats = new ServerSendStats();
+        serverSendStats.put(server, stats);
+      }
+      return stats;
+    }
+  }
+  
   public void updateBinningStats(int count, long time, Map<String,TabletServerMutations> binnedMutations) {
     totalBinTime.addAndGet(time);
     totalBinned.addAndGet(count);
@@ -589,6 +671,8 @@ public class TabletServerBatchWriter {
   private class MutationWriter {
     
     private static final int MUTATION_BATCH_SIZE = 1 << 17;
+    // how long one session with a tablet server should take, based on the rate the server has been accepting mutations
+    private static final long TARGET_SEND_TIME = 1000;
     private ExecutorService sendThreadPool;
     private Map<String,TabletServerMutations> serversMutations;
     private Set<String> queued;
@@ -714,10 +798,64 @@ public class TabletServerBatchWriter {
     
     private synchronized TabletServerMutations getMutationsToSend(String server) {
       TabletServerMutations tsmuts = serversMutations.remove(server);
-      if (tsmuts == null)
+      if (tsmuts == null) {
         queued.remove(server);
+        return null;
+      }
+      
+      TabletServerMutations batch = takeBatch(tsmuts, getServerSendStats(server).getBatchSize(TARGET_SEND_TIME, MUTATION_BATCH_SIZE));
+      if (batch != tsmuts)
+        serversMutations.put(server, tsmuts);
+      
+      return batch;
+    }
+    
+    /**
+     * Take about maxBytes of mutations out of tsmuts.
+     * 
+     * @return tsmuts if all of it is under maxBytes
+     */
+    private TabletServerMutations takeBatch(TabletServerMutations tsmuts, long maxBytes) {
+      long size = 0;
+      for (List<Mutation> list : tsmuts.getMutations().values())
+        for (Mutation m : list)
+          size += m.numBytes();
+      
+      if (size <= maxBytes)
+        return tsmuts;
+      
+      TabletServerMutations batch = new TabletServerMutations();
+      size = 0;
+      Iterator<Entry<KeyExtent,List<Mutation>>> iter = tsmuts.getMutations().entrySet().iterator();
+      while (iter.hasNext() && size < maxBytes) {
+        Entry<KeyExtent,List<Mutation>> entry = iter.next();
+        List<Mutation> list = entry.getValue();
+        int i = 0;
+        while (i < list.size() && size < maxBytes) {
+          batch.addMutation(entry.getKey(), list.get(i));
+          size += list.get(i).numBytes();
+          i++;
+        }
+        
+        if (i == list.size())
+          iter.remove();
+        else
+          // failure handling expects an ArrayList
+          entry.setValue(new ArrayList<Mutation>(list.subList(i, list.size())));
+      }
       
-      return tsmuts;
+      return batch;
+    }
+    
+    /**
+     * Called after a batch was sent to a server. If more is waiting for the server, it goes to the back of the queue so a slow server does not keep a send
+     * thread from the other servers.
+     */
+    private synchronized void requeue(String server) {
+      if (serversMutations.containsKey(server) && !sendThreadPool.isShutdown())
+        sendThreadPool.submit(Trace.wrap(new SendTask(server)));
+      else
+        queued.remove(server);
     }
     
     class SendTask implements Runnable {
@@ -733,9 +871,9 @@ public class TabletServerBatchWriter {
         try {
           TabletServerMutations tsmuts = getMutationsToSend(location);
           
-          while (tsmuts != null) {
+          if (tsmuts != null) {
             send(tsmuts);
-            tsmuts = getMutationsToSend(location);
+            requeue(location);
           }
           
           return;
@@ -777,9 +915,11 @@ public class TabletServerBatchWriter {
                   + String.format("%.2f secs (%,.2f mutations/sec) with %,d failures", (st2 - st1) / 1000.0, count / ((st2 - st1) / 1000.0), failures.size()));
             
             long successBytes = 0;
+            long sentBytes = 0;
             for (Entry<KeyExtent,List<Mutation>> entry : mutationBatch.entrySet()) {
               for (Mutation mutation : entry.getValue()) {
                 successBytes += mutation.estimatedMemoryUsed();
+                sentBytes += mutation.numBytes();
               }
             }
             
@@ -789,6 +929,7 @@ public class TabletServerBatchWriter {
             }
             
             updateSendStats(count, st2 - st1);
+            updateServerSendStats(location, sentBytes, st2 - st1);
             decrementMemUsed(successBytes);
             
           } finally {
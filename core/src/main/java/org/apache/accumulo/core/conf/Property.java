@@ -68,6 +68,20 @@ public enum Property {
   MASTER_THREADCHECK("master.server.threadcheck.time", "1s", PropertyType.TIMEDURATION, "The time between adjustments of the server thread pool."),
   MASTER_RECOVERY_DELAY("master.recovery.delay", "10s", PropertyType.TIMEDURATION,
       "When a tablet server's lock is deleted, it takes time for it to completely quit. This delay gives it time before log recoveries begin."),
+  MASTER_STATUS_THREAD_POOL_SIZE("master.status.threadpool.size", "20", PropertyType.COUNT,
+      "The number of threads used to ask tablet servers for their status at the same time."),
+  MASTER_STATUS_MAX_TIME("master.status.time.max", "10s", PropertyType.TIMEDURATION,
+      "The longest the master waits for tablet servers to report their status. Servers that have not answered by then keep their last status, "
+          + "and balancing waits until they answer."),
+  MASTER_BALANCER_COST_WEIGHTS("master.balancer.cost.weights", "tablets:1,ingest:1,query:1,hold:1,compactions:0.5", PropertyType.STRING,
+      "How much the CostBasedLoadBalancer weighs each part of a tablet server's load, as a comma separated list of name:weight pairs.  The parts are "
+          + "online tablets, ingest and query byte rates, memory hold time, and queued major compactions, each measured against the cluster average."),
+  MASTER_BALANCER_COST_THRESHOLD("master.balancer.cost.threshold", "20%", PropertyType.FRACTION,
+      "The CostBasedLoadBalancer only moves tablets while the most and least loaded tablet servers differ by more than this fraction of the average load."),
+  MASTER_BALANCER_MIGRATIONS_MAX("master.balancer.migrations.max", "10", PropertyType.COUNT,
+      "The most tablets the CostBasedLoadBalancer moves in one balancing pass."),
+  MASTER_BALANCER_DRYRUN("master.balancer.dryrun", "false", PropertyType.BOOLEAN,
+      "When true, the CostBasedLoadBalancer logs the migrations it would make instead of making them."),
   
   // properties that are specific to tablet server behavior
   TSERV_PREFIX("tserver.", null, PropertyType.PREFIX, "Properties in this category affect the behavior of the tablet servers"),
@@ -75,6 +89,14 @@ public enum Property {
   TSERV_DEFAULT_BLOCKSIZE("tserver.default.blocksize", "1M", PropertyType.MEMORY, "Specifies a default blocksize for the tserver caches"),
   TSERV_DATACACHE_SIZE("tserver.cache.data.size", "100M", PropertyType.MEMORY, "Specifies the size of the cache for file data blocks."),
   TSERV_INDEXCACHE_SIZE("tserver.cache.index.size", "512M", PropertyType.MEMORY, "Specifies the size of the cache for file indices."),
+  TSERV_DATACACHE_TYPE("tserver.cache.data.type", "lru", PropertyType.STRING,
+      "The kind of cache used for file data blocks.  Either lru, which keeps blocks on the Java heap, offheap, which keeps blocks in direct memory"
+          + " outside of the heap, or tinylfu, which keeps blocks on the heap but only admits blocks that are used often enough, so that large scans"
+          + " do not flush it.  The JVM's maximum direct memory must be large enough to hold an off-heap cache."),
+  TSERV_INDEXCACHE_TYPE("tserver.cache.index.type", "lru", PropertyType.STRING, "The kind of cache used for file indices.  See "
+      + TSERV_DATACACHE_TYPE.getKey()),
+  TSERV_VISIBILITYCACHE_SIZE("tserver.cache.visibility.size", "100000", PropertyType.COUNT,
+      "The number of compiled column visibility expressions to keep.  The cache is shared by all scans on the tablet server."),
   TSERV_PORTSEARCH("tserver.port.search", "false", PropertyType.BOOLEAN, "if the ports above are in use, search higher ports until one is available"),
   TSERV_CLIENTPORT("tserver.port.client", "9997", PropertyType.PORT, "The port used for handling client connections on the tablet servers"),
   TSERV_MUTATION_QUEUE_MAX("tserver.mutation.queue.max", "256K", PropertyType.MEMORY,
@@ -95,6 +117,9 @@ public enum Property {
       + "This setting determines how much time an unused map file should be kept open until it is closed."),
   TSERV_NATIVEMAP_ENABLED("tserver.memory.maps.native.enabled", "true", PropertyType.BOOLEAN,
       "An in-memory data store for accumulo implemented in c++ that increases the amount of data " + "accumulo can hold in memory and avoids Java GC pauses."),
+  TSERV_SLABMAP_ENABLED("tserver.memory.maps.slab.enabled", "false", PropertyType.BOOLEAN,
+      "An in-memory data store implemented in Java that packs keys and values into large byte arrays, which holds more data than the default Java map and"
+          + " creates far fewer objects for the garbage collector.  Used when native maps are disabled or their library can not be loaded."),
   TSERV_MAXMEM(
       "tserver.memory.maps.max",
       "1G",
@@ -106,6 +131,22 @@ public enum Property {
   TSERV_READ_AHEAD_MAXCONCURRENT("tserver.readahead.concurrent.max", "16", PropertyType.COUNT,
       "The maximum number of concurrent read ahead that will execute.  This effectively"
           + " limits the number of long running scans that can run concurrently per tserver."),
+  TSERV_FILE_PREFETCH_THREADS("tserver.file.prefetch.threads", "8", PropertyType.COUNT,
+      "The number of threads used to read file data blocks ahead of scans and compactions that read files sequentially. Zero disables reading ahead."),
+  TSERV_FILE_PREFETCH_BLOCKS("tserver.file.prefetch.blocks.max", "4", PropertyType.COUNT,
+      "The most data blocks read ahead of one sequential file reader. Readers start one block ahead and read further ahead while they keep reading in order."),
+  TSERV_FILE_PREFETCH_LOOKUP_BLOCKS("tserver.file.prefetch.lookup.blocks.max", "64", PropertyType.COUNT,
+      "The most data blocks of one file locality group read ahead of a multi range lookup. Runs of adjacent blocks are read in order by one prefetch thread."),
+  TSERV_FILE_PREFETCH_MEMORY("tserver.file.prefetch.memory.max", "128M", PropertyType.MEMORY,
+      "The most memory used by file data blocks that were read ahead of scans and lookups and are waiting to be read. Blocks are not read ahead past this."),
+  TSERV_FILE_METADATA_CACHE_SIZE("tserver.file.metadata.cache.size", "32M", PropertyType.MEMORY,
+      "The memory used to keep the parsed metadata of files, locality groups and root index, after they are opened, so that opening them again after their "
+          + "readers were closed does not read the metadata. This is separate from tserver.scan.files.open.max and from the block caches. Zero disables "
+          + "the cache."),
+  TSERV_SCAN_READ_AHEAD_BATCHES("tserver.scan.readahead.batches", "2", PropertyType.COUNT,
+      "The number of batches a long running scan reads ahead of the client, so that the tablet server keeps reading while earlier batches are sent and"
+          + " processed.  Each batch can use up to table.scan.max.memory of memory.  Setting this to 1 only reads the next batch while the"
+          + " current one is sent."),
   TSERV_METADATA_READ_AHEAD_MAXCONCURRENT("tserver.metadata.readahead.concurrent.max", "8", PropertyType.COUNT,
       "The maximum number of concurrent metadata read ahead that will execute."),
   TSERV_MIGRATE_MAXCONCURRENT("tserver.migrations.concurrent.max", "1", PropertyType.COUNT,
@@ -150,8 +191,17 @@ public enum Property {
       "The size of the HDFS blocks used to write to the Write-Ahead log.  If zero, it will be 110% of tserver.walog.max.size (that is, try to use just one block)"),
   TSERV_WAL_REPLICATION("tserver.wal.replication", "0", PropertyType.COUNT,
       "The replication to use when writing the Write-Ahead log to HDFS. If zero, it will use the HDFS default replication setting."),
+  TSERV_WAL_SYNC_GROUP_WAIT("tserver.wal.sync.group.wait", "0ms", PropertyType.TIMEDURATION,
+      "The maximum time the write-ahead log sync thread will wait to gather more writes before syncing them together.  Waiting longer lets more writers"
+          + " share a single sync, which increases throughput at the cost of latency.  If zero, every batch of queued writes is synced immediately."),
+  TSERV_WAL_SYNC_GROUP_SIZE("tserver.wal.sync.group.size", "1M", PropertyType.MEMORY,
+      "When gathering writes to sync together, the write-ahead log sync thread stops waiting once this many bytes of mutations are pending.  See "
+          + "tserver.wal.sync.group.wait"),
   TSERV_RECOVERY_MAX_CONCURRENT("tserver.recovery.concurrent.max", "2", PropertyType.COUNT, "The maximum number of threads to use to sort logs during recovery"),
   TSERV_SORT_BUFFER_SIZE("tserver.sort.buffer.size", "200M", PropertyType.MEMORY, "The amount of memory to use when sorting logs during recovery."),
+  TSERV_SORT_THREADS("tserver.sort.threads", "2", PropertyType.COUNT,
+      "The number of threads used to sort and write out each log during recovery, while another thread reads the log.  The sort buffer memory is"
+          + " divided between the reading thread and these threads."),
   TSERV_ARCHIVE_WALOGS("tserver.archive.walogs", "false", PropertyType.BOOLEAN, "Keep copies of the WALOGs for debugging purposes"),
   TSERV_WORKQ_THREADS("tserver.workq.threads", "2", PropertyType.COUNT,
       "The number of threads for the distributed workq.  These threads are used for copying failed bulk files."),
@@ -168,6 +218,11 @@ public enum Property {
       + "no longer in use are removed from the filesystem."),
   GC_PORT("gc.port.client", "50091", PropertyType.PORT, "The listening port for the garbage collector's monitor service"),
   GC_DELETE_THREADS("gc.threads.delete", "16", PropertyType.COUNT, "The number of threads used to delete files"),
+  GC_CONFIRM_THREADS("gc.threads.confirm", "4", PropertyType.COUNT,
+      "The number of threads used to scan the !METADATA table for files that are still in use.  Each thread scans the entries of different tables."),
+  GC_CANDIDATE_BATCH_SIZE("gc.candidates.batch.size", "1000000", PropertyType.COUNT,
+      "The most file deletion candidates the garbage collector holds in memory.  When there are more, the next cycle starts without waiting for "
+          + "gc.cycle.delay and continues where this one stopped."),
   
   // properties that are specific to the monitor server behavior
   MONITOR_PREFIX("monitor.", null, PropertyType.PREFIX, "Properties in this category affect the behavior of the monitor web server."),
@@ -206,6 +261,13 @@ public enum Property {
           + "of its map file compacted into one.  There is no guarantee an idle tablet will be compacted. "
           + "Compactions of idle tablets are only started when regular compactions are not running. Idle "
           + "compactions only take place for tablets that have one or more map files."),
+  TABLE_COMPACTION_PLANNER("table.compaction.planner", "org.apache.accumulo.server.tabletserver.compaction.DefaultCompactionPlanner", PropertyType.CLASSNAME,
+      "The class that chooses which files a major compaction merges.  Built in planners are DefaultCompactionPlanner, SizeTieredCompactionPlanner, "
+          + "LeveledCompactionPlanner and TimeWindowCompactionPlanner in the org.apache.accumulo.server.tabletserver.compaction package.  The tiered planners "
+          + "write less data, the leveled planner keeps fewer files.  The estimated write amplification of the planner is logged when a compaction starts."),
+  TABLE_COMPACTION_PLANNER_OPTS("table.compaction.planner.opts.", null, PropertyType.PREFIX,
+      "Properties in this category are passed to the compaction planner.  For example table.compaction.planner.opts.fanout=8 sets the fanout of the "
+          + "leveled planner."),
   TABLE_SPLIT_THRESHOLD("table.split.threshold", "1G", PropertyType.MEMORY, "When combined size of files exceeds this amount a tablet is split."),
   TABLE_MINC_LOGS_MAX("table.compaction.minor.logs.threshold", "3", PropertyType.COUNT,
       "When there are more than this many write-ahead logs against a tablet, it will be minor compacted.  See comment for property tserver.memory.maps.max"),
@@ -218,12 +280,17 @@ public enum Property {
   TABLE_FILE_TYPE("table.file.type", RFile.EXTENSION, PropertyType.STRING, "Change the type of file a table writes"),
   TABLE_LOAD_BALANCER("table.balancer", "org.apache.accumulo.server.master.balancer.DefaultLoadBalancer", PropertyType.STRING,
       "This property can be set to allow the LoadBalanceByTable load balancer to change the called Load Balancer for this table"),
-  TABLE_FILE_COMPRESSION_TYPE("table.file.compress.type", "gz", PropertyType.STRING, "One of gz,lzo,none"),
+  TABLE_FILE_COMPRESSION_TYPE("table.file.compress.type", "gz", PropertyType.STRING,
+      "One of gz,lzo,snappy,lz4,zstd,none.  Except for gz and none, the codec must be available in the Hadoop installation."),
   TABLE_FILE_COMPRESSED_BLOCK_SIZE("table.file.compress.blocksize", "100K", PropertyType.MEMORY,
       "Overrides the hadoop io.seqfile.compress.blocksize setting so that map files have better query performance. " + "The maximum value for this is "
           + Integer.MAX_VALUE),
   TABLE_FILE_COMPRESSED_BLOCK_SIZE_INDEX("table.file.compress.blocksize.index", "128K", PropertyType.MEMORY,
       "Determines how large index blocks can be in files that support multilevel indexes. The maximum value for this is " + Integer.MAX_VALUE),
+  TABLE_FILE_RESTART_INTERVAL("table.file.restart.interval", "32", PropertyType.COUNT,
+      "Number of entries between restart points in an RFile data block.  A restart point stores a complete key and its offset is recorded in a table at"
+          + " the end of the block, so that a seek within a cached block can binary search to it.  Set this to zero to write files in the format used by"
+          + " older versions."),
   TABLE_FILE_BLOCK_SIZE("table.file.blocksize", "0B", PropertyType.MEMORY,
       "Overrides the hadoop dfs.block.size setting so that map files have better query performance. " + "The maximum value for this is " + Integer.MAX_VALUE),
   TABLE_FILE_REPLICATION("table.file.replication", "0", PropertyType.COUNT, "Determines how many replicas to keep of a tables map files in HDFS. "
@@ -234,11 +301,20 @@ public enum Property {
       PropertyType.COUNT,
       "Determines the max # of files each tablet in a table can have. When adjusting this property you may want to consider adjusting table.compaction.major.ratio also.  Setting this property to 0 will make it default to tserver.scan.files.open.max-1, this will prevent a tablet from having more files than can be opened.  Setting this property low may throttle ingest and increase query performance."),
   TABLE_WALOG_ENABLED("table.walog.enabled", "true", PropertyType.BOOLEAN, "Use the write-ahead log to prevent the loss of data."),
+  TABLE_DURABILITY("table.durability", "sync", PropertyType.STRING,
+      "The durability used when writing this table's mutations to the write-ahead log.  One of sync, flush, or none.  With sync a write is not"
+          + " acknowledged until the log has been synced, with flush the mutations are flushed to the log stream and will be synced with a later write,"
+          + " and with none mutations are not written to the log at all.  Setting " + TABLE_WALOG_ENABLED.getKey() + " to false is equivalent to none."),
   TABLE_BLOOM_ENABLED("table.bloom.enabled", "false", PropertyType.BOOLEAN, "Use bloom filters on this table."),
   TABLE_BLOOM_LOAD_THRESHOLD("table.bloom.load.threshold", "1", PropertyType.COUNT,
       "This number of seeks that would actually use a bloom filter must occur before a "
           + "map files bloom filter is loaded. Set this to zero to initiate loading of bloom " + "filters when a map file opened."),
   TABLE_BLOOM_SIZE("table.bloom.size", "1048576", PropertyType.COUNT, "Bloom filter size, as number of keys."),
+  TABLE_BLOOM_PARTITION_SIZE("table.bloom.partition.size", "64K", PropertyType.MEMORY,
+      "Target size of each partition of a file's bloom filter.  Partitions are stored as separate blocks in the file and are read through the index cache"
+          + " only when a lookup falls in their range of rows.  Set this to zero to write a single bloom filter sized by table.bloom.size, the format used"
+          + " by older versions.  All partitions of a file are held in memory until the file is closed, so the memory used while writing a file grows"
+          + " with the number of keys in it."),
   TABLE_BLOOM_ERRORRATE("table.bloom.error.rate", "0.5%", PropertyType.FRACTION, "Bloom filter error rate."),
   TABLE_BLOOM_KEY_FUNCTOR(
       "table.bloom.key.functor",
@@ -331,7 +407,8 @@ public enum Property {
     }
     
     return validTableProperties.contains(key) || key.startsWith(Property.TABLE_CONSTRAINT_PREFIX.getKey())
-        || key.startsWith(Property.TABLE_ITERATOR_PREFIX.getKey()) || key.startsWith(Property.TABLE_LOCALITY_GROUP_PREFIX.getKey());
+        || key.startsWith(Property.TABLE_ITERATOR_PREFIX.getKey()) || key.startsWith(Property.TABLE_LOCALITY_GROUP_PREFIX.getKey())
+        || key.startsWith(Property.TABLE_COMPACTION_PLANNER_OPTS.getKey());
   }
   
   private static final EnumSet<Property> fixedProperties = EnumSet.of(Property.TSERV_CLIENTPORT, Property.TSERV_NATIVEMAP_ENABLED,
@@ -367,6 +444,6 @@ public enum Property {
   public static boolean isClassProperty(String key) {
     return (key.startsWith(Property.TABLE_CONSTRAINT_PREFIX.getKey()) && key.substring(Property.TABLE_CONSTRAINT_PREFIX.getKey().length()).split("\\.").length == 1)
         || (key.startsWith(Property.TABLE_ITERATOR_PREFIX.getKey()) && key.substring(Property.TABLE_ITERATOR_PREFIX.getKey().length()).split("\\.").length == 2)
-        || key.equals(Property.TABLE_LOAD_BALANCER.getKey());
+        || key.equals(Property.TABLE_LOAD_BALANCER.getKey()) || key.equals(Property.TABLE_COMPACTION_PLANNER.getKey());
   }
 }
@@ -212,10 +212,11 @@ public class Mutation implements Writable {
   public Mutation() {}
   
   public Mutation(TMutation tmutation) {
-    this.row = ByteBufferUtil.toBytes(tmutation.row);
-    this.data = ByteBufferUtil.toBytes(tmutation.data);
+    // a buffer that wraps a whole array belongs to this message and is kept as is, only slices of a transport buffer are copied
+    this.row = ByteBufferUtil.getBytes(tmutation.row);
+    this.data = ByteBufferUtil.getBytes(tmutation.data);
     this.entries = tmutation.entries;
-    this.values = ByteBufferUtil.toBytesList(tmutation.values);
+    this.values = ByteBufferUtil.getBytesList(tmutation.values);
   }
   
   public Mutation(Mutation m) {
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.file;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Range;
+
+/**
+ * An optional extension of {@link FileSKVIterator} for readers that can start reading the blocks a set of ranges needs before the ranges are seeked.
+ */
+public interface BlockPrefetcher {
+  
+  /**
+   * Starts reading the data blocks that seeking to each of the ranges would read. Replaces the blocks of any earlier call that have not been used.
+   * 
+   * @param ranges
+   *          sorted, non overlapping ranges that will be seeked in order
+   * @param columnFamilies
+   *          the column families the ranges will be seeked with
+   * @param inclusive
+   *          the inclusive flag the ranges will be seeked with
+   */
+  public void prefetch(List<Range> ranges, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException;
+}
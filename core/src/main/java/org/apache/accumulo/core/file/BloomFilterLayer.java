@@ -18,14 +18,18 @@
 
 package org.apache.accumulo.core.file;
 
+import java.io.DataInput;
 import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -36,6 +40,7 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.accumulo.core.bloomfilter.BlockedBloomFilter;
 import org.apache.accumulo.core.bloomfilter.DynamicBloomFilter;
 import org.apache.accumulo.core.conf.AccumuloConfiguration;
 import org.apache.accumulo.core.conf.ConfigurationCopy;
@@ -44,6 +49,7 @@ import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.PartialKey;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.file.blockfile.ABlockReader;
 import org.apache.accumulo.core.file.keyfunctor.KeyFunctor;
 import org.apache.accumulo.core.file.rfile.RFile;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
@@ -55,6 +61,8 @@ import org.apache.accumulo.start.classloader.AccumuloClassLoader;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.util.bloom.Key;
 import org.apache.hadoop.util.hash.Hash;
 import org.apache.log4j.Logger;
@@ -66,6 +74,8 @@ import org.apache.log4j.Logger;
 public class BloomFilterLayer {
   private static final Logger LOG = Logger.getLogger(BloomFilterLayer.class);
   public static final String BLOOM_FILE_NAME = "acu_bloom";
+  public static final String BLOOM_PARTITION_INDEX_NAME = "acu_bloom_index";
+  public static final String BLOOM_PARTITION_PREFIX = "acu_bloom_p";
   public static final int HASH_COUNT = 5;
   
   private static ExecutorService loadThreadPool = null;
@@ -83,11 +93,59 @@ public class BloomFilterLayer {
     return loadThreadPool;
   }
   
+  /**
+   * One partition of a partitioned bloom filter, covering a contiguous range of rows within a locality group.
+   */
+  static class Partition {
+    int group;
+    byte[] firstRow;
+    byte[] lastRow;
+    int numBlocks;
+    String name;
+    BlockedBloomFilter filter;
+    
+    void write(DataOutput out) throws IOException {
+      out.writeInt(group);
+      WritableUtils.writeVInt(out, firstRow.length);
+      out.write(firstRow);
+      WritableUtils.writeVInt(out, lastRow.length);
+      out.write(lastRow);
+      out.writeInt(numBlocks);
+    }
+    
+    void readFields(DataInput in, int index) throws IOException {
+      group = in.readInt();
+      firstRow = new byte[WritableUtils.readVInt(in)];
+      in.readFully(firstRow);
+      lastRow = new byte[WritableUtils.readVInt(in)];
+      in.readFully(lastRow);
+      numBlocks = in.readInt();
+      name = BLOOM_PARTITION_PREFIX + index;
+    }
+  }
+  
+  /**
+   * Writes a bloom filter of the keys appended to a file. A partitioned filter keeps the filter of every partition in heap until {@link #close()}, since meta
+   * blocks can only be written after all of the data. Memory used while writing therefore grows with the number of keys in the file, at the bits per key
+   * the error rate needs, rather than being bounded by table.bloom.partition.size.
+   */
   public static class Writer implements FileSKVWriter {
     private DynamicBloomFilter bloomFilter;
     private int numKeys;
     private int vectorSize;
     
+    // partitioned bloom filter state, used when table.bloom.partition.size is not zero
+    private boolean partitioned;
+    private int hashType;
+    private double bitsPerKey;
+    private int partitionKeys;
+    private long[] partitionHashes;
+    private int partitionCount;
+    private byte[] lastBloomKey;
+    private int group = -1;
+    private Partition partition;
+    private ArrayList<Partition> partitions = new ArrayList<Partition>();
+    
     private FileSKVWriter writer;
     private KeyFunctor transformer = null;
     private boolean closed = false;
@@ -107,7 +165,18 @@ public class BloomFilterLayer {
       // Our desired error rate is by default 0.005, i.e. 0.5%
       double errorRate = acuconf.getFraction(Property.TABLE_BLOOM_ERRORRATE);
       vectorSize = (int) Math.ceil(-HASH_COUNT * numKeys / Math.log(1.0 - Math.pow(errorRate, 1.0 / HASH_COUNT)));
-      bloomFilter = new DynamicBloomFilter(vectorSize, HASH_COUNT, Hash.parseHashType(acuconf.get(Property.TABLE_BLOOM_HASHTYPE)), numKeys);
+      hashType = Hash.parseHashType(acuconf.get(Property.TABLE_BLOOM_HASHTYPE));
+      
+      long partitionSize = acuconf.getMemoryInBytes(Property.TABLE_BLOOM_PARTITION_SIZE);
+      partitioned = partitionSize > 0;
+      if (partitioned) {
+        // bits within a block are not independent, so a blocked filter needs a few more bits per key than the formula above for the same error rate
+        bitsPerKey = 1.1 * -HASH_COUNT / Math.log(1.0 - Math.pow(errorRate, 1.0 / HASH_COUNT));
+        partitionKeys = (int) Math.max(1, Math.min(Integer.MAX_VALUE / 8, partitionSize * 8 / bitsPerKey));
+        partitionHashes = new long[Math.min(partitionKeys, 1024)];
+      } else {
+        bloomFilter = new DynamicBloomFilter(vectorSize, HASH_COUNT, hashType, numKeys);
+      }
       
       /**
        * load KeyFunctor
@@ -128,21 +197,86 @@ public class BloomFilterLayer {
     public synchronized void append(org.apache.accumulo.core.data.Key key, Value val) throws IOException {
       writer.append(key, val);
       Key bloomKey = transformer.transform(key);
-      if (bloomKey.getBytes().length > 0)
+      if (partitioned)
+        addToPartition(key.getRowData(), bloomKey.getBytes());
+      else if (bloomKey.getBytes().length > 0)
         bloomFilter.add(bloomKey);
     }
     
+    private void addToPartition(ByteSequence row, byte[] bloomKey) {
+      if (partition == null) {
+        partition = new Partition();
+        partition.group = group;
+        partition.firstRow = partition.lastRow = row.toArray();
+      } else if (WritableComparator.compareBytes(row.getBackingArray(), row.offset(), row.length(), partition.lastRow, 0, partition.lastRow.length) != 0) {
+        // only start a new partition on a row boundary, so that a row is always in one partition of a locality group
+        if (partitionCount >= partitionKeys) {
+          finishPartition();
+          addToPartition(row, bloomKey);
+          return;
+        }
+        partition.lastRow = row.toArray();
+      }
+      
+      // keys are sorted, so most duplicate bloom keys are adjacent
+      if (bloomKey.length > 0 && !Arrays.equals(bloomKey, lastBloomKey)) {
+        if (partitionCount == partitionHashes.length)
+          partitionHashes = Arrays.copyOf(partitionHashes, partitionHashes.length * 2);
+        partitionHashes[partitionCount++] = BlockedBloomFilter.hash(Hash.getInstance(hashType), bloomKey);
+        lastBloomKey = bloomKey;
+      }
+    }
+    
+    private void finishPartition() {
+      if (partition == null)
+        return;
+      
+      partition.numBlocks = BlockedBloomFilter.numBlocks(partitionCount, bitsPerKey);
+      partition.filter = new BlockedBloomFilter(partition.numBlocks, HASH_COUNT);
+      for (int i = 0; i < partitionCount; i++)
+        partition.filter.add(partitionHashes[i]);
+      partitions.add(partition);
+      
+      partition = null;
+      partitionCount = 0;
+      lastBloomKey = null;
+    }
+    
     @Override
     public synchronized void close() throws IOException {
       
       if (closed)
         return;
       
-      DataOutputStream out = writer.createMetaStore(BLOOM_FILE_NAME);
-      out.writeUTF(transformer.getClass().getCanonicalName());
-      bloomFilter.write(out);
-      out.flush();
-      out.close();
+      if (partitioned) {
+        finishPartition();
+        
+        // partitions must be buffered until here because meta blocks can only be written after all of the data
+        for (int i = 0; i < partitions.size(); i++) {
+          Partition p = partitions.get(i);
+          if (p.numBlocks > 0) {
+            DataOutputStream out = writer.createMetaStore(BLOOM_PARTITION_PREFIX + i);
+            p.filter.write(out);
+            out.close();
+          }
+          p.filter = null;
+        }
+        
+        DataOutputStream out = writer.createMetaStore(BLOOM_PARTITION_INDEX_NAME);
+        out.writeUTF(transformer.getClass().getCanonicalName());
+        out.writeInt(hashType);
+        out.writeInt(HASH_COUNT);
+        out.writeInt(partitions.size());
+        for (Partition p : partitions)
+          p.write(out);
+        out.close();
+      } else {
+        DataOutputStream out = writer.createMetaStore(BLOOM_FILE_NAME);
+        out.writeUTF(transformer.getClass().getCanonicalName());
+        bloomFilter.write(out);
+        out.flush();
+        out.close();
+      }
       writer.close();
       closed = true;
     }
@@ -153,14 +287,17 @@ public class BloomFilterLayer {
     }
     
     @Override
-    public void startDefaultLocalityGroup() throws IOException {
+    public synchronized void startDefaultLocalityGroup() throws IOException {
       writer.startDefaultLocalityGroup();
-      
+      finishPartition();
+      group++;
     }
     
     @Override
-    public void startNewLocalityGroup(String name, Set<ByteSequence> columnFamilies) throws IOException {
+    public synchronized void startNewLocalityGroup(String name, Set<ByteSequence> columnFamilies) throws IOException {
       writer.startNewLocalityGroup(name, columnFamilies);
+      finishPartition();
+      group++;
     }
     
     @Override
@@ -169,8 +306,106 @@ public class BloomFilterLayer {
     }
   }
   
+  /**
+   * The index of a partitioned bloom filter. The index is small and is kept by the reader, the partitions are read through the reader's meta block cache for
+   * each lookup so that the memory they use is governed by the cache.
+   */
+  static class PartitionIndex {
+    private KeyFunctor transformer;
+    private Hash hash;
+    private int nbHash;
+    // partitions of each locality group, sorted by row
+    private ArrayList<Partition[]> groups = new ArrayList<Partition[]>();
+    
+    void readFields(DataInput in) throws IOException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+      Class<? extends KeyFunctor> clazz = AccumuloClassLoader.loadClass(in.readUTF(), KeyFunctor.class);
+      transformer = clazz.newInstance();
+      hash = Hash.getInstance(in.readInt());
+      nbHash = in.readInt();
+      
+      int numPartitions = in.readInt();
+      ArrayList<Partition> group = new ArrayList<Partition>();
+      for (int i = 0; i < numPartitions; i++) {
+        Partition p = new Partition();
+        p.readFields(in, i);
+        if (!group.isEmpty() && group.get(0).group != p.group) {
+          groups.add(group.toArray(new Partition[group.size()]));
+          group.clear();
+        }
+        group.add(p);
+      }
+      if (!group.isEmpty())
+        groups.add(group.toArray(new Partition[group.size()]));
+    }
+    
+    private static int compareRow(ByteSequence row, byte[] b) {
+      return WritableComparator.compareBytes(row.getBackingArray(), row.offset(), row.length(), b, 0, b.length);
+    }
+    
+    /**
+     * @return the partition of the group that could contain the row, or null
+     */
+    private static Partition find(Partition[] group, ByteSequence row) {
+      int low = 0;
+      int high = group.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (compareRow(row, group[mid].firstRow) < 0)
+          high = mid - 1;
+        else if (compareRow(row, group[mid].lastRow) > 0)
+          low = mid + 1;
+        else
+          return group[mid];
+      }
+      return null;
+    }
+    
+    boolean probablyHasKey(FileSKVIterator reader, Range range) throws IOException {
+      Key bloomKey = transformer.transform(range);
+      
+      if (bloomKey == null || bloomKey.getBytes().length == 0)
+        return true;
+      
+      // partitions are found by row, so only filter ranges that are within a single row
+      org.apache.accumulo.core.data.Key start = range.getStartKey();
+      org.apache.accumulo.core.data.Key end = range.getEndKey();
+      if (start == null || end == null)
+        return true;
+      if (!start.equals(end, PartialKey.ROW)
+          && !(start.followingKey(PartialKey.ROW).equals(end, PartialKey.ROW_COLFAM_COLQUAL_COLVIS_TIME) && !range.isEndKeyInclusive()))
+        return true;
+      
+      long h = BlockedBloomFilter.hash(hash, bloomKey.getBytes());
+      ByteSequence row = start.getRowData();
+      
+      for (Partition[] group : groups) {
+        Partition p = find(group, row);
+        if (p == null || p.numBlocks == 0)
+          continue;
+        
+        DataInputStream in = reader.getMetaStore(p.name);
+        try {
+          int offset = BlockedBloomFilter.blockOffset(h, p.numBlocks);
+          if (in instanceof ABlockReader && ((ABlockReader) in).isIndexable())
+            ((ABlockReader) in).seek(offset);
+          else
+            in.skipBytes(offset);
+          if (BlockedBloomFilter.membershipTest(h, nbHash, in))
+            return true;
+        } finally {
+          in.close();
+        }
+      }
+      
+      return false;
+    }
+  }
+  
   static class BloomFilterLoader {
     
+    private final FileSKVIterator reader;
+    private volatile boolean partitionIndexLoaded = false;
+    private volatile PartitionIndex partitionIndex;
     private volatile DynamicBloomFilter bloomFilter;
     private int loadRequest = 0;
     private int loadThreshold = 1;
@@ -181,6 +416,7 @@ public class BloomFilterLayer {
     
     BloomFilterLoader(final FileSKVIterator reader, AccumuloConfiguration acuconf) {
       
+      this.reader = reader;
       maxLoadThreads = acuconf.getCount(Property.TSERV_BLOOM_LOAD_MAXCONCURRENT);
       
       loadThreshold = acuconf.getCount(Property.TABLE_BLOOM_LOAD_THRESHOLD);
@@ -289,6 +525,10 @@ public class BloomFilterLayer {
      * @throws IOException
      */
     boolean probablyHasKey(Range range) throws IOException {
+      PartitionIndex index = getPartitionIndex();
+      if (index != null)
+        return index.probablyHasKey(reader, range);
+      
       if (bloomFilter == null) {
         initiateLoad(maxLoadThreads);
         if (bloomFilter == null)
@@ -303,12 +543,54 @@ public class BloomFilterLayer {
       return bloomFilter.membershipTest(bloomKey);
     }
     
+    /**
+     * Read the index of a partitioned bloom filter the first time it is needed. Files written in the older format do not have one and use the single filter
+     * loaded by loadTask.
+     */
+    private PartitionIndex getPartitionIndex() {
+      if (partitionIndexLoaded)
+        return partitionIndex;
+      
+      synchronized (this) {
+        if (partitionIndexLoaded)
+          return partitionIndex;
+        
+        DataInputStream in = null;
+        try {
+          in = reader.getMetaStore(BLOOM_PARTITION_INDEX_NAME);
+          PartitionIndex tmpIndex = new PartitionIndex();
+          tmpIndex.readFields(in);
+          partitionIndex = tmpIndex;
+        } catch (NoSuchMetaStoreException nsme) {
+          // file does not have a partitioned bloom filter
+        } catch (IOException ioe) {
+          if (!closed)
+            LOG.warn("Can't open partitioned BloomFilter", ioe);
+          else
+            LOG.debug("Can't open partitioned BloomFilter, file closed : " + ioe.getMessage());
+        } catch (Exception e) {
+          LOG.error("Failed to load partitioned BloomFilter", e);
+        } finally {
+          if (in != null) {
+            try {
+              in.close();
+            } catch (IOException e) {
+              LOG.warn("Failed to close ", e);
+            }
+          }
+        }
+        
+        partitionIndexLoaded = true;
+        return partitionIndex;
+      }
+    }
+    
     public void close() {
       this.closed = true;
     }
   }
   
-  public static class Reader implements FileSKVIterator {
+  public static class Reader implements FileSKVIterator, BlockPrefetcher {
     
     private BloomFilterLoader bfl;
     private FileSKVIterator reader;
@@ -341,6 +623,12 @@ public class BloomFilterLayer {
       }
     }
     
+    @Override
+    public void prefetch(List<Range> ranges, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+      if (reader instanceof BlockPrefetcher)
+        ((BlockPrefetcher) reader).prefetch(ranges, columnFamilies, inclusive);
+    }
+    
     public synchronized void close() throws IOException {
       bfl.close();
       reader.close();
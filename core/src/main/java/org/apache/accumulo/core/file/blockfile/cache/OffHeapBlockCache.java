@@ -0,0 +1,399 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.file.blockfile.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A block cache that keeps the contents of cached blocks outside of the Java heap, so that a large cache does not lengthen garbage collection pauses.
+ * <p>
+ *
+ * Memory is allocated as direct {@link ByteBuffer} slabs that are divided into fixed size pages. A block is copied into as many pages as it needs, and since
+ * those pages do not have to be contiguous the cache does not fragment. Only the block name, its page numbers and its index object are kept on the heap. Slabs
+ * are allocated as the cache fills up and are kept for the life of the cache.
+ * <p>
+ *
+ * Reading a block copies it back onto the heap, so each {@link CacheEntry} returned by {@link #getBlock(String)} has its own copy of the block. The index object
+ * of an entry is shared by all readers of the block, as it is with {@link LruBlockCache}.
+ * <p>
+ *
+ * When the cache grows past its acceptable size, or there are not enough free pages for a new block, the least recently used blocks are evicted until the
+ * cache is below its minimum size. Blocks cached as in-memory are only evicted after all other blocks.
+ */
+public class OffHeapBlockCache implements BlockCache {
+
+  static final Log LOG = LogFactory.getLog(OffHeapBlockCache.class);
+
+  static final int DEFAULT_PAGE_SIZE = 8 * 1024;
+  static final int DEFAULT_SLAB_SIZE = 64 * 1024 * 1024;
+
+  /** Eviction thresholds */
+  static final float DEFAULT_MIN_FACTOR = 0.75f;
+  static final float DEFAULT_ACCEPTABLE_FACTOR = 0.85f;
+
+  private class Block {
+    private final String name;
+    private final int length;
+    private final boolean inMemory;
+    private int[] pages;
+    private volatile long accessTime;
+    private Object index;
+
+    Block(String name, int length, int[] pages, boolean inMemory, long accessTime) {
+      this.name = name;
+      this.length = length;
+      this.pages = pages;
+      this.inMemory = inMemory;
+      this.accessTime = accessTime;
+    }
+
+    /**
+     * @return a copy of the block, or null if it has been evicted
+     */
+    synchronized byte[] read() {
+      if (pages == null)
+        return null;
+      byte[] buf = new byte[length];
+      for (int i = 0; i < pages.length; i++) {
+        ByteBuffer page = page(pages[i]);
+        page.get(buf, i * pageSize, Math.min(pageSize, length - i * pageSize));
+      }
+      return buf;
+    }
+
+    void write(byte[] buf) {
+      for (int i = 0; i < pages.length; i++) {
+        ByteBuffer page = page(pages[i]);
+        page.put(buf, i * pageSize, Math.min(pageSize, length - i * pageSize));
+      }
+    }
+
+    /**
+     * @return the number of pages released
+     */
+    int free() {
+      int[] released;
+      synchronized (this) {
+        released = pages;
+        pages = null;
+      }
+      if (released == null)
+        return 0;
+      release(released);
+      return released.length;
+    }
+
+    synchronized Object getIndex() {
+      return index;
+    }
+
+    synchronized void setIndex(Object index) {
+      this.index = index;
+    }
+  }
+
+  private static class Entry implements CacheEntry {
+    private final Block block;
+    private final byte[] buf;
+
+    Entry(Block block, byte[] buf) {
+      this.block = block;
+      this.buf = buf;
+    }
+
+    @Override
+    public byte[] getBuffer() {
+      return buf;
+    }
+
+    @Override
+    public Object getIndex() {
+      return block.getIndex();
+    }
+
+    @Override
+    public void setIndex(Object idx) {
+      block.setIndex(idx);
+    }
+  }
+
+  /**
+   * A block and the access time it had when eviction started, so that sorting is not disturbed by concurrent reads
+   */
+  private static class EvictionCandidate implements Comparable<EvictionCandidate> {
+    private final Block block;
+    private final long accessTime;
+
+    EvictionCandidate(Block block) {
+      this.block = block;
+      this.accessTime = block.accessTime;
+    }
+
+    @Override
+    public int compareTo(EvictionCandidate that) {
+      if (this.block.inMemory != that.block.inMemory)
+        return this.block.inMemory ? 1 : -1;
+      if (this.accessTime == that.accessTime)
+        return 0;
+      return this.accessTime < that.accessTime ? -1 : 1;
+    }
+  }
+
+  private final ConcurrentHashMap<String,Block> map = new ConcurrentHashMap<String,Block>();
+
+  private final long maxSize;
+  private final int pageSize;
+  private final int pagesPerSlab;
+  private final int totalPages;
+  private final float minFactor;
+  private final float acceptableFactor;
+
+  /** guarded by allocationLock */
+  private final ByteBuffer[] slabs;
+  private int allocatedSlabs = 0;
+  private final int[] freePages;
+  private int freeCount = 0;
+  private final Object allocationLock = new Object();
+
+  private final AtomicLong usedPages = new AtomicLong(0);
+  private final AtomicLong elements = new AtomicLong(0);
+  private final AtomicLong count = new AtomicLong(0);
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final CacheStats stats = new CacheStats();
+
+  /**
+   * @param maxSize
+   *          maximum size of the cache, in bytes
+   */
+  public OffHeapBlockCache(long maxSize) {
+    this(maxSize, DEFAULT_PAGE_SIZE, DEFAULT_SLAB_SIZE, DEFAULT_MIN_FACTOR, DEFAULT_ACCEPTABLE_FACTOR);
+  }
+
+  /**
+   * @param maxSize
+   *          maximum size of the cache, in bytes
+   * @param pageSize
+   *          size of the unit of allocation, in bytes. Each block wastes half a page on average.
+   * @param slabSize
+   *          size of each direct buffer allocated, in bytes
+   * @param minFactor
+   *          percentage of total size that eviction will evict until
+   * @param acceptableFactor
+   *          percentage of total size that triggers eviction
+   */
+  public OffHeapBlockCache(long maxSize, int pageSize, int slabSize, float minFactor, float acceptableFactor) {
+    if (minFactor >= acceptableFactor) {
+      throw new IllegalArgumentException("minFactor must be smaller than acceptableFactor");
+    }
+    if (minFactor >= 1.0f || acceptableFactor >= 1.0f) {
+      throw new IllegalArgumentException("all factors must be < 1");
+    }
+    if (pageSize <= 0 || slabSize < pageSize) {
+      throw new IllegalArgumentException("slab size must be at least one page");
+    }
+    if (maxSize / pageSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("page size " + pageSize + " is too small for a cache of " + maxSize + " bytes");
+    }
+    this.maxSize = maxSize;
+    this.pageSize = pageSize;
+    this.pagesPerSlab = slabSize / pageSize;
+    this.totalPages = (int) (maxSize / pageSize);
+    this.minFactor = minFactor;
+    this.acceptableFactor = acceptableFactor;
+    this.slabs = new ByteBuffer[(totalPages + pagesPerSlab - 1) / pagesPerSlab];
+    this.freePages = new int[totalPages];
+  }
+
+  private ByteBuffer page(int page) {
+    ByteBuffer slab = slabs[page / pagesPerSlab].duplicate();
+    slab.position((page % pagesPerSlab) * pageSize);
+    return slab;
+  }
+
+  /**
+   * @return page numbers, or null if there are not enough free pages
+   */
+  private int[] allocate(int numPages) {
+    synchronized (allocationLock) {
+      while (freeCount < numPages && allocatedSlabs < slabs.length) {
+        int firstPage = allocatedSlabs * pagesPerSlab;
+        int slabPages = Math.min(pagesPerSlab, totalPages - firstPage);
+        slabs[allocatedSlabs++] = ByteBuffer.allocateDirect(slabPages * pageSize);
+        for (int i = slabPages - 1; i >= 0; i--)
+          freePages[freeCount++] = firstPage + i;
+      }
+      if (freeCount < numPages)
+        return null;
+      int[] pages = new int[numPages];
+      for (int i = 0; i < numPages; i++)
+        pages[i] = freePages[--freeCount];
+      usedPages.addAndGet(numPages);
+      return pages;
+    }
+  }
+
+  private void release(int[] pages) {
+    synchronized (allocationLock) {
+      for (int page : pages)
+        freePages[freeCount++] = page;
+      usedPages.addAndGet(-pages.length);
+    }
+  }
+
+  @Override
+  public CacheEntry cacheBlock(String blockName, byte[] buf, boolean inMemory) {
+    Block block = map.get(blockName);
+    if (block != null) {
+      stats.duplicateReads();
+      block.accessTime = count.incrementAndGet();
+      return new Entry(block, buf);
+    }
+
+    if (buf.length > maxSize)
+      return null;
+
+    int numPages = (buf.length + pageSize - 1) / pageSize;
+    if (usedPages.get() + numPages > acceptablePages())
+      evict();
+    int[] pages = allocate(numPages);
+    if (pages == null) {
+      // another thread may be evicting, in which case the block is not cached
+      evict();
+      pages = allocate(numPages);
+      if (pages == null)
+        return null;
+    }
+
+    block = new Block(blockName, buf.length, pages, inMemory, count.incrementAndGet());
+    block.write(buf);
+
+    Block existing = map.putIfAbsent(blockName, block);
+    if (existing != null) {
+      block.free();
+      stats.duplicateReads();
+      return new Entry(existing, buf);
+    }
+    elements.incrementAndGet();
+    return new Entry(block, buf);
+  }
+
+  @Override
+  public CacheEntry cacheBlock(String blockName, byte[] buf) {
+    return cacheBlock(blockName, buf, false);
+  }
+
+  @Override
+  public CacheEntry getBlock(String blockName) {
+    Block block = map.get(blockName);
+    byte[] buf = block == null ? null : block.read();
+    if (buf == null) {
+      stats.miss();
+      return null;
+    }
+    stats.hit();
+    block.accessTime = count.incrementAndGet();
+    return new Entry(block, buf);
+  }
+
+  /**
+   * Evict the least recently used blocks until the cache is below its minimum size. Returns immediately if another thread is already evicting.
+   */
+  void evict() {
+    if (!evictionLock.tryLock())
+      return;
+
+    try {
+      long pagesToFree = usedPages.get() - minPages();
+      if (pagesToFree <= 0)
+        return;
+
+      ArrayList<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>(map.size());
+      for (Block block : map.values())
+        candidates.add(new EvictionCandidate(block));
+      Collections.sort(candidates);
+
+      long pagesFreed = 0;
+      for (EvictionCandidate candidate : candidates) {
+        if (pagesFreed >= pagesToFree)
+          break;
+        if (map.remove(candidate.block.name, candidate.block)) {
+          pagesFreed += candidate.block.free();
+          elements.decrementAndGet();
+          stats.evicted();
+        }
+      }
+
+      LOG.debug("Off-heap block cache eviction completed.  Freed " + (pagesFreed * pageSize) + " bytes, " + getCurrentSize() + " bytes in use");
+    } finally {
+      stats.evict();
+      evictionLock.unlock();
+    }
+  }
+
+  private long acceptablePages() {
+    return (long) Math.floor(totalPages * acceptableFactor);
+  }
+
+  private long minPages() {
+    return (long) Math.floor(totalPages * minFactor);
+  }
+
+  @Override
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @return bytes of off-heap memory holding cached blocks, including the unused ends of pages
+   */
+  public long getCurrentSize() {
+    return usedPages.get() * pageSize;
+  }
+
+  /**
+   * @return number of cached blocks
+   */
+  public long size() {
+    return elements.get();
+  }
+
+  public long getEvictionCount() {
+    return stats.getEvictionCount();
+  }
+
+  public long getEvictedCount() {
+    return stats.getEvictedCount();
+  }
+
+  @Override
+  public CacheStats getStats() {
+    return stats;
+  }
+
+  @Override
+  public void shutdown() {
+    // direct buffers are freed when they are garbage collected
+  }
+}
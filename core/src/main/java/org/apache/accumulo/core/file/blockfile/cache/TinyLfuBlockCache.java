@@ -0,0 +1,441 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.file.blockfile.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A block cache that uses the W-TinyLFU policy to decide which blocks to keep, so that blocks read once by a large scan can not push frequently used blocks
+ * out of the cache.
+ * <p>
+ *
+ * New blocks go into a small LRU window. When a block falls out of the window it is a candidate for the main cache, and it is only admitted if it has been used
+ * more often than the block the main cache would evict to make room for it. Usage is tracked approximately, for blocks in and out of the cache, by a count-min
+ * sketch whose counters are halved periodically so that old popularity fades. The main cache is a segmented LRU: blocks start in the probation segment and
+ * move to the protected segment when they are used again. Blocks cached as in-memory skip the window and admission and go straight to the protected segment.
+ * <p>
+ *
+ * Lookups go through a {@link ConcurrentHashMap}. Updating the policy on a hit takes a lock, but if the lock is busy the update is skipped rather than making
+ * the reader wait; this only costs a little precision in recency and frequency.
+ */
+public class TinyLfuBlockCache implements BlockCache, HeapSize {
+
+  static final Log LOG = LogFactory.getLog(TinyLfuBlockCache.class);
+
+  static final float DEFAULT_WINDOW_FACTOR = 0.01f;
+  static final float DEFAULT_PROTECTED_FACTOR = 0.80f;
+
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+
+  private static class Node {
+    final CachedBlock block;
+    final long size;
+    int queue;
+    Node prev;
+    Node next;
+
+    Node(CachedBlock block) {
+      this.block = block;
+      this.size = block.heapSize();
+    }
+  }
+
+  /**
+   * A doubly linked list of nodes in access order, least recently used first
+   */
+  private static class AccessQueue {
+    private Node head;
+    private Node tail;
+    private long size = 0;
+
+    void add(Node node) {
+      node.prev = tail;
+      node.next = null;
+      if (tail == null)
+        head = node;
+      else
+        tail.next = node;
+      tail = node;
+      size += node.size;
+    }
+
+    void remove(Node node) {
+      if (node.prev == null)
+        head = node.next;
+      else
+        node.prev.next = node.next;
+      if (node.next == null)
+        tail = node.prev;
+      else
+        node.next.prev = node.prev;
+      node.prev = node.next = null;
+      size -= node.size;
+    }
+
+    void moveToTail(Node node) {
+      if (node != tail) {
+        remove(node);
+        add(node);
+      }
+    }
+  }
+
+  /**
+   * Estimates how often a block has been used with a count-min sketch of four bit counters.
+   */
+  static class FrequencySketch {
+    private static final int[] SEEDS = {0x97cb3127, 0xb4b82e8b, 0x8d4c9a37, 0x5f356495};
+    private static final int MAX_COUNT = 15;
+
+    private final byte[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    FrequencySketch(int expectedItems) {
+      int width = Integer.highestOneBit(Math.max(expectedItems, 16) - 1) << 1;
+      table = new byte[SEEDS.length][width];
+      mask = width - 1;
+      sampleSize = 10 * width;
+    }
+
+    /**
+     * @return the heap used by the counter table, which is most of the sketch
+     */
+    long heapSize() {
+      long rows = ClassSize.align(ClassSize.ARRAY + table.length * ClassSize.REFERENCE);
+      return ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE + 3 * SizeConstants.SIZEOF_INT) + rows + table.length
+          * ClassSize.align(ClassSize.ARRAY + (long) table[0].length * SizeConstants.SIZEOF_BYTE);
+    }
+
+    private int index(int hash, int row) {
+      int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+      return (h ^ (h >>> 15)) & mask;
+    }
+
+    int frequency(Object item) {
+      int hash = item.hashCode();
+      int frequency = MAX_COUNT;
+      for (int row = 0; row < table.length; row++)
+        frequency = Math.min(frequency, table[row][index(hash, row)]);
+      return frequency;
+    }
+
+    void increment(Object item) {
+      int hash = item.hashCode();
+      boolean added = false;
+      for (int row = 0; row < table.length; row++) {
+        int i = index(hash, row);
+        if (table[row][i] < MAX_COUNT) {
+          table[row][i]++;
+          added = true;
+        }
+      }
+      if (added && ++additions >= sampleSize)
+        reset();
+    }
+
+    /**
+     * Halve all counters, so that the sketch favors recent popularity
+     */
+    private void reset() {
+      for (byte[] row : table)
+        for (int i = 0; i < row.length; i++)
+          row[i] >>= 1;
+      additions /= 2;
+    }
+  }
+
+  private final ConcurrentHashMap<String,Node> map;
+
+  /** guards the queues and the sketch */
+  private final ReentrantLock policyLock = new ReentrantLock();
+  private final AccessQueue window = new AccessQueue();
+  private final AccessQueue probation = new AccessQueue();
+  private final AccessQueue protectedQueue = new AccessQueue();
+  private final FrequencySketch sketch;
+
+  private final long maxSize;
+  private final long windowMax;
+  private final long protectedMax;
+  private final long overhead;
+
+  private final AtomicLong size;
+  private final AtomicLong count = new AtomicLong(0);
+  private final AtomicLong rejected = new AtomicLong(0);
+  private final CacheStats stats = new CacheStats();
+
+  /**
+   * @param maxSize
+   *          maximum size of cache, in bytes
+   * @param blockSize
+   *          approximate size of each block, in bytes
+   */
+  public TinyLfuBlockCache(long maxSize, long blockSize) {
+    this(maxSize, blockSize, DEFAULT_WINDOW_FACTOR, DEFAULT_PROTECTED_FACTOR);
+  }
+
+  /**
+   * @param maxSize
+   *          maximum size of cache, in bytes
+   * @param blockSize
+   *          approximate size of each block, in bytes
+   * @param windowFactor
+   *          percentage of total size used for the window that new blocks enter
+   * @param protectedFactor
+   *          percentage of the main cache used for blocks that have been used more than once
+   */
+  public TinyLfuBlockCache(long maxSize, long blockSize, float windowFactor, float protectedFactor) {
+    if (windowFactor <= 0 || windowFactor >= 1.0f || protectedFactor <= 0 || protectedFactor >= 1.0f) {
+      throw new IllegalArgumentException("all factors must be between 0 and 1");
+    }
+    int expectedBlocks = (int) Math.min(Integer.MAX_VALUE / 8, Math.ceil(1.2 * maxSize / blockSize));
+    this.map = new ConcurrentHashMap<String,Node>(expectedBlocks);
+    this.sketch = new FrequencySketch(expectedBlocks * 4);
+    this.overhead = LruBlockCache.calculateOverhead(maxSize, blockSize, LruBlockCache.DEFAULT_CONCURRENCY_LEVEL) + sketch.heapSize();
+    this.size = new AtomicLong(overhead);
+    this.maxSize = maxSize;
+    long available = Math.max(0, maxSize - overhead);
+    this.windowMax = (long) Math.floor(available * windowFactor);
+    this.protectedMax = (long) Math.floor((available - windowMax) * protectedFactor);
+  }
+
+  @Override
+  public CacheEntry cacheBlock(String blockName, byte[] buf, boolean inMemory) {
+    Node node = map.get(blockName);
+    if (node != null) {
+      stats.duplicateReads();
+      node.block.access(count.incrementAndGet());
+      return node.block;
+    }
+
+    node = new Node(new CachedBlock(blockName, buf, count.incrementAndGet(), inMemory));
+    if (node.size > maxSize - overhead)
+      return null;
+
+    policyLock.lock();
+    try {
+      Node existing = map.putIfAbsent(blockName, node);
+      if (existing != null) {
+        stats.duplicateReads();
+        return existing.block;
+      }
+      size.addAndGet(node.size);
+      sketch.increment(blockName);
+
+      boolean evicted;
+      if (inMemory) {
+        node.queue = PROTECTED;
+        protectedQueue.add(node);
+        evicted = demoteProtected();
+        evicted |= evictMain(null);
+      } else {
+        node.queue = WINDOW;
+        window.add(node);
+        evicted = evictWindow();
+      }
+      if (evicted)
+        stats.evict();
+    } finally {
+      policyLock.unlock();
+    }
+
+    // the block may have been turned away by admission, but the caller can still use it
+    return node.block;
+  }
+
+  @Override
+  public CacheEntry cacheBlock(String blockName, byte[] buf) {
+    return cacheBlock(blockName, buf, false);
+  }
+
+  @Override
+  public CachedBlock getBlock(String blockName) {
+    Node node = map.get(blockName);
+    if (node == null) {
+      stats.miss();
+      if (policyLock.tryLock()) {
+        try {
+          // remember misses too, so a block that is read repeatedly can be admitted
+          sketch.increment(blockName);
+        } finally {
+          policyLock.unlock();
+        }
+      }
+      return null;
+    }
+    stats.hit();
+    node.block.access(count.incrementAndGet());
+    if (policyLock.tryLock()) {
+      try {
+        onHit(node);
+      } finally {
+        policyLock.unlock();
+      }
+    }
+    return node.block;
+  }
+
+  private boolean isLinked(Node node) {
+    return map.get(node.block.getName()) == node;
+  }
+
+  private void onHit(Node node) {
+    if (!isLinked(node))
+      return;
+    sketch.increment(node.block.getName());
+    switch (node.queue) {
+      case WINDOW:
+        window.moveToTail(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        node.queue = PROTECTED;
+        protectedQueue.add(node);
+        demoteProtected();
+        break;
+      case PROTECTED:
+        protectedQueue.moveToTail(node);
+        break;
+    }
+  }
+
+  /**
+   * Move the least recently used protected blocks to probation, until the protected segment fits
+   */
+  private boolean demoteProtected() {
+    boolean demoted = false;
+    while (protectedQueue.size > protectedMax && protectedQueue.head != null) {
+      Node node = protectedQueue.head;
+      protectedQueue.remove(node);
+      node.queue = PROBATION;
+      probation.add(node);
+      demoted = true;
+    }
+    return demoted;
+  }
+
+  /**
+   * Move blocks that fall out of the window to the main cache if they are used more often than what they would replace.
+   */
+  private boolean evictWindow() {
+    boolean evicted = false;
+    while (window.size > windowMax && window.head != null) {
+      Node candidate = window.head;
+      window.remove(candidate);
+      evicted |= evictMain(candidate);
+    }
+    return evicted;
+  }
+
+  private long mainSize() {
+    return probation.size + protectedQueue.size;
+  }
+
+  private long mainMax() {
+    return maxSize - overhead - windowMax;
+  }
+
+  /**
+   * Make room in the main cache for a candidate, or turn the candidate away. With no candidate, just evict until the main cache fits.
+   */
+  private boolean evictMain(Node candidate) {
+    boolean evicted = false;
+    long needed = candidate == null ? 0 : candidate.size;
+    int candidateFrequency = candidate == null ? 0 : sketch.frequency(candidate.block.getName());
+    while (mainSize() + needed > mainMax()) {
+      Node victim = probation.head != null ? probation.head : protectedQueue.head;
+      if (victim == null || (candidate != null && candidateFrequency <= sketch.frequency(victim.block.getName()))) {
+        if (candidate != null) {
+          remove(candidate);
+          rejected.incrementAndGet();
+          return true;
+        }
+        break;
+      }
+      (victim.queue == PROBATION ? probation : protectedQueue).remove(victim);
+      remove(victim);
+      evicted = true;
+    }
+    if (candidate != null) {
+      candidate.queue = PROBATION;
+      probation.add(candidate);
+    }
+    return evicted;
+  }
+
+  private void remove(Node node) {
+    map.remove(node.block.getName(), node);
+    size.addAndGet(-node.size);
+    stats.evicted();
+  }
+
+  @Override
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  public long getCurrentSize() {
+    return size.get();
+  }
+
+  @Override
+  public long heapSize() {
+    return getCurrentSize();
+  }
+
+  /**
+   * @return number of cached blocks
+   */
+  public long size() {
+    return map.size();
+  }
+
+  /**
+   * @return number of blocks that left the window and were not admitted to the main cache
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  public long getEvictedCount() {
+    return stats.getEvictedCount();
+  }
+
+  @Override
+  public CacheStats getStats() {
+    return stats;
+  }
+
+  public void logStats() {
+    LOG.debug("Cache Stats: Size=" + getCurrentSize() + ", Max=" + maxSize + ", Blocks=" + size() + ", Access=" + stats.getRequestCount() + ", Hit="
+        + stats.getHitCount() + ", Miss=" + stats.getMissCount() + ", Evicted=" + stats.getEvictedCount() + ", Rejected=" + getRejectedCount()
+        + ", Hit Ratio=" + stats.getHitRatio() * 100 + "%");
+  }
+
+  @Override
+  public void shutdown() {
+    logStats();
+  }
+}
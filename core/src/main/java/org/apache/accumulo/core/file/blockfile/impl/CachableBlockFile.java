@@ -149,6 +149,8 @@ public class CachableBlockFile {
     private FileSystem fs;
     private Configuration conf;
     private boolean closed = false;
+    // the indexes of the file when it has been opened before, so they do not have to be read again
+    private BCFile.Reader.Index bcfileIndex = null;
     
     private interface BlockLoader {
       BlockReader get() throws IOException;
@@ -231,6 +233,14 @@ public class CachableBlockFile {
       this.conf = conf;
     }
     
+    /**
+     * Opens a file that has been opened before. The file is read using the indexes an earlier reader of the file returned from {@link #getBCFileIndex()}.
+     */
+    public Reader(FileSystem fs, Path dataFile, Configuration conf, BlockCache data, BlockCache index, BCFile.Reader.Index bcfileIndex) throws IOException {
+      this(fs, dataFile, conf, data, index);
+      this.bcfileIndex = bcfileIndex;
+    }
+    
     public Reader(FSDataInputStream fsin, long len, Configuration conf, BlockCache data, BlockCache index) throws IOException {
       this._dCache = data;
       this._iCache = index;
@@ -254,12 +264,22 @@ public class CachableBlockFile {
         // lazily open file if needed
         Path path = new Path(fileName);
         fin = fs.open(path);
-        init(fin, fs.getFileStatus(path).getLen(), conf);
+        if (bcfileIndex != null)
+          _bc = new BCFile.Reader(bcfileIndex, fin, conf);
+        else
+          init(fin, fs.getFileStatus(path).getLen(), conf);
       }
       
       return _bc;
     }
     
+    /**
+     * @return the indexes of the file, opening it if it has not been opened yet
+     */
+    public BCFile.Reader.Index getBCFileIndex() throws IOException {
+      return getBCFile().getIndex();
+    }
+    
     public BlockRead getCachedMetaBlock(String blockName) throws IOException {
       String _lookup = fileName + "M" + blockName;
       
@@ -31,10 +31,20 @@ import org.apache.accumulo.core.file.rfile.MultiLevelIndex.IndexEntry;
  */
 public class BlockIndex {
   
-  public static BlockIndex getIndex(ABlockReader cacheBlock, IndexEntry indexEntry) throws IOException {
+  public static BlockIndex getIndex(ABlockReader cacheBlock, IndexEntry indexEntry, int version) throws IOException {
     
     BlockIndex blockIndex = cacheBlock.getIndex(BlockIndex.class);
     
+    if (version == RFile.RINDEX_VER_7) {
+      // the block has a table of restart points, so the index can be built from it right away without scanning the block
+      if (blockIndex.blockIndex == null)
+        blockIndex.readRestarts(cacheBlock, indexEntry);
+      
+      if (blockIndex.blockIndex.length > 0)
+        return blockIndex;
+      return null;
+    }
+    
     int accessCount = blockIndex.accessCount.incrementAndGet();
     
     // 1 is a power of two, but do not care about it
@@ -129,6 +139,35 @@ public class BlockIndex {
     return bie;
   }
   
+  private synchronized void readRestarts(ABlockReader cacheBlock, IndexEntry indexEntry) throws IOException {
+    if (this.blockIndex != null)
+      return;
+    
+    int end = (int) cacheBlock.getRawSize();
+    cacheBlock.seek(end - 8);
+    int interval = cacheBlock.readInt();
+    int count = cacheBlock.readInt();
+    
+    int[] offsets = new int[count];
+    cacheBlock.seek(end - 8 - 4 * count);
+    for (int i = 0; i < count; i++)
+      offsets[i] = cacheBlock.readInt();
+    
+    // the first restart point is the start of the block, which a seek reads from anyway
+    BlockIndexEntry[] index = new BlockIndexEntry[Math.max(0, count - 1)];
+    RelativeKey rk = new RelativeKey();
+    for (int i = 1; i < count; i++) {
+      cacheBlock.seek(offsets[i]);
+      rk.setPrevKey(null);
+      rk.readFields(cacheBlock);
+      index[i - 1] = new BlockIndexEntry(offsets[i], indexEntry.getNumEntries() - i * interval, rk.getKey());
+    }
+    
+    this.blockIndex = index;
+    
+    cacheBlock.seek(0);
+  }
+  
   private synchronized void buildIndex(int indexEntries, ABlockReader cacheBlock, IndexEntry indexEntry) throws IOException {
     cacheBlock.seek(0);
     
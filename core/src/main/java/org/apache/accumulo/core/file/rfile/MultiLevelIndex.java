@@ -37,6 +37,7 @@ import org.apache.accumulo.core.file.blockfile.ABlockReader;
 import org.apache.accumulo.core.file.blockfile.ABlockWriter;
 import org.apache.accumulo.core.file.blockfile.BlockFileReader;
 import org.apache.accumulo.core.file.blockfile.BlockFileWriter;
+import org.apache.accumulo.core.file.blockfile.cache.ClassSize;
 import org.apache.accumulo.core.file.rfile.bcfile.Utils;
 import org.apache.hadoop.io.WritableComparable;
 
@@ -252,7 +253,7 @@ public class MultiLevelIndex {
     
     public void readFields(DataInput in, int version) throws IOException {
       
-      if (version == RFile.RINDEX_VER_6) {
+      if (version == RFile.RINDEX_VER_6 || version == RFile.RINDEX_VER_7) {
         level = in.readInt();
         offset = in.readInt();
         hasNext = in.readBoolean();
@@ -324,6 +325,14 @@ public class MultiLevelIndex {
       return index;
     }
     
+    // the serialized entries and their offsets, which the entry and key views share
+    long heapSize() {
+      if (index == null)
+        return ClassSize.align(ClassSize.OBJECT);
+      return 3 * ClassSize.align(ClassSize.OBJECT + 3 * ClassSize.REFERENCE) + ClassSize.align(ClassSize.ARRAY + index.data.length)
+          + ClassSize.align(ClassSize.ARRAY + 4L * index.offsets.length);
+    }
+    
     public List<Key> getKeyIndex() {
       return keyIndex;
     }
@@ -705,6 +714,23 @@ public class MultiLevelIndex {
       this.blockStore = blockStore;
     }
     
+    /**
+     * @return an estimate of the memory used by the root index block, which is kept for as long as this reader or a reader sharing it is
+     */
+    public long getRootIndexHeapSize() {
+      return rootBlock == null ? 0 : rootBlock.heapSize();
+    }
+    
+    /**
+     * Shares the root index block another reader read, and reads lower levels of the index from blockStore.
+     */
+    public Reader(Reader reader, BlockFileReader blockStore) {
+      this.version = reader.version;
+      this.rootBlock = reader.rootBlock;
+      this.size = reader.size;
+      this.blockStore = blockStore;
+    }
+    
     private IndexBlock getIndexBlock(IndexEntry ie) throws IOException {
       IndexBlock iblock = new IndexBlock();
       ABlockReader in = blockStore.getMetaBlock(ie.getOffset(), ie.getCompressedSize(), ie.getRawSize());
@@ -723,7 +749,7 @@ public class MultiLevelIndex {
       
       size = 0;
       
-      if (version == RFile.RINDEX_VER_6) {
+      if (version == RFile.RINDEX_VER_6 || version == RFile.RINDEX_VER_7) {
         size = in.readInt();
       }
       
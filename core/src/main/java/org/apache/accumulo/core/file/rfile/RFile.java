@@ -16,6 +16,7 @@
  */
 package org.apache.accumulo.core.file.rfile;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
@@ -28,14 +29,22 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.accumulo.core.conf.AccumuloConfiguration;
 import org.apache.accumulo.core.conf.Property;
@@ -44,6 +53,7 @@ import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.file.BlockPrefetcher;
 import org.apache.accumulo.core.file.FileSKVIterator;
 import org.apache.accumulo.core.file.FileSKVWriter;
 import org.apache.accumulo.core.file.NoSuchMetaStoreException;
@@ -51,16 +61,20 @@ import org.apache.accumulo.core.file.blockfile.ABlockReader;
 import org.apache.accumulo.core.file.blockfile.ABlockWriter;
 import org.apache.accumulo.core.file.blockfile.BlockFileReader;
 import org.apache.accumulo.core.file.blockfile.BlockFileWriter;
+import org.apache.accumulo.core.file.blockfile.cache.BlockCache;
+import org.apache.accumulo.core.file.blockfile.cache.ClassSize;
 import org.apache.accumulo.core.file.blockfile.impl.CachableBlockFile;
 import org.apache.accumulo.core.file.rfile.BlockIndex.BlockIndexEntry;
 import org.apache.accumulo.core.file.rfile.MultiLevelIndex.IndexEntry;
 import org.apache.accumulo.core.file.rfile.MultiLevelIndex.Reader.IndexIterator;
 import org.apache.accumulo.core.file.rfile.RelativeKey.MByteSequence;
+import org.apache.accumulo.core.file.rfile.bcfile.BCFile;
 import org.apache.accumulo.core.file.rfile.bcfile.MetaBlockDoesNotExist;
 import org.apache.accumulo.core.iterators.IterationInterruptedException;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.system.HeapIterator;
+import org.apache.accumulo.core.util.SimpleThreadPool;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
@@ -75,9 +89,194 @@ public class RFile {
   
   private static final Logger log = Logger.getLogger(RFile.class);
   
+  // reads data blocks ahead of sequential scans, null when blocks are only read on demand
+  private static volatile ExecutorService prefetchThreadPool = null;
+  private static volatile int maxPrefetchBlocks = 0;
+  private static volatile int maxLookupPrefetchBlocks = 0;
+  private static volatile long maxPrefetchMemory = Long.MAX_VALUE;
+  // bytes of data blocks read ahead, across all files, that no reader has taken or dropped yet
+  private static final AtomicLong prefetchMemory = new AtomicLong(0);
+  // data blocks that readers took from the blocks read ahead instead of reading them
+  private static final AtomicLong prefetchHits = new AtomicLong(0);
+  
+  // the raw size of a data block is not in the index of files older than version 6, so their blocks are counted as this size
+  private static final long OLD_FORMAT_BLOCK_SIZE = 100 * 1024;
+  
+  /**
+   * Enables reading data blocks ahead of readers that move through a file sequentially. A reader starts reading one block ahead when it moves to the next
+   * block without seeking, and doubles how far ahead it reads each time it moves on again, up to maxBlocks. The thread pool is created the first time this is
+   * called with a positive number of threads.
+   */
+  public static synchronized void setPrefetch(int threads, int maxBlocks) {
+    if (prefetchThreadPool == null && threads > 0)
+      prefetchThreadPool = new SimpleThreadPool(threads, "file block prefetch");
+    maxPrefetchBlocks = prefetchThreadPool == null ? 0 : maxBlocks;
+  }
+  
+  /**
+   * Sets the most data blocks that {@link Reader#prefetch(List, Collection, boolean)} reads for one locality group. Blocks are read with the thread pool
+   * created by {@link #setPrefetch(int, int)}, so nothing is read ahead of lookups until that has been called with a positive number of threads.
+   */
+  public static void setLookupPrefetch(int maxBlocks) {
+    maxLookupPrefetchBlocks = maxBlocks;
+  }
+  
+  /**
+   * Sets the most memory, in bytes, used by data blocks that were read ahead of all readers and not yet used. Blocks are not read ahead while this much is
+   * held, so a server with many scans does not fill its heap with blocks that are waiting to be read.
+   */
+  public static void setPrefetchMemory(long maxBytes) {
+    maxPrefetchMemory = maxBytes;
+  }
+  
+  static long getPrefetchMemory() {
+    return prefetchMemory.get();
+  }
+  
+  static long getPrefetchHits() {
+    return prefetchHits.get();
+  }
+  
+  // takes size bytes from what may be read ahead, returning false when that would pass the limit
+  private static boolean reservePrefetch(long size) {
+    while (true) {
+      long used = prefetchMemory.get();
+      if (used + size > maxPrefetchMemory)
+        return false;
+      if (prefetchMemory.compareAndSet(used, used + size))
+        return true;
+    }
+  }
+  
+  // the metadata of a file that every reader of the file parses the same way, the index readers are not bound to a file reader
+  private static class Metadata {
+    final int version;
+    final List<LocalityGroupMetadata> localityGroups;
+    final BCFile.Reader.Index bcfileIndex;
+    final long heapSize;
+    
+    Metadata(int version, List<LocalityGroupMetadata> localityGroups, BCFile.Reader.Index bcfileIndex) {
+      this.version = version;
+      this.localityGroups = new ArrayList<LocalityGroupMetadata>(localityGroups.size());
+      long size = ClassSize.align(ClassSize.OBJECT + 3 * ClassSize.REFERENCE + 8) + ClassSize.ARRAYLIST + bcfileIndex.heapSize();
+      for (LocalityGroupMetadata lgm : localityGroups) {
+        this.localityGroups.add(new LocalityGroupMetadata(lgm, null));
+        size += lgm.heapSize();
+      }
+      this.bcfileIndex = bcfileIndex;
+      this.heapSize = size;
+    }
+  }
+  
+  // parsed metadata of recently opened files by file name, in access order, null when every open reads the metadata from the file
+  private static LinkedHashMap<String,Metadata> metadataCache = null;
+  private static long maxMetadataCacheSize = 0;
+  private static long metadataCacheSize = 0;
+  
+  /**
+   * Sets the most memory, in bytes, used by the parsed metadata of files kept after the files are opened, so that opening one of them again does not read or
+   * parse its metadata. The metadata of the files opened least recently is dropped first. Zero disables the cache. Files are identified by name, and a file
+   * written through {@link RFileOperations} is dropped from the cache when it is created, so a file rewritten under the same name is read again.
+   */
+  public static synchronized void setMetadataCacheSize(long bytes) {
+    maxMetadataCacheSize = bytes;
+    if (bytes <= 0) {
+      metadataCache = null;
+      metadataCacheSize = 0;
+    } else {
+      if (metadataCache == null)
+        metadataCache = new LinkedHashMap<String,Metadata>(16, (float) .75, true);
+      trimMetadataCache();
+    }
+  }
+  
+  private static void trimMetadataCache() {
+    Iterator<Metadata> iter = metadataCache.values().iterator();
+    while (metadataCacheSize > maxMetadataCacheSize && iter.hasNext()) {
+      metadataCacheSize -= iter.next().heapSize;
+      iter.remove();
+    }
+  }
+  
+  private static synchronized Metadata getCachedMetadata(String fileName) {
+    return metadataCache == null ? null : metadataCache.get(fileName);
+  }
+  
+  private static synchronized boolean isMetadataCacheEnabled() {
+    return metadataCache != null;
+  }
+  
+  static synchronized boolean isMetadataCached(String fileName) {
+    return metadataCache != null && metadataCache.containsKey(fileName);
+  }
+  
+  static synchronized long getMetadataCacheSize() {
+    return metadataCacheSize;
+  }
+  
+  private static synchronized void cacheMetadata(String fileName, Metadata metadata) {
+    if (metadataCache == null || metadata.heapSize > maxMetadataCacheSize)
+      return;
+    Metadata old = metadataCache.put(fileName, metadata);
+    if (old != null)
+      metadataCacheSize -= old.heapSize;
+    metadataCacheSize += metadata.heapSize;
+    trimMetadataCache();
+  }
+  
+  /**
+   * Drops the cached metadata of a file, which must be done before a file is written, in case a file by the same name was opened before.
+   */
+  public static synchronized void evictMetadata(String fileName) {
+    if (metadataCache != null) {
+      Metadata old = metadataCache.remove(fileName);
+      if (old != null)
+        metadataCacheSize -= old.heapSize;
+    }
+  }
+  
+  /**
+   * Opens a file for reading, adding the file's metadata to the metadata cache. See {@link #openReader(FileSystem, Path, Configuration, BlockCache, BlockCache,
+   * boolean)}.
+   */
+  public static Reader openReader(FileSystem fs, Path path, Configuration conf, BlockCache dataCache, BlockCache indexCache) throws IOException {
+    return openReader(fs, path, conf, dataCache, indexCache, true);
+  }
+  
+  /**
+   * Opens a file for reading. When the metadata cache is enabled and the file was opened before, the file's metadata comes from the cache and nothing is read
+   * from the file until the first data block is needed.
+   * 
+   * @param cacheMetadata
+   *          whether to add the file's metadata to the cache when it is not there, false for files that are opened once, like a file checked after it is
+   *          written
+   */
+  public static Reader openReader(FileSystem fs, Path path, Configuration conf, BlockCache dataCache, BlockCache indexCache, boolean cacheMetadata)
+      throws IOException {
+    String fileName = path.toString();
+    
+    Metadata metadata = getCachedMetadata(fileName);
+    if (metadata != null)
+      return new Reader(new CachableBlockFile.Reader(fs, path, conf, dataCache, indexCache, metadata.bcfileIndex), metadata);
+    
+    CachableBlockFile.Reader cbr = new CachableBlockFile.Reader(fs, path, conf, dataCache, indexCache);
+    Reader reader = new Reader(cbr);
+    if (cacheMetadata && isMetadataCacheEnabled()) {
+      try {
+        cacheMetadata(fileName, new Metadata(reader.version, reader.localityGroups, cbr.getBCFileIndex()));
+      } catch (IOException ioe) {
+        reader.close();
+        throw ioe;
+      }
+    }
+    return reader;
+  }
+  
   private RFile() {}
   
   private static final int RINDEX_MAGIC = 0x20637474;
+  // version 7 data blocks have restart points and a table of their offsets at the end of the block
+  static final int RINDEX_VER_7 = 7;
   static final int RINDEX_VER_6 = 6;
   static final int RINDEX_VER_4 = 4;
   static final int RINDEX_VER_3 = 3;
@@ -112,6 +311,33 @@ public class RFile {
       indexReader = new MultiLevelIndex.Reader(br, version);
     }
     
+    // an estimate of the memory used by what readers of the same file share
+    long heapSize() {
+      long size = ClassSize.align(ClassSize.OBJECT + 7 * ClassSize.REFERENCE + 8) + indexReader.getRootIndexHeapSize();
+      if (name != null)
+        size += ClassSize.align(ClassSize.STRING) + ClassSize.align(ClassSize.ARRAY + 2L * name.length());
+      if (firstKey != null)
+        size += ClassSize.align(ClassSize.OBJECT + 4 * ClassSize.REFERENCE + 8) + 4 * ClassSize.ARRAY + firstKey.getSize();
+      if (columnFamilies != null) {
+        size += ClassSize.align(ClassSize.OBJECT + 6 * ClassSize.REFERENCE);
+        size += ClassSize.align(ClassSize.ARRAY + (long) columnFamilies.size() * 2 * ClassSize.REFERENCE);
+        for (ByteSequence cf : columnFamilies.keySet())
+          size += ClassSize.MAP_ENTRY + ClassSize.align(ClassSize.OBJECT + 8) + ClassSize.align(ClassSize.OBJECT + 3 * ClassSize.REFERENCE)
+              + ClassSize.align(ClassSize.ARRAY + cf.length());
+      }
+      return size;
+    }
+    
+    // shares everything read by another reader of the same file, reading lower index levels from br
+    private LocalityGroupMetadata(LocalityGroupMetadata lgm, BlockFileReader br) {
+      this.startBlock = lgm.startBlock;
+      this.firstKey = lgm.firstKey;
+      this.columnFamilies = lgm.columnFamilies;
+      this.isDefaultLG = lgm.isDefaultLG;
+      this.name = lgm.name;
+      this.indexReader = new MultiLevelIndex.Reader(lgm.indexReader, br);
+    }
+    
     public LocalityGroupMetadata(int nextBlock, Set<ByteSequence> pcf, int indexBlockSize, BlockFileWriter bfw) {
       this.startBlock = nextBlock;
       isDefaultLG = true;
@@ -300,7 +526,9 @@ public class RFile {
     // private BlockAppender blockAppender;
     private long blockSize = 100000;
     private int indexBlockSize;
+    private int restartInterval;
     private int entries = 0;
+    private ArrayList<Integer> restartOffsets = new ArrayList<Integer>();
     
     private ArrayList<LocalityGroupMetadata> localityGroups = new ArrayList<LocalityGroupMetadata>();
     private LocalityGroupMetadata currentLocalityGroup = null;
@@ -320,8 +548,13 @@ public class RFile {
     }
     
     public Writer(BlockFileWriter bfw, int blockSize, int indexBlockSize) throws IOException {
+      this(bfw, blockSize, indexBlockSize, AccumuloConfiguration.getDefaultConfiguration().getCount(Property.TABLE_FILE_RESTART_INTERVAL));
+    }
+    
+    public Writer(BlockFileWriter bfw, int blockSize, int indexBlockSize, int restartInterval) throws IOException {
       this.blockSize = blockSize;
       this.indexBlockSize = indexBlockSize;
+      this.restartInterval = restartInterval;
       this.fileWriter = bfw;
       this.blockWriter = null;
       previousColumnFamilies = new HashSet<ByteSequence>();
@@ -338,7 +571,7 @@ public class RFile {
       ABlockWriter mba = fileWriter.prepareMetaBlock("RFile.index");
       
       mba.writeInt(RINDEX_MAGIC);
-      mba.writeInt(RINDEX_VER_6);
+      mba.writeInt(restartInterval > 0 ? RINDEX_VER_7 : RINDEX_VER_6);
       
       if (currentLocalityGroup != null)
         localityGroups.add(currentLocalityGroup);
@@ -392,7 +625,14 @@ public class RFile {
         blockWriter = fileWriter.prepareDataBlock();
       }
       
-      RelativeKey rk = new RelativeKey(lastKeyInBlock, key);
+      RelativeKey rk;
+      if (restartInterval > 0 && entries % restartInterval == 0) {
+        // a restart point is written relative to nothing, so reading can start there
+        restartOffsets.add((int) blockWriter.getRawSize());
+        rk = new RelativeKey(null, key);
+      } else {
+        rk = new RelativeKey(lastKeyInBlock, key);
+      }
       
       rk.write(blockWriter);
       value.write(blockWriter);
@@ -404,6 +644,15 @@ public class RFile {
     }
     
     private void closeBlock(Key key, boolean lastBlock) throws IOException {
+      if (restartInterval > 0) {
+        // readers use the number of entries in the index to know when to stop, so they never read this table unless looking for it
+        for (Integer offset : restartOffsets)
+          blockWriter.writeInt(offset);
+        blockWriter.writeInt(restartInterval);
+        blockWriter.writeInt(restartOffsets.size());
+        restartOffsets.clear();
+      }
+      
       blockWriter.close();
       
       if (lastBlock)
@@ -521,11 +770,47 @@ public class RFile {
     public void close() throws IOException {
       closed = true;
       hasTop = false;
+      clearPrefetched();
+      clearRangePrefetched();
       if (currBlock != null)
         currBlock.close();
       
     }
     
+    // a block being read ahead, which holds its size of the read ahead memory until it is taken or canceled, only one of which is done
+    private static class PrefetchedBlock {
+      final int index;
+      final Future<ABlockReader> block;
+      final long size;
+      
+      PrefetchedBlock(int index, Future<ABlockReader> block, long size) {
+        this.index = index;
+        this.block = block;
+        this.size = size;
+      }
+      
+      ABlockReader get() throws InterruptedException, ExecutionException {
+        try {
+          ABlockReader reader = block.get();
+          prefetchHits.incrementAndGet();
+          return reader;
+        } finally {
+          prefetchMemory.addAndGet(-size);
+        }
+      }
+      
+      void cancel() {
+        block.cancel(false);
+        prefetchMemory.addAndGet(-size);
+      }
+    }
+    
+    // blocks being read ahead of the current block, in index order
+    private LinkedList<PrefetchedBlock> prefetched = new LinkedList<PrefetchedBlock>();
+    private int prefetchDepth = 0;
+    // blocks read ahead of the ranges passed to prefetchRanges, by block index
+    private TreeMap<Integer,PrefetchedBlock> rangePrefetched = new TreeMap<Integer,PrefetchedBlock>();
+    
     private IndexIterator iiter;
     private int entriesLeft;
     private ABlockReader currBlock;
@@ -572,7 +857,7 @@ public class RFile {
         if (iiter.hasNext()) {
           IndexEntry indexEntry = iiter.next();
           entriesLeft = indexEntry.getNumEntries();
-          currBlock = getDataBlock(indexEntry);
+          currBlock = getNextDataBlock(indexEntry);
           
           checkRange = range.afterEndKey(indexEntry.getKey());
           if (!checkRange)
@@ -598,11 +883,217 @@ public class RFile {
       if (interruptFlag != null && interruptFlag.get())
         throw new IterationInterruptedException();
       
+      int blockIndex = iiter.previousIndex();
+      if (!rangePrefetched.isEmpty()) {
+        // ranges are seeked in order, so blocks before this one will not be used
+        SortedMap<Integer,PrefetchedBlock> passed = rangePrefetched.headMap(blockIndex);
+        for (PrefetchedBlock pb : passed.values())
+          pb.cancel();
+        passed.clear();
+        
+        PrefetchedBlock block = rangePrefetched.remove(blockIndex);
+        if (block != null) {
+          try {
+            return block.get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } catch (ExecutionException e) {
+            log.debug("Failed to read block " + blockIndex + " ahead, reading it again", e.getCause());
+          }
+        }
+      }
+      
+      return readDataBlock(indexEntry, blockIndex);
+    }
+    
+    private ABlockReader readDataBlock(IndexEntry indexEntry, int blockIndex) throws IOException {
       if (version == RINDEX_VER_3 || version == RINDEX_VER_4)
-        return reader.getDataBlock(startBlock + iiter.previousIndex());
+        return reader.getDataBlock(startBlock + blockIndex);
       else
         return reader.getDataBlock(indexEntry.getOffset(), indexEntry.getCompressedSize(), indexEntry.getRawSize());
+    }
+    
+    /**
+     * Get the block that follows the current block, from the blocks read ahead when there is one, and read further ahead.
+     */
+    private ABlockReader getNextDataBlock(IndexEntry indexEntry) throws IOException {
+      ExecutorService pool = prefetchThreadPool;
+      int maxBlocks = maxPrefetchBlocks;
+      if (pool == null || maxBlocks <= 0 || !rangePrefetched.isEmpty())
+        return getDataBlock(indexEntry);
+      
+      if (interruptFlag != null && interruptFlag.get())
+        throw new IterationInterruptedException();
+      
+      int blockIndex = iiter.previousIndex();
+      PrefetchedBlock next = null;
+      while (!prefetched.isEmpty() && prefetched.getFirst().index <= blockIndex) {
+        PrefetchedBlock pb = prefetched.removeFirst();
+        if (pb.index == blockIndex)
+          next = pb;
+        else
+          pb.cancel();
+      }
+      
+      prefetchDepth = Math.min(maxBlocks, prefetchDepth == 0 ? 1 : prefetchDepth * 2);
+      prefetch(pool, indexEntry);
+      
+      if (next != null) {
+        try {
+          return next.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          log.debug("Failed to read block " + blockIndex + " ahead, reading it again", e.getCause());
+        }
+      }
+      return getDataBlock(indexEntry);
+    }
+    
+    // queues reads for the blocks after the current one, stopping at the first block that passes the end of the range
+    private void prefetch(ExecutorService pool, IndexEntry current) {
+      if (range.afterEndKey(current.getKey()))
+        return;
       
+      int last = prefetched.isEmpty() ? iiter.previousIndex() : prefetched.getLast().index;
+      int steps = 0;
+      try {
+        while (steps < prefetchDepth && iiter.hasNext()) {
+          final IndexEntry indexEntry = iiter.next();
+          steps++;
+          final int blockIndex = iiter.previousIndex();
+          if (blockIndex > last) {
+            long size = prefetchSize(indexEntry);
+            if (!reservePrefetch(size))
+              break;
+            prefetched.add(new PrefetchedBlock(blockIndex, pool.submit(new Callable<ABlockReader>() {
+              @Override
+              public ABlockReader call() throws Exception {
+                return readFully(readDataBlock(indexEntry, blockIndex));
+              }
+            }), size));
+          }
+          if (range.afterEndKey(indexEntry.getKey()))
+            break;
+        }
+      } finally {
+        while (steps-- > 0)
+          iiter.previous();
+      }
+    }
+    
+    private long prefetchSize(IndexEntry indexEntry) {
+      if (version == RINDEX_VER_3 || version == RINDEX_VER_4)
+        return OLD_FORMAT_BLOCK_SIZE;
+      return indexEntry.getRawSize();
+    }
+    
+    private static ABlockReader readFully(ABlockReader block) throws IOException {
+      // an indexable block is already in memory, other blocks are decompressed from the file as they are read
+      if (block.isIndexable())
+        return block;
+      
+      try {
+        byte[] b = new byte[(int) block.getRawSize()];
+        block.readFully(b);
+        return new CachableBlockFile.BlockRead(new ByteArrayInputStream(b), b.length);
+      } finally {
+        block.close();
+      }
+    }
+    
+    private void clearPrefetched() {
+      for (PrefetchedBlock pb : prefetched)
+        pb.cancel();
+      prefetched.clear();
+      prefetchDepth = 0;
+    }
+    
+    private void clearRangePrefetched() {
+      for (PrefetchedBlock pb : rangePrefetched.values())
+        pb.cancel();
+      rangePrefetched.clear();
+    }
+    
+    /**
+     * Starts reading every data block that seeking to the ranges would read, up to maxBlocks blocks and the memory allowed by
+     * {@link RFile#setPrefetchMemory(long)}. Runs of adjacent blocks are read in order by one task, so that each run is one sequential pass over the file, and
+     * separate runs are read concurrently.
+     */
+    void prefetchRanges(List<Range> ranges, int maxBlocks) throws IOException {
+      if (closed)
+        throw new IllegalStateException("Locality group reader closed");
+      
+      clearRangePrefetched();
+      
+      ExecutorService pool = prefetchThreadPool;
+      if (pool == null || maxBlocks <= 0 || blockCount == 0)
+        return;
+      
+      TreeMap<Integer,IndexEntry> blocks = new TreeMap<Integer,IndexEntry>();
+      for (Range range : ranges) {
+        if (blocks.size() >= maxBlocks)
+          break;
+        
+        if (range.afterEndKey(firstKey))
+          continue;
+        
+        Key startKey = range.getStartKey();
+        if (startKey == null)
+          startKey = new Key();
+        
+        // find the same blocks that _seek would read
+        IndexIterator liter = index.lookup(startKey);
+        while (liter.hasNext() && liter.hasPrevious() && liter.peekPrevious().getKey().equals(liter.peek().getKey()))
+          liter.previous();
+        
+        while (liter.hasNext() && blocks.size() < maxBlocks) {
+          IndexEntry indexEntry = liter.next();
+          blocks.put(liter.previousIndex(), indexEntry);
+          if (range.afterEndKey(indexEntry.getKey()))
+            break;
+        }
+      }
+      
+      List<FutureTask<ABlockReader>> run = new ArrayList<FutureTask<ABlockReader>>();
+      int last = -1;
+      for (Entry<Integer,IndexEntry> entry : blocks.entrySet()) {
+        final int blockIndex = entry.getKey();
+        final IndexEntry indexEntry = entry.getValue();
+        
+        long size = prefetchSize(indexEntry);
+        if (!reservePrefetch(size))
+          break;
+        
+        if (!run.isEmpty() && blockIndex != last + 1) {
+          readRun(pool, run);
+          run = new ArrayList<FutureTask<ABlockReader>>();
+        }
+        
+        FutureTask<ABlockReader> block = new FutureTask<ABlockReader>(new Callable<ABlockReader>() {
+          @Override
+          public ABlockReader call() throws Exception {
+            return readFully(readDataBlock(indexEntry, blockIndex));
+          }
+        });
+        run.add(block);
+        rangePrefetched.put(blockIndex, new PrefetchedBlock(blockIndex, block, size));
+        last = blockIndex;
+      }
+      
+      if (!run.isEmpty())
+        readRun(pool, run);
+    }
+    
+    private static void readRun(ExecutorService pool, final List<FutureTask<ABlockReader>> run) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          // a canceled block is skipped
+          for (FutureTask<ABlockReader> block : run)
+            block.run();
+        }
+      });
     }
     
     @Override
@@ -628,6 +1119,7 @@ public class RFile {
     private void reset() {
       rk = null;
       hasTop = false;
+      clearPrefetched();
       if (currBlock != null) {
         try {
           try {
@@ -741,7 +1233,7 @@ public class RFile {
           Key currKey = null;
 
           if (currBlock.isIndexable()) {
-            BlockIndex blockIndex = BlockIndex.getIndex(currBlock, indexEntry);
+            BlockIndex blockIndex = BlockIndex.getIndex(currBlock, indexEntry, version);
             if (blockIndex != null) {
               BlockIndexEntry bie = blockIndex.seekBlock(startKey, currBlock);
               if (bie != null) {
@@ -816,13 +1308,14 @@ public class RFile {
     }
   }
   
-  public static class Reader extends HeapIterator implements FileSKVIterator {
+  public static class Reader extends HeapIterator implements FileSKVIterator, BlockPrefetcher {
     
     private static final Collection<ByteSequence> EMPTY_CF_SET = Collections.emptySet();
     
     private BlockFileReader reader;
     
     private ArrayList<LocalityGroupMetadata> localityGroups = new ArrayList<LocalityGroupMetadata>();
+    private int version;
     
     private LocalityGroupReader lgReaders[];
     private HashSet<ByteSequence> nonDefaultColumnFamilies;
@@ -842,24 +1335,39 @@ public class RFile {
       
       if (magic != RINDEX_MAGIC)
         throw new IOException("Did not see expected magic number, saw " + magic);
-      if (ver != RINDEX_VER_6 && ver != RINDEX_VER_4 && ver != RINDEX_VER_3)
+      if (ver != RINDEX_VER_7 && ver != RINDEX_VER_6 && ver != RINDEX_VER_4 && ver != RINDEX_VER_3)
         throw new IOException("Did not see expected version, saw " + ver);
       
       int size = mb.readInt();
-      lgReaders = new LocalityGroupReader[size];
-      
-      deepCopies = new LinkedList<Reader>();
       
       for (int i = 0; i < size; i++) {
         LocalityGroupMetadata lgm = new LocalityGroupMetadata(ver, rdr);
         lgm.readFields(mb);
         localityGroups.add(lgm);
-        
-        lgReaders[i] = new LocalityGroupReader(reader, lgm, ver);
       }
       
       mb.close();
       
+      this.version = ver;
+      createLocalityGroupReaders();
+    }
+    
+    private Reader(BlockFileReader rdr, Metadata metadata) throws IOException {
+      this.reader = rdr;
+      this.version = metadata.version;
+      for (LocalityGroupMetadata lgm : metadata.localityGroups)
+        localityGroups.add(new LocalityGroupMetadata(lgm, rdr));
+      createLocalityGroupReaders();
+    }
+    
+    private void createLocalityGroupReaders() throws IOException {
+      lgReaders = new LocalityGroupReader[localityGroups.size()];
+      
+      deepCopies = new LinkedList<Reader>();
+      
+      for (int i = 0; i < lgReaders.length; i++)
+        lgReaders[i] = new LocalityGroupReader(reader, localityGroups.get(i), version);
+      
       nonDefaultColumnFamilies = new HashSet<ByteSequence>();
       for (LocalityGroupMetadata lgm : localityGroups) {
         if (!lgm.isDefaultLG)
@@ -985,6 +1493,63 @@ public class RFile {
       
     }
     
+    private static Set<ByteSequence> toSet(Collection<ByteSequence> columnFamilies) {
+      if (columnFamilies.size() == 0)
+        return Collections.emptySet();
+      if (columnFamilies instanceof Set<?>)
+        return (Set<ByteSequence>) columnFamilies;
+      return new HashSet<ByteSequence>(columnFamilies);
+    }
+    
+    /**
+     * @return true when the locality group may contain wanted column families
+     */
+    private boolean include(LocalityGroupReader lgr, Set<ByteSequence> cfSet, boolean inclusive) {
+      boolean include = false;
+      
+      if (cfSet.size() == 0) {
+        include = !inclusive;
+      } else if (lgr.isDefaultLocalityGroup && lgr.columnFamilies == null) {
+        // do not know what column families are in the default locality group,
+        // only know what column families are not in it
+        
+        if (inclusive) {
+          if (!nonDefaultColumnFamilies.containsAll(cfSet)) {
+            // default LG may contain wanted and unwanted column families
+            include = true;
+          }// else - everything wanted is in other locality groups, so nothing to do
+        } else {
+          // must include, if all excluded column families are in other locality groups
+          // then there are not unwanted column families in default LG
+          include = true;
+        }
+      } else {
+        /*
+         * Need to consider the following cases for inclusive and exclusive (lgcf:locality group column family set, cf:column family set) lgcf and cf are
+         * disjoint lgcf and cf are the same cf contains lgcf lgcf contains cf lgccf and cf intersect but neither is a subset of the other
+         */
+        
+        for (Entry<ByteSequence,Count> entry : lgr.columnFamilies.entrySet())
+          if (entry.getValue().count > 0)
+            if (cfSet.contains(entry.getKey())) {
+              if (inclusive)
+                include = true;
+            } else if (!inclusive) {
+              include = true;
+            }
+      }
+      
+      return include;
+    }
+    
+    @Override
+    public void prefetch(List<Range> ranges, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+      Set<ByteSequence> cfSet = toSet(columnFamilies);
+      for (LocalityGroupReader lgr : lgReaders)
+        if (include(lgr, cfSet, inclusive))
+          lgr.prefetchRanges(ranges, maxLookupPrefetchBlocks);
+    }
+    
     private int numLGSeeked = 0;
     
     @Override
@@ -994,56 +1559,10 @@ public class RFile {
       
       numLGSeeked = 0;
       
-      Set<ByteSequence> cfSet;
-      if (columnFamilies.size() > 0)
-        if (columnFamilies instanceof Set<?>) {
-          cfSet = (Set<ByteSequence>) columnFamilies;
-        } else {
-          cfSet = new HashSet<ByteSequence>();
-          cfSet.addAll(columnFamilies);
-        }
-      else
-        cfSet = Collections.emptySet();
+      Set<ByteSequence> cfSet = toSet(columnFamilies);
       
       for (LocalityGroupReader lgr : lgReaders) {
-        
-        // when include is set to true it means this locality groups contains
-        // wanted column families
-        boolean include = false;
-        
-        if (cfSet.size() == 0) {
-          include = !inclusive;
-        } else if (lgr.isDefaultLocalityGroup && lgr.columnFamilies == null) {
-          // do not know what column families are in the default locality group,
-          // only know what column families are not in it
-          
-          if (inclusive) {
-            if (!nonDefaultColumnFamilies.containsAll(cfSet)) {
-              // default LG may contain wanted and unwanted column families
-              include = true;
-            }// else - everything wanted is in other locality groups, so nothing to do
-          } else {
-            // must include, if all excluded column families are in other locality groups
-            // then there are not unwanted column families in default LG
-            include = true;
-          }
-        } else {
-          /*
-           * Need to consider the following cases for inclusive and exclusive (lgcf:locality group column family set, cf:column family set) lgcf and cf are
-           * disjoint lgcf and cf are the same cf contains lgcf lgcf contains cf lgccf and cf intersect but neither is a subset of the other
-           */
-          
-          for (Entry<ByteSequence,Count> entry : lgr.columnFamilies.entrySet())
-            if (entry.getValue().count > 0)
-              if (cfSet.contains(entry.getKey())) {
-                if (inclusive)
-                  include = true;
-              } else if (!inclusive) {
-                include = true;
-              }
-        }
-        
-        if (include) {
+        if (include(lgr, cfSet, inclusive)) {
           lgr.seek(range, EMPTY_CF_SET, false);
           addSource(lgr);
           numLGSeeked++;
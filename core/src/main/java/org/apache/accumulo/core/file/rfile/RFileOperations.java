@@ -75,8 +75,9 @@ public class RFileOperations extends FileOperations {
       BlockCache dataCache, BlockCache indexCache) throws IOException {
     Path path = new Path(file);
     
-    CachableBlockFile.Reader _cbr = new CachableBlockFile.Reader(fs, path, conf, dataCache, indexCache);
-    Reader iter = new RFile.Reader(_cbr);
+    // reuses the parsed metadata of files opened before, when the tablet server has enabled it. Only readers that use block caches, the tablet server's
+    // scan readers, add files to the metadata cache, files opened once to check or compact them are not kept.
+    Reader iter = RFile.openReader(fs, path, conf, dataCache, indexCache, dataCache != null || indexCache != null);
     
     if (seekToBeginning) {
       iter.seek(new Range((Key) null, null), EMPTY_CF_SET, false);
@@ -122,8 +123,12 @@ public class RFileOperations extends FileOperations {
     
     String compression = conf.get(Property.TABLE_FILE_COMPRESSION_TYPE.getKey(), acuconf.get(Property.TABLE_FILE_COMPRESSION_TYPE));
     
-    CachableBlockFile.Writer _cbw = new CachableBlockFile.Writer(fs.create(new Path(file), false, bufferSize, (short) rep, block), compression, conf);
-    Writer writer = new RFile.Writer(_cbw, (int) blockSize, (int) indexBlockSize);
+    Path path = new Path(file);
+    // a file written under the name of a file that was read before, like the output of a retried compaction, must not be read with the old metadata
+    RFile.evictMetadata(path.toString());
+    CachableBlockFile.Writer _cbw = new CachableBlockFile.Writer(fs.create(path, false, bufferSize, (short) rep, block), compression, conf);
+    int restartInterval = conf.getInt(Property.TABLE_FILE_RESTART_INTERVAL.getKey(), acuconf.getCount(Property.TABLE_FILE_RESTART_INTERVAL));
+    Writer writer = new RFile.Writer(_cbw, (int) blockSize, (int) indexBlockSize, restartInterval);
     return writer;
   }
 }
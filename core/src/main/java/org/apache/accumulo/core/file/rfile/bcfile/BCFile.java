@@ -31,6 +31,7 @@ import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.apache.accumulo.core.file.blockfile.cache.ClassSize;
 import org.apache.accumulo.core.file.blockfile.impl.CachableBlockFile;
 import org.apache.accumulo.core.file.blockfile.impl.CachableBlockFile.BlockRead;
 import org.apache.accumulo.core.file.rfile.bcfile.CompareUtils.Scalar;
@@ -441,6 +442,44 @@ public final class BCFile {
     // Index for meta blocks
     final MetaIndex metaIndex;
     final Version version;
+    private final long fileLength;
+    
+    /**
+     * The version and indexes read from the end of a file. They are not changed after they are read, so one instance can be used to open the same file any
+     * number of times without reading them again.
+     */
+    public static class Index {
+      private final long fileLength;
+      private final Version version;
+      private final MetaIndex metaIndex;
+      private final DataIndex dataIndex;
+      
+      private Index(long fileLength, Version version, MetaIndex metaIndex, DataIndex dataIndex) {
+        this.fileLength = fileLength;
+        this.version = version;
+        this.metaIndex = metaIndex;
+        this.dataIndex = dataIndex;
+      }
+      
+      public long getFileLength() {
+        return fileLength;
+      }
+      
+      /**
+       * @return an estimate of the memory used by the indexes
+       */
+      public long heapSize() {
+        // a region is three longs
+        long regionSize = ClassSize.align(ClassSize.OBJECT + 3 * 8);
+        int regions = dataIndex.getBlockRegionList().size();
+        long size = 4 * ClassSize.align(ClassSize.OBJECT + 4 * ClassSize.REFERENCE) + ClassSize.ARRAYLIST
+            + ClassSize.align(ClassSize.ARRAY + (long) regions * ClassSize.REFERENCE) + regions * regionSize + ClassSize.TREEMAP;
+        for (MetaIndexEntry entry : metaIndex.index.values())
+          size += ClassSize.MAP_ENTRY + ClassSize.align(ClassSize.OBJECT + 3 * ClassSize.REFERENCE) + ClassSize.align(ClassSize.STRING)
+              + ClassSize.align(ClassSize.ARRAY + 2L * entry.getMetaName().length()) + regionSize;
+        return size;
+      }
+    }
     
     /**
      * Intermediate class that maintain the state of a Readable Compression Block.
@@ -570,6 +609,7 @@ public final class BCFile {
     public Reader(FSDataInputStream fin, long fileLength, Configuration conf) throws IOException {
       this.in = fin;
       this.conf = conf;
+      this.fileLength = fileLength;
       
       // move the cursor to the beginning of the tail, containing: offset to the
       // meta block index, version and magic
@@ -598,6 +638,7 @@ public final class BCFile {
     public Reader(CachableBlockFile.Reader cache, FSDataInputStream fin, long fileLength, Configuration conf) throws IOException {
       this.in = fin;
       this.conf = conf;
+      this.fileLength = fileLength;
       
       BlockRead cachedMetaIndex = cache.getCachedMetaBlock(META_NAME);
       BlockRead cachedDataIndex = cache.getCachedMetaBlock(DataIndex.BLOCK_NAME);
@@ -642,6 +683,30 @@ public final class BCFile {
       }
     }
     
+    /**
+     * Opens a file again with the indexes read by an earlier reader of the same file, without reading anything from the file.
+     * 
+     * @param index
+     *          the indexes of the file, from {@link #getIndex()}
+     * @param fin
+     *          FS input stream.
+     */
+    public Reader(Index index, FSDataInputStream fin, Configuration conf) {
+      this.in = fin;
+      this.conf = conf;
+      this.fileLength = index.fileLength;
+      this.version = index.version;
+      this.metaIndex = index.metaIndex;
+      this.dataIndex = index.dataIndex;
+    }
+    
+    /**
+     * @return the indexes of this file, which can be used to open it again
+     */
+    public Index getIndex() {
+      return new Index(fileLength, version, metaIndex, dataIndex);
+    }
+    
     /**
      * Get the name of the default compression algorithm.
      * 
@@ -34,6 +34,7 @@ import org.apache.hadoop.io.compress.CompressionOutputStream;
 import org.apache.hadoop.io.compress.Compressor;
 import org.apache.hadoop.io.compress.Decompressor;
 import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.NativeCodeLoader;
 import org.apache.hadoop.util.ReflectionUtils;
 
 /**
@@ -269,7 +270,13 @@ final class Compression {
         }
         return snappyCodec != null;
       }
-    };
+    },
+    
+    // the codecs Hadoop ships for these need libhadoop, built with support for them
+    LZ4(TFile.COMPRESSION_LZ4, Algorithm.CONF_LZ4_CLASS, "org.apache.hadoop.io.compress.Lz4Codec"),
+    
+    ZSTD(TFile.COMPRESSION_ZSTD, Algorithm.CONF_ZSTD_CLASS, "org.apache.hadoop.io.compress.ZStandardCodec");
+    
     // We require that all compression related settings are configured
     // statically in the Configuration object.
     protected static final Configuration conf = new Configuration();
@@ -280,18 +287,86 @@ final class Compression {
     private static final int DATA_OBUF_SIZE = 4 * 1024;
     public static final String CONF_LZO_CLASS = "io.compression.codec.lzo.class";
     public static final String CONF_SNAPPY_CLASS = "io.compression.codec.snappy.class";
+    public static final String CONF_LZ4_CLASS = "io.compression.codec.lz4.class";
+    public static final String CONF_ZSTD_CLASS = "io.compression.codec.zstd.class";
+    
+    // for algorithms whose codec is only loaded by name, the property naming the codec class and the class used when it is not set
+    private final String confKey;
+    private final String defaultClazz;
+    private transient boolean checked = false;
+    private transient CompressionCodec loadedCodec = null;
     
     Algorithm(String name) {
+      this(name, null, null);
+    }
+    
+    Algorithm(String name, String confKey, String defaultClazz) {
       this.compressName = name;
+      this.confKey = confKey;
+      this.defaultClazz = defaultClazz;
     }
     
-    abstract CompressionCodec getCodec() throws IOException;
+    /**
+     * Loads the codec class named in the configuration or a system property, falling back to the default class. The default classes need the native hadoop
+     * library, so they are not tried when it is not loaded.
+     */
+    public synchronized boolean isSupported() {
+      if (!checked) {
+        checked = true;
+        String clazz = conf.get(confKey);
+        if (clazz == null)
+          clazz = System.getProperty(confKey, defaultClazz);
+        if (clazz.equals(defaultClazz) && !NativeCodeLoader.isNativeCodeLoaded()) {
+          LOG.info("Not loading codec class " + clazz + " : native hadoop library not loaded");
+        } else {
+          try {
+            LOG.info("Trying to load codec class: " + clazz);
+            loadedCodec = (CompressionCodec) ReflectionUtils.newInstance(Class.forName(clazz), conf);
+          } catch (ClassNotFoundException e) {
+            // that is okay
+          } catch (RuntimeException e) {
+            // the class exists, but the native library was built without support for it
+            LOG.info("Unable to load codec class " + clazz + " : " + e.getMessage());
+          } catch (LinkageError e) {
+            LOG.info("Unable to load codec class " + clazz + " : " + e.getMessage());
+          }
+        }
+      }
+      return loadedCodec != null;
+    }
     
-    public abstract InputStream createDecompressionStream(InputStream downStream, Decompressor decompressor, int downStreamBufferSize) throws IOException;
+    CompressionCodec getCodec() throws IOException {
+      if (!isSupported()) {
+        throw new IOException(name() + " codec class not available. Did you forget to set property " + confKey + " or install the native hadoop library?");
+      }
+      return loadedCodec;
+    }
     
-    public abstract OutputStream createCompressionStream(OutputStream downStream, Compressor compressor, int downStreamBufferSize) throws IOException;
+    public InputStream createDecompressionStream(InputStream downStream, Decompressor decompressor, int downStreamBufferSize) throws IOException {
+      CompressionCodec codec = getCodec();
+      InputStream bis1 = null;
+      if (downStreamBufferSize > 0) {
+        bis1 = new BufferedInputStream(downStream, downStreamBufferSize);
+      } else {
+        bis1 = downStream;
+      }
+      CompressionInputStream cis = codec.createInputStream(bis1, decompressor);
+      BufferedInputStream bis2 = new BufferedInputStream(cis, DATA_IBUF_SIZE);
+      return bis2;
+    }
     
-    public abstract boolean isSupported();
+    public OutputStream createCompressionStream(OutputStream downStream, Compressor compressor, int downStreamBufferSize) throws IOException {
+      CompressionCodec codec = getCodec();
+      OutputStream bos1 = null;
+      if (downStreamBufferSize > 0) {
+        bos1 = new BufferedOutputStream(downStream, downStreamBufferSize);
+      } else {
+        bos1 = downStream;
+      }
+      CompressionOutputStream cos = codec.createOutputStream(bos1, compressor);
+      BufferedOutputStream bos2 = new BufferedOutputStream(new FinishOnFlushCompressionStream(cos), DATA_OBUF_SIZE);
+      return bos2;
+    }
     
     public Compressor getCompressor() throws IOException {
       CompressionCodec codec = getCodec();
@@ -302,7 +377,7 @@ final class Compression {
             // Somebody returns the compressor to CodecPool but is still using
             // it.
             LOG.warn("Compressor obtained from CodecPool already finished()");
-          } else {
+          } else if (LOG.isDebugEnabled()) {
             LOG.debug("Got a compressor: " + compressor.hashCode());
           }
           /**
@@ -317,7 +392,8 @@ final class Compression {
     
     public void returnCompressor(Compressor compressor) {
       if (compressor != null) {
-        LOG.debug("Return a compressor: " + compressor.hashCode());
+        if (LOG.isDebugEnabled())
+          LOG.debug("Return a compressor: " + compressor.hashCode());
         CodecPool.returnCompressor(compressor);
       }
     }
@@ -331,7 +407,7 @@ final class Compression {
             // Somebody returns the decompressor to CodecPool but is still using
             // it.
             LOG.warn("Decompressor obtained from CodecPool already finished()");
-          } else {
+          } else if (LOG.isDebugEnabled()) {
             LOG.debug("Got a decompressor: " + decompressor.hashCode());
           }
           /**
@@ -347,7 +423,8 @@ final class Compression {
     
     public void returnDecompressor(Decompressor decompressor) {
       if (decompressor != null) {
-        LOG.debug("Returned a decompressor: " + decompressor.hashCode());
+        if (LOG.isDebugEnabled())
+          LOG.debug("Returned a decompressor: " + decompressor.hashCode());
         CodecPool.returnDecompressor(decompressor);
       }
     }
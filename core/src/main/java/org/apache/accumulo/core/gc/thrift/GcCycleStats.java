@@ -39,6 +39,9 @@ import org.slf4j.LoggerFactory;
   private static final org.apache.thrift.protocol.TField IN_USE_FIELD_DESC = new org.apache.thrift.protocol.TField("inUse", org.apache.thrift.protocol.TType.I64, (short)4);
   private static final org.apache.thrift.protocol.TField DELETED_FIELD_DESC = new org.apache.thrift.protocol.TField("deleted", org.apache.thrift.protocol.TType.I64, (short)5);
   private static final org.apache.thrift.protocol.TField ERRORS_FIELD_DESC = new org.apache.thrift.protocol.TField("errors", org.apache.thrift.protocol.TType.I64, (short)6);
+  private static final org.apache.thrift.protocol.TField GATHER_TIME_FIELD_DESC = new org.apache.thrift.protocol.TField("gatherTime", org.apache.thrift.protocol.TType.I64, (short)7);
+  private static final org.apache.thrift.protocol.TField CONFIRM_TIME_FIELD_DESC = new org.apache.thrift.protocol.TField("confirmTime", org.apache.thrift.protocol.TType.I64, (short)8);
+  private static final org.apache.thrift.protocol.TField DELETE_TIME_FIELD_DESC = new org.apache.thrift.protocol.TField("deleteTime", org.apache.thrift.protocol.TType.I64, (short)9);
 
   private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
   static {
@@ -52,6 +55,9 @@ import org.slf4j.LoggerFactory;
   public long inUse; // required
   public long deleted; // required
   public long errors; // required
+  public long gatherTime; // required
+  public long confirmTime; // required
+  public long deleteTime; // required
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   @SuppressWarnings("all") public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -60,7 +66,10 @@ import org.slf4j.LoggerFactory;
     CANDIDATES((short)3, "candidates"),
     IN_USE((short)4, "inUse"),
     DELETED((short)5, "deleted"),
-    ERRORS((short)6, "errors");
+    ERRORS((short)6, "errors"),
+    GATHER_TIME((short)7, "gatherTime"),
+    CONFIRM_TIME((short)8, "confirmTime"),
+    DELETE_TIME((short)9, "deleteTime");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -87,6 +96,12 @@ import org.slf4j.LoggerFactory;
           return DELETED;
         case 6: // ERRORS
           return ERRORS;
+        case 7: // GATHER_TIME
+          return GATHER_TIME;
+        case 8: // CONFIRM_TIME
+          return CONFIRM_TIME;
+        case 9: // DELETE_TIME
+          return DELETE_TIME;
         default:
           return null;
       }
@@ -133,7 +148,10 @@ import org.slf4j.LoggerFactory;
   private static final int __INUSE_ISSET_ID = 3;
   private static final int __DELETED_ISSET_ID = 4;
   private static final int __ERRORS_ISSET_ID = 5;
-  private byte __isset_bitfield = 0;
+  private static final int __GATHERTIME_ISSET_ID = 6;
+  private static final int __CONFIRMTIME_ISSET_ID = 7;
+  private static final int __DELETETIME_ISSET_ID = 8;
+  private short __isset_bitfield = 0;
   public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
   static {
     Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
@@ -149,6 +167,12 @@ import org.slf4j.LoggerFactory;
         new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I64)));
     tmpMap.put(_Fields.ERRORS, new org.apache.thrift.meta_data.FieldMetaData("errors", org.apache.thrift.TFieldRequirementType.DEFAULT, 
         new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I64)));
+    tmpMap.put(_Fields.GATHER_TIME, new org.apache.thrift.meta_data.FieldMetaData("gatherTime", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+        new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I64)));
+    tmpMap.put(_Fields.CONFIRM_TIME, new org.apache.thrift.meta_data.FieldMetaData("confirmTime", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+        new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I64)));
+    tmpMap.put(_Fields.DELETE_TIME, new org.apache.thrift.meta_data.FieldMetaData("deleteTime", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+        new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I64)));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(GcCycleStats.class, metaDataMap);
   }
@@ -162,7 +186,10 @@ import org.slf4j.LoggerFactory;
     long candidates,
     long inUse,
     long deleted,
-    long errors)
+    long errors,
+    long gatherTime,
+    long confirmTime,
+    long deleteTime)
   {
     this();
     this.started = started;
@@ -177,6 +204,12 @@ import org.slf4j.LoggerFactory;
     setDeletedIsSet(true);
     this.errors = errors;
     setErrorsIsSet(true);
+    this.gatherTime = gatherTime;
+    setGatherTimeIsSet(true);
+    this.confirmTime = confirmTime;
+    setConfirmTimeIsSet(true);
+    this.deleteTime = deleteTime;
+    setDeleteTimeIsSet(true);
   }
 
   /**
@@ -190,6 +223,9 @@ import org.slf4j.LoggerFactory;
     this.inUse = other.inUse;
     this.deleted = other.deleted;
     this.errors = other.errors;
+    this.gatherTime = other.gatherTime;
+    this.confirmTime = other.confirmTime;
+    this.deleteTime = other.deleteTime;
   }
 
   public GcCycleStats deepCopy() {
@@ -210,6 +246,12 @@ import org.slf4j.LoggerFactory;
     this.deleted = 0;
     setErrorsIsSet(false);
     this.errors = 0;
+    setGatherTimeIsSet(false);
+    this.gatherTime = 0;
+    setConfirmTimeIsSet(false);
+    this.confirmTime = 0;
+    setDeleteTimeIsSet(false);
+    this.deleteTime = 0;
   }
 
   public long getStarted() {
@@ -350,6 +392,75 @@ import org.slf4j.LoggerFactory;
     __isset_bitfield = EncodingUtils.setBit(__isset_bitfield, __ERRORS_ISSET_ID, value);
   }
 
+  public long getGatherTime() {
+    return this.gatherTime;
+  }
+
+  public GcCycleStats setGatherTime(long gatherTime) {
+    this.gatherTime = gatherTime;
+    setGatherTimeIsSet(true);
+    return this;
+  }
+
+  public void unsetGatherTime() {
+    __isset_bitfield = EncodingUtils.clearBit(__isset_bitfield, __GATHERTIME_ISSET_ID);
+  }
+
+  /** Returns true if field gatherTime is set (has been assigned a value) and false otherwise */
+  public boolean isSetGatherTime() {
+    return EncodingUtils.testBit(__isset_bitfield, __GATHERTIME_ISSET_ID);
+  }
+
+  public void setGatherTimeIsSet(boolean value) {
+    __isset_bitfield = EncodingUtils.setBit(__isset_bitfield, __GATHERTIME_ISSET_ID, value);
+  }
+
+  public long getConfirmTime() {
+    return this.confirmTime;
+  }
+
+  public GcCycleStats setConfirmTime(long confirmTime) {
+    this.confirmTime = confirmTime;
+    setConfirmTimeIsSet(true);
+    return this;
+  }
+
+  public void unsetConfirmTime() {
+    __isset_bitfield = EncodingUtils.clearBit(__isset_bitfield, __CONFIRMTIME_ISSET_ID);
+  }
+
+  /** Returns true if field confirmTime is set (has been assigned a value) and false otherwise */
+  public boolean isSetConfirmTime() {
+    return EncodingUtils.testBit(__isset_bitfield, __CONFIRMTIME_ISSET_ID);
+  }
+
+  public void setConfirmTimeIsSet(boolean value) {
+    __isset_bitfield = EncodingUtils.setBit(__isset_bitfield, __CONFIRMTIME_ISSET_ID, value);
+  }
+
+  public long getDeleteTime() {
+    return this.deleteTime;
+  }
+
+  public GcCycleStats setDeleteTime(long deleteTime) {
+    this.deleteTime = deleteTime;
+    setDeleteTimeIsSet(true);
+    return this;
+  }
+
+  public void unsetDeleteTime() {
+    __isset_bitfield = EncodingUtils.clearBit(__isset_bitfield, __DELETETIME_ISSET_ID);
+  }
+
+  /** Returns true if field deleteTime is set (has been assigned a value) and false otherwise */
+  public boolean isSetDeleteTime() {
+    return EncodingUtils.testBit(__isset_bitfield, __DELETETIME_ISSET_ID);
+  }
+
+  public void setDeleteTimeIsSet(boolean value) {
+    __isset_bitfield = EncodingUtils.setBit(__isset_bitfield, __DELETETIME_ISSET_ID, value);
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case STARTED:
@@ -400,6 +511,30 @@ import org.slf4j.LoggerFactory;
       }
       break;
 
+    case GATHER_TIME:
+      if (value == null) {
+        unsetGatherTime();
+      } else {
+        setGatherTime((Long)value);
+      }
+      break;
+
+    case CONFIRM_TIME:
+      if (value == null) {
+        unsetConfirmTime();
+      } else {
+        setConfirmTime((Long)value);
+      }
+      break;
+
+    case DELETE_TIME:
+      if (value == null) {
+        unsetDeleteTime();
+      } else {
+        setDeleteTime((Long)value);
+      }
+      break;
+
     }
   }
 
@@ -423,6 +558,15 @@ import org.slf4j.LoggerFactory;
     case ERRORS:
       return Long.valueOf(getErrors());
 
+    case GATHER_TIME:
+      return Long.valueOf(getGatherTime());
+
+    case CONFIRM_TIME:
+      return Long.valueOf(getConfirmTime());
+
+    case DELETE_TIME:
+      return Long.valueOf(getDeleteTime());
+
     }
     throw new IllegalStateException();
   }
@@ -446,6 +590,12 @@ import org.slf4j.LoggerFactory;
       return isSetDeleted();
     case ERRORS:
       return isSetErrors();
+    case GATHER_TIME:
+      return isSetGatherTime();
+    case CONFIRM_TIME:
+      return isSetConfirmTime();
+    case DELETE_TIME:
+      return isSetDeleteTime();
     }
     throw new IllegalStateException();
   }
@@ -517,6 +667,33 @@ import org.slf4j.LoggerFactory;
         return false;
     }
 
+    boolean this_present_gatherTime = true;
+    boolean that_present_gatherTime = true;
+    if (this_present_gatherTime || that_present_gatherTime) {
+      if (!(this_present_gatherTime && that_present_gatherTime))
+        return false;
+      if (this.gatherTime != that.gatherTime)
+        return false;
+    }
+
+    boolean this_present_confirmTime = true;
+    boolean that_present_confirmTime = true;
+    if (this_present_confirmTime || that_present_confirmTime) {
+      if (!(this_present_confirmTime && that_present_confirmTime))
+        return false;
+      if (this.confirmTime != that.confirmTime)
+        return false;
+    }
+
+    boolean this_present_deleteTime = true;
+    boolean that_present_deleteTime = true;
+    if (this_present_deleteTime || that_present_deleteTime) {
+      if (!(this_present_deleteTime && that_present_deleteTime))
+        return false;
+      if (this.deleteTime != that.deleteTime)
+        return false;
+    }
+
     return true;
   }
 
@@ -593,6 +770,36 @@ import org.slf4j.LoggerFactory;
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(isSetGatherTime()).compareTo(typedOther.isSetGatherTime());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetGatherTime()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.gatherTime, typedOther.gatherTime);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
+    lastComparison = Boolean.valueOf(isSetConfirmTime()).compareTo(typedOther.isSetConfirmTime());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetConfirmTime()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.confirmTime, typedOther.confirmTime);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
+    lastComparison = Boolean.valueOf(isSetDeleteTime()).compareTo(typedOther.isSetDeleteTime());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetDeleteTime()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.deleteTime, typedOther.deleteTime);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -636,6 +843,18 @@ import org.slf4j.LoggerFactory;
     sb.append("errors:");
     sb.append(this.errors);
     first = false;
+    if (!first) sb.append(", ");
+    sb.append("gatherTime:");
+    sb.append(this.gatherTime);
+    first = false;
+    if (!first) sb.append(", ");
+    sb.append("confirmTime:");
+    sb.append(this.confirmTime);
+    first = false;
+    if (!first) sb.append(", ");
+    sb.append("deleteTime:");
+    sb.append(this.deleteTime);
+    first = false;
     sb.append(")");
     return sb.toString();
   }
@@ -729,6 +948,30 @@ import org.slf4j.LoggerFactory;
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
             }
             break;
+          case 7: // GATHER_TIME
+            if (schemeField.type == org.apache.thrift.protocol.TType.I64) {
+              struct.gatherTime = iprot.readI64();
+              struct.setGatherTimeIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
+          case 8: // CONFIRM_TIME
+            if (schemeField.type == org.apache.thrift.protocol.TType.I64) {
+              struct.confirmTime = iprot.readI64();
+              struct.setConfirmTimeIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
+          case 9: // DELETE_TIME
+            if (schemeField.type == org.apache.thrift.protocol.TType.I64) {
+              struct.deleteTime = iprot.readI64();
+              struct.setDeleteTimeIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
         }
@@ -762,6 +1005,15 @@ import org.slf4j.LoggerFactory;
       oprot.writeFieldBegin(ERRORS_FIELD_DESC);
       oprot.writeI64(struct.errors);
       oprot.writeFieldEnd();
+      oprot.writeFieldBegin(GATHER_TIME_FIELD_DESC);
+      oprot.writeI64(struct.gatherTime);
+      oprot.writeFieldEnd();
+      oprot.writeFieldBegin(CONFIRM_TIME_FIELD_DESC);
+      oprot.writeI64(struct.confirmTime);
+      oprot.writeFieldEnd();
+      oprot.writeFieldBegin(DELETE_TIME_FIELD_DESC);
+      oprot.writeI64(struct.deleteTime);
+      oprot.writeFieldEnd();
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -798,7 +1050,16 @@ import org.slf4j.LoggerFactory;
       if (struct.isSetErrors()) {
         optionals.set(5);
       }
-      oprot.writeBitSet(optionals, 6);
+      if (struct.isSetGatherTime()) {
+        optionals.set(6);
+      }
+      if (struct.isSetConfirmTime()) {
+        optionals.set(7);
+      }
+      if (struct.isSetDeleteTime()) {
+        optionals.set(8);
+      }
+      oprot.writeBitSet(optionals, 9);
       if (struct.isSetStarted()) {
         oprot.writeI64(struct.started);
       }
@@ -817,12 +1078,21 @@ import org.slf4j.LoggerFactory;
       if (struct.isSetErrors()) {
         oprot.writeI64(struct.errors);
       }
+      if (struct.isSetGatherTime()) {
+        oprot.writeI64(struct.gatherTime);
+      }
+      if (struct.isSetConfirmTime()) {
+        oprot.writeI64(struct.confirmTime);
+      }
+      if (struct.isSetDeleteTime()) {
+        oprot.writeI64(struct.deleteTime);
+      }
     }
 
     @Override
     public void read(org.apache.thrift.protocol.TProtocol prot, GcCycleStats struct) throws org.apache.thrift.TException {
       TTupleProtocol iprot = (TTupleProtocol) prot;
-      BitSet incoming = iprot.readBitSet(6);
+      BitSet incoming = iprot.readBitSet(9);
       if (incoming.get(0)) {
         struct.started = iprot.readI64();
         struct.setStartedIsSet(true);
@@ -847,6 +1117,18 @@ import org.slf4j.LoggerFactory;
         struct.errors = iprot.readI64();
         struct.setErrorsIsSet(true);
       }
+      if (incoming.get(6)) {
+        struct.gatherTime = iprot.readI64();
+        struct.setGatherTimeIsSet(true);
+      }
+      if (incoming.get(7)) {
+        struct.confirmTime = iprot.readI64();
+        struct.setConfirmTimeIsSet(true);
+      }
+      if (incoming.get(8)) {
+        struct.deleteTime = iprot.readI64();
+        struct.setDeleteTimeIsSet(true);
+      }
     }
   }
 
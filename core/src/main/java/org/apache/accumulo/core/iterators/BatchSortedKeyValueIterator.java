@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.iterators;
+
+import java.io.IOException;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+
+/**
+ * An optional extension of {@link SortedKeyValueIterator} for iterators that can produce many key value pairs per call. Callers should not test for this
+ * interface directly, {@link KeyValueBatch#fill(SortedKeyValueIterator)} uses it when it is present and falls back to getTopKey, getTopValue and next when it
+ * is not.
+ */
+public interface BatchSortedKeyValueIterator extends SortedKeyValueIterator<Key,Value> {
+  
+  /**
+   * Adds the top key value pair and the pairs that follow it to the batch, until the batch is full or this iterator has no top. Afterwards this iterator is
+   * positioned on the first pair that was not added, exactly as if getTopKey, getTopValue and next had been called for each added pair.
+   *
+   * @param batch
+   *          <tt>KeyValueBatch</tt> to add to, it may already contain pairs.
+   * @throws IOException
+   *           if an I/O error occurs.
+   * @exception IllegalStateException
+   *              if called before seek.
+   */
+  void nextBatch(KeyValueBatch batch) throws IOException;
+}
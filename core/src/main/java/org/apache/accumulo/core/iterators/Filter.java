@@ -78,6 +78,42 @@ public abstract class Filter extends WrappingIterator implements OptionDescriber
     }
   }
   
+  /**
+   * Filters pairs from the source a batch at a time, for subclasses that implement {@link BatchSortedKeyValueIterator}. The source fills the batch and the
+   * rejected pairs are dropped in place, so the source is not asked for one pair at a time through this iterator. Subclasses that override {@link #next()}
+   * should not use this.
+   */
+  protected void filterBatch(KeyValueBatch batch) throws IOException {
+    SortedKeyValueIterator<Key,Value> source = getSource();
+    while (!batch.isFull() && hasTop()) {
+      int start = batch.size();
+      batch.fill(source);
+      
+      int kept = start;
+      for (int i = start; i < batch.size(); i++) {
+        if (batch.isDeleted(i) || negate != accept(batch, i)) {
+          if (i != kept)
+            batch.swap(i, kept);
+          kept++;
+        }
+      }
+      batch.truncate(kept);
+      
+      findTop();
+    }
+  }
+  
+  /**
+   * Used by {@link #filterBatch(KeyValueBatch)} to decide whether to keep the pair at index of the batch. The default copies the pair out of the batch and calls
+   * {@link #accept(Key, Value)}. Subclasses that only look at some fields should override this to read those fields in place, with accessors like
+   * {@link KeyValueBatch#getColumnVisibilityData(int)}, and must decide exactly as {@link #accept(Key, Value)} does.
+   * 
+   * @return <tt>true</tt> if the pair at index is accepted by the filter.
+   */
+  protected boolean accept(KeyValueBatch batch, int index) {
+    return accept(batch.getKey(index), batch.getValue(index));
+  }
+  
   /**
    * @return <tt>true</tt> if the key/value pair is accepted by the filter.
    */
@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.iterators;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.data.thrift.TKey;
+import org.apache.accumulo.core.data.thrift.TKeyValue;
+
+/**
+ * A bounded array of key value pairs read from a {@link SortedKeyValueIterator}. Pairs are copied when they are added, so iterators are free to reuse the keys
+ * and values they return, and pairs in a batch may be kept after the iterator moves on.
+ *
+ * The bytes of every pair are copied into one shared buffer instead of separate arrays per field, and {@link #toThrift()} sends slices of that buffer, so
+ * adding a pair does not allocate anything once the buffer has grown to fit the batch.
+ *
+ * A batch is full when it holds its maximum number of pairs or when the estimated memory used by its pairs reaches its limit, but it always accepts at least one
+ * pair.
+ *
+ * {@link #getKey(int)} and {@link #getValue(int)} copy a pair out of the batch. Code that looks at every pair, like filters, should read the fields it needs
+ * in place with {@link #getColumnVisibilityData(int)} and the other field accessors instead.
+ */
+public class KeyValueBatch {
+  
+  // overhead is 32 per object
+  private static final int ENTRY_OVERHEAD = 9 * 32;
+  
+  // each pair is described by the offset of its bytes in data followed by the lengths of its row, family, qualifier, visibility and value
+  private static final int FIELDS = 6;
+  private static final int OFFSET = 0;
+  private static final int ROW = 1;
+  private static final int VALUE = 5;
+  
+  private final int maxEntries;
+  private final long maxMemory;
+  
+  private byte[] data;
+  private int dataSize = 0;
+  // bytes in data that belong to pairs still in the batch
+  private int liveBytes = 0;
+  
+  private int[] fields;
+  private long[] timestamps;
+  private boolean[] deleted;
+  private int size = 0;
+  private long memory = 0;
+  
+  // reused views of the row, family, qualifier and visibility of a pair
+  private final FieldView[] views = new FieldView[] {new FieldView(), new FieldView(), new FieldView(), new FieldView()};
+  // the pairs in the order their bytes are stored, used to compact the buffer in place
+  private int[] storedOrder = new int[0];
+  
+  private static class FieldView extends ArrayByteSequence {
+    private static final long serialVersionUID = 1L;
+    
+    FieldView() {
+      super(new byte[0]);
+    }
+    
+    ByteSequence set(byte[] data, int offset, int length) {
+      this.data = data;
+      this.offset = offset;
+      this.length = length;
+      return this;
+    }
+  }
+  
+  public KeyValueBatch(int maxEntries, long maxMemory) {
+    if (maxEntries < 1)
+      throw new IllegalArgumentException("maxEntries must be positive " + maxEntries);
+    this.maxEntries = maxEntries;
+    this.maxMemory = maxMemory;
+    int capacity = Math.min(maxEntries, 64);
+    data = new byte[1024];
+    fields = new int[capacity * FIELDS];
+    timestamps = new long[capacity];
+    deleted = new boolean[capacity];
+  }
+  
+  public static int estimateMemoryUsed(Key key, Value value) {
+    return key.getSize() + value.getSize() + ENTRY_OVERHEAD;
+  }
+  
+  /**
+   * Adds a copy of the key and value.
+   */
+  public void add(Key key, Value value) {
+    if (size == timestamps.length) {
+      int capacity = Math.min(maxEntries, timestamps.length * 2);
+      if (capacity == timestamps.length)
+        throw new IllegalStateException("batch is full");
+      fields = Arrays.copyOf(fields, capacity * FIELDS);
+      timestamps = Arrays.copyOf(timestamps, capacity);
+      deleted = Arrays.copyOf(deleted, capacity);
+    }
+    
+    int length = key.getSize() + value.getSize();
+    ensureCapacity(dataSize + length);
+    
+    int f = size * FIELDS;
+    fields[f + OFFSET] = dataSize;
+    fields[f + ROW] = append(key.getRowData());
+    fields[f + ROW + 1] = append(key.getColumnFamilyData());
+    fields[f + ROW + 2] = append(key.getColumnQualifierData());
+    fields[f + ROW + 3] = append(key.getColumnVisibilityData());
+    System.arraycopy(value.get(), 0, data, dataSize, value.getSize());
+    dataSize += value.getSize();
+    fields[f + VALUE] = value.getSize();
+    timestamps[size] = key.getTimestamp();
+    deleted[size] = key.isDeleted();
+    
+    size++;
+    liveBytes += length;
+    memory += length + ENTRY_OVERHEAD;
+  }
+  
+  private void ensureCapacity(int needed) {
+    if (needed > data.length)
+      data = Arrays.copyOf(data, Math.max(needed, data.length * 2));
+  }
+  
+  private int append(ByteSequence bs) {
+    System.arraycopy(bs.getBackingArray(), bs.offset(), data, dataSize, bs.length());
+    dataSize += bs.length();
+    return bs.length();
+  }
+  
+  /**
+   * Adds pairs from the iterator until this batch is full or the iterator has no top. Iterators that implement {@link BatchSortedKeyValueIterator} add their
+   * own pairs, any other iterator is read one pair at a time.
+   */
+  public void fill(SortedKeyValueIterator<Key,Value> iter) throws IOException {
+    if (iter instanceof BatchSortedKeyValueIterator) {
+      ((BatchSortedKeyValueIterator) iter).nextBatch(this);
+      return;
+    }
+    
+    while (!isFull() && iter.hasTop()) {
+      add(iter.getTopKey(), iter.getTopValue());
+      iter.next();
+    }
+  }
+  
+  public boolean isFull() {
+    // always allow one pair, so that a batch can make progress
+    return size >= maxEntries || (size > 0 && memory >= maxMemory);
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  public long getMemoryUsed() {
+    return memory;
+  }
+  
+  /**
+   * @return the number of key and value bytes in this batch
+   */
+  public long getDataSize() {
+    return liveBytes;
+  }
+  
+  // the offset of a field, where field is ROW through VALUE
+  private int offset(int index, int field) {
+    int f = index * FIELDS;
+    int offset = fields[f + OFFSET];
+    for (int i = ROW; i < field; i++)
+      offset += fields[f + i];
+    return offset;
+  }
+  
+  private byte[] copy(int index, int field) {
+    int offset = offset(index, field);
+    return Arrays.copyOfRange(data, offset, offset + fields[index * FIELDS + field]);
+  }
+  
+  /**
+   * @return a new copy of the key at index
+   */
+  public Key getKey(int index) {
+    checkIndex(index);
+    return new Key(copy(index, ROW), copy(index, ROW + 1), copy(index, ROW + 2), copy(index, ROW + 3), timestamps[index], deleted[index], false);
+  }
+  
+  /**
+   * @return a new copy of the value at index
+   */
+  public Value getValue(int index) {
+    checkIndex(index);
+    return new Value(copy(index, VALUE));
+  }
+  
+  private ByteSequence view(int index, int field) {
+    checkIndex(index);
+    return views[field - ROW].set(data, offset(index, field), fields[index * FIELDS + field]);
+  }
+  
+  /**
+   * @return the row of the pair at index, read in place. The returned sequence is reused by the next call for a row and is only valid until the batch changes,
+   *         it must be copied to be kept.
+   */
+  public ByteSequence getRowData(int index) {
+    return view(index, ROW);
+  }
+  
+  /**
+   * @return the column family of the pair at index, read in place and only valid like {@link #getRowData(int)}
+   */
+  public ByteSequence getColumnFamilyData(int index) {
+    return view(index, ROW + 1);
+  }
+  
+  /**
+   * @return the column qualifier of the pair at index, read in place and only valid like {@link #getRowData(int)}
+   */
+  public ByteSequence getColumnQualifierData(int index) {
+    return view(index, ROW + 2);
+  }
+  
+  /**
+   * @return the column visibility of the pair at index, read in place and only valid like {@link #getRowData(int)}
+   */
+  public ByteSequence getColumnVisibilityData(int index) {
+    return view(index, ROW + 3);
+  }
+  
+  public long getTimestamp(int index) {
+    checkIndex(index);
+    return timestamps[index];
+  }
+  
+  public boolean isDeleted(int index) {
+    checkIndex(index);
+    return deleted[index];
+  }
+  
+  /**
+   * Swaps two pairs. Filters use this to move the pairs they keep ahead of the ones they drop before calling {@link #truncate(int)}.
+   */
+  public void swap(int index1, int index2) {
+    checkIndex(index1);
+    checkIndex(index2);
+    
+    int f1 = index1 * FIELDS;
+    int f2 = index2 * FIELDS;
+    for (int i = 0; i < FIELDS; i++) {
+      int tmp = fields[f1 + i];
+      fields[f1 + i] = fields[f2 + i];
+      fields[f2 + i] = tmp;
+    }
+    
+    long ts = timestamps[index1];
+    timestamps[index1] = timestamps[index2];
+    timestamps[index2] = ts;
+    
+    boolean del = deleted[index1];
+    deleted[index1] = deleted[index2];
+    deleted[index2] = del;
+  }
+  
+  private int length(int index) {
+    int f = index * FIELDS;
+    int length = 0;
+    for (int i = ROW; i <= VALUE; i++)
+      length += fields[f + i];
+    return length;
+  }
+  
+  /**
+   * Drops every pair at or after the given index.
+   */
+  public void truncate(int newSize) {
+    if (newSize < 0 || newSize > size)
+      throw new IndexOutOfBoundsException(newSize + " " + size);
+    
+    for (int i = newSize; i < size; i++) {
+      int length = length(i);
+      liveBytes -= length;
+      memory -= length + ENTRY_OVERHEAD;
+    }
+    size = newSize;
+    
+    if (size == 0) {
+      dataSize = 0;
+    } else if (dataSize - liveBytes > liveBytes) {
+      // most of the buffer belongs to dropped pairs, move the remaining pairs to the front of it in the order they are stored, so that a pair is never
+      // overwritten before it has been moved
+      sortStoredOrder();
+      int offset = 0;
+      for (int j = 0; j < size; j++) {
+        int i = storedOrder[j];
+        int length = length(i);
+        System.arraycopy(data, fields[i * FIELDS + OFFSET], data, offset, length);
+        fields[i * FIELDS + OFFSET] = offset;
+        offset += length;
+      }
+      dataSize = offset;
+    }
+  }
+  
+  // pairs kept by a filter are usually already stored in order, so an insertion sort is close to linear
+  private void sortStoredOrder() {
+    if (storedOrder.length < size)
+      storedOrder = new int[timestamps.length];
+    for (int i = 0; i < size; i++) {
+      int offset = fields[i * FIELDS + OFFSET];
+      int j = i;
+      while (j > 0 && fields[storedOrder[j - 1] * FIELDS + OFFSET] > offset) {
+        storedOrder[j] = storedOrder[j - 1];
+        j--;
+      }
+      storedOrder[j] = i;
+    }
+  }
+  
+  public void clear() {
+    truncate(0);
+  }
+  
+  private boolean fieldEquals(int index1, int index2, int field) {
+    int length = fields[index1 * FIELDS + field];
+    if (length != fields[index2 * FIELDS + field])
+      return false;
+    int offset1 = offset(index1, field);
+    int offset2 = offset(index2, field);
+    for (int i = 0; i < length; i++)
+      if (data[offset1 + i] != data[offset2 + i])
+        return false;
+    return true;
+  }
+  
+  private ByteBuffer slice(int index, int field) {
+    return ByteBuffer.wrap(data, offset(index, field), fields[index * FIELDS + field]);
+  }
+  
+  // null when the field equals the field of the previous pair
+  private ByteBuffer slice(int index, int prev, int field) {
+    if (prev >= 0 && fieldEquals(prev, index, field))
+      return null;
+    return slice(index, field);
+  }
+  
+  /**
+   * Converts the batch to thrift in the same form as {@link Key#compress(List)}, a key field that equals the field of the previous key is left out. The
+   * returned objects refer to this batch's buffer instead of copying it, so the batch must not be changed until they have been sent.
+   */
+  public List<TKeyValue> toThrift() {
+    List<TKeyValue> tkvl = new ArrayList<TKeyValue>(size);
+    for (int i = 0; i < size; i++) {
+      TKey tkey = new TKey(slice(i, i - 1, ROW), slice(i, i - 1, ROW + 1), slice(i, i - 1, ROW + 2), slice(i, i - 1, ROW + 3), timestamps[i]);
+      tkvl.add(new TKeyValue(tkey, slice(i, VALUE)));
+    }
+    return tkvl;
+  }
+  
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException(index + " " + size);
+  }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.accumulo.core.iterators.system;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -25,11 +26,13 @@ import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Column;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.BatchSortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.Filter;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.KeyValueBatch;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 
-public class ColumnQualifierFilter extends Filter {
+public class ColumnQualifierFilter extends Filter implements BatchSortedKeyValueIterator {
   private boolean scanColumns;
   private HashSet<ByteSequence> columnFamilies;
   private HashMap<ByteSequence,HashSet<ByteSequence>> columnsQualifiers;
@@ -53,14 +56,26 @@ public class ColumnQualifierFilter extends Filter {
     if (!scanColumns)
       return true;
     
-    if (columnFamilies.contains(key.getColumnFamilyData()))
+    return accept(key.getColumnFamilyData(), key.getColumnQualifierData());
+  }
+  
+  @Override
+  protected boolean accept(KeyValueBatch batch, int index) {
+    if (!scanColumns)
       return true;
     
-    HashSet<ByteSequence> cfset = columnsQualifiers.get(key.getColumnQualifierData());
+    return accept(batch.getColumnFamilyData(index), batch.getColumnQualifierData(index));
+  }
+  
+  private boolean accept(ByteSequence cf, ByteSequence cq) {
+    if (columnFamilies.contains(cf))
+      return true;
+    
+    HashSet<ByteSequence> cfset = columnsQualifiers.get(cq);
     // ensure the columm qualifier goes with a paired column family,
     // it is possible that a column qualifier could occur with a
     // column family it was not paired with
-    return cfset != null && cfset.contains(key.getColumnFamilyData());
+    return cfset != null && cfset.contains(cf);
   }
   
   public void init(HashSet<Column> columns) {
@@ -92,4 +107,9 @@ public class ColumnQualifierFilter extends Filter {
   public SortedKeyValueIterator<Key,Value> deepCopy(IteratorEnvironment env) {
     return new ColumnQualifierFilter(getSource().deepCopy(env), columnFamilies, columnsQualifiers, scanColumns);
   }
+  
+  @Override
+  public void nextBatch(KeyValueBatch batch) throws IOException {
+    filterBatch(batch);
+  }
 }
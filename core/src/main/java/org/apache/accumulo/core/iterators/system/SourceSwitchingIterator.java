@@ -29,10 +29,12 @@ import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.PartialKey;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.BatchSortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.KeyValueBatch;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 
-public class SourceSwitchingIterator implements SortedKeyValueIterator<Key,Value>, InterruptibleIterator {
+public class SourceSwitchingIterator implements BatchSortedKeyValueIterator, InterruptibleIterator {
   
   public interface DataSource {
     boolean isCurrent();
@@ -105,6 +107,33 @@ public class SourceSwitchingIterator implements SortedKeyValueIterator<Key,Value
     readNext(false);
   }
   
+  /**
+   * Reads a whole batch while holding the lock once. The source is only checked for a switch at the start of the batch, and when switching must wait for a row
+   * boundary the batch is read one entry at a time.
+   */
+  @Override
+  public synchronized void nextBatch(KeyValueBatch batch) throws IOException {
+    if (onlySwitchAfterRow) {
+      while (!batch.isFull() && key != null) {
+        batch.add(key, val);
+        readNext(false);
+      }
+      return;
+    }
+    
+    if (batch.isFull() || key == null)
+      return;
+    
+    batch.add(key, val);
+    if (switchSource())
+      iter.seek(new Range(key, false, range.getEndKey(), range.isEndKeyInclusive()), columnFamilies, inclusive);
+    else
+      iter.next();
+    
+    batch.fill(iter);
+    readTop();
+  }
+  
   private synchronized void readNext(boolean initialSeek) throws IOException {
     
     // check of initialSeek second is intentional so that it does not short
@@ -124,6 +153,10 @@ public class SourceSwitchingIterator implements SortedKeyValueIterator<Key,Value
       }
     }
     
+    readTop();
+  }
+  
+  private void readTop() throws IOException {
     if (iter.hasTop()) {
       Key nextKey = iter.getTopKey();
       Value nextVal = iter.getTopValue();
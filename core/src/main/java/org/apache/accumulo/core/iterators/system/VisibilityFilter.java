@@ -16,25 +16,27 @@
  */
 package org.apache.accumulo.core.iterators.system;
 
+import java.io.IOException;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.BatchSortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.Filter;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.KeyValueBatch;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.accumulo.core.security.Authorizations;
-import org.apache.accumulo.core.security.ColumnVisibility;
-import org.apache.accumulo.core.security.VisibilityEvaluator;
+import org.apache.accumulo.core.security.CompiledVisibility;
+import org.apache.accumulo.core.security.CompiledVisibility.CompiledAuthorizations;
 import org.apache.accumulo.core.security.VisibilityParseException;
-import org.apache.accumulo.core.util.TextUtil;
-import org.apache.commons.collections.map.LRUMap;
-import org.apache.hadoop.io.Text;
 import org.apache.log4j.Logger;
 
-public class VisibilityFilter extends Filter {
-  private VisibilityEvaluator ve;
-  private Text defaultVisibility;
-  private LRUMap cache;
-  private Text tmpVis;
+public class VisibilityFilter extends Filter implements BatchSortedKeyValueIterator {
+  private Authorizations authorizations;
+  private CompiledAuthorizations compiledAuths;
+  private ByteSequence defaultVisibility;
   
   private static final Logger log = Logger.getLogger(VisibilityFilter.class);
   
@@ -42,37 +44,43 @@ public class VisibilityFilter extends Filter {
   
   public VisibilityFilter(SortedKeyValueIterator<Key,Value> iterator, Authorizations authorizations, byte[] defaultVisibility) {
     setSource(iterator);
-    this.ve = new VisibilityEvaluator(authorizations);
-    this.defaultVisibility = new Text(defaultVisibility);
-    this.cache = new LRUMap(1000);
-    this.tmpVis = new Text();
+    this.authorizations = authorizations;
+    this.compiledAuths = new CompiledAuthorizations(authorizations);
+    this.defaultVisibility = new ArrayByteSequence(defaultVisibility);
   }
   
   @Override
   public SortedKeyValueIterator<Key,Value> deepCopy(IteratorEnvironment env) {
-    return new VisibilityFilter(getSource().deepCopy(env), ve.getAuthorizations(), TextUtil.getBytes(defaultVisibility));
+    return new VisibilityFilter(getSource().deepCopy(env), authorizations, defaultVisibility.toArray());
   }
   
   @Override
   public boolean accept(Key k, Value v) {
-    Text testVis = k.getColumnVisibility(tmpVis);
-    
-    if (testVis.getLength() == 0 && defaultVisibility.getLength() == 0)
+    return accept(k.getColumnVisibilityData());
+  }
+  
+  @Override
+  protected boolean accept(KeyValueBatch batch, int index) {
+    return accept(batch.getColumnVisibilityData(index));
+  }
+  
+  private boolean accept(ByteSequence testVis) {
+    if (testVis.length() == 0 && defaultVisibility.length() == 0)
       return true;
-    else if (testVis.getLength() == 0)
+    else if (testVis.length() == 0)
       testVis = defaultVisibility;
     
-    Boolean b = (Boolean) cache.get(testVis);
-    if (b != null)
-      return b;
-    
+    // expressions are compiled once and shared by every scan, so a miss here is rare even when a table has many labels
     try {
-      Boolean bb = ve.evaluate(new ColumnVisibility(testVis));
-      cache.put(new Text(testVis), bb);
-      return bb;
+      return CompiledVisibility.get(testVis).evaluate(compiledAuths);
     } catch (VisibilityParseException e) {
       log.error("Parse Error", e);
       return false;
     }
   }
+  
+  @Override
+  public void nextBatch(KeyValueBatch batch) throws IOException {
+    filterBatch(batch);
+  }
 }
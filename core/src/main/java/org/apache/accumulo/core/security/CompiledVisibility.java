@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.security;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.security.ColumnVisibility.Node;
+
+/**
+ * A column visibility expression compiled to a postfix program over authorization ids. Every term is interned to a small integer id, and a set of
+ * authorizations becomes a bit set indexed by those ids, so evaluating an expression is a handful of bit tests instead of a walk over the parse tree with a
+ * hash lookup per term.
+ *
+ * Compiled expressions are kept in a bounded cache that is shared by every scan in the process, see {@link #get(ByteSequence)}.
+ */
+public class CompiledVisibility {
+  
+  public static final int DEFAULT_CACHE_SIZE = 100000;
+  
+  // when this many distinct terms have been seen, the ids and every compiled expression are thrown away and assigned again
+  static final int MAX_TERMS = 1 << 16;
+  
+  /**
+   * Assigns ids to terms. Expressions and authorizations can only be evaluated together when they were compiled with the same instance.
+   */
+  static class Terms {
+    private final ConcurrentHashMap<ByteSequence,Integer> ids = new ConcurrentHashMap<ByteSequence,Integer>();
+    private final AtomicInteger nextId = new AtomicInteger(0);
+    
+    int intern(ByteSequence term) {
+      Integer id = ids.get(term);
+      if (id != null)
+        return id;
+      
+      Integer newId = nextId.getAndIncrement();
+      id = ids.putIfAbsent(new ArrayByteSequence(term.toArray()), newId);
+      return id == null ? newId : id;
+    }
+    
+    boolean isFull() {
+      return nextId.get() >= MAX_TERMS;
+    }
+  }
+  
+  private static class Cache {
+    final Terms terms = new Terms();
+    final ConcurrentHashMap<ByteSequence,CompiledVisibility> expressions = new ConcurrentHashMap<ByteSequence,CompiledVisibility>();
+    final AtomicInteger size = new AtomicInteger(0);
+  }
+  
+  private static volatile Cache cache = new Cache();
+  private static volatile int maxCacheSize = DEFAULT_CACHE_SIZE;
+  
+  /**
+   * Sets the number of compiled expressions to keep. When the cache grows past this it is cleared.
+   */
+  public static void setCacheSize(int size) {
+    if (size < 1)
+      throw new IllegalArgumentException("cache size must be positive " + size);
+    maxCacheSize = size;
+  }
+  
+  public static int getCachedExpressions() {
+    return cache.size.get();
+  }
+  
+  /**
+   * @return the compiled form of a visibility expression, from the shared cache when it has been seen before
+   * @throws VisibilityParseException
+   *           if the expression is not valid, invalid expressions are not cached
+   */
+  public static CompiledVisibility get(ByteSequence expression) throws VisibilityParseException {
+    Cache c = cache;
+    CompiledVisibility cv = c.expressions.get(expression);
+    if (cv != null)
+      return cv;
+    
+    if (c.terms.isFull() || c.size.get() >= maxCacheSize) {
+      synchronized (CompiledVisibility.class) {
+        if (cache == c)
+          cache = c.terms.isFull() ? new Cache() : newExpressions(c);
+        c = cache;
+      }
+    }
+    
+    byte[] bytes = expression.toArray();
+    cv = compile(c.terms, bytes, new ColumnVisibility(bytes).getParseTree());
+    if (c.expressions.putIfAbsent(new ArrayByteSequence(bytes), cv) == null)
+      c.size.incrementAndGet();
+    return cv;
+  }
+  
+  // keeps the term ids, so that compiled authorizations stay valid when only the expressions are cleared
+  private static Cache newExpressions(Cache old) {
+    Cache c = new Cache();
+    c.terms.ids.putAll(old.terms.ids);
+    c.terms.nextId.set(old.terms.nextId.get());
+    return c;
+  }
+  
+  /**
+   * Authorizations in the form that compiled expressions are evaluated against.
+   */
+  public static class CompiledAuthorizations {
+    private final Authorizations auths;
+    private volatile Bits bits;
+    
+    private static class Bits {
+      final Terms terms;
+      final long[] words;
+      
+      Bits(Terms terms, long[] words) {
+        this.terms = terms;
+        this.words = words;
+      }
+    }
+    
+    public CompiledAuthorizations(Authorizations authorizations) {
+      this.auths = VisibilityEvaluator.escape(authorizations);
+    }
+    
+    long[] getBits(Terms terms) {
+      Bits b = bits;
+      if (b == null || b.terms != terms) {
+        long[] words = new long[0];
+        for (byte[] auth : auths) {
+          int id = terms.intern(new ArrayByteSequence(auth));
+          if ((id >>> 6) >= words.length) {
+            long[] grown = new long[(id >>> 6) + 1];
+            System.arraycopy(words, 0, grown, 0, words.length);
+            words = grown;
+          }
+          words[id >>> 6] |= 1L << id;
+        }
+        b = bits = new Bits(terms, words);
+      }
+      return b.words;
+    }
+  }
+  
+  // an operator is stored as -(children << 1 | OR), a term as its id
+  private static final int OR = 1;
+  
+  private final Terms terms;
+  private final int[] program;
+  // the program can use a long as its stack when no operator has more than 63 children and the stack never grows past 63
+  private final boolean smallStack;
+  
+  private CompiledVisibility(Terms terms, int[] program, boolean smallStack) {
+    this.terms = terms;
+    this.program = program;
+    this.smallStack = smallStack;
+  }
+  
+  static CompiledVisibility compile(Terms terms, byte[] expression, Node root) throws VisibilityParseException {
+    if (root == null)
+      return new CompiledVisibility(terms, new int[0], true);
+    
+    int[] program = new int[count(root)];
+    int[] state = new int[] {0, 0, 0};
+    compile(terms, expression, root, program, state);
+    return new CompiledVisibility(terms, program, state[2] >= 0 && state[2] < 64);
+  }
+  
+  private static int count(Node node) {
+    int count = 1;
+    for (Node child : node.children)
+      count += count(child);
+    return count;
+  }
+  
+  // state[0] is the next program index, state[1] the current stack depth, and state[2] the largest depth seen, or -1 when an operator is too wide for a long
+  private static void compile(Terms terms, byte[] expression, Node node, int[] program, int[] state) throws VisibilityParseException {
+    switch (node.type) {
+      case TERM:
+        program[state[0]++] = terms.intern(node.getTerm(expression));
+        push(state, 1);
+        break;
+      case AND:
+      case OR:
+        if (node.children == null || node.children.size() < 2)
+          throw new VisibilityParseException(node.type + " has less than 2 children", expression, node.start);
+        for (Node child : node.children)
+          compile(terms, expression, child, program, state);
+        int children = node.children.size();
+        program[state[0]++] = -((children << 1) | (node.type == ColumnVisibility.NodeType.OR ? OR : 0));
+        push(state, 1 - children);
+        if (children > 63)
+          state[2] = -1;
+        break;
+      default:
+        throw new VisibilityParseException("No such node type", expression, node.start);
+    }
+  }
+  
+  private static void push(int[] state, int delta) {
+    state[1] += delta;
+    if (state[2] >= 0 && state[1] > state[2])
+      state[2] = state[1];
+  }
+  
+  /**
+   * @return true if the authorizations satisfy this expression, an empty expression is satisfied by any authorizations
+   */
+  public boolean evaluate(CompiledAuthorizations auths) {
+    if (program.length == 0)
+      return true;
+    
+    long[] bits = auths.getBits(terms);
+    if (smallStack)
+      return evaluateSmall(bits);
+    return evaluateLarge(bits);
+  }
+  
+  private static boolean test(long[] bits, int id) {
+    int word = id >>> 6;
+    return word < bits.length && (bits[word] & (1L << id)) != 0;
+  }
+  
+  private boolean evaluateSmall(long[] bits) {
+    long stack = 0;
+    for (int op : program) {
+      if (op >= 0) {
+        stack = (stack << 1) | (test(bits, op) ? 1 : 0);
+      } else {
+        int children = (-op) >>> 1;
+        long mask = (1L << children) - 1;
+        long operands = stack & mask;
+        boolean result = ((-op) & OR) == OR ? operands != 0 : operands == mask;
+        stack = (stack >>> children << 1) | (result ? 1 : 0);
+      }
+    }
+    return (stack & 1) == 1;
+  }
+  
+  private boolean evaluateLarge(long[] bits) {
+    boolean[] stack = new boolean[program.length];
+    int top = 0;
+    for (int op : program) {
+      if (op >= 0) {
+        stack[top++] = test(bits, op);
+      } else {
+        int children = (-op) >>> 1;
+        boolean isOr = ((-op) & OR) == OR;
+        boolean result = !isOr;
+        for (int i = top - children; i < top; i++) {
+          if (stack[i] == isOr) {
+            result = isOr;
+            break;
+          }
+        }
+        top -= children;
+        stack[top++] = result;
+      }
+    }
+    return stack[0];
+  }
+}
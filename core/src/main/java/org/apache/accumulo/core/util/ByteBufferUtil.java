@@ -28,7 +28,25 @@ public class ByteBufferUtil {
   public static byte[] toBytes(ByteBuffer buffer) {
     if (buffer == null)
       return null;
-    return Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.remaining());
+    if (!buffer.hasArray()) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      return bytes;
+    }
+    int start = buffer.arrayOffset() + buffer.position();
+    return Arrays.copyOfRange(buffer.array(), start, start + buffer.remaining());
+  }
+  
+  /**
+   * Like {@link #toBytes(ByteBuffer)}, but returns the backing array without copying it when the buffer covers all of it. The caller must not modify the
+   * returned array.
+   */
+  public static byte[] getBytes(ByteBuffer buffer) {
+    if (buffer == null)
+      return null;
+    if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0 && buffer.remaining() == buffer.array().length)
+      return buffer.array();
+    return toBytes(buffer);
   }
   
   public static List<ByteBuffer> toByteBuffers(Collection<byte[]> bytesList) {
@@ -51,15 +69,28 @@ public class ByteBufferUtil {
     return result;
   }
   
+  /**
+   * Like {@link #toBytesList(Collection)}, but uses {@link #getBytes(ByteBuffer)} to avoid copying buffers that wrap a whole array.
+   */
+  public static List<byte[]> getBytesList(Collection<ByteBuffer> bytesList) {
+    if (bytesList == null)
+      return null;
+    ArrayList<byte[]> result = new ArrayList<byte[]>(bytesList.size());
+    for (ByteBuffer bytes : bytesList) {
+      result.add(getBytes(bytes));
+    }
+    return result;
+  }
+  
   public static Text toText(ByteBuffer bytes) {
     if (bytes == null)
       return null;
     Text result = new Text();
-    result.set(bytes.array(), bytes.position(), bytes.remaining());
+    result.set(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
     return result;
   }
   
   public static String toString(ByteBuffer bytes) {
-    return new String(bytes.array(), bytes.position(), bytes.remaining());
+    return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
   }
 }
@@ -26,6 +26,9 @@ struct GcCycleStats {
    4:i64 inUse;
    5:i64 deleted;
    6:i64 errors;
+   7:i64 gatherTime;
+   8:i64 confirmTime;
+   9:i64 deleteTime;
 }
 
 struct GCStatus {
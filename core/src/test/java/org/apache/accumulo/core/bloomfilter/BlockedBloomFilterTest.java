@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.bloomfilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.util.hash.Hash;
+
+public class BlockedBloomFilterTest extends TestCase {
+
+  private static final int NUM_KEYS = 10000;
+
+  private static long hash(String key) {
+    return BlockedBloomFilter.hash(Hash.getInstance(Hash.MURMUR_HASH), key.getBytes());
+  }
+
+  private BlockedBloomFilter createFilter() {
+    BlockedBloomFilter filter = new BlockedBloomFilter(BlockedBloomFilter.numBlocks(NUM_KEYS, 13), 5);
+    for (int i = 0; i < NUM_KEYS; i++)
+      filter.add(hash("key" + i));
+    return filter;
+  }
+
+  public void testMembership() throws Exception {
+    BlockedBloomFilter filter = createFilter();
+    for (int i = 0; i < NUM_KEYS; i++)
+      assertTrue(filter.membershipTest(hash("key" + i)));
+
+    int falsePositives = 0;
+    for (int i = 0; i < NUM_KEYS; i++)
+      if (filter.membershipTest(hash("other" + i)))
+        falsePositives++;
+    assertTrue("false positives " + falsePositives, falsePositives < NUM_KEYS * 0.01);
+  }
+
+  public void testSerializedBlock() throws Exception {
+    BlockedBloomFilter filter = createFilter();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    filter.write(new DataOutputStream(baos));
+    byte[] data = baos.toByteArray();
+    assertEquals(filter.getNumBlocks() * BlockedBloomFilter.BLOCK_BYTES, data.length);
+
+    for (int i = 0; i < NUM_KEYS; i++) {
+      for (String key : new String[] {"key" + i, "other" + i}) {
+        long h = hash(key);
+        int offset = BlockedBloomFilter.blockOffset(h, filter.getNumBlocks());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, BlockedBloomFilter.BLOCK_BYTES));
+        assertEquals(filter.membershipTest(h), BlockedBloomFilter.membershipTest(h, 5, in));
+      }
+    }
+  }
+}
@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -113,17 +114,13 @@ public class TabletLocatorImplTest extends TestCase {
     return mcke;
   }
   
-  static TreeMap<Text,TabletLocation> createMetaCache(Object... data) {
+  static TabletLocationCache createMetaCache(Object... data) {
     TreeMap<KeyExtent,TabletLocation> mcke = createMetaCacheKE(data);
     
-    TreeMap<Text,TabletLocation> mc = new TreeMap<Text,TabletLocation>(TabletLocatorImpl.endRowComparator);
+    TabletLocationCache mc = new TabletLocationCache();
     
-    for (Entry<KeyExtent,TabletLocation> entry : mcke.entrySet()) {
-      if (entry.getKey().getEndRow() == null)
-        mc.put(TabletLocatorImpl.MAX_TEXT, entry.getValue());
-      else
-        mc.put(entry.getKey().getEndRow(), entry.getValue());
-    }
+    for (TabletLocation tl : mcke.values())
+      mc.put(tl);
     
     return mc;
   }
@@ -182,15 +179,18 @@ public class TabletLocatorImplTest extends TestCase {
     return kes;
   }
   
-  static void runTest(TreeMap<Text,TabletLocation> mc, KeyExtent remove, Set<KeyExtent> expected) {
+  static void runTest(TabletLocationCache mc, KeyExtent remove, Set<KeyExtent> expected) {
     // copy so same metaCache can be used for multiple test
     
-    mc = new TreeMap<Text,TabletLocation>(mc);
+    TabletLocationCache copy = new TabletLocationCache();
+    for (TabletLocation tl : mc)
+      copy.put(tl);
+    mc = copy;
     
-    TabletLocatorImpl.removeOverlapping(mc, remove);
+    mc.removeOverlapping(remove);
     
     HashSet<KeyExtent> eic = new HashSet<KeyExtent>();
-    for (TabletLocation tl : mc.values()) {
+    for (TabletLocation tl : mc) {
       eic.add(tl.tablet_extent);
     }
     
@@ -289,7 +289,7 @@ public class TabletLocatorImplTest extends TestCase {
   }
   
   public void testRemoveOverlapping1() {
-    TreeMap<Text,TabletLocation> mc = createMetaCache(nke("0", null, null), "l1");
+    TabletLocationCache mc = createMetaCache(nke("0", null, null), "l1");
     
     runTest(mc, nke("0", "a", null), nkes());
     runTest(mc, nke("0", null, null), nkes());
@@ -335,7 +335,7 @@ public class TabletLocatorImplTest extends TestCase {
   public void testRemoveOverlapping2() {
     
     // test removes when cache does not contain all tablets in a table
-    TreeMap<Text,TabletLocation> mc = createMetaCache(nke("0", "r", "g"), "l1", nke("0", null, "r"), "l1");
+    TabletLocationCache mc = createMetaCache(nke("0", "r", "g"), "l1", nke("0", null, "r"), "l1");
     
     runTest(mc, nke("0", "a", null), nkes(nke("0", "r", "g"), nke("0", null, "r")));
     runTest(mc, nke("0", "g", null), nkes(nke("0", "r", "g"), nke("0", null, "r")));
@@ -1060,6 +1060,31 @@ public class TabletLocatorImplTest extends TestCase {
     runTest(metaCache, ml, emb);
   }
   
+  public void testLookupCounts() throws Exception {
+    KeyExtent ke1 = nke("foo", "h", null);
+    KeyExtent ke2 = nke("foo", "t", "h");
+    KeyExtent ke3 = nke("foo", null, "t");
+    
+    TabletLocatorImpl metaCache = createLocators("foo", ke1, "l1", ke2, "l2", ke3, "l3");
+    
+    // rows that are not cached are counted once, as misses, even though they are looked up again after the cache is filled
+    List<Mutation> ml = nml(nm("a", "cf1:cq1=v1"), nm("i", "cf1:cq1=v2"));
+    runTest(metaCache, ml, cemb(nol("a", "l1", ke1), nol("i", "l2", ke2)));
+    assertEquals(0, metaCache.getCacheHits());
+    assertEquals(2, metaCache.getCacheMisses());
+    assertEquals(1, metaCache.getLookups());
+    
+    runTest(metaCache, ml, cemb(nol("a", "l1", ke1), nol("i", "l2", ke2)));
+    assertEquals(2, metaCache.getCacheHits());
+    assertEquals(2, metaCache.getCacheMisses());
+    assertEquals(2, metaCache.getLookups());
+    
+    assertEquals(ke3, metaCache.locateTablet(new Text("w"), false, false).tablet_extent);
+    assertEquals(3, metaCache.getCacheHits());
+    assertEquals(2, metaCache.getCacheMisses());
+    assertEquals(3, metaCache.getLookups());
+  }
+  
   public void testBinMutations4() throws Exception {
     // three table with hole
     KeyExtent ke1 = nke("foo", "h", null);
@@ -1239,4 +1264,55 @@ public class TabletLocatorImplTest extends TestCase {
     locateTabletTest(tab0TabletCache, "a", ke1, "tserver7");
     
   }
+  
+  public void testLargeMetaCache() {
+    // enough tablets to split the cache into several chunks, added out of order
+    int numTablets = TabletLocationCache.CHUNK_SIZE * 5;
+    List<KeyExtent> extents = new ArrayList<KeyExtent>();
+    String prev = null;
+    for (int i = 0; i < numTablets; i++) {
+      String end = i == numTablets - 1 ? null : String.format("r%05d", i * 10);
+      extents.add(nke("0", end, prev));
+      prev = end;
+    }
+    
+    List<KeyExtent> shuffled = new ArrayList<KeyExtent>(extents);
+    Collections.shuffle(shuffled, new Random(7));
+    TabletLocationCache mc = new TabletLocationCache();
+    for (KeyExtent ke : shuffled)
+      mc.put(new TabletLocation(ke, "l1"));
+    
+    assertEquals(numTablets, mc.size());
+    int i = 0;
+    for (TabletLocation tl : mc)
+      assertEquals(extents.get(i++), tl.tablet_extent);
+    
+    for (i = 0; i < numTablets - 1; i++) {
+      assertEquals(extents.get(i), mc.locate(new Text(String.format("r%05d", i * 10))).tablet_extent);
+      assertEquals(extents.get(i + 1), mc.locate(new Text(String.format("r%05d", i * 10 + 5))).tablet_extent);
+      assertEquals(extents.get(i + 1), mc.locateAfter(extents.get(i).getEndRow()).tablet_extent);
+    }
+    
+    // remove a range of tablets that spans chunks
+    mc.removeOverlapping(nke("0", "r03000", "r01000"));
+    assertEquals(numTablets - 200, mc.size());
+    assertNull(mc.locate(new Text("r02000")));
+    assertNull(mc.locateAfter(new Text("r01000")));
+    assertEquals(extents.get(301), mc.locateAfter(new Text("r03000")).tablet_extent);
+    assertEquals(extents.get(100), mc.locate(new Text("r01000")).tablet_extent);
+    
+    // fill the hole back in
+    for (i = 101; i <= 300; i++)
+      mc.put(new TabletLocation(extents.get(i), "l2"));
+    assertEquals(numTablets, mc.size());
+    assertEquals("l2", mc.locate(new Text("r02000")).tablet_location);
+    assertEquals(new HashSet<KeyExtent>(extents.subList(101, 301)), mc.getExtents("l2"));
+    assertEquals(numTablets - 200, mc.getExtents("l1").size());
+    
+    mc.removeOverlapping(nke("0", null, null));
+    assertEquals(0, mc.size());
+    assertFalse(mc.iterator().hasNext());
+    assertTrue(mc.getExtents("l1").isEmpty());
+    assertTrue(mc.getExtents("l2").isEmpty());
+  }
 }
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.file;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.conf.ConfigurationCopy;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.file.keyfunctor.ColumnFamilyFunctor;
+import org.apache.accumulo.core.file.keyfunctor.RowFunctor;
+import org.apache.accumulo.core.file.rfile.RFile;
+import org.apache.accumulo.core.util.CachedConfiguration;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+public class BloomFilterLayerTest extends TestCase {
+  
+  private static final Set<ByteSequence> LG1 = Collections.<ByteSequence> singleton(new ArrayByteSequence("cf1"));
+  private static final Set<ByteSequence> ALL = new HashSet<ByteSequence>();
+  
+  private Configuration conf;
+  private FileSystem fs;
+  private Path file;
+  
+  // the keys written to each locality group
+  private TreeSet<Key> lg1Keys = new TreeSet<Key>();
+  private TreeSet<Key> defaultKeys = new TreeSet<Key>();
+  
+  @Override
+  protected void setUp() throws Exception {
+    conf = CachedConfiguration.getInstance();
+    fs = FileSystem.getLocal(conf);
+    file = new Path(System.getProperty("java.io.tmpdir"), "BloomFilterLayerTest_" + System.currentTimeMillis() + "." + RFile.EXTENSION);
+    
+    // the even rows, in both groups except that every fifth row is only in the default group
+    for (int i = 0; i < 2000; i += 2) {
+      Text row = new Text(String.format("r%06d", i));
+      for (String cq : new String[] {"a", "b"}) {
+        if (i % 10 != 0)
+          lg1Keys.add(new Key(row, new Text("cf1"), new Text(cq)));
+        defaultKeys.add(new Key(row, new Text("cf2"), new Text(cq)));
+      }
+    }
+    // a row with more keys, and more column families, than fit in a partition
+    Text wideRow = new Text(String.format("r%06d", 1002));
+    for (int i = 0; i < 2000; i++)
+      lg1Keys.add(new Key(wideRow, new Text("cf1"), new Text(String.format("%04d", i))));
+    for (int i = 0; i < 600; i++)
+      defaultKeys.add(new Key(wideRow, new Text(String.format("cf3_%04d", i)), new Text("a")));
+  }
+  
+  @Override
+  protected void tearDown() throws Exception {
+    fs.delete(file, false);
+  }
+  
+  private static AccumuloConfiguration bloomConf(String partitionSize, Class<?> functor) {
+    ConfigurationCopy acuconf = new ConfigurationCopy(AccumuloConfiguration.getDefaultConfiguration());
+    acuconf.set(Property.TABLE_BLOOM_ENABLED, "true");
+    acuconf.set(Property.TABLE_BLOOM_PARTITION_SIZE, partitionSize);
+    acuconf.set(Property.TABLE_BLOOM_KEY_FUNCTOR, functor.getName());
+    acuconf.set(Property.TABLE_BLOOM_SIZE, "10000");
+    // load an unpartitioned filter in the foreground when the reader is opened
+    acuconf.set(Property.TABLE_BLOOM_LOAD_THRESHOLD, "0");
+    acuconf.set(Property.TSERV_BLOOM_LOAD_MAXCONCURRENT, "0");
+    return acuconf;
+  }
+  
+  private void writeFile(AccumuloConfiguration acuconf) throws IOException {
+    FileSKVWriter writer = FileOperations.getInstance().openWriter(file.toString(), fs, conf, acuconf);
+    writer.startNewLocalityGroup("lg1", LG1);
+    for (Key k : lg1Keys)
+      writer.append(k, new Value(k.toString().getBytes()));
+    writer.startDefaultLocalityGroup();
+    for (Key k : defaultKeys)
+      writer.append(k, new Value(k.toString().getBytes()));
+    writer.close();
+  }
+  
+  private static Range range(Key k, PartialKey part) {
+    Key start = part == PartialKey.ROW ? new Key(k.getRow()) : new Key(k.getRow(), k.getColumnFamily());
+    return new Range(start, true, start.followingKey(part), false);
+  }
+  
+  private static boolean seekFinds(FileSKVIterator reader, Key k, PartialKey part, Set<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+    reader.seek(range(k, part), columnFamilies, inclusive);
+    return reader.hasTop() && reader.getTopKey().equals(k, part);
+  }
+  
+  /**
+   * Checks that every key written is found through the filter, from either locality group, and that most keys that were not written are filtered out.
+   */
+  private void checkFilter(AccumuloConfiguration acuconf, PartialKey part) throws IOException {
+    FileSKVIterator reader = FileOperations.getInstance().openReader(file.toString(), false, fs, conf, acuconf);
+    try {
+      BloomFilterLayer.BloomFilterLoader filter = new BloomFilterLayer.BloomFilterLoader(reader, acuconf);
+      
+      for (Key k : lg1Keys) {
+        assertTrue(k.toString(), filter.probablyHasKey(range(k, part)));
+        assertTrue(k.toString(), seekFinds(reader, k, part, LG1, true));
+      }
+      for (Key k : defaultKeys) {
+        assertTrue(k.toString(), filter.probablyHasKey(range(k, part)));
+        assertTrue(k.toString(), seekFinds(reader, k, part, ALL, false));
+      }
+      
+      // the odd rows, and rows before and after all of the partitions, are not in the file
+      TreeSet<Key> misses = new TreeSet<Key>();
+      for (int i = -101; i < 2100; i += 2)
+        misses.add(new Key(new Text(String.format("r%06d", i)), new Text("cf2")));
+      misses.add(new Key(new Text("a"), new Text("cf2")));
+      misses.add(new Key(new Text("z"), new Text("cf2")));
+      if (part == PartialKey.ROW_COLFAM) {
+        // nor are other column families of the rows that are
+        for (Key k : defaultKeys)
+          misses.add(new Key(k.getRow(), new Text("cf9")));
+      }
+      
+      int falsePositives = 0;
+      for (Key k : misses) {
+        if (filter.probablyHasKey(range(k, part)))
+          falsePositives++;
+        assertFalse(k.toString(), seekFinds(reader, k, part, ALL, false));
+      }
+      assertTrue(falsePositives + " of " + misses.size(), falsePositives < misses.size() / 20);
+      
+      // ranges that are not within a row can not be filtered
+      assertTrue(filter.probablyHasKey(new Range(new Text("r000001"), new Text("r000003"))));
+      assertTrue(filter.probablyHasKey(new Range()));
+    } finally {
+      reader.close();
+    }
+  }
+  
+  private void checkMetaStores(AccumuloConfiguration acuconf, String present, String absent) throws IOException {
+    FileSKVIterator reader = FileOperations.getInstance().openReader(file.toString(), false, fs, conf, acuconf);
+    try {
+      reader.getMetaStore(present).close();
+      try {
+        reader.getMetaStore(absent).close();
+        fail(file + " has " + absent);
+      } catch (NoSuchMetaStoreException e) {
+        // expected
+      }
+    } finally {
+      reader.close();
+    }
+  }
+  
+  public void testPartitionedRows() throws IOException {
+    // small partitions, so that each locality group has many
+    AccumuloConfiguration acuconf = bloomConf("256", RowFunctor.class);
+    writeFile(acuconf);
+    checkMetaStores(acuconf, BloomFilterLayer.BLOOM_PARTITION_PREFIX + "10", BloomFilterLayer.BLOOM_FILE_NAME);
+    checkFilter(acuconf, PartialKey.ROW);
+  }
+  
+  public void testPartitionedColumnFamilies() throws IOException {
+    // the wide row has more column families than a partition holds, and is not split between partitions
+    AccumuloConfiguration acuconf = bloomConf("256", ColumnFamilyFunctor.class);
+    writeFile(acuconf);
+    checkMetaStores(acuconf, BloomFilterLayer.BLOOM_PARTITION_INDEX_NAME, BloomFilterLayer.BLOOM_FILE_NAME);
+    checkFilter(acuconf, PartialKey.ROW_COLFAM);
+  }
+  
+  public void testUnpartitioned() throws IOException {
+    // files written before bloom filters were partitioned have a single filter, which is still read
+    AccumuloConfiguration acuconf = bloomConf("0", RowFunctor.class);
+    writeFile(acuconf);
+    checkMetaStores(acuconf, BloomFilterLayer.BLOOM_FILE_NAME, BloomFilterLayer.BLOOM_PARTITION_INDEX_NAME);
+    checkFilter(acuconf, PartialKey.ROW);
+  }
+}
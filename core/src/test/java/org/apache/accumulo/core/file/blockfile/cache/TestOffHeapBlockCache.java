@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.file.blockfile.cache;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestOffHeapBlockCache extends TestCase {
+
+  private static final int PAGE_SIZE = 1024;
+
+  private static byte[] randomBlock(Random r, int size) {
+    byte[] buf = new byte[size];
+    r.nextBytes(buf);
+    return buf;
+  }
+
+  public void testCacheSimple() throws Exception {
+    OffHeapBlockCache cache = new OffHeapBlockCache(1000000, PAGE_SIZE, 64 * PAGE_SIZE, 0.75f, 0.85f);
+    Random r = new Random(7);
+    byte[][] blocks = new byte[100][];
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = randomBlock(r, r.nextInt(5000) + 1);
+      assertNull(cache.getBlock("block" + i));
+    }
+
+    for (int i = 0; i < blocks.length; i++) {
+      CacheEntry ce = cache.cacheBlock("block" + i, blocks[i]);
+      assertNotNull(ce);
+      assertSame(blocks[i], ce.getBuffer());
+    }
+    assertEquals(blocks.length, cache.size());
+
+    for (int i = 0; i < blocks.length; i++) {
+      CacheEntry ce = cache.getBlock("block" + i);
+      assertNotNull(ce);
+      assertNotSame(blocks[i], ce.getBuffer());
+      assertTrue(Arrays.equals(blocks[i], ce.getBuffer()));
+    }
+
+    assertEquals(0, cache.getEvictionCount());
+    assertEquals(blocks.length * 2, cache.getStats().getRequestCount());
+    assertEquals(blocks.length, cache.getStats().getHitCount());
+  }
+
+  public void testIndexIsShared() throws Exception {
+    OffHeapBlockCache cache = new OffHeapBlockCache(100000, PAGE_SIZE, 16 * PAGE_SIZE, 0.75f, 0.85f);
+    cache.cacheBlock("b", new byte[3000]).setIndex("index");
+    assertEquals("index", cache.getBlock("b").getIndex());
+    cache.getBlock("b").setIndex("index2");
+    assertEquals("index2", cache.getBlock("b").getIndex());
+  }
+
+  public void testEviction() throws Exception {
+    // room for 100 pages
+    OffHeapBlockCache cache = new OffHeapBlockCache(100 * PAGE_SIZE, PAGE_SIZE, 16 * PAGE_SIZE, 0.5f, 0.9f);
+    Random r = new Random(11);
+    byte[][] blocks = new byte[20][];
+    for (int i = 0; i < blocks.length; i++) {
+      // each block takes 5 pages
+      blocks[i] = randomBlock(r, 5 * PAGE_SIZE - 10);
+      assertNotNull(cache.cacheBlock("block" + i, blocks[i]));
+      // keep block 0 recently used
+      assertNotNull(cache.getBlock("block0"));
+    }
+
+    assertTrue(cache.getEvictionCount() > 0);
+    assertTrue(cache.getCurrentSize() <= cache.getMaxSize());
+    assertTrue(Arrays.equals(blocks[0], cache.getBlock("block0").getBuffer()));
+    assertNull(cache.getBlock("block1"));
+    assertTrue(Arrays.equals(blocks[19], cache.getBlock("block19").getBuffer()));
+    assertEquals(cache.getCurrentSize(), cache.size() * 5 * PAGE_SIZE);
+  }
+
+  public void testInMemoryEvictedLast() throws Exception {
+    OffHeapBlockCache cache = new OffHeapBlockCache(100 * PAGE_SIZE, PAGE_SIZE, 16 * PAGE_SIZE, 0.5f, 0.9f);
+    cache.cacheBlock("memory", new byte[10 * PAGE_SIZE], true);
+    for (int i = 0; i < 40; i++)
+      cache.cacheBlock("block" + i, new byte[5 * PAGE_SIZE]);
+    assertNotNull(cache.getBlock("memory"));
+  }
+
+  public void testTooLarge() throws Exception {
+    OffHeapBlockCache cache = new OffHeapBlockCache(10 * PAGE_SIZE, PAGE_SIZE, 16 * PAGE_SIZE, 0.5f, 0.9f);
+    assertNull(cache.cacheBlock("big", new byte[11 * PAGE_SIZE]));
+    assertNull(cache.getBlock("big"));
+    assertEquals(0, cache.getCurrentSize());
+  }
+}
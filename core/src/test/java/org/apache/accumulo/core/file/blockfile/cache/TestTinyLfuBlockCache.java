@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.file.blockfile.cache;
+
+import junit.framework.TestCase;
+
+public class TestTinyLfuBlockCache extends TestCase {
+
+  private static final int BLOCK_SIZE = 1000;
+
+  public void testCacheSimple() throws Exception {
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(1000000, BLOCK_SIZE);
+    byte[][] blocks = new byte[100][];
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = new byte[BLOCK_SIZE];
+      assertNull(cache.getBlock("block" + i));
+    }
+
+    for (int i = 0; i < blocks.length; i++)
+      assertSame(blocks[i], cache.cacheBlock("block" + i, blocks[i]).getBuffer());
+    assertEquals(blocks.length, cache.size());
+
+    for (int i = 0; i < blocks.length; i++)
+      assertSame(blocks[i], cache.getBlock("block" + i).getBuffer());
+
+    assertEquals(0, cache.getEvictedCount());
+    assertEquals(blocks.length * 2, cache.getStats().getRequestCount());
+    assertEquals(0.5, cache.getStats().getHitRatio(), 0.0001);
+  }
+
+  public void testDuplicate() throws Exception {
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(1000000, BLOCK_SIZE);
+    byte[] first = new byte[BLOCK_SIZE];
+    cache.cacheBlock("b", first);
+    assertSame(first, cache.cacheBlock("b", new byte[BLOCK_SIZE]).getBuffer());
+    assertEquals(1, cache.getStats().getDuplicateReads());
+  }
+
+  public void testSketchOverhead() throws Exception {
+    // the sketch has 4 rows of counters, each a power of two of at least the number of items
+    TinyLfuBlockCache.FrequencySketch sketch = new TinyLfuBlockCache.FrequencySketch(5000);
+    assertTrue(sketch.heapSize() >= 4 * 8192);
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(1000 * BLOCK_SIZE, BLOCK_SIZE);
+    assertTrue(cache.getCurrentSize() > new TinyLfuBlockCache.FrequencySketch(1200 * 4).heapSize());
+  }
+
+  public void testScanResistance() throws Exception {
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(200000, BLOCK_SIZE);
+    long heapSize = new CachedBlock("hot0", new byte[BLOCK_SIZE], 0).heapSize();
+    int hotBlocks = (int) ((cache.getMaxSize() - cache.getCurrentSize()) / heapSize / 2);
+
+    // a working set that is read repeatedly
+    for (int pass = 0; pass < 5; pass++) {
+      for (int i = 0; i < hotBlocks; i++) {
+        if (cache.getBlock("hot" + i) == null)
+          cache.cacheBlock("hot" + i, new byte[BLOCK_SIZE]);
+      }
+    }
+
+    // a scan of many blocks that are each read once
+    for (int i = 0; i < hotBlocks * 10; i++) {
+      if (cache.getBlock("scan" + i) == null)
+        cache.cacheBlock("scan" + i, new byte[BLOCK_SIZE]);
+    }
+
+    assertTrue(cache.getRejectedCount() > 0);
+    assertTrue(cache.getCurrentSize() <= cache.getMaxSize());
+    int hits = 0;
+    for (int i = 0; i < hotBlocks; i++)
+      if (cache.getBlock("hot" + i) != null)
+        hits++;
+    assertTrue("only " + hits + " of " + hotBlocks + " hot blocks survived the scan", hits > hotBlocks * 0.9);
+  }
+
+  public void testEviction() throws Exception {
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(100000, BLOCK_SIZE);
+    for (int i = 0; i < 1000; i++) {
+      cache.cacheBlock("block" + i, new byte[BLOCK_SIZE]);
+      assertTrue(cache.getCurrentSize() <= cache.getMaxSize());
+    }
+    assertTrue(cache.getEvictedCount() > 0);
+    assertTrue(cache.size() > 0);
+    assertEquals(1000 - cache.size(), cache.getEvictedCount());
+  }
+
+  public void testInMemory() throws Exception {
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(100000, BLOCK_SIZE);
+    cache.cacheBlock("memory", new byte[BLOCK_SIZE], true);
+    for (int i = 0; i < 200; i++)
+      cache.cacheBlock("block" + i, new byte[BLOCK_SIZE]);
+    assertNotNull(cache.getBlock("memory"));
+  }
+
+  public void testTooLarge() throws Exception {
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(100000, BLOCK_SIZE);
+    assertNull(cache.cacheBlock("big", new byte[100000]));
+    assertNull(cache.getBlock("big"));
+  }
+
+  public void testFrequencySketch() throws Exception {
+    TinyLfuBlockCache.FrequencySketch sketch = new TinyLfuBlockCache.FrequencySketch(64);
+    for (int i = 0; i < 5; i++)
+      sketch.increment("a");
+    assertTrue(sketch.frequency("a") >= 5);
+    for (int i = 0; i < 100; i++)
+      sketch.increment("a");
+    assertEquals(15, sketch.frequency("a"));
+
+    // enough other additions to age the sketch
+    for (int i = 0; i < 1000; i++)
+      sketch.increment("x" + i);
+    assertTrue(sketch.frequency("a") < 15);
+  }
+}
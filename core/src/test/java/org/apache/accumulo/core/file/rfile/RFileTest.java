@@ -24,20 +24,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
 import junit.framework.TestCase;
 
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.conf.ConfigurationCopy;
+import org.apache.accumulo.core.conf.Property;
 import org.apache.accumulo.core.data.ArrayByteSequence;
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.PartialKey;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.file.FileOperations;
 import org.apache.accumulo.core.file.FileSKVIterator;
+import org.apache.accumulo.core.file.FileSKVWriter;
 import org.apache.accumulo.core.file.blockfile.cache.LruBlockCache;
 import org.apache.accumulo.core.file.blockfile.impl.CachableBlockFile;
 import org.apache.accumulo.core.file.rfile.RFile.Reader;
@@ -48,6 +55,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PositionedReadable;
 import org.apache.hadoop.fs.Seekable;
 import org.apache.hadoop.io.Text;
@@ -156,10 +164,14 @@ public class RFileTest extends TestCase {
     public SortedKeyValueIterator<Key,Value> iter;
 
     public void openWriter(boolean startDLG) throws IOException {
+      openWriter(startDLG, 1000, 32);
+    }
+    
+    public void openWriter(boolean startDLG, int blockSize, int restartInterval) throws IOException {
       baos = new ByteArrayOutputStream();
       dos = new FSDataOutputStream(baos, new FileSystem.Statistics("a"));
       CachableBlockFile.Writer _cbw = new CachableBlockFile.Writer(dos, "gz", conf);
-      writer = new RFile.Writer(_cbw, 1000, 1000);
+      writer = new RFile.Writer(_cbw, blockSize, 1000, restartInterval);
       
       if (startDLG)
         writer.startDefaultLocalityGroup();
@@ -1479,4 +1491,296 @@ public class RFileTest extends TestCase {
     
     reader.close();
   }
+  
+  public void testRestartPoints() throws IOException {
+    // interval of zero writes blocks without restart points
+    for (int restartInterval : new int[] {0, 1, 7, 32}) {
+      TestRFile trf = new TestRFile();
+      trf.openWriter(true, 100000, restartInterval);
+      
+      ArrayList<Key> expectedKeys = new ArrayList<Key>();
+      for (int row = 0; row < 300; row++) {
+        for (int cq = 0; cq < 3; cq++) {
+          for (int ts = 3; ts > 0; ts--) {
+            Key k = nk(nf("r_", row), "cf", nf("cq_", cq), "", ts);
+            trf.writer.append(k, nv(k.toString()));
+            expectedKeys.add(k);
+          }
+        }
+      }
+      trf.closeWriter();
+      
+      trf.openReader();
+      Random rand = new Random(restartInterval);
+      for (int i = 0; i < 1000; i++) {
+        int index = rand.nextInt(expectedKeys.size());
+        Key key = expectedKeys.get(index);
+        trf.seek(key);
+        for (int j = index; j < Math.min(index + 10, expectedKeys.size()); j++) {
+          assertTrue(trf.iter.hasTop());
+          assertEquals(expectedKeys.get(j), trf.iter.getTopKey());
+          assertEquals(nv(expectedKeys.get(j).toString()), trf.iter.getTopValue());
+          trf.iter.next();
+        }
+        
+        // seek to a key that is not in the file
+        trf.seek(new Key(key.getRow(), key.getColumnFamily(), new Text(key.getColumnQualifier() + "_")));
+        int next = (index / 3 + 1) * 3;
+        if (next < expectedKeys.size())
+          assertEquals(expectedKeys.get(next), trf.iter.getTopKey());
+        else
+          assertFalse(trf.iter.hasTop());
+      }
+      trf.closeReader();
+    }
+  }
+  
+  public void testPrefetch() throws IOException {
+    RFile.setPrefetch(2, 4);
+    try {
+      TestRFile trf = new TestRFile();
+      // small blocks, so that a scan reads many blocks in order
+      trf.openWriter(true, 200, 32);
+      
+      ArrayList<Key> expectedKeys = new ArrayList<Key>();
+      for (int row = 0; row < 1000; row++) {
+        Key k = nk(nf("r_", row), "cf", "cq", "", 1);
+        trf.writer.append(k, nv(k.toString()));
+        expectedKeys.add(k);
+      }
+      trf.closeWriter();
+      
+      trf.openReader();
+      long hits = RFile.getPrefetchHits();
+      trf.iter.seek(new Range(), EMPTY_COL_FAMS, false);
+      for (Key k : expectedKeys) {
+        assertTrue(trf.iter.hasTop());
+        assertEquals(k, trf.iter.getTopKey());
+        assertEquals(nv(k.toString()), trf.iter.getTopValue());
+        trf.iter.next();
+      }
+      assertFalse(trf.iter.hasTop());
+      // the scan took blocks that were read ahead
+      assertTrue(RFile.getPrefetchHits() > hits);
+      assertEquals(0, RFile.getPrefetchMemory());
+      
+      // seeking back and forth drops blocks that were read ahead
+      Random rand = new Random(5);
+      for (int i = 0; i < 100; i++) {
+        int start = rand.nextInt(expectedKeys.size());
+        int end = Math.min(expectedKeys.size() - 1, start + rand.nextInt(200));
+        trf.iter.seek(new Range(expectedKeys.get(start), true, expectedKeys.get(end), true), EMPTY_COL_FAMS, false);
+        for (int j = start; j <= end; j++) {
+          assertTrue(trf.iter.hasTop());
+          assertEquals(expectedKeys.get(j), trf.iter.getTopKey());
+          trf.iter.next();
+        }
+        assertFalse(trf.iter.hasTop());
+      }
+      
+      // nothing is read ahead once the memory for it is used up
+      RFile.setPrefetchMemory(0);
+      hits = RFile.getPrefetchHits();
+      trf.iter.seek(new Range(), EMPTY_COL_FAMS, false);
+      for (Key k : expectedKeys) {
+        assertTrue(trf.iter.hasTop());
+        assertEquals(k, trf.iter.getTopKey());
+        trf.iter.next();
+      }
+      assertFalse(trf.iter.hasTop());
+      assertEquals(hits, RFile.getPrefetchHits());
+      trf.closeReader();
+      // the memory of blocks dropped by seeks and the close was given back
+      assertEquals(0, RFile.getPrefetchMemory());
+    } finally {
+      RFile.setPrefetchMemory(Long.MAX_VALUE);
+      RFile.setPrefetch(0, 0);
+    }
+  }
+  
+  public void testLookupPrefetch() throws IOException {
+    RFile.setPrefetch(2, 4);
+    RFile.setLookupPrefetch(8);
+    try {
+      TestRFile trf = new TestRFile();
+      trf.openWriter(true, 200, 32);
+      
+      ArrayList<Key> expectedKeys = new ArrayList<Key>();
+      for (int row = 0; row < 1000; row++) {
+        Key k = nk(nf("r_", row), "cf", "cq", "", 1);
+        trf.writer.append(k, nv(k.toString()));
+        expectedKeys.add(k);
+      }
+      trf.closeWriter();
+      
+      trf.openReader();
+      
+      // more blocks than are read ahead, some ranges skipped, and ranges that span blocks
+      ArrayList<Range> ranges = new ArrayList<Range>();
+      for (int start = 3; start < 1000; start += 97)
+        ranges.add(new Range(expectedKeys.get(start), true, expectedKeys.get(Math.min(999, start + 20)), true));
+      
+      for (int pass = 0; pass < 2; pass++) {
+        long hits = RFile.getPrefetchHits();
+        trf.reader.prefetch(ranges, EMPTY_COL_FAMS, false);
+        for (int i = pass; i < ranges.size(); i += 1 + pass) {
+          Range range = ranges.get(i);
+          trf.iter.seek(range, EMPTY_COL_FAMS, false);
+          for (Key k : expectedKeys) {
+            if (range.contains(k)) {
+              assertTrue(trf.iter.hasTop());
+              assertEquals(k, trf.iter.getTopKey());
+              assertEquals(nv(k.toString()), trf.iter.getTopValue());
+              trf.iter.next();
+            }
+          }
+          assertFalse(trf.iter.hasTop());
+        }
+        // the blocks of the first ranges looked up were read ahead
+        assertTrue(RFile.getPrefetchHits() > hits);
+      }
+      
+      // a scan after a lookup sees the whole file
+      trf.reader.prefetch(ranges, EMPTY_COL_FAMS, false);
+      trf.iter.seek(new Range(), EMPTY_COL_FAMS, false);
+      for (Key k : expectedKeys) {
+        assertTrue(trf.iter.hasTop());
+        assertEquals(k, trf.iter.getTopKey());
+        trf.iter.next();
+      }
+      assertFalse(trf.iter.hasTop());
+      
+      // without memory to read blocks ahead, lookups read every block themselves
+      RFile.setPrefetchMemory(0);
+      long hits = RFile.getPrefetchHits();
+      trf.reader.prefetch(ranges, EMPTY_COL_FAMS, false);
+      for (Range range : ranges) {
+        trf.iter.seek(range, EMPTY_COL_FAMS, false);
+        for (Key k : expectedKeys) {
+          if (range.contains(k)) {
+            assertTrue(trf.iter.hasTop());
+            assertEquals(k, trf.iter.getTopKey());
+            trf.iter.next();
+          }
+        }
+        assertFalse(trf.iter.hasTop());
+      }
+      assertEquals(hits, RFile.getPrefetchHits());
+      trf.closeReader();
+      assertEquals(0, RFile.getPrefetchMemory());
+    } finally {
+      RFile.setPrefetchMemory(Long.MAX_VALUE);
+      RFile.setLookupPrefetch(0);
+      RFile.setPrefetch(0, 0);
+    }
+  }
+  
+  private void checkReader(Reader reader, List<Key> expectedKeys, Collection<ByteSequence> cfs) throws IOException {
+    assertEquals(expectedKeys.get(0), reader.getFirstKey());
+    assertEquals(expectedKeys.get(expectedKeys.size() - 1), reader.getLastKey());
+    
+    reader.seek(new Range(), cfs, cfs.size() > 0);
+    for (Key k : expectedKeys) {
+      if (cfs.size() > 0 && !cfs.contains(k.getColumnFamilyData()))
+        continue;
+      assertTrue(reader.hasTop());
+      assertEquals(k, reader.getTopKey());
+      assertEquals(nv(k.toString()), reader.getTopValue());
+      reader.next();
+    }
+    assertFalse(reader.hasTop());
+  }
+  
+  public void testMetadataCache() throws IOException {
+    Configuration conf = CachedConfiguration.getInstance();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path path = new Path(System.getProperty("java.io.tmpdir"), "RFileTest_" + System.currentTimeMillis() + "." + RFile.EXTENSION);
+    
+    RFile.setMetadataCacheSize(1 << 20);
+    try {
+      // small blocks, so that the index has more than one level
+      ConfigurationCopy acuconf = new ConfigurationCopy(AccumuloConfiguration.getDefaultConfiguration());
+      acuconf.set(Property.TABLE_FILE_COMPRESSED_BLOCK_SIZE, "200");
+      acuconf.set(Property.TABLE_FILE_COMPRESSED_BLOCK_SIZE_INDEX, "200");
+      FileSKVWriter writer = FileOperations.getInstance().openWriter(path.toString(), fs, conf, acuconf);
+      ArrayList<Key> expectedKeys = new ArrayList<Key>();
+      writer.startNewLocalityGroup("lg1", ncfs("cf1"));
+      for (int row = 0; row < 500; row++) {
+        Key k = nk(nf("r_", row), "cf1", "cq", "", 1);
+        writer.append(k, nv(k.toString()));
+        expectedKeys.add(k);
+      }
+      writer.startDefaultLocalityGroup();
+      for (int row = 0; row < 500; row++) {
+        Key k = nk(nf("r_", row), "cf2", "cq", "", 1);
+        writer.append(k, nv(k.toString()));
+        expectedKeys.add(k);
+      }
+      writer.close();
+      Collections.sort(expectedKeys);
+      
+      // a file opened once, without block caches, like a file checked after it is written, is not cached
+      assertFalse(RFile.isMetadataCached(path.toString()));
+      FileSKVIterator fileReader = FileOperations.getInstance().openReader(path.toString(), false, fs, conf, acuconf);
+      fileReader.close();
+      assertFalse(RFile.isMetadataCached(path.toString()));
+      assertEquals(0, RFile.getMetadataCacheSize());
+      
+      Reader reader = RFile.openReader(fs, path, conf, null, null);
+      assertTrue(RFile.isMetadataCached(path.toString()));
+      long size = RFile.getMetadataCacheSize();
+      assertTrue(size > 0);
+      checkReader(reader, expectedKeys, EMPTY_COL_FAMS);
+      reader.close();
+      
+      // readers opened from the cache read the file the same way, including the lower levels of the index
+      for (int i = 0; i < 3; i++) {
+        reader = RFile.openReader(fs, path, conf, null, null);
+        checkReader(reader, expectedKeys, EMPTY_COL_FAMS);
+        checkReader(reader, expectedKeys, ncfs("cf1"));
+        checkReader(reader, expectedKeys, ncfs("cf2"));
+        reader.close();
+      }
+      
+      // the cache is bounded by the memory its entries use
+      RFile.setMetadataCacheSize(size);
+      assertTrue(RFile.isMetadataCached(path.toString()));
+      RFile.setMetadataCacheSize(size - 1);
+      assertFalse(RFile.isMetadataCached(path.toString()));
+      assertEquals(0, RFile.getMetadataCacheSize());
+      reader = RFile.openReader(fs, path, conf, null, null);
+      assertFalse(RFile.isMetadataCached(path.toString()));
+      checkReader(reader, expectedKeys, EMPTY_COL_FAMS);
+      reader.close();
+      
+      // a file rewritten under the same name is read again
+      RFile.setMetadataCacheSize(1 << 20);
+      reader = RFile.openReader(fs, path, conf, null, null);
+      reader.close();
+      assertTrue(RFile.isMetadataCached(path.toString()));
+      fs.delete(path, false);
+      writer = FileOperations.getInstance().openWriter(path.toString(), fs, conf, acuconf);
+      assertFalse(RFile.isMetadataCached(path.toString()));
+      expectedKeys.clear();
+      writer.startDefaultLocalityGroup();
+      for (int row = 0; row < 100; row++) {
+        Key k = nk(nf("s_", row), "cf3", "cq", "", 2);
+        writer.append(k, nv(k.toString()));
+        expectedKeys.add(k);
+      }
+      writer.close();
+      reader = RFile.openReader(fs, path, conf, null, null);
+      checkReader(reader, expectedKeys, EMPTY_COL_FAMS);
+      reader.close();
+      
+      RFile.setMetadataCacheSize(0);
+      assertFalse(RFile.isMetadataCached(path.toString()));
+      reader = RFile.openReader(fs, path, conf, null, null);
+      checkReader(reader, expectedKeys, EMPTY_COL_FAMS);
+      reader.close();
+    } finally {
+      RFile.setMetadataCacheSize(0);
+      fs.delete(path, false);
+    }
+  }
 }
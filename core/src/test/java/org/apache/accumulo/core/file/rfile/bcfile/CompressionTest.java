@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.file.rfile.bcfile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.accumulo.core.file.rfile.bcfile.Compression.Algorithm;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.NativeCodeLoader;
+
+public class CompressionTest extends TestCase {
+  
+  private static byte[] testData() {
+    // compressible, but not trivially so
+    byte[] data = new byte[100000];
+    Random rand = new Random(42);
+    for (int i = 0; i < data.length; i++)
+      data[i] = (byte) ('a' + rand.nextInt(4));
+    return data;
+  }
+  
+  private static byte[] roundTrip(Algorithm algorithm, byte[] data) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    Compressor compressor = algorithm.getCompressor();
+    try {
+      OutputStream out = algorithm.createCompressionStream(baos, compressor, 0);
+      out.write(data);
+      out.flush();
+      out.close();
+    } finally {
+      algorithm.returnCompressor(compressor);
+    }
+    
+    byte[] read = new byte[data.length];
+    Decompressor decompressor = algorithm.getDecompressor();
+    try {
+      InputStream in = algorithm.createDecompressionStream(new ByteArrayInputStream(baos.toByteArray()), decompressor, 0);
+      new DataInputStream(in).readFully(read);
+      assertEquals(-1, in.read());
+      in.close();
+    } finally {
+      algorithm.returnDecompressor(decompressor);
+    }
+    return read;
+  }
+  
+  public void testRoundTrip() throws IOException {
+    byte[] data = testData();
+    for (Algorithm algorithm : Algorithm.values()) {
+      if (!algorithm.isSupported())
+        continue;
+      // twice, so that the second pass uses a compressor and decompressor returned to the pool
+      for (int i = 0; i < 2; i++)
+        assertTrue(algorithm.getName(), Arrays.equals(data, roundTrip(algorithm, data)));
+    }
+  }
+  
+  public void testSupported() throws IOException {
+    assertTrue(Algorithm.GZ.isSupported());
+    assertTrue(Algorithm.NONE.isSupported());
+    
+    // the default lz4 and zstd codecs need the native hadoop library
+    if (!NativeCodeLoader.isNativeCodeLoaded()) {
+      assertFalse(Algorithm.LZ4.isSupported());
+      assertFalse(Algorithm.ZSTD.isSupported());
+    }
+    
+    List<String> supported = Arrays.asList(Compression.getSupportedAlgorithms());
+    for (Algorithm algorithm : Algorithm.values()) {
+      assertEquals(algorithm.getName(), algorithm.isSupported(), supported.contains(algorithm.getName()));
+      assertEquals(algorithm, Compression.getCompressionAlgorithmByName(algorithm.getName()));
+      if (!algorithm.isSupported()) {
+        try {
+          algorithm.getCodec();
+          fail(algorithm.getName() + " is not supported, but returned a codec");
+        } catch (IOException e) {
+          // expected
+        }
+      }
+    }
+  }
+}
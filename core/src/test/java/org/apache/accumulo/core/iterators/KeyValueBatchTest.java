@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.iterators;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.data.thrift.TKeyValue;
+
+public class KeyValueBatchTest extends TestCase {
+  
+  private static Key nk(String row, String cf, String cq, String cv, long ts) {
+    return new Key(row, cf, cq, cv, ts);
+  }
+  
+  private static Value nv(String val) {
+    return new Value(val.getBytes());
+  }
+  
+  public void testCopy() {
+    KeyValueBatch batch = new KeyValueBatch(10, Long.MAX_VALUE);
+    Key k = nk("r1", "cf1", "cq1", "A", 5);
+    k.setDeleted(true);
+    Value v = nv("v1");
+    batch.add(k, v);
+    v.get()[0] = 'x';
+    
+    assertEquals(1, batch.size());
+    assertEquals(k, batch.getKey(0));
+    assertTrue(batch.getKey(0).isDeleted());
+    assertEquals(nv("v1"), batch.getValue(0));
+    assertEquals(k.getSize() + 2, batch.getDataSize());
+  }
+  
+  public void testFieldViews() {
+    KeyValueBatch batch = new KeyValueBatch(10, Long.MAX_VALUE);
+    Key k1 = nk("r1", "cf1", "cq1", "A", 5);
+    Key k2 = nk("r22", "cf22", "", "B|C", 7);
+    k2.setDeleted(true);
+    batch.add(k1, nv("v1"));
+    batch.add(k2, nv("v2"));
+    
+    assertEquals(new ArrayByteSequence("r1"), batch.getRowData(0));
+    assertEquals(new ArrayByteSequence("cf1"), batch.getColumnFamilyData(0));
+    assertEquals(new ArrayByteSequence("cq1"), batch.getColumnQualifierData(0));
+    assertEquals(new ArrayByteSequence("A"), batch.getColumnVisibilityData(0));
+    assertEquals(5, batch.getTimestamp(0));
+    assertFalse(batch.isDeleted(0));
+    
+    // views are reused rather than allocated for each pair
+    ByteSequence vis = batch.getColumnVisibilityData(1);
+    assertSame(vis, batch.getColumnVisibilityData(0));
+    assertEquals(new ArrayByteSequence("r22"), batch.getRowData(1));
+    assertEquals(new ArrayByteSequence("cf22"), batch.getColumnFamilyData(1));
+    assertEquals(0, batch.getColumnQualifierData(1).length());
+    assertEquals(new ArrayByteSequence("B|C"), batch.getColumnVisibilityData(1));
+    assertEquals(new ArrayByteSequence("B|C").hashCode(), batch.getColumnVisibilityData(1).hashCode());
+    assertEquals(7, batch.getTimestamp(1));
+    assertTrue(batch.isDeleted(1));
+    
+    try {
+      batch.getRowData(2);
+      fail();
+    } catch (IndexOutOfBoundsException e) {}
+  }
+  
+  public void testToThrift() {
+    KeyValueBatch batch = new KeyValueBatch(10, Long.MAX_VALUE);
+    Key[] keys = new Key[] {nk("r1", "cf1", "cq1", "A", 5), nk("r1", "cf1", "cq2", "A", 4), nk("r2", "cf1", "cq2", "", 3), nk("r2", "cf2", "cq2", "", 3)};
+    for (int i = 0; i < keys.length; i++)
+      batch.add(keys[i], nv("v" + i));
+    
+    List<TKeyValue> tkvl = batch.toThrift();
+    assertEquals(keys.length, tkvl.size());
+    
+    // fields that repeat the previous key are left out
+    assertNull(tkvl.get(1).key.row);
+    assertNull(tkvl.get(1).key.colFamily);
+    assertNotNull(tkvl.get(1).key.colQualifier);
+    assertNull(tkvl.get(3).key.row);
+    assertNull(tkvl.get(3).key.colQualifier);
+    
+    Key.decompress(tkvl);
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(keys[i], new Key(tkvl.get(i).key));
+      assertEquals(nv("v" + i), new Value(tkvl.get(i).value));
+    }
+  }
+  
+  public void testTruncate() {
+    KeyValueBatch batch = new KeyValueBatch(1000, Long.MAX_VALUE);
+    for (int round = 0; round < 10; round++) {
+      int start = batch.size();
+      for (int i = 0; i < 100; i++)
+        batch.add(nk(String.format("r%02d_%03d", round, i), "cf", "cq", "", 1), nv("v" + i));
+      
+      // keep every tenth pair, as a filter would
+      int kept = start;
+      for (int i = start; i < batch.size(); i++) {
+        if ((i - start) % 10 == 0)
+          batch.swap(i, kept++);
+      }
+      batch.truncate(kept);
+    }
+    
+    assertEquals(100, batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      assertEquals(nk(String.format("r%02d_%03d", i / 10, (i % 10) * 10), "cf", "cq", "", 1), batch.getKey(i));
+      assertEquals(nv("v" + (i % 10) * 10), batch.getValue(i));
+    }
+    
+    // keep pairs in the reverse of the order they are stored, then compact the buffer
+    for (int i = 0; i < 50; i++)
+      batch.swap(i, 99 - i);
+    batch.truncate(10);
+    for (int i = 0; i < 10; i++) {
+      int j = 99 - i;
+      assertEquals(nk(String.format("r%02d_%03d", j / 10, (j % 10) * 10), "cf", "cq", "", 1), batch.getKey(i));
+      assertEquals(nv("v" + (j % 10) * 10), batch.getValue(i));
+    }
+    
+    batch.clear();
+    assertEquals(0, batch.size());
+    assertEquals(0, batch.getDataSize());
+    assertEquals(0, batch.getMemoryUsed());
+  }
+}
@@ -16,13 +16,20 @@
  */
 package org.apache.accumulo.core.iterators.system;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
 
 import junit.framework.TestCase;
 
+import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Column;
 import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.KeyValueBatch;
+import org.apache.accumulo.core.iterators.SortedMapIterator;
 import org.apache.hadoop.io.Text;
 
 public class ColumnFilterTest extends TestCase {
@@ -75,4 +82,39 @@ public class ColumnFilterTest extends TestCase {
     assertTrue(cf.accept(nk("r1", "cf2", "cq1"), new Value(new byte[0])));
     assertFalse(cf.accept(nk("r1", "cf2", "cq2"), new Value(new byte[0])));
   }
+  
+  public void testBatch() throws Exception {
+    HashSet<Column> columns = new HashSet<Column>();
+    
+    columns.add(nc("cf2", "cq1"));
+    
+    TreeMap<Key,Value> tm = new TreeMap<Key,Value>();
+    for (int i = 0; i < 10; i++) {
+      tm.put(nk("r" + i, "cf1", "cq1"), new Value(("v" + i).getBytes()));
+      tm.put(nk("r" + i, "cf2", "cq1"), new Value(("v" + i).getBytes()));
+      tm.put(nk("r" + i, "cf2", "cq2"), new Value(("v" + i).getBytes()));
+    }
+    Key deleted = nk("r5", "cf3", "cq3");
+    deleted.setDeleted(true);
+    tm.put(deleted, new Value(new byte[0]));
+    
+    ColumnQualifierFilter cf = new ColumnQualifierFilter(new SortedMapIterator(tm), columns);
+    cf.seek(new Range(), new ArrayList<ByteSequence>(), false);
+    
+    // batches hold the same pairs that iterating one at a time would return, deletes are passed through
+    KeyValueBatch batch = new KeyValueBatch(4, Long.MAX_VALUE);
+    List<Key> keys = new ArrayList<Key>();
+    while (cf.hasTop()) {
+      batch.clear();
+      batch.fill(cf);
+      assertTrue(batch.size() > 0);
+      for (int i = 0; i < batch.size(); i++)
+        keys.add(batch.getKey(i));
+    }
+    
+    assertEquals(11, keys.size());
+    assertEquals(deleted, keys.get(6));
+    for (Key key : keys)
+      assertTrue(key.isDeleted() || key.getColumnFamily().toString().equals("cf2"));
+  }
 }
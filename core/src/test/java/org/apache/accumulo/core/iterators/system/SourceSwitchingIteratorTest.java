@@ -27,6 +27,7 @@ import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.KeyValueBatch;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.SortedMapIterator;
 import org.apache.accumulo.core.iterators.system.SourceSwitchingIterator.DataSource;
@@ -236,4 +237,42 @@ public class SourceSwitchingIteratorTest extends TestCase {
     ane(dc1, "r2", "cf1", "cq2", 6, "v4", true);
     assertFalse(dc1.hasTop());
   }
+  
+  public void testBatch() throws Exception {
+    TreeMap<Key,Value> tm1 = new TreeMap<Key,Value>();
+    put(tm1, "r1", "cf1", "cq1", 5, "v1");
+    put(tm1, "r1", "cf1", "cq3", 5, "v2");
+    put(tm1, "r2", "cf1", "cq1", 5, "v3");
+    put(tm1, "r3", "cf1", "cq1", 5, "v4");
+    
+    SortedMapIterator smi = new SortedMapIterator(tm1);
+    TestDataSource tds = new TestDataSource(smi);
+    SourceSwitchingIterator ssi = new SourceSwitchingIterator(tds);
+    
+    ssi.seek(new Range(), new ArrayList<ByteSequence>(), false);
+    KeyValueBatch batch = new KeyValueBatch(2, Long.MAX_VALUE);
+    batch.fill(ssi);
+    assertEquals(2, batch.size());
+    assertEquals(nk("r1", "cf1", "cq1", 5), batch.getKey(0));
+    assertEquals("v2", batch.getValue(1).toString());
+    
+    // the iterator is left on the first pair that did not fit
+    ane(ssi, "r2", "cf1", "cq1", 5, "v3", false);
+    
+    TreeMap<Key,Value> tm2 = new TreeMap<Key,Value>();
+    put(tm2, "r2", "cf1", "cq1", 5, "v5");
+    put(tm2, "r3", "cf1", "cq1", 5, "v6");
+    
+    SortedMapIterator smi2 = new SortedMapIterator(tm2);
+    TestDataSource tds2 = new TestDataSource(smi2);
+    tds.next = tds2;
+    
+    // the top pair was read before the switch, the rest of the batch comes from the new source
+    batch.clear();
+    batch.fill(ssi);
+    assertEquals(2, batch.size());
+    assertEquals("v3", batch.getValue(0).toString());
+    assertEquals("v6", batch.getValue(1).toString());
+    assertFalse(ssi.hasTop());
+  }
 }
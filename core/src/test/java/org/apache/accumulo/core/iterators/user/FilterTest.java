@@ -17,6 +17,7 @@
 package org.apache.accumulo.core.iterators.user;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -37,6 +38,7 @@ import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.iterators.DefaultIteratorEnvironment;
 import org.apache.accumulo.core.iterators.Filter;
+import org.apache.accumulo.core.iterators.KeyValueBatch;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.SortedMapIterator;
 import org.apache.accumulo.core.iterators.system.ColumnQualifierFilter;
@@ -311,6 +313,41 @@ public class FilterTest {
     assertTrue("size was " + size, size == 750);
   }
   
+  @Test
+  public void testVisibilityBatch() throws IOException {
+    Value dv = new Value(new byte[0]);
+    TreeMap<Key,Value> tm = new TreeMap<Key,Value>();
+    
+    String[] visibilities = {"L1", "L0&OFFICIAL", "L1&L2", "L1&L2&G1", ""};
+    Authorizations auths = new Authorizations("L1", "L2", "L0", "OFFICIAL");
+    for (int i = 0; i < 1000; i++)
+      tm.put(new Key(new Text(String.format("%03d", i)), new Text("a"), new Text("b"), new Text(visibilities[i % 5])), dv);
+    
+    // the batch path reads visibilities in place, and must keep the same pairs as the path that copies each key
+    for (String defaultVisibility : new String[] {"", "L0&OFFICIAL", "G1"}) {
+      VisibilityFilter a = new VisibilityFilter(new SortedMapIterator(tm), auths, defaultVisibility.getBytes());
+      a.seek(new Range(), EMPTY_COL_FAMS, false);
+      int expected = 0;
+      while (a.hasTop()) {
+        expected++;
+        a.next();
+      }
+      
+      a.seek(new Range(), EMPTY_COL_FAMS, false);
+      KeyValueBatch batch = new KeyValueBatch(7, Long.MAX_VALUE);
+      int size = 0;
+      while (a.hasTop()) {
+        batch.clear();
+        batch.fill(a);
+        for (int i = 0; i < batch.size(); i++)
+          assertFalse(batch.getKey(i).getColumnVisibility().toString().equals("L1&L2&G1"));
+        size += batch.size();
+      }
+      assertEquals(expected, size);
+      assertEquals(defaultVisibility.equals("G1") ? 600 : 800, size);
+    }
+  }
+  
   private ColumnQualifierFilter ncqf(TreeMap<Key,Value> tm, Column... columns) throws IOException {
     HashSet<Column> hsc = new HashSet<Column>();
     
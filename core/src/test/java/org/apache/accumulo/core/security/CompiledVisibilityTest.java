@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.core.security;
+
+import static org.apache.accumulo.core.security.ColumnVisibility.quote;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.security.CompiledVisibility.CompiledAuthorizations;
+import org.junit.Test;
+
+public class CompiledVisibilityTest {
+  
+  private static boolean evaluate(String expression, Authorizations auths) throws VisibilityParseException {
+    return CompiledVisibility.get(new ArrayByteSequence(expression)).evaluate(new CompiledAuthorizations(auths));
+  }
+  
+  @Test
+  public void testSameAsEvaluator() throws VisibilityParseException {
+    List<String> expressions = new ArrayList<String>();
+    for (String e : new String[] {"one", "one&two", "foor|four", "(one&two)|(foo&bar)", "one|five", "five|one", "(one)", "(one|foo)&three", "one|foo|bar",
+        "((one|foo)|bar)&two", "five", "one&five", "five&one", "((one|foo)|bar)&goober", quote("A#C") + "|" + quote("A?C"),
+        quote("A\"C") + "&" + quote("A\\C"), "(" + quote("A\"C") + "|B)&(" + quote("A#C") + "|D)", quote("A#C") + "&B"})
+      expressions.add(e);
+    
+    // wider and deeper than fits in a long
+    StringBuilder wide = new StringBuilder("t0");
+    for (int i = 1; i < 70; i++)
+      wide.append("|t").append(i);
+    expressions.add(wide.toString());
+    expressions.add(wide.toString().replace("t69", "one"));
+    expressions.add(wide.toString().replace('|', '&'));
+    
+    StringBuilder deep = new StringBuilder("one");
+    for (int i = 0; i < 70; i++)
+      deep.insert(0, (i % 2 == 0 ? "two&(" : "foo|(")).append(")");
+    expressions.add(deep.toString());
+    
+    Authorizations[] authSets = new Authorizations[] {new Authorizations(), new Authorizations("one", "two", "three", "four"),
+        new Authorizations("A#C", "A\"C", "A\\C", "AC"), new Authorizations("two", "t3")};
+    
+    for (Authorizations auths : authSets) {
+      VisibilityEvaluator ve = new VisibilityEvaluator(auths);
+      for (String expression : expressions)
+        assertEquals(expression + " " + auths, ve.evaluate(new ColumnVisibility(expression)), evaluate(expression, auths));
+    }
+  }
+  
+  @Test
+  public void testShared() throws VisibilityParseException {
+    CompiledVisibility.setCacheSize(CompiledVisibility.DEFAULT_CACHE_SIZE);
+    CompiledVisibility cv = CompiledVisibility.get(new ArrayByteSequence("red&(blue|green)"));
+    assertSame(cv, CompiledVisibility.get(new ArrayByteSequence("xred&(blue|green)".getBytes(), 1, 16)));
+    
+    // the same compiled expression works for any authorizations
+    assertTrue(cv.evaluate(new CompiledAuthorizations(new Authorizations("red", "green"))));
+    assertTrue(!cv.evaluate(new CompiledAuthorizations(new Authorizations("blue", "green"))));
+    
+    // a full cache is cleared, but authorizations compiled earlier still work
+    CompiledAuthorizations auths = new CompiledAuthorizations(new Authorizations("red", "blue"));
+    assertTrue(cv.evaluate(auths));
+    CompiledVisibility.setCacheSize(1);
+    try {
+      for (int i = 0; i < 10; i++)
+        CompiledVisibility.get(new ArrayByteSequence("red&l" + i));
+      assertTrue(CompiledVisibility.getCachedExpressions() <= 1);
+      CompiledVisibility cv2 = CompiledVisibility.get(new ArrayByteSequence("red&(blue|green)"));
+      assertNotSame(cv, cv2);
+      assertTrue(cv2.evaluate(auths));
+      assertTrue(cv.evaluate(auths));
+    } finally {
+      CompiledVisibility.setCacheSize(CompiledVisibility.DEFAULT_CACHE_SIZE);
+    }
+  }
+}
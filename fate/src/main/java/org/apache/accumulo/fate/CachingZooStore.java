@@ -0,0 +1,406 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.fate;
+
+import java.io.Serializable;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.accumulo.fate.zookeeper.IZooReaderWriter;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+
+/**
+ * A transaction store that keeps the status of every transaction in memory and learns about changes made in zookeeper through watches, instead of listing and
+ * reading every transaction each time a runner looks for work.
+ *
+ * Transactions that can run are kept in ready queues, one per runner thread. A runner takes work from its own queue and steals from the others when its queue
+ * is empty, so runners do not contend on a single lock to find work. Deferred transactions wait in a delay queue and are moved to a ready queue when their
+ * time is up. The repo stack and properties are stored the same way as {@link ZooStore}, which this class uses to do that work.
+ *
+ * Since a watch can be lost, all transactions are read again from zookeeper when the session expires and once every {@link #REFRESH_INTERVAL} milliseconds.
+ */
+public class CachingZooStore<T> implements TStore<T> {
+  
+  private static final Logger log = Logger.getLogger(CachingZooStore.class);
+  
+  static final long REFRESH_INTERVAL = 60 * 1000;
+  private static final long MAX_WAIT = 5000;
+  
+  private static final EnumSet<TStatus> RUNNABLE = EnumSet.of(TStatus.IN_PROGRESS, TStatus.FAILED_IN_PROGRESS);
+  
+  // values of the work map for transactions that are in a ready queue or waiting out a deferral, a transaction taken by a runner maps to the runner thread
+  private static final Object QUEUED = new Object();
+  private static final Object DEFERRED = new Object();
+  
+  private final ZooStore<T> store;
+  private final String path;
+  private final IZooReaderWriter zk;
+  private final Watcher watcher = new StoreWatcher();
+  
+  private final ConcurrentHashMap<Long,TStatus> statusCache = new ConcurrentHashMap<Long,TStatus>();
+  private final Object[] statusLocks = new Object[64];
+  private final Object statusChanged = new Object();
+  private final AtomicLong statusChangeEvents = new AtomicLong(0);
+  
+  private final ConcurrentHashMap<Long,Object> work = new ConcurrentHashMap<Long,Object>();
+  private final ConcurrentLinkedQueue<Long>[] readyQueues;
+  private final Semaphore ready = new Semaphore(0);
+  private final DelayQueue<Deferral> deferred = new DelayQueue<Deferral>();
+  
+  private final AtomicInteger nextShard = new AtomicInteger(0);
+  private final ThreadLocal<Integer> shard = new ThreadLocal<Integer>() {
+    @Override
+    protected Integer initialValue() {
+      return (nextShard.getAndIncrement() & Integer.MAX_VALUE) % readyQueues.length;
+    }
+  };
+  
+  private final AtomicLong lastRefresh = new AtomicLong(0);
+  private final AtomicLong zooReads = new AtomicLong(0);
+  
+  private static class Deferral implements Delayed {
+    final long tid;
+    final long time;
+    
+    Deferral(long tid, long deferTime) {
+      this.tid = tid;
+      this.time = System.currentTimeMillis() + deferTime;
+    }
+    
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(time - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    public int compareTo(Delayed o) {
+      long other = ((Deferral) o).time;
+      return time < other ? -1 : (time > other ? 1 : 0);
+    }
+  }
+  
+  private class StoreWatcher implements Watcher {
+    @Override
+    public void process(WatchedEvent event) {
+      try {
+        if (event.getType() == EventType.None) {
+          if (event.getState() == KeeperState.Expired) {
+            log.info("Zookeeper session expired, reading all transactions again");
+            refresh(true);
+          }
+        } else if (path.equals(event.getPath())) {
+          refresh(false);
+        } else if (event.getPath() != null && event.getPath().startsWith(path + "/tx_")) {
+          long tid = parseTid(event.getPath().substring(path.length() + 1));
+          TStatus status = loadStatus(tid);
+          if (RUNNABLE.contains(status))
+            enqueue(tid);
+        }
+      } catch (Exception e) {
+        log.warn("Failed to process " + event + ", will retry on next refresh", e);
+      }
+    }
+  }
+  
+  /**
+   * @param numShards
+   *          the number of ready queues, usually the number of threads that will call {@link #reserve()}
+   */
+  @SuppressWarnings("unchecked")
+  public CachingZooStore(String path, IZooReaderWriter zk, int numShards) throws KeeperException, InterruptedException {
+    this.store = new ZooStore<T>(path, zk);
+    this.path = path;
+    this.zk = zk;
+    
+    readyQueues = new ConcurrentLinkedQueue[Math.max(1, numShards)];
+    for (int i = 0; i < readyQueues.length; i++)
+      readyQueues[i] = new ConcurrentLinkedQueue<Long>();
+    for (int i = 0; i < statusLocks.length; i++)
+      statusLocks[i] = new Object();
+    
+    refresh(true);
+  }
+  
+  private String getTXPath(long tid) {
+    return String.format("%s/tx_%016x", path, tid);
+  }
+  
+  private static long parseTid(String txdir) {
+    return Long.parseLong(txdir.split("_")[1], 16);
+  }
+  
+  private Object statusLock(long tid) {
+    return statusLocks[(int) ((tid ^ (tid >>> 32)) & (statusLocks.length - 1))];
+  }
+  
+  /**
+   * Read the status of a transaction from zookeeper, leaving a watch on it. Updates of the cache for a transaction are made under the same lock as writes of
+   * its status, so a read that raced with a write can not replace the newer status.
+   */
+  private TStatus loadStatus(long tid) {
+    TStatus status;
+    synchronized (statusLock(tid)) {
+      try {
+        zooReads.incrementAndGet();
+        status = TStatus.valueOf(new String(zk.getData(getTXPath(tid), watcher, null)));
+        statusCache.put(tid, status);
+      } catch (NoNodeException nne) {
+        status = TStatus.UNKNOWN;
+        statusCache.remove(tid);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    statusChanged();
+    return status;
+  }
+  
+  private TStatus cachedStatus(long tid) {
+    TStatus status = statusCache.get(tid);
+    if (status == null)
+      status = loadStatus(tid);
+    return status;
+  }
+  
+  private void statusChanged() {
+    statusChangeEvents.incrementAndGet();
+    synchronized (statusChanged) {
+      statusChanged.notifyAll();
+    }
+  }
+  
+  /**
+   * List the transactions in zookeeper, leaving a watch for new ones, and queue the ones that can run.
+   *
+   * @param reloadAll
+   *          read the status of transactions that are already cached, replacing watches that may have been lost
+   */
+  private void refresh(boolean reloadAll) {
+    List<String> txdirs;
+    try {
+      zooReads.incrementAndGet();
+      txdirs = zk.getChildren(path, watcher);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    
+    Set<Long> tids = new HashSet<Long>();
+    for (String txdir : txdirs)
+      tids.add(parseTid(txdir));
+    
+    for (Long tid : statusCache.keySet())
+      if (!tids.contains(tid))
+        synchronized (statusLock(tid)) {
+          statusCache.remove(tid);
+        }
+    
+    for (Long tid : tids) {
+      TStatus status = reloadAll ? loadStatus(tid) : cachedStatus(tid);
+      if (RUNNABLE.contains(status))
+        enqueue(tid);
+    }
+    
+    if (reloadAll)
+      lastRefresh.set(System.currentTimeMillis());
+  }
+  
+  private void enqueue(long tid) {
+    if (work.putIfAbsent(tid, QUEUED) == null)
+      push(tid);
+  }
+  
+  private void push(long tid) {
+    readyQueues[(int) ((tid & Long.MAX_VALUE) % readyQueues.length)].add(tid);
+    ready.release();
+  }
+  
+  private Long poll() {
+    int first = shard.get();
+    for (int i = 0; i < readyQueues.length; i++) {
+      Long tid = readyQueues[(first + i) % readyQueues.length].poll();
+      if (tid != null)
+        return tid;
+    }
+    return null;
+  }
+  
+  @Override
+  public long create() {
+    return store.create();
+  }
+  
+  @Override
+  public long reserve() {
+    try {
+      while (true) {
+        for (Deferral d = deferred.poll(); d != null; d = deferred.poll())
+          if (work.replace(d.tid, DEFERRED, QUEUED))
+            push(d.tid);
+        
+        long waitTime = MAX_WAIT;
+        Deferral next = deferred.peek();
+        if (next != null)
+          waitTime = Math.max(1, Math.min(waitTime, next.getDelay(TimeUnit.MILLISECONDS)));
+        
+        if (!ready.tryAcquire(waitTime, TimeUnit.MILLISECONDS)) {
+          long last = lastRefresh.get();
+          if (System.currentTimeMillis() - last > REFRESH_INTERVAL && lastRefresh.compareAndSet(last, System.currentTimeMillis()))
+            refresh(true);
+          continue;
+        }
+        
+        // a permit is only released after a transaction is queued, so there is one to take
+        Long tid = poll();
+        if (tid == null)
+          throw new IllegalStateException("Ready queues are empty after acquiring a permit");
+        
+        work.put(tid, Thread.currentThread());
+        store.reserve(tid);
+        
+        if (RUNNABLE.contains(cachedStatus(tid)))
+          return tid;
+        
+        store.unreserve(tid, 0);
+        work.remove(tid, Thread.currentThread());
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public void reserve(long tid) {
+    store.reserve(tid);
+  }
+  
+  @Override
+  public void unreserve(long tid, long deferTime) {
+    store.unreserve(tid, 0);
+    
+    // only the runner that took the transaction from a ready queue removes the reservation from the work map, other threads that reserved it by id just let
+    // a waiting runner continue
+    Thread runner = Thread.currentThread();
+    
+    // the entry goes straight from the runner to the deferral, so a watch that fires meanwhile can not queue the transaction ahead of its deferral
+    if (deferTime > 0 && RUNNABLE.contains(cachedStatus(tid)) && work.replace(tid, runner, DEFERRED)) {
+      deferred.add(new Deferral(tid, deferTime));
+      return;
+    }
+    
+    work.remove(tid, runner);
+    // watches that fired while the runner held the transaction could not queue it, so check its status after letting go
+    if (RUNNABLE.contains(cachedStatus(tid)))
+      enqueue(tid);
+  }
+  
+  @Override
+  public Repo<T> top(long tid) {
+    return store.top(tid);
+  }
+  
+  @Override
+  public void push(long tid, Repo<T> repo) throws StackOverflowException {
+    store.push(tid, repo);
+  }
+  
+  @Override
+  public void pop(long tid) {
+    store.pop(tid);
+  }
+  
+  @Override
+  public TStatus getStatus(long tid) {
+    store.verifyReserved(tid);
+    return cachedStatus(tid);
+  }
+  
+  @Override
+  public void setStatus(long tid, TStatus status) {
+    synchronized (statusLock(tid)) {
+      store.setStatus(tid, status);
+      statusCache.put(tid, status);
+    }
+    statusChanged();
+  }
+  
+  @Override
+  public TStatus waitForStatusChange(long tid, EnumSet<TStatus> expected) {
+    while (true) {
+      long events = statusChangeEvents.get();
+      
+      TStatus status = cachedStatus(tid);
+      if (expected.contains(status))
+        return status;
+      
+      synchronized (statusChanged) {
+        if (events == statusChangeEvents.get()) {
+          try {
+            statusChanged.wait(MAX_WAIT);
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }
+    }
+  }
+  
+  @Override
+  public void setProperty(long tid, String prop, Serializable val) {
+    store.setProperty(tid, prop, val);
+  }
+  
+  @Override
+  public Serializable getProperty(long tid, String prop) {
+    return store.getProperty(tid, prop);
+  }
+  
+  @Override
+  public void delete(long tid) {
+    synchronized (statusLock(tid)) {
+      store.delete(tid);
+      statusCache.remove(tid);
+    }
+    statusChanged();
+  }
+  
+  public List<Long> list() {
+    return store.list();
+  }
+  
+  /**
+   * @return the number of reads this store has made from zookeeper to find transaction statuses
+   */
+  public long getZooReads() {
+    return zooReads.get();
+  }
+}
@@ -238,7 +238,7 @@ public class ZooStore<T> implements TStore<T> {
     
   }
   
-  private void verifyReserved(long tid) {
+  void verifyReserved(long tid) {
     synchronized (this) {
       if (!reserved.contains(tid))
         throw new IllegalStateException("Tried to operate on unreserved transaction " + String.format("%016x", tid));
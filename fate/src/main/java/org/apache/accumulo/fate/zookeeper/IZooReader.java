@@ -26,6 +26,8 @@ public interface IZooReader {
   
   public abstract byte[] getData(String zPath, Stat stat) throws KeeperException, InterruptedException;
   
+  public abstract byte[] getData(String zPath, Watcher watcher, Stat stat) throws KeeperException, InterruptedException;
+  
   public abstract Stat getStatus(String zPath) throws KeeperException, InterruptedException;
   
   public abstract Stat getStatus(String zPath, Watcher watcher) throws KeeperException, InterruptedException;
@@ -27,18 +27,24 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
-import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.Stat;
 
 /**
  * Caches values stored in zookeeper and keeps them up to date as they change in zookeeper.
  * 
+ * Cached entries are read without locking. When several threads miss on the same path at once, only one of them reads it from zookeeper and the others wait
+ * for that read.
  */
 public class ZooCache {
   private static final Logger log = Logger.getLogger(ZooCache.class);
@@ -46,15 +52,31 @@ public class ZooCache {
   private ZCacheWatcher watcher = new ZCacheWatcher();
   private Watcher externalWatcher = null;
   
-  private HashMap<String,byte[]> cache;
-  private HashMap<String,Stat> statCache;
-  private HashMap<String,List<String>> childrenCache;
+  // the data of a path, or null data and stat when the node does not exist
+  private static class Entry {
+    final byte[] data;
+    final Stat stat;
+    
+    Entry(byte[] data, Stat stat) {
+      this.data = data;
+      this.stat = stat;
+    }
+  }
   
-  private ZooReader zReader;
+  private final ConcurrentHashMap<String,Entry> cache;
+  private final ConcurrentHashMap<String,List<String>> childrenCache;
   
-  private ZooKeeper getZooKeeper() {
-    return zReader.getZooKeeper();
-  }
+  private final ConcurrentHashMap<String,FutureTask<Entry>> dataLoads = new ConcurrentHashMap<String,FutureTask<Entry>>();
+  private final ConcurrentHashMap<String,FutureTask<List<String>>> childrenLoads = new ConcurrentHashMap<String,FutureTask<List<String>>>();
+  
+  // incremented whenever entries are removed, so a read that raced with a removal does not leave a stale entry behind
+  private final AtomicLong removals = new AtomicLong(0);
+  
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong watchEvents = new AtomicLong(0);
+  
+  private IZooReader zReader;
   
   private class ZCacheWatcher implements Watcher {
     @Override
@@ -63,6 +85,8 @@ public class ZooCache {
       if (log.isTraceEnabled())
         log.trace(event);
       
+      watchEvents.incrementAndGet();
+      
       switch (event.getType()) {
         case NodeDataChanged:
         case NodeChildrenChanged:
@@ -106,29 +130,25 @@ public class ZooCache {
     this(new ZooReader(zooKeepers, sessionTimeout), watcher);
   }
   
-  public ZooCache(ZooReader reader, Watcher watcher) {
+  public ZooCache(IZooReader reader, Watcher watcher) {
     this.zReader = reader;
-    this.cache = new HashMap<String,byte[]>();
-    this.statCache = new HashMap<String,Stat>();
-    this.childrenCache = new HashMap<String,List<String>>();
+    this.cache = new ConcurrentHashMap<String,Entry>();
+    this.childrenCache = new ConcurrentHashMap<String,List<String>>();
     this.externalWatcher = watcher;
   }
   
-  private static interface ZooRunnable {
-    void run(ZooKeeper zooKeeper) throws KeeperException, InterruptedException;
+  private static interface ZooCallable<V> {
+    V call() throws KeeperException, InterruptedException;
   }
   
-  private synchronized void retry(ZooRunnable op) {
+  private <V> V retry(ZooCallable<V> op) {
     
     int sleepTime = 100;
     
     while (true) {
       
-      ZooKeeper zooKeeper = getZooKeeper();
-      
       try {
-        op.run(zooKeeper);
-        return;
+        return op.call();
         
       } catch (KeeperException e) {
         if (e.code() == Code.NONODE) {
@@ -142,8 +162,7 @@ public class ZooCache {
       }
       
       try {
-        // do not hold lock while sleeping
-        wait(sleepTime);
+        Thread.sleep(sleepTime);
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
@@ -153,128 +172,178 @@ public class ZooCache {
     }
   }
   
-  public synchronized List<String> getChildren(final String zPath) {
+  /**
+   * Run a load of a path, or wait for the load another thread is already running for it.
+   */
+  private <V> V load(ConcurrentHashMap<String,FutureTask<V>> loads, String zPath, Callable<V> loader) {
+    FutureTask<V> task = new FutureTask<V>(loader);
+    FutureTask<V> running = loads.putIfAbsent(zPath, task);
+    if (running == null) {
+      try {
+        task.run();
+      } finally {
+        loads.remove(zPath, task);
+      }
+    } else {
+      task = running;
+    }
     
-    ZooRunnable zr = new ZooRunnable() {
-      
-      @Override
-      public void run(ZooKeeper zooKeeper) throws KeeperException, InterruptedException {
-        
-        if (childrenCache.containsKey(zPath))
-          return;
-        
+    boolean interrupted = false;
+    try {
+      while (true) {
         try {
-          List<String> children = zooKeeper.getChildren(zPath, watcher);
-          childrenCache.put(zPath, children);
-        } catch (KeeperException ke) {
-          if (ke.code() != Code.NONODE) {
-            throw ke;
-          }
+          return task.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException)
+            throw (RuntimeException) e.getCause();
+          if (e.getCause() instanceof Error)
+            throw (Error) e.getCause();
+          throw new RuntimeException(e.getCause());
         }
       }
-      
-    };
-    
-    retry(zr);
-    
-    List<String> children = childrenCache.get(zPath);
-    if (children == null) {
-      return null;
+    } finally {
+      if (interrupted)
+        Thread.currentThread().interrupt();
     }
-    return Collections.unmodifiableList(children);
   }
   
-  public synchronized byte[] get(final String zPath) {
-    return get(zPath, null);
-  }
-  
-  public synchronized byte[] get(final String zPath, Stat stat) {
-    ZooRunnable zr = new ZooRunnable() {
-      
+  public List<String> getChildren(final String zPath) {
+    
+    List<String> children = childrenCache.get(zPath);
+    if (children != null) {
+      hits.incrementAndGet();
+      return children;
+    }
+    
+    misses.incrementAndGet();
+    
+    return load(childrenLoads, zPath, new Callable<List<String>>() {
       @Override
-      public void run(ZooKeeper zooKeeper) throws KeeperException, InterruptedException {
-        
-        if (cache.containsKey(zPath))
-          return;
-        
-        /*
-         * The following call to exists() is important, since we are caching that a node does not exist. Once the node comes into existance, it will be added to
-         * the cache. But this notification of a node coming into existance will only be given if exists() was previously called.
-         * 
-         * If the call to exists() is bypassed and only getData() is called with a special case that looks for Code.NONODE in the KeeperException, then
-         * non-existance can not be cached.
-         */
-        
-        Stat stat = zooKeeper.exists(zPath, watcher);
-        
-        byte[] data = null;
+      public List<String> call() {
+        long removalCount = removals.get();
         
-        if (stat == null) {
-          if (log.isTraceEnabled())
-            log.trace("zookeeper did not contain " + zPath);
-        } else {
-          try {
-            data = zooKeeper.getData(zPath, watcher, stat);
-          } catch (KeeperException.BadVersionException e1) {
-            throw new ConcurrentModificationException();
-          } catch (KeeperException.NoNodeException e2) {
-            throw new ConcurrentModificationException();
+        List<String> children = retry(new ZooCallable<List<String>>() {
+          @Override
+          public List<String> call() throws KeeperException, InterruptedException {
+            try {
+              return Collections.unmodifiableList(zReader.getChildren(zPath, watcher));
+            } catch (KeeperException ke) {
+              if (ke.code() != Code.NONODE) {
+                throw ke;
+              }
+              return null;
+            }
           }
-          if (log.isTraceEnabled())
-            log.trace("zookeeper contained " + zPath + " " + (data == null ? null : new String(data)));
+        });
+        
+        if (children != null) {
+          childrenCache.put(zPath, children);
+          if (removals.get() != removalCount)
+            childrenCache.remove(zPath, children);
         }
-        if (log.isTraceEnabled())
-          log.trace("putting " + zPath + " " + (data == null ? null : new String(data)) + " in cache");
-        put(zPath, data, stat);
+        
+        return children;
       }
-      
-    };
-    
-    retry(zr);
-    
-    if (stat != null) {
-      Stat cstat = statCache.get(zPath);
-      if (cstat != null) {
-        try {
-          ByteArrayOutputStream baos = new ByteArrayOutputStream();
-          DataOutputStream dos = new DataOutputStream(baos);
-          cstat.write(dos);
-          dos.close();
+    });
+  }
+  
+  public byte[] get(final String zPath) {
+    return get(zPath, null);
+  }
+  
+  public byte[] get(final String zPath, Stat stat) {
+    Entry entry = cache.get(zPath);
+    if (entry != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      entry = load(dataLoads, zPath, new Callable<Entry>() {
+        @Override
+        public Entry call() {
+          long removalCount = removals.get();
+          
+          Entry entry = retry(new ZooCallable<Entry>() {
+            @Override
+            public Entry call() throws KeeperException, InterruptedException {
+              /*
+               * The following call to exists() is important, since we are caching that a node does not exist. Once the node comes into existance, it will be
+               * added to the cache. But this notification of a node coming into existance will only be given if exists() was previously called.
+               * 
+               * If the call to exists() is bypassed and only getData() is called with a special case that looks for Code.NONODE in the KeeperException, then
+               * non-existance can not be cached.
+               */
+              
+              Stat stat = zReader.getStatus(zPath, watcher);
+              
+              byte[] data = null;
+              
+              if (stat == null) {
+                if (log.isTraceEnabled())
+                  log.trace("zookeeper did not contain " + zPath);
+              } else {
+                try {
+                  data = zReader.getData(zPath, watcher, stat);
+                } catch (KeeperException.BadVersionException e1) {
+                  throw new ConcurrentModificationException();
+                } catch (KeeperException.NoNodeException e2) {
+                  throw new ConcurrentModificationException();
+                }
+                if (log.isTraceEnabled())
+                  log.trace("zookeeper contained " + zPath + " " + (data == null ? null : new String(data)));
+              }
+              return new Entry(data, stat);
+            }
+          });
           
-          ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-          DataInputStream dis = new DataInputStream(bais);
-          stat.readFields(dis);
+          if (log.isTraceEnabled())
+            log.trace("putting " + zPath + " " + (entry.data == null ? null : new String(entry.data)) + " in cache");
+          cache.put(zPath, entry);
+          if (removals.get() != removalCount)
+            cache.remove(zPath, entry);
           
-          dis.close();
-        } catch (IOException e) {
-          throw new RuntimeException(e);
+          return entry;
         }
+      });
+    }
+    
+    if (stat != null && entry.stat != null) {
+      try {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        entry.stat.write(dos);
+        dos.close();
+        
+        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+        DataInputStream dis = new DataInputStream(bais);
+        stat.readFields(dis);
+        
+        dis.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
       }
     }
     
-    return cache.get(zPath);
+    return entry.data;
   }
   
-  private synchronized void put(String zPath, byte[] data, Stat stat) {
-    cache.put(zPath, data);
-    statCache.put(zPath, stat);
-  }
-  
-  private synchronized void remove(String zPath) {
+  private void remove(String zPath) {
     if (log.isTraceEnabled())
       log.trace("removing " + zPath + " from cache");
+    removals.incrementAndGet();
     cache.remove(zPath);
     childrenCache.remove(zPath);
-    statCache.remove(zPath);
   }
   
-  public synchronized void clear() {
+  public void clear() {
+    removals.incrementAndGet();
     cache.clear();
     childrenCache.clear();
-    statCache.clear();
   }
   
-  public synchronized void clear(String zPath) {
+  public void clear(String zPath) {
+    removals.incrementAndGet();
     
     for (Iterator<String> i = cache.keySet().iterator(); i.hasNext();) {
       String path = i.next();
@@ -287,12 +356,27 @@ public class ZooCache {
       if (path.startsWith(zPath))
         i.remove();
     }
-    
-    for (Iterator<String> i = statCache.keySet().iterator(); i.hasNext();) {
-      String path = i.next();
-      if (path.startsWith(zPath))
-        i.remove();
-    }
+  }
+  
+  /**
+   * @return the number of lookups answered from the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+  
+  /**
+   * @return the number of lookups that had to read from zookeeper or wait for another thread's read
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+  
+  /**
+   * @return the number of watch events received from zookeeper
+   */
+  public long getWatchEvents() {
+    return watchEvents.get();
   }
   
   private static Map<String,ZooCache> instances = new HashMap<String,ZooCache>();
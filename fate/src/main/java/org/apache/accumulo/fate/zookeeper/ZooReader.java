@@ -41,6 +41,11 @@ public class ZooReader implements IZooReader {
     return getZooKeeper().getData(zPath, false, stat);
   }
   
+  @Override
+  public byte[] getData(String zPath, Watcher watcher, Stat stat) throws KeeperException, InterruptedException {
+    return getZooKeeper().getData(zPath, watcher, stat);
+  }
+  
   @Override
   public Stat getStatus(String zPath) throws KeeperException, InterruptedException {
     return getZooKeeper().exists(zPath, false);
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.fate;
+
+import java.util.EnumSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.accumulo.fate.TStore.TStatus;
+import org.apache.accumulo.fate.zookeeper.MockZooReaderWriter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingZooStoreTest {
+  
+  private static final String PATH = "/fate";
+  
+  private MockZooReaderWriter zk;
+  private CachingZooStore<String> store;
+  // another manager working on the same transactions
+  private ZooStore<String> other;
+  // reserve() and unreserve() of a transaction taken from the ready queues must come from the same thread
+  private ExecutorService runner;
+  
+  @Before
+  public void setUp() throws Exception {
+    zk = new MockZooReaderWriter();
+    store = new CachingZooStore<String>(PATH, zk, 2);
+    other = new ZooStore<String>(PATH, zk);
+    runner = Executors.newSingleThreadExecutor();
+  }
+  
+  @After
+  public void tearDown() {
+    runner.shutdownNow();
+  }
+  
+  private long create(TStatus status) {
+    long tid = store.create();
+    store.reserve(tid);
+    store.setStatus(tid, status);
+    store.unreserve(tid, 0);
+    return tid;
+  }
+  
+  private long reserve() throws Exception {
+    return runner.submit(new Callable<Long>() {
+      @Override
+      public Long call() {
+        return store.reserve();
+      }
+    }).get(10, TimeUnit.SECONDS);
+  }
+  
+  private void unreserve(final long tid, final long deferTime) throws Exception {
+    runner.submit(new Runnable() {
+      @Override
+      public void run() {
+        store.unreserve(tid, deferTime);
+      }
+    }).get();
+  }
+  
+  @Test
+  public void testReserveUnreserve() throws Exception {
+    long tid = create(TStatus.IN_PROGRESS);
+    Assert.assertEquals(tid, reserve());
+    unreserve(tid, 0);
+    Assert.assertEquals(tid, reserve());
+    
+    // a transaction that is done is not queued again
+    long next = create(TStatus.IN_PROGRESS);
+    store.setStatus(tid, TStatus.SUCCESSFUL);
+    unreserve(tid, 0);
+    Assert.assertEquals(next, reserve());
+    unreserve(next, 0);
+    Assert.assertEquals(next, reserve());
+  }
+  
+  @Test
+  public void testDefer() throws Exception {
+    long tid = create(TStatus.IN_PROGRESS);
+    Assert.assertEquals(tid, reserve());
+    long start = System.currentTimeMillis();
+    unreserve(tid, 500);
+    
+    // a change to the transaction does not queue it ahead of its deferral
+    zk.fireDataChanged(PATH + String.format("/tx_%016x", tid));
+    Assert.assertEquals(tid, reserve());
+    Assert.assertTrue(System.currentTimeMillis() - start >= 500);
+  }
+  
+  @Test
+  public void testDeferWhileWatchesFire() throws Exception {
+    final long tid = create(TStatus.IN_PROGRESS);
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    Thread watches = new Thread() {
+      @Override
+      public void run() {
+        while (!stop.get())
+          zk.fireDataChanged(PATH + String.format("/tx_%016x", tid));
+      }
+    };
+    watches.start();
+    try {
+      for (int i = 0; i < 20; i++) {
+        Assert.assertEquals(tid, reserve());
+        long start = System.currentTimeMillis();
+        unreserve(tid, 50);
+        Assert.assertEquals(tid, reserve());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 50);
+        unreserve(tid, 0);
+      }
+    } finally {
+      stop.set(true);
+      watches.join();
+    }
+  }
+  
+  @Test
+  public void testWatchEnqueues() throws Exception {
+    long reads = store.getZooReads();
+    long tid = other.create();
+    
+    // the new transaction is seen, but can not run yet
+    Assert.assertEquals(TStatus.NEW, store.waitForStatusChange(tid, EnumSet.of(TStatus.NEW)));
+    Assert.assertTrue(store.getZooReads() > reads);
+    
+    other.reserve(tid);
+    other.setStatus(tid, TStatus.IN_PROGRESS);
+    other.unreserve(tid, 0);
+    Assert.assertEquals(tid, reserve());
+  }
+  
+  @Test
+  public void testDelete() throws Exception {
+    long deleted = create(TStatus.IN_PROGRESS);
+    other.reserve(deleted);
+    other.delete(deleted);
+    other.unreserve(deleted, 0);
+    Assert.assertEquals(TStatus.UNKNOWN, store.waitForStatusChange(deleted, EnumSet.of(TStatus.UNKNOWN)));
+    
+    // the deleted transaction is dropped from the ready queue
+    long tid = create(TStatus.IN_PROGRESS);
+    Assert.assertEquals(tid, reserve());
+    
+    store.delete(tid);
+    unreserve(tid, 0);
+    Assert.assertTrue(store.list().isEmpty());
+  }
+  
+  @Test
+  public void testRefreshAfterSessionExpires() throws Exception {
+    long tid = create(TStatus.IN_PROGRESS);
+    Assert.assertEquals(tid, reserve());
+    store.setStatus(tid, TStatus.FAILED);
+    unreserve(tid, 0);
+    
+    // the change back is missed, until the session expires and everything is read again
+    zk.loseWatches();
+    zk.setQuietly(PATH + String.format("/tx_%016x", tid), TStatus.FAILED_IN_PROGRESS.name().getBytes());
+    long reads = store.getZooReads();
+    zk.expireSession();
+    Assert.assertTrue(store.getZooReads() > reads);
+    Assert.assertEquals(tid, reserve());
+  }
+}
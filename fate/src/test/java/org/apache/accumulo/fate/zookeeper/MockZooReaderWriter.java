@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.fate.zookeeper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.accumulo.fate.zookeeper.ZooReaderWriter.Mutator;
+import org.apache.accumulo.fate.zookeeper.ZooUtil.NodeExistsPolicy;
+import org.apache.accumulo.fate.zookeeper.ZooUtil.NodeMissingPolicy;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * An in memory stand in for zookeeper, for testing code that reads and watches nodes. Watches are one shot like zookeeper's, and are called by the thread
+ * that made the change, after the change is made.
+ */
+public class MockZooReaderWriter implements IZooReaderWriter {
+  
+  private final TreeMap<String,byte[]> nodes = new TreeMap<String,byte[]>();
+  private final Map<String,Integer> versions = new HashMap<String,Integer>();
+  private final Map<String,Set<Watcher>> dataWatches = new HashMap<String,Set<Watcher>>();
+  private final Map<String,Set<Watcher>> childWatches = new HashMap<String,Set<Watcher>>();
+  // every watcher that was passed in, they are all told when the session expires
+  private final Set<Watcher> sessionWatchers = new HashSet<Watcher>();
+  private long sequence = 0;
+  
+  private final AtomicLong dataReads = new AtomicLong(0);
+  private final AtomicLong childReads = new AtomicLong(0);
+  
+  /**
+   * Called before each read of a node's data, so tests can hold up or interleave reads
+   */
+  protected void beforeRead(String zPath) {}
+  
+  /**
+   * @return the number of reads of node data or existence, including reads of missing nodes
+   */
+  public long getDataReads() {
+    return dataReads.get();
+  }
+  
+  /**
+   * @return the number of reads of node children
+   */
+  public long getChildReads() {
+    return childReads.get();
+  }
+  
+  private static void add(Map<String,Set<Watcher>> watches, String zPath, Watcher watcher) {
+    Set<Watcher> set = watches.get(zPath);
+    if (set == null)
+      watches.put(zPath, set = new HashSet<Watcher>());
+    set.add(watcher);
+  }
+  
+  private static String parent(String zPath) {
+    int index = zPath.lastIndexOf('/');
+    return index <= 0 ? "/" : zPath.substring(0, index);
+  }
+  
+  private synchronized void watch(Map<String,Set<Watcher>> watches, String zPath, Watcher watcher) {
+    if (watcher != null) {
+      add(watches, zPath, watcher);
+      sessionWatchers.add(watcher);
+    }
+  }
+  
+  private synchronized List<WatchedEvent> take(Map<String,Set<Watcher>> watches, String zPath, EventType type, List<Watcher> watchers) {
+    Set<Watcher> set = watches.remove(zPath);
+    List<WatchedEvent> events = new ArrayList<WatchedEvent>();
+    if (set != null) {
+      for (Watcher watcher : set) {
+        watchers.add(watcher);
+        events.add(new WatchedEvent(type, KeeperState.SyncConnected, zPath));
+      }
+    }
+    return events;
+  }
+  
+  private void fire(List<Watcher> watchers, List<WatchedEvent> events) {
+    for (int i = 0; i < watchers.size(); i++)
+      watchers.get(i).process(events.get(i));
+  }
+  
+  /**
+   * Trigger the watches on a node as if its data had changed, without changing it
+   */
+  public void fireDataChanged(String zPath) {
+    List<Watcher> watchers = new ArrayList<Watcher>();
+    List<WatchedEvent> events = take(dataWatches, zPath, EventType.NodeDataChanged, watchers);
+    fire(watchers, events);
+  }
+  
+  /**
+   * Drop all watches without triggering them, as if they were lost
+   */
+  public synchronized void loseWatches() {
+    dataWatches.clear();
+    childWatches.clear();
+  }
+  
+  /**
+   * Drop all watches and tell every watcher that was ever set that the session expired
+   */
+  public void expireSession() {
+    List<Watcher> watchers;
+    synchronized (this) {
+      loseWatches();
+      watchers = new ArrayList<Watcher>(sessionWatchers);
+    }
+    for (Watcher watcher : watchers)
+      watcher.process(new WatchedEvent(EventType.None, KeeperState.Expired, null));
+  }
+  
+  /**
+   * Change a node without triggering any watches
+   */
+  public synchronized void setQuietly(String zPath, byte[] data) {
+    nodes.put(zPath, data);
+  }
+  
+  @Override
+  public byte[] getData(String zPath, Stat stat) throws KeeperException, InterruptedException {
+    return getData(zPath, null, stat);
+  }
+  
+  @Override
+  public byte[] getData(String zPath, Watcher watcher, Stat stat) throws KeeperException, InterruptedException {
+    beforeRead(zPath);
+    dataReads.incrementAndGet();
+    synchronized (this) {
+      byte[] data = nodes.get(zPath);
+      if (data == null)
+        throw KeeperException.create(Code.NONODE, zPath);
+      watch(dataWatches, zPath, watcher);
+      if (stat != null)
+        stat.setVersion(versions.get(zPath));
+      return data;
+    }
+  }
+  
+  @Override
+  public Stat getStatus(String zPath) throws KeeperException, InterruptedException {
+    return getStatus(zPath, null);
+  }
+  
+  @Override
+  public Stat getStatus(String zPath, Watcher watcher) throws KeeperException, InterruptedException {
+    beforeRead(zPath);
+    dataReads.incrementAndGet();
+    synchronized (this) {
+      // like zookeeper, a watch is left on a missing node so that its creation is seen
+      watch(dataWatches, zPath, watcher);
+      if (!nodes.containsKey(zPath))
+        return null;
+      Stat stat = new Stat();
+      stat.setVersion(versions.get(zPath));
+      return stat;
+    }
+  }
+  
+  @Override
+  public List<String> getChildren(String zPath) throws KeeperException, InterruptedException {
+    return getChildren(zPath, null);
+  }
+  
+  @Override
+  public synchronized List<String> getChildren(String zPath, Watcher watcher) throws KeeperException, InterruptedException {
+    childReads.incrementAndGet();
+    if (!nodes.containsKey(zPath))
+      throw KeeperException.create(Code.NONODE, zPath);
+    watch(childWatches, zPath, watcher);
+    List<String> children = new ArrayList<String>();
+    for (String child : nodes.tailMap(zPath + "/", false).keySet()) {
+      if (!child.startsWith(zPath + "/"))
+        break;
+      if (child.indexOf('/', zPath.length() + 1) < 0)
+        children.add(child.substring(zPath.length() + 1));
+    }
+    return children;
+  }
+  
+  @Override
+  public boolean exists(String zPath) throws KeeperException, InterruptedException {
+    return getStatus(zPath) != null;
+  }
+  
+  @Override
+  public boolean exists(String zPath, Watcher watcher) throws KeeperException, InterruptedException {
+    return getStatus(zPath, watcher) != null;
+  }
+  
+  @Override
+  public boolean putPersistentData(String zPath, byte[] data, NodeExistsPolicy policy) throws KeeperException, InterruptedException {
+    List<Watcher> watchers = new ArrayList<Watcher>();
+    List<WatchedEvent> events = new ArrayList<WatchedEvent>();
+    synchronized (this) {
+      if (nodes.containsKey(zPath)) {
+        if (policy == NodeExistsPolicy.SKIP)
+          return false;
+        if (policy == NodeExistsPolicy.FAIL)
+          throw KeeperException.create(Code.NODEEXISTS, zPath);
+        nodes.put(zPath, data);
+        versions.put(zPath, versions.get(zPath) + 1);
+        events.addAll(take(dataWatches, zPath, EventType.NodeDataChanged, watchers));
+      } else {
+        nodes.put(zPath, data);
+        versions.put(zPath, 0);
+        events.addAll(take(dataWatches, zPath, EventType.NodeCreated, watchers));
+        events.addAll(take(childWatches, parent(zPath), EventType.NodeChildrenChanged, watchers));
+      }
+    }
+    fire(watchers, events);
+    return true;
+  }
+  
+  @Override
+  public String putPersistentSequential(String zPath, byte[] data) throws KeeperException, InterruptedException {
+    String name;
+    synchronized (this) {
+      name = zPath + String.format("%010d", sequence++);
+    }
+    putPersistentData(name, data, NodeExistsPolicy.FAIL);
+    return name;
+  }
+  
+  @Override
+  public void recursiveDelete(String zPath, NodeMissingPolicy policy) throws KeeperException, InterruptedException {
+    List<Watcher> watchers = new ArrayList<Watcher>();
+    List<WatchedEvent> events = new ArrayList<WatchedEvent>();
+    synchronized (this) {
+      if (!nodes.containsKey(zPath)) {
+        if (policy == NodeMissingPolicy.FAIL)
+          throw KeeperException.create(Code.NONODE, zPath);
+        return;
+      }
+      List<String> deleted = new ArrayList<String>();
+      deleted.add(zPath);
+      for (String child : nodes.tailMap(zPath + "/", false).keySet()) {
+        if (!child.startsWith(zPath + "/"))
+          break;
+        deleted.add(child);
+      }
+      for (String node : deleted) {
+        nodes.remove(node);
+        versions.remove(node);
+        events.addAll(take(dataWatches, node, EventType.NodeDeleted, watchers));
+        events.addAll(take(childWatches, node, EventType.NodeDeleted, watchers));
+      }
+      events.addAll(take(childWatches, parent(zPath), EventType.NodeChildrenChanged, watchers));
+    }
+    fire(watchers, events);
+  }
+  
+  @Override
+  public void recursiveDelete(String zPath, int version, NodeMissingPolicy policy) throws KeeperException, InterruptedException {
+    recursiveDelete(zPath, policy);
+  }
+  
+  @Override
+  public void delete(String path, int version) throws InterruptedException, KeeperException {
+    recursiveDelete(path, NodeMissingPolicy.FAIL);
+  }
+  
+  @Override
+  public void mkdirs(String path) throws KeeperException, InterruptedException {
+    if (path.length() > 1 && !exists(path)) {
+      mkdirs(parent(path));
+      putPersistentData(path, new byte[0], NodeExistsPolicy.SKIP);
+    }
+  }
+  
+  @Override
+  public boolean putPrivatePersistentData(String zPath, byte[] data, NodeExistsPolicy policy) throws KeeperException, InterruptedException {
+    return putPersistentData(zPath, data, policy);
+  }
+  
+  @Override
+  public void putPersistentData(String zPath, byte[] data, int version, NodeExistsPolicy policy) throws KeeperException, InterruptedException {
+    putPersistentData(zPath, data, policy);
+  }
+  
+  @Override
+  public ZooKeeper getZooKeeper() {
+    throw new UnsupportedOperationException();
+  }
+  
+  @Override
+  public String putEphemeralSequential(String zPath, byte[] data) throws KeeperException, InterruptedException {
+    throw new UnsupportedOperationException();
+  }
+  
+  @Override
+  public String putEphemeralData(String zPath, byte[] data) throws KeeperException, InterruptedException {
+    throw new UnsupportedOperationException();
+  }
+  
+  @Override
+  public void recursiveCopyPersistent(String source, String destination, NodeExistsPolicy policy) throws KeeperException, InterruptedException {
+    throw new UnsupportedOperationException();
+  }
+  
+  @Override
+  public byte[] mutate(String zPath, byte[] createValue, List<ACL> acl, Mutator mutator) throws Exception {
+    throw new UnsupportedOperationException();
+  }
+  
+  @Override
+  public boolean isLockHeld(ZooUtil.LockID lockID) throws KeeperException, InterruptedException {
+    throw new UnsupportedOperationException();
+  }
+  
+  @Override
+  public void sync(String path) throws KeeperException, InterruptedException {}
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.fate.zookeeper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.fate.zookeeper.ZooUtil.NodeExistsPolicy;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZooCacheTest {
+  
+  @Test
+  public void testConcurrentMissesReadOnce() throws Exception {
+    final CountDownLatch reading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    MockZooReaderWriter zk = new MockZooReaderWriter() {
+      @Override
+      protected void beforeRead(String zPath) {
+        reading.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    zk.putPersistentData("/a", "1".getBytes(), NodeExistsPolicy.FAIL);
+    final ZooCache cache = new ZooCache(zk, null);
+    
+    int threads = 8;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<byte[]>> gets = new ArrayList<Future<byte[]>>();
+      for (int i = 0; i < threads; i++) {
+        gets.add(pool.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() {
+            return cache.get("/a");
+          }
+        }));
+      }
+      
+      // hold the first read until every thread has missed
+      Assert.assertTrue(reading.await(10, TimeUnit.SECONDS));
+      long deadline = System.currentTimeMillis() + 10000;
+      while (cache.getMisses() < threads && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+      Assert.assertEquals(threads, cache.getMisses());
+      release.countDown();
+      
+      for (Future<byte[]> get : gets)
+        Assert.assertArrayEquals("1".getBytes(), get.get(10, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+      pool.shutdownNow();
+    }
+    
+    // one load, which checks that the node exists and then reads it
+    Assert.assertEquals(2, zk.getDataReads());
+    Assert.assertEquals(0, cache.getHits());
+  }
+  
+  @Test
+  public void testChangeDuringLoad() throws Exception {
+    MockZooReaderWriter zk = new MockZooReaderWriter() {
+      private boolean changed = false;
+      
+      @Override
+      public byte[] getData(String zPath, Watcher watcher, Stat stat) throws KeeperException, InterruptedException {
+        byte[] data = super.getData(zPath, watcher, stat);
+        // the node changes after it was read, but before the cache stores what was read
+        if (!changed) {
+          changed = true;
+          putPersistentData(zPath, "2".getBytes(), NodeExistsPolicy.OVERWRITE);
+        }
+        return data;
+      }
+    };
+    zk.putPersistentData("/a", "1".getBytes(), NodeExistsPolicy.FAIL);
+    ZooCache cache = new ZooCache(zk, null);
+    
+    Assert.assertArrayEquals("1".getBytes(), cache.get("/a"));
+    Assert.assertEquals(1, cache.getWatchEvents());
+    // the value read before the change was not kept
+    Assert.assertArrayEquals("2".getBytes(), cache.get("/a"));
+    Assert.assertEquals(2, cache.getMisses());
+    Assert.assertArrayEquals("2".getBytes(), cache.get("/a"));
+    Assert.assertEquals(1, cache.getHits());
+  }
+  
+  @Test
+  public void testCounters() throws Exception {
+    MockZooReaderWriter zk = new MockZooReaderWriter();
+    zk.putPersistentData("/a", "1".getBytes(), NodeExistsPolicy.FAIL);
+    zk.putPersistentData("/a/b", "2".getBytes(), NodeExistsPolicy.FAIL);
+    ZooCache cache = new ZooCache(zk, null);
+    
+    Assert.assertArrayEquals("1".getBytes(), cache.get("/a"));
+    Assert.assertArrayEquals("1".getBytes(), cache.get("/a"));
+    Assert.assertEquals(Arrays.asList("b"), cache.getChildren("/a"));
+    Assert.assertEquals(Arrays.asList("b"), cache.getChildren("/a"));
+    // a node that does not exist is cached too
+    Assert.assertNull(cache.get("/c"));
+    Assert.assertNull(cache.get("/c"));
+    Assert.assertEquals(3, cache.getMisses());
+    Assert.assertEquals(3, cache.getHits());
+    Assert.assertEquals(0, cache.getWatchEvents());
+    Assert.assertEquals(1, zk.getChildReads());
+    
+    // each change is seen through a watch, and the next lookup reads it again
+    zk.putPersistentData("/a", "3".getBytes(), NodeExistsPolicy.OVERWRITE);
+    zk.putPersistentData("/c", "4".getBytes(), NodeExistsPolicy.FAIL);
+    Assert.assertEquals(2, cache.getWatchEvents());
+    Assert.assertArrayEquals("3".getBytes(), cache.get("/a"));
+    Assert.assertArrayEquals("4".getBytes(), cache.get("/c"));
+    Assert.assertEquals(5, cache.getMisses());
+    
+    // an expired session empties the cache
+    zk.expireSession();
+    Assert.assertEquals(Arrays.asList("b"), cache.getChildren("/a"));
+    Assert.assertEquals(6, cache.getMisses());
+    Assert.assertEquals(2, zk.getChildReads());
+  }
+}
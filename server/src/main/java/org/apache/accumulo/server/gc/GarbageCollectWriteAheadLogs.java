@@ -75,6 +75,7 @@ public class GarbageCollectWriteAheadLogs {
       log.info(String.format("Fetched %d files from %d servers in %.2f seconds", fileToServerMap.size(), count,
           (fileScanStop - status.currentLog.started) / 1000.));
       status.currentLog.candidates = fileToServerMap.size();
+      status.currentLog.gatherTime = fileScanStop - status.currentLog.started;
       span.stop();
       
       span = Trace.start("removeMetadataEntries");
@@ -89,6 +90,7 @@ public class GarbageCollectWriteAheadLogs {
       
       long logEntryScanStop = System.currentTimeMillis();
       log.info(String.format("%d log entries scanned in %.2f seconds", count, (logEntryScanStop - fileScanStop) / 1000.));
+      status.currentLog.confirmTime = logEntryScanStop - fileScanStop;
       
       span = Trace.start("removeFiles");
       Map<String,ArrayList<String>> serverToFileMap = mapServersToFiles(fileToServerMap);
@@ -97,6 +99,7 @@ public class GarbageCollectWriteAheadLogs {
       
       long removeStop = System.currentTimeMillis();
       log.info(String.format("%d total logs removed from %d servers in %.2f seconds", count, serverToFileMap.size(), (removeStop - logEntryScanStop) / 1000.));
+      status.currentLog.deleteTime = removeStop - logEntryScanStop;
       status.currentLog.finished = removeStop;
       status.lastLog = status.currentLog;
       status.currentLog = new GcCycleStats();
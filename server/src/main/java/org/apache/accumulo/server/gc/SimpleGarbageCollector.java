@@ -19,16 +19,22 @@ package org.apache.accumulo.server.gc;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.accumulo.cloudtrace.instrument.CountSampler;
@@ -130,6 +136,8 @@ public class SimpleGarbageCollector implements Iface {
   private GCStatus status = new GCStatus(new GcCycleStats(), new GcCycleStats(), new GcCycleStats(), new GcCycleStats());
   
   private int numDeleteThreads;
+  private int numConfirmThreads;
+  private int candidateBatchSize;
   
   private Instance instance;
   
@@ -193,6 +201,8 @@ public class SimpleGarbageCollector implements Iface {
     gcStartDelay = instance.getConfiguration().getTimeInMillis(Property.GC_CYCLE_START);
     long gcDelay = instance.getConfiguration().getTimeInMillis(Property.GC_CYCLE_DELAY);
     numDeleteThreads = instance.getConfiguration().getCount(Property.GC_DELETE_THREADS);
+    numConfirmThreads = instance.getConfiguration().getCount(Property.GC_CONFIRM_THREADS);
+    candidateBatchSize = instance.getConfiguration().getCount(Property.GC_CANDIDATE_BATCH_SIZE);
     log.info("start delay: " + (offline ? 0 + " sec (offline)" : gcStartDelay + " milliseconds"));
     log.info("time delay: " + gcDelay + " milliseconds");
     log.info("safemode: " + safemode);
@@ -200,6 +210,8 @@ public class SimpleGarbageCollector implements Iface {
     log.info("verbose: " + verbose);
     log.info("memory threshold: " + CANDIDATE_MEMORY_PERCENTAGE + " of " + Runtime.getRuntime().maxMemory() + " bytes");
     log.info("delete threads: " + numDeleteThreads);
+    log.info("confirm threads: " + numConfirmThreads);
+    log.info("candidate batch size: " + candidateBatchSize);
   }
   
   private void run() {
@@ -242,14 +254,17 @@ public class SimpleGarbageCollector implements Iface {
         status.current.started = System.currentTimeMillis();
         SortedSet<String> candidates = getCandidates();
         status.current.candidates = candidates.size();
+        status.current.gatherTime = System.currentTimeMillis() - status.current.started;
         candidatesSpan.stop();
         
         // STEP 2: confirm deletes
         // WARNING: This line is EXTREMELY IMPORTANT.
         // You MUST confirm candidates are okay to delete
         Span confirmDeletesSpan = Trace.start("confirmDeletes");
+        long confirmStart = System.currentTimeMillis();
         confirmDeletes(candidates);
         status.current.inUse = status.current.candidates - candidates.size();
+        status.current.confirmTime = System.currentTimeMillis() - confirmStart;
         confirmDeletesSpan.stop();
         
         // STEP 3: delete files
@@ -266,7 +281,9 @@ public class SimpleGarbageCollector implements Iface {
           log.info("SAFEMODE: End candidates for deletion");
         } else {
           Span deleteSpan = Trace.start("deleteFiles");
+          long deleteStart = System.currentTimeMillis();
           deleteFiles(candidates);
+          status.current.deleteTime = System.currentTimeMillis() - deleteStart;
           log.info("Number of data file candidates for deletion: " + status.current.candidates);
           log.info("Number of data file candidates still in use: " + status.current.inUse);
           log.info("Number of successfully deleted data files: " + status.current.deleted);
@@ -292,7 +309,7 @@ public class SimpleGarbageCollector implements Iface {
         break;
       
       if (candidateMemExceeded) {
-        log.info("Gathering of candidates was interrupted due to memory shortage. Bypassing cycle delay to collect the remaining candidates.");
+        log.info("Gathering of candidates was interrupted due to memory shortage or batch size. Bypassing cycle delay to collect the remaining candidates.");
         continue;
       }
       
@@ -428,9 +445,9 @@ public class SimpleGarbageCollector implements Iface {
       String cand = entry.getKey().getRow().toString().substring(Constants.METADATA_DELETE_FLAG_PREFIX.length());
       candidates.add(cand);
       checkForBulkProcessingFiles |= cand.toLowerCase(Locale.ENGLISH).contains(Constants.BULK_PREFIX);
-      if (almostOutOfMemory()) {
+      if (almostOutOfMemory() || candidates.size() >= candidateBatchSize) {
         candidateMemExceeded = true;
-        log.info("List of delete candidates has exceeded the memory threshold. Attempting to delete what has been gathered so far.");
+        log.info("List of delete candidates has exceeded the memory threshold or batch size. Attempting to delete what has been gathered so far.");
         continueKey = entry.getKey();
         break;
       }
@@ -444,29 +461,57 @@ public class SimpleGarbageCollector implements Iface {
     return runtime.totalMemory() - runtime.freeMemory() > CANDIDATE_MEMORY_PERCENTAGE * runtime.maxMemory();
   }
   
-  /**
-   * This method removes candidates from the candidate list under two conditions: 1. They are in the same folder as a bulk processing file, if that option is
-   * selected 2. They are still in use in the file column family in the METADATA table
-   */
-  public void confirmDeletes(SortedSet<String> candidates) throws AccumuloException {
-    
-    Scanner scanner;
+  private Scanner createMetadataScanner() throws AccumuloException {
     if (offline) {
       try {
-        scanner = new OfflineMetadataScanner(instance.getConfiguration(), fs);
+        return new OfflineMetadataScanner(instance.getConfiguration(), fs);
       } catch (IOException e) {
         throw new IllegalStateException("Unable to create offline metadata scanner", e);
       }
-    } else {
-      try {
-        scanner = new IsolatedScanner(instance.getConnector(credentials).createScanner(Constants.METADATA_TABLE_NAME, Constants.NO_AUTHS));
-      } catch (AccumuloSecurityException ex) {
-        throw new AccumuloException(ex);
-      } catch (TableNotFoundException ex) {
-        throw new AccumuloException(ex);
+    }
+    
+    try {
+      return new IsolatedScanner(instance.getConnector(credentials).createScanner(Constants.METADATA_TABLE_NAME, Constants.NO_AUTHS));
+    } catch (AccumuloSecurityException ex) {
+      throw new AccumuloException(ex);
+    } catch (TableNotFoundException ex) {
+      throw new AccumuloException(ex);
+    }
+  }
+  
+  /**
+   * Split the METADATA keyspace at the first row of each table, so that every range holds whole tables and together they cover the keyspace.
+   */
+  List<Range> getMetadataRanges() throws AccumuloException {
+    TreeSet<Key> tableStarts = new TreeSet<Key>();
+    try {
+      for (String tableId : instance.getConnector(credentials).tableOperations().tableIdMap().values()) {
+        Key start = new Key(new Text(tableId + ";"));
+        if (Constants.METADATA_KEYSPACE.contains(start) && start.compareTo(Constants.METADATA_KEYSPACE.getStartKey()) > 0)
+          tableStarts.add(start);
       }
+    } catch (AccumuloSecurityException ex) {
+      throw new AccumuloException(ex);
     }
     
+    List<Range> ranges = new ArrayList<Range>();
+    Key prev = Constants.METADATA_KEYSPACE.getStartKey();
+    for (Key start : tableStarts) {
+      ranges.add(new Range(prev, true, start, false));
+      prev = start;
+    }
+    ranges.add(new Range(prev, true, Constants.METADATA_KEYSPACE.getEndKey(), Constants.METADATA_KEYSPACE.isEndKeyInclusive()));
+    return ranges;
+  }
+  
+  /**
+   * This method removes candidates from the candidate list under two conditions: 1. They are in the same folder as a bulk processing file, if that option is
+   * selected 2. They are still in use in the file column family in the METADATA table
+   */
+  public void confirmDeletes(final SortedSet<String> candidates) throws AccumuloException {
+    
+    Scanner scanner = createMetadataScanner();
+    
     // skip candidates that are in a bulk processing folder
     if (checkForBulkProcessingFiles) {
       
@@ -498,44 +543,82 @@ public class SimpleGarbageCollector implements Iface {
     }
     
     // skip candidates that are still in use in the file column family in
-    // the metadata table
+    // the metadata table; the tables are scanned in parallel, each with its
+    // own scanner so the tablet iterator can still check the metadata
+    List<Range> ranges = offline ? Collections.singletonList(Constants.METADATA_KEYSPACE) : getMetadataRanges();
+    if (ranges.size() == 1 || numConfirmThreads <= 1) {
+      for (Range range : ranges)
+        removeCandidatesInUse(scanner, range, candidates);
+      return;
+    }
+    
+    ExecutorService confirmThreadPool = Executors.newFixedThreadPool(Math.min(numConfirmThreads, ranges.size()), new NamingThreadFactory("confirming"));
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (final Range range : ranges) {
+      futures.add(confirmThreadPool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          removeCandidatesInUse(createMetadataScanner(), range, candidates);
+          return null;
+        }
+      }));
+    }
+    confirmThreadPool.shutdown();
+    
+    try {
+      for (Future<Void> future : futures)
+        future.get();
+    } catch (InterruptedException e) {
+      confirmThreadPool.shutdownNow();
+      throw new AccumuloException(e);
+    } catch (ExecutionException e) {
+      // WARNING: a range that was not completely scanned may still hold
+      // references to candidates, so the whole cycle must be abandoned
+      confirmThreadPool.shutdownNow();
+      throw new AccumuloException("Failed to scan the METADATA table for files in use", e.getCause());
+    }
+  }
+  
+  private void removeCandidatesInUse(Scanner scanner, Range range, SortedSet<String> candidates) throws AccumuloException {
     scanner.clearColumns();
     scanner.fetchColumnFamily(Constants.METADATA_DATAFILE_COLUMN_FAMILY);
     scanner.fetchColumnFamily(Constants.METADATA_SCANFILE_COLUMN_FAMILY);
     Constants.METADATA_DIRECTORY_COLUMN.fetch(scanner);
     
-    TabletIterator tabletIterator = new TabletIterator(scanner, Constants.METADATA_KEYSPACE, false, true);
+    TabletIterator tabletIterator = new TabletIterator(scanner, range, false, true);
     
     while (tabletIterator.hasNext()) {
       Map<Key,Value> tabletKeyValues = tabletIterator.next();
       
-      for (Entry<Key,Value> entry : tabletKeyValues.entrySet()) {
-        if (entry.getKey().getColumnFamily().equals(Constants.METADATA_DATAFILE_COLUMN_FAMILY)
-            || entry.getKey().getColumnFamily().equals(Constants.METADATA_SCANFILE_COLUMN_FAMILY)) {
-          
-          String cf = entry.getKey().getColumnQualifier().toString();
-          String delete;
-          if (cf.startsWith("../")) {
-            delete = cf.substring(2);
-          } else {
+      synchronized (candidates) {
+        for (Entry<Key,Value> entry : tabletKeyValues.entrySet()) {
+          if (entry.getKey().getColumnFamily().equals(Constants.METADATA_DATAFILE_COLUMN_FAMILY)
+              || entry.getKey().getColumnFamily().equals(Constants.METADATA_SCANFILE_COLUMN_FAMILY)) {
+            
+            String cf = entry.getKey().getColumnQualifier().toString();
+            String delete;
+            if (cf.startsWith("../")) {
+              delete = cf.substring(2);
+            } else {
+              String table = new String(KeyExtent.tableOfMetadataRow(entry.getKey().getRow()));
+              delete = "/" + table + cf;
+            }
+            // WARNING: This line is EXTREMELY IMPORTANT.
+            // You MUST REMOVE candidates that are still in use
+            if (candidates.remove(delete))
+              log.debug("Candidate was still in use in the METADATA table: " + delete);
+            
+            String path = delete.substring(0, delete.lastIndexOf('/'));
+            if (candidates.remove(path))
+              log.debug("Candidate was still in use in the METADATA table: " + path);
+          } else if (Constants.METADATA_DIRECTORY_COLUMN.hasColumns(entry.getKey())) {
             String table = new String(KeyExtent.tableOfMetadataRow(entry.getKey().getRow()));
-            delete = "/" + table + cf;
-          }
-          // WARNING: This line is EXTREMELY IMPORTANT.
-          // You MUST REMOVE candidates that are still in use
-          if (candidates.remove(delete))
-            log.debug("Candidate was still in use in the METADATA table: " + delete);
-          
-          String path = delete.substring(0, delete.lastIndexOf('/'));
-          if (candidates.remove(path))
-            log.debug("Candidate was still in use in the METADATA table: " + path);
-        } else if (Constants.METADATA_DIRECTORY_COLUMN.hasColumns(entry.getKey())) {
-          String table = new String(KeyExtent.tableOfMetadataRow(entry.getKey().getRow()));
-          String delete = "/" + table + entry.getValue().toString();
-          if (candidates.remove(delete))
-            log.debug("Candidate was still in use in the METADATA table: " + delete);
-        } else
-          throw new AccumuloException("Scanner over metadata table returned unexpected column : " + entry.getKey());
+            String delete = "/" + table + entry.getValue().toString();
+            if (candidates.remove(delete))
+              log.debug("Candidate was still in use in the METADATA table: " + delete);
+          } else
+            throw new AccumuloException("Scanner over metadata table returned unexpected column : " + entry.getKey());
+        }
       }
     }
   }
@@ -35,6 +35,12 @@ import java.util.SortedMap;
 import java.util.TimerTask;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -88,8 +94,10 @@ import org.apache.accumulo.core.security.thrift.ThriftSecurityException;
 import org.apache.accumulo.core.util.ByteBufferUtil;
 import org.apache.accumulo.core.util.CachedConfiguration;
 import org.apache.accumulo.core.util.Daemon;
+import org.apache.accumulo.core.util.SimpleThreadPool;
 import org.apache.accumulo.core.util.UtilWaitThread;
 import org.apache.accumulo.core.zookeeper.ZooUtil;
+import org.apache.accumulo.fate.CachingZooStore;
 import org.apache.accumulo.fate.Fate;
 import org.apache.accumulo.fate.TStore.TStatus;
 import org.apache.accumulo.fate.zookeeper.IZooReaderWriter;
@@ -221,6 +229,10 @@ public class Master implements LiveTServerSet.Listener, TableObserver, CurrentSt
       .unmodifiableSortedMap(new TreeMap<TServerInstance,TabletServerStatus>());
   
   private Set<String> recoveriesInProgress = Collections.synchronizedSet(new HashSet<String>());
+  
+  // only used by the status thread
+  private ExecutorService statusThreadPool = null;
+  private final Map<TServerInstance,Future<TabletServerStatus>> statusRequests = new HashMap<TServerInstance,Future<TabletServerStatus>>();
 
   synchronized private MasterState getMasterState() {
     return state;
@@ -2046,37 +2058,80 @@ public class Master implements LiveTServerSet.Listener, TableObserver, CurrentSt
     long start = System.currentTimeMillis();
     SortedMap<TServerInstance,TabletServerStatus> result = new TreeMap<TServerInstance,TabletServerStatus>();
     Set<TServerInstance> currentServers = tserverSet.getCurrentServers();
+    
+    if (statusThreadPool == null)
+      statusThreadPool = new SimpleThreadPool(getSystemConfiguration().getCount(Property.MASTER_STATUS_THREAD_POOL_SIZE), "GatherTableInformation");
+    
+    // ask every server at once, a request that did not finish during an earlier pass is not sent again
+    statusRequests.keySet().retainAll(currentServers);
+    for (final TServerInstance server : currentServers) {
+      if (!statusRequests.containsKey(server)) {
+        statusRequests.put(server, statusThreadPool.submit(new Callable<TabletServerStatus>() {
+          @Override
+          public TabletServerStatus call() throws Exception {
+            return tserverSet.getConnection(server).getTableMap();
+          }
+        }));
+      }
+    }
+    
+    long deadline = start + getSystemConfiguration().getTimeInMillis(Property.MASTER_STATUS_MAX_TIME);
+    List<TServerInstance> slowServers = new ArrayList<TServerInstance>();
+    int answered = 0;
     for (TServerInstance server : currentServers) {
+      Future<TabletServerStatus> request = statusRequests.get(server);
       try {
-        TabletServerStatus status = tserverSet.getConnection(server).getTableMap();
+        TabletServerStatus status = request.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        statusRequests.remove(server);
         result.put(server, status);
-        // TODO maybe remove from bad servers
-      } catch (Exception ex) {
-        log.error("unable to get tablet server status " + server + " " + ex.toString());
-        log.debug("unable to get tablet server status " + server, ex);
-        if (badServers.get(server).incrementAndGet() > MAX_BAD_STATUS_COUNT) {
-          log.warn("attempting to stop " + server);
-          try {
-            TServerConnection connection = tserverSet.getConnection(server);
-            if (connection != null)
-              connection.halt(masterLock);
-          } catch (TTransportException e) {
-            // ignore: it's probably down
-          } catch (Exception e) {
-            log.info("error talking to troublesome tablet server ", e);
-          }
-          badServers.remove(server);
-          tserverSet.remove(server);
+        badServers.remove(server);
+        answered++;
+      } catch (TimeoutException ex) {
+        // keep waiting for the answer during the next pass, and use the last status until then
+        slowServers.add(server);
+        TabletServerStatus status = tserverStatus.get(server);
+        if (status != null)
+          result.put(server, status);
+        synchronized (badServers) {
+          if (!badServers.containsKey(server))
+            badServers.put(server, new AtomicInteger(0));
         }
+      } catch (ExecutionException ex) {
+        statusRequests.remove(server);
+        statusFailed(server, ex.getCause());
+      } catch (InterruptedException ex) {
+        throw new RuntimeException(ex);
       }
     }
     synchronized (badServers) {
       badServers.keySet().retainAll(currentServers);
     }
-    log.debug(String.format("Finished gathering information from %d servers in %.2f seconds", result.size(), (System.currentTimeMillis() - start) / 1000.));
+    if (!slowServers.isEmpty())
+      log.warn("using out of date status for tablet servers that did not answer in time " + slowServers);
+    log.debug(String.format("Finished gathering information from %d of %d servers in %.2f seconds", answered, currentServers.size(),
+        (System.currentTimeMillis() - start) / 1000.));
     return result;
   }
   
+  private void statusFailed(TServerInstance server, Throwable ex) {
+    log.error("unable to get tablet server status " + server + " " + ex.toString());
+    log.debug("unable to get tablet server status " + server, ex);
+    if (badServers.get(server).incrementAndGet() > MAX_BAD_STATUS_COUNT) {
+      log.warn("attempting to stop " + server);
+      try {
+        TServerConnection connection = tserverSet.getConnection(server);
+        if (connection != null)
+          connection.halt(masterLock);
+      } catch (TTransportException e) {
+        // ignore: it's probably down
+      } catch (Exception e) {
+        log.info("error talking to troublesome tablet server ", e);
+      }
+      badServers.remove(server);
+      tserverSet.remove(server);
+    }
+  }
+  
   public boolean recoverLogs(KeyExtent extent, Collection<Collection<String>> walogs) throws IOException {
     boolean recoveryNeeded = false;
     for (Collection<String> logs : walogs) {
@@ -2142,8 +2197,7 @@ public class Master implements LiveTServerSet.Listener, TableObserver, CurrentSt
     
     // TODO: add shutdown for fate object
     try {
-      fate = new Fate<Master>(this, new org.apache.accumulo.fate.ZooStore<Master>(ZooUtil.getRoot(instance) + Constants.ZFATE,
-          ZooReaderWriter.getRetryingInstance()), 4);
+      fate = new Fate<Master>(this, new CachingZooStore<Master>(ZooUtil.getRoot(instance) + Constants.ZFATE, ZooReaderWriter.getRetryingInstance(), 4), 4);
     } catch (KeeperException e) {
       throw new IOException(e);
     } catch (InterruptedException e) {
@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.master.balancer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.data.KeyExtent;
+import org.apache.accumulo.core.master.thrift.TableInfo;
+import org.apache.accumulo.core.master.thrift.TabletServerStatus;
+import org.apache.accumulo.core.tabletserver.thrift.TabletStats;
+import org.apache.accumulo.server.master.state.TServerInstance;
+import org.apache.accumulo.server.master.state.TabletMigration;
+import org.apache.log4j.Logger;
+
+/**
+ * A balancer that moves tablets to even out the load of the tablet servers instead of their tablet counts. The load of a server is a weighted sum of its
+ * online tablets, ingest and query byte rates, memory hold time and queued major compactions, each divided by the cluster average so the weights are
+ * comparable. Each pass moves tablets from the most to the least loaded server, choosing the tablet that best closes the gap between them, until the gap is
+ * under a threshold or the pass has made as many migrations as it may.
+ *
+ * The load of a single tablet is estimated from its record rates and the byte rates of its table on the server, since tablet servers only report byte rates
+ * per table. Assignment of unassigned tablets is left to {@link DefaultLoadBalancer}.
+ */
+public class CostBasedLoadBalancer extends DefaultLoadBalancer {
+  
+  private static final Logger log = Logger.getLogger(CostBasedLoadBalancer.class);
+  
+  static final String[] LOAD_NAMES = {"tablets", "ingest", "query", "hold", "compactions"};
+  static final int TABLETS = 0;
+  static final int INGEST = 1;
+  static final int QUERY = 2;
+  static final int HOLD = 3;
+  static final int COMPACTIONS = 4;
+  
+  // the number of tables on the busiest server whose tablets are considered for a move
+  private static final int MAX_TABLES = 5;
+  
+  private volatile List<TabletMigration> lastPlan = Collections.emptyList();
+  
+  static class Load {
+    final double[] parts = new double[LOAD_NAMES.length];
+    
+    void add(Load other, double sign) {
+      for (int i = 0; i < parts.length; i++)
+        parts[i] += sign * other.parts[i];
+    }
+    
+    double cost(double[] weights, double[] means) {
+      double cost = 0;
+      for (int i = 0; i < parts.length; i++)
+        if (means[i] > 0)
+          cost += weights[i] * parts[i] / means[i];
+      return cost;
+    }
+  }
+  
+  static class ServerLoad {
+    final TServerInstance server;
+    final TabletServerStatus status;
+    final Load load;
+    
+    ServerLoad(TServerInstance server, TabletServerStatus status) {
+      this.server = server;
+      this.status = status;
+      this.load = serverLoad(status);
+    }
+  }
+  
+  static Load serverLoad(TabletServerStatus status) {
+    Load load = new Load();
+    if (status == null)
+      return load;
+    if (status.tableMap != null) {
+      for (TableInfo info : status.tableMap.values()) {
+        load.parts[TABLETS] += info.onlineTablets;
+        load.parts[INGEST] += info.ingestByteRate;
+        load.parts[QUERY] += info.queryByteRate;
+        if (info.major != null)
+          load.parts[COMPACTIONS] += info.major.queued;
+      }
+    }
+    load.parts[HOLD] = status.holdTime;
+    return load;
+  }
+  
+  /**
+   * Estimate a tablet's share of its server's load. Byte rates come from the tablet's record rates and the bytes per record of its table on the server, and
+   * hold time and queued compactions are split in proportion to ingest and tablets.
+   */
+  static Load tabletLoad(TabletStats stats, TableInfo table, Load server) {
+    Load load = new Load();
+    load.parts[TABLETS] = 1;
+    if (table.ingestRate > 0)
+      load.parts[INGEST] = stats.ingestRate * table.ingestByteRate / table.ingestRate;
+    if (table.queryRate > 0)
+      load.parts[QUERY] = stats.queryRate * table.queryByteRate / table.queryRate;
+    if (server.parts[INGEST] > 0)
+      load.parts[HOLD] = server.parts[HOLD] * load.parts[INGEST] / server.parts[INGEST];
+    if (table.major != null && table.onlineTablets > 0)
+      load.parts[COMPACTIONS] = (double) table.major.queued / table.onlineTablets;
+    return load;
+  }
+  
+  /**
+   * Parse weights in the form of {@link Property#MASTER_BALANCER_COST_WEIGHTS}. Parts that are not listed get no weight.
+   */
+  static double[] parseWeights(String weights) {
+    double[] result = new double[LOAD_NAMES.length];
+    for (String pair : weights.split(",")) {
+      pair = pair.trim();
+      if (pair.length() == 0)
+        continue;
+      String[] nameWeight = pair.split(":");
+      if (nameWeight.length != 2)
+        throw new IllegalArgumentException("Expected name:weight, saw " + pair);
+      int index = -1;
+      for (int i = 0; i < LOAD_NAMES.length; i++)
+        if (LOAD_NAMES[i].equals(nameWeight[0].trim()))
+          index = i;
+      if (index < 0)
+        throw new IllegalArgumentException("Unknown load " + nameWeight[0]);
+      result[index] = Double.parseDouble(nameWeight[1].trim());
+    }
+    return result;
+  }
+  
+  private AccumuloConfiguration getConfiguration() {
+    if (configuration == null)
+      return AccumuloConfiguration.getDefaultConfiguration();
+    return configuration.getConfiguration();
+  }
+  
+  /**
+   * @return the migrations chosen by the most recent balancing pass, including passes made in dry run mode
+   */
+  public List<TabletMigration> getLastPlan() {
+    return lastPlan;
+  }
+  
+  /**
+   * Choose migrations that even out the load of the given servers.
+   *
+   * @param migrating
+   *          tablets that are already moving, which will not be chosen
+   * @param threshold
+   *          stop once the most and least loaded servers differ by less than this fraction of the average load
+   * @param maxMigrations
+   *          the most migrations to choose
+   */
+  List<TabletMigration> plan(Map<TServerInstance,TabletServerStatus> current, Set<KeyExtent> migrating, double[] weights, double threshold, int maxMigrations) {
+    List<TabletMigration> result = new ArrayList<TabletMigration>();
+    if (current.size() < 2)
+      return result;
+    
+    List<ServerLoad> servers = new ArrayList<ServerLoad>();
+    double[] means = new double[LOAD_NAMES.length];
+    for (Entry<TServerInstance,TabletServerStatus> entry : current.entrySet()) {
+      ServerLoad server = new ServerLoad(entry.getKey(), entry.getValue());
+      servers.add(server);
+      for (int i = 0; i < means.length; i++)
+        means[i] += server.load.parts[i] / current.size();
+    }
+    
+    double meanCost = 0;
+    for (ServerLoad server : servers)
+      meanCost += server.load.cost(weights, means) / servers.size();
+    
+    Set<KeyExtent> moved = new HashSet<KeyExtent>(migrating);
+    Map<TServerInstance,Map<String,List<TabletStats>>> fetched = new HashMap<TServerInstance,Map<String,List<TabletStats>>>();
+    
+    while (result.size() < maxMigrations) {
+      ServerLoad hot = servers.get(0);
+      ServerLoad cold = servers.get(0);
+      for (ServerLoad server : servers) {
+        if (server.load.cost(weights, means) > hot.load.cost(weights, means))
+          hot = server;
+        if (server.load.cost(weights, means) < cold.load.cost(weights, means))
+          cold = server;
+      }
+      
+      double hotCost = hot.load.cost(weights, means);
+      double coldCost = cold.load.cost(weights, means);
+      if (hotCost - coldCost <= threshold * meanCost || hot.status == null || hot.status.tableMap == null)
+        break;
+      
+      KeyExtent bestExtent = null;
+      Load bestLoad = null;
+      double bestGap = hotCost - coldCost;
+      
+      for (String table : busiestTables(hot, weights, means)) {
+        List<TabletStats> tablets = getTablets(fetched, hot.server, table);
+        TableInfo info = hot.status.tableMap.get(table);
+        for (TabletStats stats : tablets) {
+          KeyExtent extent = new KeyExtent(stats.extent);
+          if (moved.contains(extent))
+            continue;
+          Load load = tabletLoad(stats, info, hot.load);
+          double cost = load.cost(weights, means);
+          double gap = Math.abs((hotCost - cost) - (coldCost + cost));
+          if (gap < bestGap) {
+            bestGap = gap;
+            bestExtent = extent;
+            bestLoad = load;
+          }
+        }
+      }
+      
+      // no tablet on the busiest server makes things more even
+      if (bestExtent == null)
+        break;
+      
+      hot.load.add(bestLoad, -1);
+      cold.load.add(bestLoad, 1);
+      moved.add(bestExtent);
+      result.add(new TabletMigration(bestExtent, hot.server, cold.server));
+    }
+    
+    return result;
+  }
+  
+  private List<String> busiestTables(ServerLoad server, final double[] weights, final double[] means) {
+    final Map<String,Double> tableCosts = new HashMap<String,Double>();
+    for (Entry<String,TableInfo> entry : server.status.tableMap.entrySet()) {
+      TableInfo info = entry.getValue();
+      if (info.onlineTablets == 0)
+        continue;
+      Load load = new Load();
+      load.parts[TABLETS] = info.onlineTablets;
+      load.parts[INGEST] = info.ingestByteRate;
+      load.parts[QUERY] = info.queryByteRate;
+      if (info.major != null)
+        load.parts[COMPACTIONS] = info.major.queued;
+      tableCosts.put(entry.getKey(), load.cost(weights, means));
+    }
+    
+    List<String> tables = new ArrayList<String>(tableCosts.keySet());
+    Collections.sort(tables, new Comparator<String>() {
+      @Override
+      public int compare(String t1, String t2) {
+        return Double.compare(tableCosts.get(t2), tableCosts.get(t1));
+      }
+    });
+    return tables.subList(0, Math.min(MAX_TABLES, tables.size()));
+  }
+  
+  private List<TabletStats> getTablets(Map<TServerInstance,Map<String,List<TabletStats>>> fetched, TServerInstance server, String table) {
+    Map<String,List<TabletStats>> serverTablets = fetched.get(server);
+    if (serverTablets == null)
+      fetched.put(server, serverTablets = new HashMap<String,List<TabletStats>>());
+    List<TabletStats> tablets = serverTablets.get(table);
+    if (tablets == null) {
+      try {
+        tablets = getOnlineTabletsForTable(server, table);
+      } catch (Exception ex) {
+        log.error("Unable to get tablets for table " + table + " from " + server, ex);
+      }
+      if (tablets == null)
+        tablets = Collections.emptyList();
+      serverTablets.put(table, tablets);
+    }
+    return tablets;
+  }
+  
+  @Override
+  public long balance(SortedMap<TServerInstance,TabletServerStatus> current, Set<KeyExtent> migrations, List<TabletMigration> migrationsOut) {
+    // Don't migrate if we have migrations in progress
+    if (current.size() < 2 || migrations.size() > 0)
+      return 5 * 1000;
+    
+    AccumuloConfiguration conf = getConfiguration();
+    double[] weights;
+    try {
+      weights = parseWeights(conf.get(Property.MASTER_BALANCER_COST_WEIGHTS));
+    } catch (IllegalArgumentException ex) {
+      log.warn("Bad value for " + Property.MASTER_BALANCER_COST_WEIGHTS.getKey() + ", using the default", ex);
+      weights = parseWeights(Property.MASTER_BALANCER_COST_WEIGHTS.getDefaultValue());
+    }
+    
+    List<TabletMigration> plan = plan(current, migrations, weights, conf.getFraction(Property.MASTER_BALANCER_COST_THRESHOLD),
+        conf.getCount(Property.MASTER_BALANCER_MIGRATIONS_MAX));
+    lastPlan = Collections.unmodifiableList(plan);
+    
+    if (conf.getBoolean(Property.MASTER_BALANCER_DRYRUN)) {
+      for (TabletMigration migration : plan)
+        log.info("Dry run, would migrate " + migration);
+      return 60 * 1000;
+    }
+    
+    log.debug("balance ended with " + plan.size() + " migrations");
+    migrationsOut.addAll(plan);
+    return 5 * 1000;
+  }
+}
@@ -17,61 +17,175 @@
 package org.apache.accumulo.server.tabletserver;
 
 import java.util.AbstractQueue;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.accumulo.cloudtrace.instrument.TraceRunnable;
+import org.apache.accumulo.server.tabletserver.metrics.TabletServerMajCMetrics;
+
+/**
+ * The queue of the major compaction thread pool. Tasks are first ordered by {@link Priority}. Within a priority, tables take turns, so that a table with
+ * many queued tablets, for example after a bulk import, does not hold up the compactions of other tables. The tasks of a table are kept in a heap ordered by
+ * the tasks' natural order, so adding and removing a task is O(log n).
+ */
 @SuppressWarnings({"rawtypes", "unchecked"})
 public class CompactionQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
   
-  private List<Comparable> task = new LinkedList<Comparable>();
+  /**
+   * Priority classes in the order they are run. FILE_LIMIT is for normal compactions of tablets that are close to the most files they are allowed to have.
+   */
+  public enum Priority {
+    USER, CHOP, FILE_LIMIT, NORMAL, IDLE
+  }
+  
+  /**
+   * Implemented by tasks that know their priority and table, including tasks wrapped in a {@link TraceRunnable} by a tracing executor. Other tasks are queued
+   * as normal priority tasks of one unnamed table.
+   */
+  public interface Task {
+    Priority getPriority();
+    
+    String getTableId();
+  }
+  
+  private static class Queued implements Comparable<Queued> {
+    final Runnable task;
+    // the task the executor was given, before it was wrapped for tracing
+    final Runnable inner;
+    final Priority priority;
+    final String tableId;
+    final long queued = System.currentTimeMillis();
+    final long seq;
+    
+    Queued(Runnable task, long seq) {
+      this.task = task;
+      this.seq = seq;
+      this.inner = task instanceof TraceRunnable ? ((TraceRunnable) task).getRunnable() : task;
+      if (inner instanceof Task) {
+        priority = ((Task) inner).getPriority();
+        tableId = ((Task) inner).getTableId();
+      } else {
+        priority = Priority.NORMAL;
+        tableId = "";
+      }
+    }
+    
+    @Override
+    public int compareTo(Queued o) {
+      if (inner instanceof Comparable) {
+        int cmp = ((Comparable) inner).compareTo(o.inner);
+        if (cmp != 0)
+          return cmp;
+      }
+      return seq < o.seq ? -1 : (seq > o.seq ? 1 : 0);
+    }
+  }
+  
+  private static class Level {
+    final Map<String,PriorityQueue<Queued>> tables = new HashMap<String,PriorityQueue<Queued>>();
+    // tables that have queued tasks, in the order they get their next turn
+    final LinkedList<String> turns = new LinkedList<String>();
+    int size = 0;
+  }
+  
+  private final Level[] levels = new Level[Priority.values().length];
+  private int size = 0;
+  private long seq = 0;
+  private final TabletServerMajCMetrics metrics;
+  
+  public CompactionQueue() {
+    this(null);
+  }
+  
+  public CompactionQueue(TabletServerMajCMetrics metrics) {
+    this.metrics = metrics;
+    for (int i = 0; i < levels.length; i++)
+      levels[i] = new Level();
+  }
+  
+  private void enqueue(Runnable e) {
+    Queued q = new Queued(e, seq++);
+    Level level = levels[q.priority.ordinal()];
+    PriorityQueue<Queued> heap = level.tables.get(q.tableId);
+    if (heap == null) {
+      heap = new PriorityQueue<Queued>();
+      level.tables.put(q.tableId, heap);
+      level.turns.add(q.tableId);
+    }
+    heap.add(q);
+    level.size++;
+    size++;
+    if (metrics != null)
+      metrics.queued(q.priority);
+    notify();
+  }
+  
+  private Level firstLevel() {
+    for (Level level : levels)
+      if (level.size > 0)
+        return level;
+    return null;
+  }
   
   @Override
   public synchronized Runnable poll() {
-    if (task.size() == 0)
+    Level level = firstLevel();
+    if (level == null)
       return null;
     
-    Comparable min = Collections.min(task);
-    task.remove(min);
-    return (Runnable) min;
+    String tableId = level.turns.removeFirst();
+    PriorityQueue<Queued> heap = level.tables.get(tableId);
+    Queued q = heap.poll();
+    if (heap.isEmpty())
+      level.tables.remove(tableId);
+    else
+      level.turns.addLast(tableId);
+    level.size--;
+    size--;
+    
+    if (metrics != null)
+      metrics.started(q.priority, System.currentTimeMillis() - q.queued);
+    return q.task;
   }
   
   @Override
   public synchronized Runnable peek() {
-    if (task.size() == 0)
+    Level level = firstLevel();
+    if (level == null)
       return null;
     
-    Comparable min = Collections.min(task);
-    return (Runnable) min;
+    return level.tables.get(level.turns.getFirst()).peek().task;
   }
   
   @Override
   public synchronized boolean offer(Runnable e) {
-    task.add((Comparable) e);
-    notify();
+    enqueue(e);
     return true;
   }
   
   @Override
   public synchronized void put(Runnable e) throws InterruptedException {
-    task.add((Comparable) e);
-    notify();
+    enqueue(e);
   }
   
   @Override
   public synchronized boolean offer(Runnable e, long timeout, TimeUnit unit) throws InterruptedException {
-    task.add((Comparable) e);
-    notify();
+    enqueue(e);
     return true;
   }
   
   @Override
   public synchronized Runnable take() throws InterruptedException {
-    while (task.size() == 0) {
+    while (size == 0) {
       wait();
     }
     
@@ -80,16 +194,44 @@ public class CompactionQueue extends AbstractQueue<Runnable> implements Blocking
   
   @Override
   public synchronized Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
-    if (task.size() == 0) {
+    if (size == 0) {
       wait(unit.toMillis(timeout));
     }
     
-    if (task.size() == 0)
+    if (size == 0)
       return null;
     
     return poll();
   }
   
+  /**
+   * Removes a queued task. A task that was wrapped for tracing can be removed by the task that was wrapped.
+   */
+  @Override
+  public synchronized boolean remove(Object o) {
+    for (Level level : levels) {
+      for (Iterator<PriorityQueue<Queued>> hiter = level.tables.values().iterator(); hiter.hasNext();) {
+        PriorityQueue<Queued> heap = hiter.next();
+        for (Iterator<Queued> iter = heap.iterator(); iter.hasNext();) {
+          Queued q = iter.next();
+          if (q.task == o || q.inner == o) {
+            iter.remove();
+            if (heap.isEmpty()) {
+              hiter.remove();
+              level.turns.remove(q.tableId);
+            }
+            level.size--;
+            size--;
+            if (metrics != null)
+              metrics.removed(q.priority);
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+  
   @Override
   public synchronized int remainingCapacity() {
     return Integer.MAX_VALUE;
@@ -97,32 +239,40 @@ public class CompactionQueue extends AbstractQueue<Runnable> implements Blocking
   
   @Override
   public synchronized int drainTo(Collection<? super Runnable> c) {
-    return drainTo(c, task.size());
+    return drainTo(c, size);
   }
   
   @Override
   public synchronized int drainTo(Collection<? super Runnable> c, int maxElements) {
-    Collections.sort(task);
+    int num = Math.min(size, maxElements);
     
-    int num = Math.min(task.size(), maxElements);
-    
-    Iterator<Comparable> iter = task.iterator();
-    for (int i = 0; i < num; i++) {
-      c.add((Runnable) iter.next());
-      iter.remove();
-    }
+    for (int i = 0; i < num; i++)
+      c.add(poll());
     
     return num;
   }
   
+  /**
+   * Returns the queued tasks by priority, then by table in turn order, then in heap order. Removing through the iterator removes the task from the queue.
+   */
   @Override
   public synchronized Iterator<Runnable> iterator() {
-    Collections.sort(task);
+    final List<Runnable> tasks = new ArrayList<Runnable>(size);
+    for (Level level : levels) {
+      for (String tableId : level.turns) {
+        List<Queued> sorted = new ArrayList<Queued>(level.tables.get(tableId));
+        Collections.sort(sorted);
+        for (Queued q : sorted)
+          tasks.add(q.task);
+      }
+    }
     
-    final Iterator<Comparable> iter = task.iterator();
+    final Iterator<Runnable> iter = tasks.iterator();
     
     return new Iterator<Runnable>() {
       
+      Runnable last = null;
+      
       @Override
       public boolean hasNext() {
         return iter.hasNext();
@@ -130,19 +280,29 @@ public class CompactionQueue extends AbstractQueue<Runnable> implements Blocking
       
       @Override
       public Runnable next() {
-        return (Runnable) iter.next();
+        return last = iter.next();
       }
       
       @Override
       public void remove() {
-        iter.remove();
+        if (last == null)
+          throw new IllegalStateException();
+        CompactionQueue.this.remove(last);
+        last = null;
       }
     };
   }
   
   @Override
   public synchronized int size() {
-    return task.size();
+    return size;
+  }
+  
+  /**
+   * @return the number of tasks queued at the given priority
+   */
+  public synchronized int size(Priority priority) {
+    return levels[priority.ordinal()].size;
   }
   
 }
@@ -16,8 +16,11 @@
  */
 package org.apache.accumulo.server.tabletserver;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +31,8 @@ import java.util.concurrent.Callable;
 import org.apache.accumulo.cloudtrace.instrument.Span;
 import org.apache.accumulo.cloudtrace.instrument.Trace;
 import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.conf.Property;
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.KeyExtent;
@@ -35,6 +40,7 @@ import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.file.FileOperations;
 import org.apache.accumulo.core.file.FileSKVIterator;
 import org.apache.accumulo.core.file.FileSKVWriter;
+import org.apache.accumulo.core.file.NoSuchMetaStoreException;
 import org.apache.accumulo.core.iterators.IteratorUtil;
 import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
@@ -46,11 +52,11 @@ import org.apache.accumulo.core.iterators.system.TimeSettingIterator;
 import org.apache.accumulo.core.util.LocalityGroupUtil;
 import org.apache.accumulo.core.util.LocalityGroupUtil.LocalityGroupConfigurationError;
 import org.apache.accumulo.core.util.MetadataTable.DataFileValue;
-import org.apache.accumulo.server.conf.TableConfiguration;
 import org.apache.accumulo.server.problems.ProblemReport;
 import org.apache.accumulo.server.problems.ProblemReportingIterator;
 import org.apache.accumulo.server.problems.ProblemReports;
 import org.apache.accumulo.server.problems.ProblemType;
+import org.apache.accumulo.server.tabletserver.compaction.TimeWindowCompactionPlanner;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -71,19 +77,26 @@ public class Compactor implements Callable<CompactionStats> {
     IteratorScope getIteratorScope();
   }
   
+  // the meta store that holds the time the newest data in a file was written
+  static final String DATA_TIME_STORE = "accumulo.data.time";
+  
   private Map<String,DataFileValue> filesToCompact;
   private InMemoryMap imm;
   private String outputFile;
   private boolean propogateDeletes;
-  private TableConfiguration acuTableConf;
+  private AccumuloConfiguration acuTableConf;
   private CompactionEnv env;
   private Configuration conf;
   private FileSystem fs;
   protected KeyExtent extent;
   private List<IteratorSetting> iterators;
+  // only tables whose planner windows files by the time of their data record it
+  private boolean recordDataTime;
+  // the time of the data in each input file, read through the readers opened to compact it
+  private Map<String,Long> dataTimes = new HashMap<String,Long>();
   
   Compactor(Configuration conf, FileSystem fs, Map<String,DataFileValue> files, InMemoryMap imm, String outputFile, boolean propogateDeletes,
-      TableConfiguration acuTableConf, KeyExtent extent, CompactionEnv env, List<IteratorSetting> iterators) {
+      AccumuloConfiguration acuTableConf, KeyExtent extent, CompactionEnv env, List<IteratorSetting> iterators) {
     this.extent = extent;
     this.conf = conf;
     this.fs = fs;
@@ -94,10 +107,11 @@ public class Compactor implements Callable<CompactionStats> {
     this.acuTableConf = acuTableConf;
     this.env = env;
     this.iterators = iterators;
+    this.recordDataTime = isDataTimeRecorded(acuTableConf);
   }
   
   Compactor(Configuration conf, FileSystem fs, Map<String,DataFileValue> files, InMemoryMap imm, String outputFile, boolean propogateDeletes,
-      TableConfiguration acuTableConf, KeyExtent extent, CompactionEnv env) {
+      AccumuloConfiguration acuTableConf, KeyExtent extent, CompactionEnv env) {
     this(conf, fs, files, imm, outputFile, propogateDeletes, acuTableConf, extent, env, new ArrayList<IteratorSetting>());
   }
   
@@ -113,6 +127,49 @@ public class Compactor implements Callable<CompactionStats> {
     return outputFile;
   }
   
+  /**
+   * @return true if the table's compaction planner windows files by the time of their data, which compactions then record in their output
+   */
+  static boolean isDataTimeRecorded(AccumuloConfiguration acuconf) {
+    return TimeWindowCompactionPlanner.class.getName().equals(acuconf.get(Property.TABLE_COMPACTION_PLANNER));
+  }
+  
+  /**
+   * @return the time the newest data in the file was written. A compaction's output keeps the newest time of its inputs, so that compacting old data does not
+   *         make it look new. Files written before this was recorded, or by a table that did not record it, use their modification time.
+   */
+  static long getDataTime(FileSKVIterator reader, String file, FileSystem fs) throws IOException {
+    try {
+      DataInputStream in = reader.getMetaStore(DATA_TIME_STORE);
+      try {
+        return in.readLong();
+      } finally {
+        in.close();
+      }
+    } catch (NoSuchMetaStoreException e) {
+      return fs.getFileStatus(new Path(file)).getModificationTime();
+    } catch (UnsupportedOperationException e) {
+      return fs.getFileStatus(new Path(file)).getModificationTime();
+    }
+  }
+  
+  static long getDataTime(String file, FileSystem fs, Configuration conf, AccumuloConfiguration acuconf) throws IOException {
+    FileSKVIterator reader = FileOperations.getInstance().openReader(file, false, fs, conf, acuconf);
+    try {
+      return getDataTime(reader, file, fs);
+    } finally {
+      reader.close();
+    }
+  }
+  
+  private long getDataTime() {
+    // data from memory was just written
+    long dataTime = imm != null ? System.currentTimeMillis() : 0;
+    for (Long time : dataTimes.values())
+      dataTime = Math.max(dataTime, time);
+    return dataTime;
+  }
+  
   @Override
   public CompactionStats call() throws IOException, CompactionCanceledException {
     
@@ -144,6 +201,16 @@ public class Compactor implements Callable<CompactionStats> {
       
       compactLocalityGroup(null, allColumnFamilies, false, mfw, majCStats);
       
+      if (recordDataTime) {
+        try {
+          DataOutputStream out = mfw.createMetaStore(DATA_TIME_STORE);
+          out.writeLong(getDataTime());
+          out.close();
+        } catch (UnsupportedOperationException e) {
+          // the file format can not record it, the file's modification time is used instead
+        }
+      }
+      
       long t2 = System.currentTimeMillis();
       
       FileSKVWriter mfwTmp = mfw;
@@ -204,6 +271,9 @@ public class Compactor implements Callable<CompactionStats> {
         
         readers.add(reader);
         
+        if (recordDataTime && !dataTimes.containsKey(mapFile))
+          dataTimes.put(mapFile, getDataTime(reader, mapFile, fs));
+        
         SortedKeyValueIterator<Key,Value> iter = new ProblemReportingIterator(extent.getTableId().toString(), mapFile, false, reader);
         
         if (filesToCompact.get(mapFile).isTimeSet()) {
@@ -30,9 +30,12 @@ import java.util.TimerTask;
 import java.util.concurrent.Semaphore;
 
 import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.KeyExtent;
+import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.file.BlockPrefetcher;
 import org.apache.accumulo.core.file.FileOperations;
 import org.apache.accumulo.core.file.FileSKVIterator;
 import org.apache.accumulo.core.file.blockfile.cache.BlockCache;
@@ -356,6 +359,9 @@ public class FileManager {
       for (FileSKVIterator reader : readers) {
         try {
           reader.closeDeepCopies();
+          // drop blocks read ahead for lookups the next user of the reader will not do
+          if (reader instanceof BlockPrefetcher)
+            ((BlockPrefetcher) reader).prefetch(Collections.<Range> emptyList(), Collections.<ByteSequence> emptySet(), false);
         } catch (IOException e) {
           log.warn(e, e);
           sawIOException = true;
@@ -546,6 +552,15 @@ public class FileManager {
     synchronized int getNumOpenFiles() {
       return tabletReservedReaders.size();
     }
+    
+    /**
+     * Starts reading the blocks of the open files that a lookup of the ranges will need, for files that support it.
+     */
+    synchronized void prefetch(List<Range> ranges, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+      for (FileSKVIterator reader : tabletReservedReaders)
+        if (reader instanceof BlockPrefetcher)
+          ((BlockPrefetcher) reader).prefetch(ranges, columnFamilies, inclusive);
+    }
   }
   
   public ScanFileManager newScanFileManager(KeyExtent tablet) {
@@ -29,10 +29,12 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.accumulo.core.conf.AccumuloConfiguration;
 import org.apache.accumulo.core.conf.Property;
@@ -195,6 +197,10 @@ public class InMemoryMap {
   private final String memDumpDir;
   
   public InMemoryMap(boolean useNativeMap, String memDumpDir) {
+    this(useNativeMap, false, memDumpDir);
+  }
+  
+  public InMemoryMap(boolean useNativeMap, boolean useSlabMap, String memDumpDir) {
     this.memDumpDir = memDumpDir;
     if (useNativeMap && NativeMap.loadedNativeLibraries()) {
       try {
@@ -204,13 +210,17 @@ public class InMemoryMap {
       }
     }
     
+    if (map == null && useSlabMap) {
+      map = new SlabMapWrapper();
+    }
+    
     if (map == null) {
       map = new DefaultMap();
     }
   }
   
   public InMemoryMap(AccumuloConfiguration config) {
-    this(config.getBoolean(Property.TSERV_NATIVEMAP_ENABLED), config.get(Property.TSERV_MEMDUMP_DIR));
+    this(config.getBoolean(Property.TSERV_NATIVEMAP_ENABLED), config.getBoolean(Property.TSERV_SLABMAP_ENABLED), config.get(Property.TSERV_MEMDUMP_DIR));
   }
   
   private interface SimpleMap {
@@ -332,17 +342,95 @@ public class InMemoryMap {
     }
   }
   
+  private static class SlabMapWrapper implements SimpleMap {
+    private SlabMap slabMap = new SlabMap();
+    
+    public Value get(Key key) {
+      return slabMap.get(key);
+    }
+    
+    public Iterator<Entry<Key,Value>> iterator(Key startKey) {
+      return slabMap.iterator(startKey);
+    }
+    
+    public int size() {
+      return slabMap.size();
+    }
+    
+    public InterruptibleIterator skvIterator() {
+      return slabMap.skvIterator();
+    }
+    
+    public void delete() {
+      slabMap.delete();
+    }
+    
+    public long getMemoryUsed() {
+      return slabMap.getMemoryUsed();
+    }
+    
+    @Override
+    public void mutate(List<Mutation> mutations, int kvCount) {
+      slabMap.mutate(mutations, kvCount);
+    }
+  }
+  
   private AtomicInteger nextKVCount = new AtomicInteger(1);
   private AtomicInteger kvCount = new AtomicInteger(0);
   
+  private static class PendingWrite {
+    final List<Mutation> mutations;
+    boolean done = false;
+    Throwable error = null;
+    
+    PendingWrite(List<Mutation> mutations) {
+      this.mutations = mutations;
+    }
+  }
+  
+  // writes waiting to be applied, whichever writer holds writeLock applies all of them
+  private final ConcurrentLinkedQueue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<PendingWrite>();
+  private final ReentrantLock writeLock = new ReentrantLock();
+  
   /**
-   * Applies changes to a row in the InMemoryMap
+   * Applies changes to a row in the InMemoryMap. Concurrent calls to the native map are combined, the first writer to get the write lock applies the mutations
+   * of every writer waiting behind it. The java and slab maps take concurrent writes, so their writers do not take the lock.
    * 
    */
   public void mutate(List<Mutation> mutations) {
+    if (!(map instanceof NativeMapWrapper)) {
+      mutateConcurrently(mutations);
+      return;
+    }
+    
+    PendingWrite write = new PendingWrite(mutations);
+    pendingWrites.add(write);
+    
+    writeLock.lock();
+    try {
+      if (!write.done)
+        applyPendingWrites();
+    } finally {
+      writeLock.unlock();
+    }
+    
+    if (write.error instanceof RuntimeException)
+      throw (RuntimeException) write.error;
+    if (write.error instanceof Error)
+      throw (Error) write.error;
+    if (write.error != null)
+      throw new RuntimeException(write.error);
+  }
+  
+  private static int countKVs(List<Mutation> mutations) {
     int numKVs = 0;
     for (int i = 0; i < mutations.size(); i++)
       numKVs += mutations.get(i).size();
+    return numKVs;
+  }
+  
+  private void mutateConcurrently(List<Mutation> mutations) {
+    int numKVs = countKVs(mutations);
     int kv = nextKVCount.getAndAdd(numKVs);
     try {
       map.mutate(mutations, kv);
@@ -367,6 +455,26 @@ public class InMemoryMap {
     }
   }
   
+  private void applyPendingWrites() {
+    // Each write is applied with its own call, so a failure is reported only to the writer whose mutations caused it. Writes are applied one batch at a
+    // time under the write lock, so every write that started before has finished and the count can be updated once for the batch without waiting. A read
+    // will not see part of a batch, and each writer returns only after the count covers its write.
+    int end = kvCount.get();
+    PendingWrite pw;
+    while ((pw = pendingWrites.poll()) != null) {
+      try {
+        int numKVs = countKVs(pw.mutations);
+        int kv = nextKVCount.getAndAdd(numKVs);
+        end = kv + numKVs - 1;
+        map.mutate(pw.mutations, kv);
+      } catch (Throwable t) {
+        pw.error = t;
+      }
+      pw.done = true;
+    }
+    kvCount.set(end);
+  }
+  
   /**
    * Returns a long representing the size of the InMemoryMap
    * 
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver;
+
+import java.util.LinkedList;
+import java.util.concurrent.Future;
+
+/**
+ * The batches of a scan being read ahead for the client, oldest first. A batch is only queued once the batch before it has been read, so the batches of a scan
+ * are read one at a time and in order, and no more than a fixed number are held.
+ */
+class ReadAheadQueue<T extends Future<?>> {
+  
+  private final LinkedList<T> tasks = new LinkedList<T>();
+  private final int maxTasks;
+  private boolean closed = false;
+  private boolean ended = false;
+  
+  ReadAheadQueue(int maxTasks) {
+    this.maxTasks = Math.max(1, maxTasks);
+  }
+  
+  /**
+   * Queue a task that reads the next batch. The caller runs the task when it is queued.
+   *
+   * @return false if the queue is closed, ended or full, or if the last batch is still being read
+   */
+  synchronized boolean offer(T task) {
+    if (closed || ended)
+      return false;
+    T last = tasks.peekLast();
+    if (last != null && (tasks.size() >= maxTasks || !last.isDone()))
+      return false;
+    tasks.add(task);
+    return true;
+  }
+  
+  /**
+   * @return the task reading the oldest batch that has not been returned, or null if there is none
+   */
+  synchronized T peek() {
+    return tasks.peek();
+  }
+  
+  /**
+   * Remove a task once its batch has been returned.
+   */
+  synchronized void remove(T task) {
+    tasks.remove(task);
+  }
+  
+  synchronized int size() {
+    return tasks.size();
+  }
+  
+  /**
+   * Stop queuing tasks, because the last batch of the scan has been read or reading failed. A task must call this before it is done, so that its batch is not
+   * followed by another.
+   */
+  synchronized void end() {
+    ended = true;
+  }
+  
+  /**
+   * Cancel every queued task, and stop more from being queued.
+   */
+  synchronized void close() {
+    closed = true;
+    for (T task : tasks)
+      task.cancel(true);
+  }
+}
@@ -0,0 +1,608 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.ColumnUpdate;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IterationInterruptedException;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.system.InterruptibleIterator;
+import org.apache.accumulo.core.util.Pair;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.log4j.Logger;
+
+/**
+ * An in-memory sorted map, written in Java, that stores keys and values in large byte arrays instead of as individual objects. This gives much of the memory
+ * density of {@link NativeMap} without needing a native library, and keeps the garbage collector from having to trace millions of small objects.
+ * <p>
+ *
+ * Each key value pair is serialized into a slab, and the pairs are ordered by a skip list whose nodes are ints in arrays, pointing at the serialized pairs.
+ * Pairs are ordered like {@link MemKey}, so pairs with the same key are ordered by descending mutation count. Since nothing is ever removed from the map, the
+ * skip list is linked with compare and set and readers never lock; writers only synchronize briefly to reserve space.
+ * <p>
+ *
+ * Slabs start small and double in size up to {@link #SLAB_SIZE}, so that the maps of idle tablets stay small. Full size slabs are returned to a pool shared by
+ * all maps when a map is deleted, and reused by new maps. Memory used is the exact size of the arrays the map holds.
+ */
+public class SlabMap {
+
+  private static final Logger log = Logger.getLogger(SlabMap.class);
+
+  static final int MIN_SLAB_SIZE = 16 * 1024;
+  static final int SLAB_SIZE = 1024 * 1024;
+  /** the most full size slabs kept for reuse after maps are deleted */
+  static final int MAX_POOLED_SLABS = 64;
+
+  private static final ArrayList<byte[]> slabPool = new ArrayList<byte[]>();
+
+  // layout of a serialized key value pair
+  private static final int ROW_LEN = 0;
+  private static final int CF_LEN = 4;
+  private static final int CQ_LEN = 8;
+  private static final int CV_LEN = 12;
+  private static final int VAL_LEN = 16;
+  private static final int TIMESTAMP = 20;
+  private static final int DELETED = 28;
+  private static final int KV_COUNT = 29;
+  private static final int DATA = 33;
+
+  // layout of a skip list node, followed by one next pointer per level
+  private static final int NODE_SLAB = 0;
+  private static final int NODE_OFFSET = 1;
+  private static final int NODE_HEIGHT = 2;
+  private static final int NODE_NEXT = 3;
+
+  private static final int MAX_HEIGHT = 16;
+  private static final int CHUNK_BITS = 20;
+  private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+  private static final int MIN_CHUNK_SIZE = 1024;
+
+  // sizes double with each slab or chunk allocated until they reach the maximum, the shift is clamped so it can not overflow
+  private static final int MAX_SLAB_SHIFT = Integer.numberOfTrailingZeros(SLAB_SIZE / MIN_SLAB_SIZE);
+  private static final int MAX_CHUNK_SHIFT = CHUNK_BITS - Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE);
+
+  /** the head node is the first node allocated, so its reference doubles as the end of list marker */
+  private static final int HEAD = 0;
+  private static final int NIL = 0;
+
+  private volatile byte[][] slabs = new byte[0][];
+  private volatile AtomicIntegerArray[] nodeChunks;
+
+  // guarded by this
+  private int slabOffset = 0;
+  private int chunkOffset = 0;
+
+  private volatile long memoryUsed = 0;
+  private final AtomicInteger size = new AtomicInteger(0);
+  private volatile boolean deleted = false;
+  private int randomSeed = (int) System.nanoTime() | 1;
+
+  public SlabMap() {
+    nodeChunks = new AtomicIntegerArray[] {new AtomicIntegerArray(MIN_CHUNK_SIZE)};
+    nodeChunks[0].set(NODE_HEIGHT, MAX_HEIGHT);
+    chunkOffset = NODE_NEXT + MAX_HEIGHT;
+    memoryUsed = MIN_CHUNK_SIZE * 4;
+  }
+
+  private static byte[] takeSlab(int length) {
+    if (length == SLAB_SIZE) {
+      synchronized (slabPool) {
+        if (slabPool.size() > 0)
+          return slabPool.remove(slabPool.size() - 1);
+      }
+    }
+    return new byte[length];
+  }
+
+  private static void returnSlabs(byte[][] slabs) {
+    synchronized (slabPool) {
+      for (byte[] slab : slabs)
+        if (slab.length == SLAB_SIZE && slabPool.size() < MAX_POOLED_SLABS)
+          slabPool.add(slab);
+    }
+  }
+
+  static int pooledSlabs() {
+    synchronized (slabPool) {
+      return slabPool.size();
+    }
+  }
+
+  /**
+   * @return the size of the slab allocated after slabCount slabs, for a pair of the given length
+   */
+  static int slabSize(int slabCount, int length) {
+    return Math.max(length, MIN_SLAB_SIZE << Math.min(slabCount, MAX_SLAB_SHIFT));
+  }
+
+  /**
+   * @return the number of ints in the node chunk allocated after chunkCount chunks
+   */
+  static int chunkSize(int chunkCount) {
+    return MIN_CHUNK_SIZE << Math.min(chunkCount, MAX_CHUNK_SHIFT);
+  }
+
+  /**
+   * Reserve space for a node and its key value pair.
+   *
+   * @return the node, with its slab and offset filled in
+   */
+  private synchronized int allocate(int length, int height) {
+    if (deleted)
+      throw new IllegalStateException("Slab map deleted");
+
+    byte[][] currentSlabs = slabs;
+    if (currentSlabs.length == 0 || slabOffset + length > currentSlabs[currentSlabs.length - 1].length) {
+      int slabSize = slabSize(currentSlabs.length, length);
+      byte[][] newSlabs = Arrays.copyOf(currentSlabs, currentSlabs.length + 1);
+      newSlabs[currentSlabs.length] = takeSlab(slabSize);
+      slabs = currentSlabs = newSlabs;
+      slabOffset = 0;
+      memoryUsed += slabSize;
+    }
+
+    int nodeLength = NODE_NEXT + height;
+    AtomicIntegerArray[] chunks = nodeChunks;
+    if (chunkOffset + nodeLength > chunks[chunks.length - 1].length()) {
+      if (chunks.length == 1 << (31 - CHUNK_BITS))
+        throw new IllegalStateException("Too many entries in slab map");
+      int chunkSize = chunkSize(chunks.length);
+      AtomicIntegerArray[] newChunks = Arrays.copyOf(chunks, chunks.length + 1);
+      newChunks[chunks.length] = new AtomicIntegerArray(chunkSize);
+      nodeChunks = chunks = newChunks;
+      chunkOffset = 0;
+      memoryUsed += chunkSize * 4;
+    }
+
+    int node = ((chunks.length - 1) << CHUNK_BITS) | chunkOffset;
+    AtomicIntegerArray chunk = chunks[chunks.length - 1];
+    chunk.set(chunkOffset + NODE_SLAB, currentSlabs.length - 1);
+    chunk.set(chunkOffset + NODE_OFFSET, slabOffset);
+    chunk.set(chunkOffset + NODE_HEIGHT, height);
+    chunkOffset += nodeLength;
+    slabOffset += length;
+    return node;
+  }
+
+  private AtomicIntegerArray chunk(int node) {
+    return nodeChunks[node >>> CHUNK_BITS];
+  }
+
+  private int nextNode(int node, int level) {
+    return chunk(node).get((node & CHUNK_MASK) + NODE_NEXT + level);
+  }
+
+  private boolean casNext(int node, int level, int expect, int update) {
+    return chunk(node).compareAndSet((node & CHUNK_MASK) + NODE_NEXT + level, expect, update);
+  }
+
+  private void setNext(int node, int level, int next) {
+    chunk(node).set((node & CHUNK_MASK) + NODE_NEXT + level, next);
+  }
+
+  private byte[] slab(int node) {
+    return slabs[chunk(node).get((node & CHUNK_MASK) + NODE_SLAB)];
+  }
+
+  private int offset(int node) {
+    return chunk(node).get((node & CHUNK_MASK) + NODE_OFFSET);
+  }
+
+  private int randomHeight() {
+    // xorshift; races between writers only make the heights a little less random
+    int x = randomSeed;
+    x ^= x << 13;
+    x ^= x >>> 17;
+    x ^= x << 5;
+    randomSeed = x;
+    int height = 1;
+    // each level has a quarter of the nodes of the level below
+    while ((x & 3) == 0 && height < MAX_HEIGHT) {
+      height++;
+      x >>>= 2;
+    }
+    return height;
+  }
+
+  private static int getInt(byte[] b, int off) {
+    return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+  }
+
+  private static void putInt(byte[] b, int off, int v) {
+    b[off] = (byte) (v >>> 24);
+    b[off + 1] = (byte) (v >>> 16);
+    b[off + 2] = (byte) (v >>> 8);
+    b[off + 3] = (byte) v;
+  }
+
+  private static long getLong(byte[] b, int off) {
+    return ((long) getInt(b, off) << 32) | (getInt(b, off + 4) & 0xffffffffL);
+  }
+
+  private static void putLong(byte[] b, int off, long v) {
+    putInt(b, off, (int) (v >>> 32));
+    putInt(b, off + 4, (int) v);
+  }
+
+  private static int put(byte[] b, int off, byte[] data) {
+    System.arraycopy(data, 0, b, off, data.length);
+    return off + data.length;
+  }
+
+  private static int put(byte[] b, int off, ByteSequence data) {
+    System.arraycopy(data.getBackingArray(), data.offset(), b, off, data.length());
+    return off + data.length();
+  }
+
+  /**
+   * Serialize a key for searching. Keys that are not a {@link MemKey} sort before all pairs with the same key, as they do with {@link MemKeyComparator}.
+   */
+  private static byte[] serialize(Key key) {
+    ByteSequence row = key.getRowData();
+    ByteSequence cf = key.getColumnFamilyData();
+    ByteSequence cq = key.getColumnQualifierData();
+    ByteSequence cv = key.getColumnVisibilityData();
+    byte[] b = new byte[DATA + row.length() + cf.length() + cq.length() + cv.length()];
+    putInt(b, ROW_LEN, row.length());
+    putInt(b, CF_LEN, cf.length());
+    putInt(b, CQ_LEN, cq.length());
+    putInt(b, CV_LEN, cv.length());
+    putInt(b, VAL_LEN, 0);
+    putLong(b, TIMESTAMP, key.getTimestamp());
+    b[DELETED] = (byte) (key.isDeleted() ? 1 : 0);
+    putInt(b, KV_COUNT, key instanceof MemKey ? ((MemKey) key).kvCount : Integer.MAX_VALUE);
+    int off = put(b, DATA, row);
+    off = put(b, off, cf);
+    off = put(b, off, cq);
+    put(b, off, cv);
+    return b;
+  }
+
+  /**
+   * Compare two serialized pairs the same way {@link MemKey#compareTo(Key)} does
+   */
+  private static int compare(byte[] a, int aOff, byte[] b, int bOff) {
+    int aData = aOff + DATA;
+    int bData = bOff + DATA;
+    for (int field = ROW_LEN; field <= CV_LEN; field += 4) {
+      int aLen = getInt(a, aOff + field);
+      int bLen = getInt(b, bOff + field);
+      int cmp = WritableComparator.compareBytes(a, aData, aLen, b, bData, bLen);
+      if (cmp != 0)
+        return cmp;
+      aData += aLen;
+      bData += bLen;
+    }
+
+    long aTs = getLong(a, aOff + TIMESTAMP);
+    long bTs = getLong(b, bOff + TIMESTAMP);
+    if (aTs != bTs)
+      return aTs < bTs ? 1 : -1;
+
+    if (a[aOff + DELETED] != b[bOff + DELETED])
+      return a[aOff + DELETED] != 0 ? -1 : 1;
+
+    int aCount = getInt(a, aOff + KV_COUNT);
+    int bCount = getInt(b, bOff + KV_COUNT);
+    if (aCount == bCount)
+      return 0;
+    return aCount > bCount ? -1 : 1;
+  }
+
+  private int compare(int node, byte[] b, int bOff) {
+    return compare(slab(node), offset(node), b, bOff);
+  }
+
+  /**
+   * @return the first node that is not less than the serialized key, or {@link #NIL}
+   */
+  private int ceiling(byte[] b, int bOff) {
+    int x = HEAD;
+    for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+      int next = nextNode(x, level);
+      while (next != NIL && compare(next, b, bOff) < 0) {
+        x = next;
+        next = nextNode(x, level);
+      }
+    }
+    return nextNode(x, 0);
+  }
+
+  private void insert(byte[] slab, int off, int node, int height) {
+    int[] preds = new int[height];
+    int[] succs = new int[height];
+    int x = HEAD;
+    for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+      int next = nextNode(x, level);
+      while (next != NIL && compare(next, slab, off) < 0) {
+        x = next;
+        next = nextNode(x, level);
+      }
+      if (level < height) {
+        preds[level] = x;
+        succs[level] = next;
+      }
+    }
+
+    // link from the bottom up, readers only need level 0 to see the node
+    for (int level = 0; level < height; level++) {
+      while (true) {
+        setNext(node, level, succs[level]);
+        if (casNext(preds[level], level, succs[level], node))
+          break;
+        // another writer linked a node after the predecessor, nodes are never removed so search on from there
+        x = preds[level];
+        int next = nextNode(x, level);
+        while (next != NIL && compare(next, slab, off) < 0) {
+          x = next;
+          next = nextNode(x, level);
+        }
+        preds[level] = x;
+        succs[level] = next;
+      }
+    }
+  }
+
+  public void mutate(List<Mutation> mutations, int kvCount) {
+    for (Mutation m : mutations) {
+      byte[] row = m.getRow();
+      for (ColumnUpdate cvp : m.getUpdates()) {
+        byte[] cf = cvp.getColumnFamily();
+        byte[] cq = cvp.getColumnQualifier();
+        byte[] cv = cvp.getColumnVisibility();
+        byte[] val = cvp.getValue();
+        int length = DATA + row.length + cf.length + cq.length + cv.length + val.length;
+        int height = randomHeight();
+        int node = allocate(length, height);
+
+        byte[] slab = slab(node);
+        int off = offset(node);
+        putInt(slab, off + ROW_LEN, row.length);
+        putInt(slab, off + CF_LEN, cf.length);
+        putInt(slab, off + CQ_LEN, cq.length);
+        putInt(slab, off + CV_LEN, cv.length);
+        putInt(slab, off + VAL_LEN, val.length);
+        putLong(slab, off + TIMESTAMP, cvp.getTimestamp());
+        slab[off + DELETED] = (byte) (cvp.isDeleted() ? 1 : 0);
+        putInt(slab, off + KV_COUNT, kvCount++);
+        int data = put(slab, off + DATA, row);
+        data = put(slab, data, cf);
+        data = put(slab, data, cq);
+        data = put(slab, data, cv);
+        put(slab, data, val);
+
+        insert(slab, off, node, height);
+        size.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Deserialize the key value pair a node points to
+   */
+  private Pair<Key,Value> read(int node) {
+    Key key;
+    Value value;
+    try {
+      byte[] slab = slab(node);
+      int off = offset(node);
+      int data = off + DATA;
+      byte[] row = Arrays.copyOfRange(slab, data, data += getInt(slab, off + ROW_LEN));
+      byte[] cf = Arrays.copyOfRange(slab, data, data += getInt(slab, off + CF_LEN));
+      byte[] cq = Arrays.copyOfRange(slab, data, data += getInt(slab, off + CQ_LEN));
+      byte[] cv = Arrays.copyOfRange(slab, data, data += getInt(slab, off + CV_LEN));
+      byte[] val = Arrays.copyOfRange(slab, data, data + getInt(slab, off + VAL_LEN));
+      key = new MemKey(row, cf, cq, cv, getLong(slab, off + TIMESTAMP), slab[off + DELETED] != 0, false, getInt(slab, off + KV_COUNT));
+      value = new Value(val, false);
+    } catch (RuntimeException e) {
+      checkDeleted();
+      throw e;
+    }
+    // the slabs of a deleted map may have been reused, so check after reading
+    checkDeleted();
+    return new Pair<Key,Value>(key, value);
+  }
+
+  private void checkDeleted() {
+    if (deleted)
+      throw new IllegalStateException("Slab map deleted");
+  }
+
+  public Value get(Key key) {
+    checkDeleted();
+    byte[] b = serialize(key);
+    int node = ceiling(b, 0);
+    if (node == NIL || compare(node, b, 0) != 0)
+      return null;
+    return read(node).getSecond();
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * @return bytes held by the slabs and skip list of this map
+   */
+  public long getMemoryUsed() {
+    return memoryUsed;
+  }
+
+  /**
+   * Free the map. Full size slabs go back to the pool, so the map must not be read after it is deleted.
+   */
+  public void delete() {
+    byte[][] freed;
+    synchronized (this) {
+      if (deleted)
+        throw new IllegalStateException("Slab map deleted");
+      deleted = true;
+      freed = slabs;
+      slabs = new byte[0][];
+      memoryUsed = 0;
+    }
+    returnSlabs(freed);
+    log.debug("Deleted slab map of " + size() + " entries, " + pooledSlabs() + " slabs pooled");
+  }
+
+  private class EntryIterator implements Iterator<Entry<Key,Value>> {
+    private int node;
+
+    EntryIterator(int node) {
+      this.node = node;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return node != NIL;
+    }
+
+    @Override
+    public Entry<Key,Value> next() {
+      if (node == NIL)
+        throw new NoSuchElementException();
+      final Pair<Key,Value> pair = read(node);
+      node = nextNode(node, 0);
+      return new Entry<Key,Value>() {
+        @Override
+        public Key getKey() {
+          return pair.getFirst();
+        }
+
+        @Override
+        public Value getValue() {
+          return pair.getSecond();
+        }
+
+        @Override
+        public Value setValue(Value value) {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  public Iterator<Entry<Key,Value>> iterator(Key startKey) {
+    checkDeleted();
+    return new EntryIterator(ceiling(serialize(startKey), 0));
+  }
+
+  private class SlabMapIterator implements InterruptibleIterator {
+    private int node = NIL;
+    private Pair<Key,Value> entry = null;
+    private Range range = new Range();
+    private AtomicBoolean interruptFlag;
+    private int interruptCheckCount = 0;
+
+    SlabMapIterator(AtomicBoolean interruptFlag) {
+      this.interruptFlag = interruptFlag;
+    }
+
+    private void read() {
+      entry = node == NIL ? null : SlabMap.this.read(node);
+      if (entry != null && range.afterEndKey(entry.getFirst()))
+        entry = null;
+    }
+
+    @Override
+    public Key getTopKey() {
+      return entry.getFirst();
+    }
+
+    @Override
+    public Value getTopValue() {
+      return entry.getSecond();
+    }
+
+    @Override
+    public boolean hasTop() {
+      return entry != null;
+    }
+
+    @Override
+    public void next() throws IOException {
+      if (entry == null)
+        throw new IllegalStateException();
+
+      if (interruptFlag != null && interruptCheckCount++ % 100 == 0 && interruptFlag.get())
+        throw new IterationInterruptedException();
+
+      node = nextNode(node, 0);
+      read();
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+      if (interruptFlag != null && interruptFlag.get())
+        throw new IterationInterruptedException();
+
+      checkDeleted();
+      this.range = range;
+      Key key = range.getStartKey();
+      if (key == null)
+        key = new Key();
+
+      node = ceiling(serialize(key), 0);
+      read();
+      while (hasTop() && range.beforeStartKey(getTopKey()))
+        next();
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key,Value> source, Map<String,String> options, IteratorEnvironment env) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key,Value> deepCopy(IteratorEnvironment env) {
+      return new SlabMapIterator(interruptFlag);
+    }
+
+    @Override
+    public void setInterruptFlag(AtomicBoolean flag) {
+      this.interruptFlag = flag;
+    }
+  }
+
+  public InterruptibleIterator skvIterator() {
+    checkDeleted();
+    return new SlabMapIterator(null);
+  }
+}
@@ -66,6 +66,7 @@ import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.data.thrift.IterInfo;
 import org.apache.accumulo.core.data.thrift.MapFileInfo;
+import org.apache.accumulo.core.data.thrift.TKeyValue;
 import org.apache.accumulo.core.file.FileOperations;
 import org.apache.accumulo.core.file.FileSKVIterator;
 import org.apache.accumulo.core.file.FileUtil;
@@ -73,6 +74,7 @@ import org.apache.accumulo.core.iterators.IterationInterruptedException;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
 import org.apache.accumulo.core.iterators.IteratorUtil;
 import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import org.apache.accumulo.core.iterators.KeyValueBatch;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.system.ColumnFamilySkippingIterator;
 import org.apache.accumulo.core.iterators.system.ColumnQualifierFilter;
@@ -113,6 +115,7 @@ import org.apache.accumulo.server.tabletserver.TabletServer.TservConstraintEnv;
 import org.apache.accumulo.server.tabletserver.TabletServerResourceManager.TabletResourceManager;
 import org.apache.accumulo.server.tabletserver.TabletStatsKeeper.Operation;
 import org.apache.accumulo.server.tabletserver.log.DfsLogger;
+import org.apache.accumulo.server.tabletserver.log.Durability;
 import org.apache.accumulo.server.tabletserver.log.MutationReceiver;
 import org.apache.accumulo.server.tabletserver.mastermessage.TabletStatusMessage;
 import org.apache.accumulo.server.tabletserver.metrics.TabletServerMinCMetrics;
@@ -401,6 +404,8 @@ public class Tablet {
   private volatile boolean majorCompactionInProgress = false;
   private volatile boolean majorCompactionWaitingToStart = false;
   private volatile boolean majorCompactionQueued = false;
+  // the compaction in the queue while majorCompactionQueued is set
+  private CompactionRunner queuedMajorCompaction = null;
   private volatile boolean minorCompactionInProgress = false;
   private volatile boolean minorCompactionWaitingToStart = false;
   
@@ -408,6 +413,9 @@ public class Tablet {
   
   private AtomicReference<ConstraintChecker> constraintChecker = new AtomicReference<ConstraintChecker>();
   
+  // parsed from the table configuration when it changes, since it is needed for every logged mutation
+  private volatile Durability durability = Durability.SYNC;
+  
   private String tabletDirectory;
   
   private int writesInProgress = 0;
@@ -1359,6 +1367,8 @@ public class Tablet {
     tabletTime = TabletTime.getInstance(time);
     persistedTime = tabletTime.getTime();
     
+    // set before the observer is added, so that mutations recovered or written before any property changes use the table's durability
+    durability = Durability.fromConfiguration(acuTableConf);
     acuTableConf.addObserver(configObserver = new ConfigurationObserver() {
       
       private void reloadConstraints() {
@@ -1379,6 +1389,8 @@ public class Tablet {
       
       public void propertiesChanged() {
         reloadConstraints();
+        tabletResources.compactionPlannerChanged();
+        durability = Durability.fromConfiguration(getTableConfiguration());
         
         try {
           setupDefaultSecurityLabels(extent);
@@ -1390,6 +1402,10 @@ public class Tablet {
       public void propertyChanged(String prop) {
         if (prop.startsWith(Property.TABLE_CONSTRAINT_PREFIX.getKey()))
           reloadConstraints();
+        else if (prop.startsWith(Property.TABLE_COMPACTION_PLANNER.getKey()))
+          tabletResources.compactionPlannerChanged();
+        else if (prop.equals(Property.TABLE_DURABILITY.getKey()) || prop.equals(Property.TABLE_WALOG_ENABLED.getKey()))
+          durability = Durability.fromConfiguration(getTableConfiguration());
         else if (prop.equals(Property.TABLE_DEFAULT_SCANTIME_VISIBILITY.getKey())) {
           try {
             log.info("Default security labels changed for extent: " + extent.toString());
@@ -1689,6 +1705,7 @@ public class Tablet {
     }
     
     ScanDataSource dataSource = new ScanDataSource(authorizations, this.defaultSecurityLabel, columns, ssiList, ssio, interruptFlag);
+    dataSource.setLookupRanges(ranges);
     
     LookupResult result = null;
 
@@ -1716,13 +1733,6 @@ public class Tablet {
     
     // log.info("In nextBatch..");
     
-    List<KVEntry> results = new ArrayList<KVEntry>();
-    Key key = null;
-    
-    Value value;
-    long resultSize = 0L;
-    long resultBytes = 0L;
-    
     long maxResultsSize = acuTableConf.getMemoryInBytes(Property.TABLE_SCAN_MAXMEM);
     
     if (columns.size() == 0) {
@@ -1731,31 +1741,23 @@ public class Tablet {
       iter.seek(range, LocalityGroupUtil.families(columns), true);
     }
     
+    // iterators that support it fill the batch themselves, others are read one key value pair at a time
+    KeyValueBatch batch = new KeyValueBatch(Math.max(num, 1), maxResultsSize);
+    batch.fill(iter);
+    
+    // the thrift results refer to the batch's buffer, so the key value pairs are not copied again
+    List<TKeyValue> results = batch.toThrift();
+    long resultBytes = batch.getDataSize();
+    
     Key continueKey = null;
     boolean skipContinueKey = false;
     
     boolean endOfTabletReached = false;
-    while (iter.hasTop()) {
-      
-      value = (Value) iter.getTopValue();
-      key = iter.getTopKey();
-      
-      KVEntry kvEntry = new KVEntry(key, value); // copies key and value
-      results.add(kvEntry);
-      resultSize += kvEntry.estimateMemoryUsed();
-      resultBytes += kvEntry.numBytes();
-      
-      if (resultSize >= maxResultsSize || results.size() >= num) {
-        continueKey = new Key(key);
-        skipContinueKey = true;
-        break;
-      }
-      
-      iter.next();
-    }
-    
     if (iter.hasTop() == false) {
       endOfTabletReached = true;
+    } else if (results.size() > 0) {
+      continueKey = batch.getKey(batch.size() - 1);
+      skipContinueKey = true;
     }
     
     Batch retBatch = new Batch();
@@ -1795,7 +1797,7 @@ public class Tablet {
   
   private class Batch {
     public boolean skipContinueKey;
-    public List<KVEntry> results;
+    public List<TKeyValue> results;
     public Key continueKey;
     public long numBytes;
   }
@@ -1812,9 +1814,9 @@ public class Tablet {
   
   class ScanBatch {
     boolean more;
-    List<KVEntry> results;
+    List<TKeyValue> results;
     
-    ScanBatch(List<KVEntry> results, boolean more) {
+    ScanBatch(List<TKeyValue> results, boolean more) {
       this.results = results;
       this.more = more;
     }
@@ -1872,7 +1874,7 @@ public class Tablet {
         
         if (results.results == null) {
           range = null;
-          return new ScanBatch(new ArrayList<Tablet.KVEntry>(), false);
+          return new ScanBatch(new ArrayList<TKeyValue>(), false);
         } else if (results.continueKey == null) {
           return new ScanBatch(results.results, false);
         } else {
@@ -1965,6 +1967,8 @@ public class Tablet {
     private long fileReservationId;
     private AtomicBoolean interruptFlag;
     private StatsIterator statsIterator;
+    // the sorted ranges of a multi range lookup, null for scans
+    private List<Range> lookupRanges = null;
     
     ScanOptions options;
     
@@ -1981,6 +1985,13 @@ public class Tablet {
       this.interruptFlag = options.interruptFlag;
     }
     
+    /**
+     * Files opened by this data source will start reading the blocks of every range, before the ranges are seeked.
+     */
+    void setLookupRanges(List<Range> ranges) {
+      this.lookupRanges = ranges;
+    }
+    
     @Override
     public DataSource getNewDataSource() {
       if (!isCurrent()) {
@@ -2051,6 +2062,13 @@ public class Tablet {
       
       Collection<InterruptibleIterator> mapfiles = fileManager.openFiles(files, options.isolated);
       
+      if (lookupRanges != null) {
+        if (options.columnSet.size() == 0)
+          fileManager.prefetch(lookupRanges, LocalityGroupUtil.EMPTY_CF_SET, false);
+        else
+          fileManager.prefetch(lookupRanges, LocalityGroupUtil.families(options.columnSet), true);
+      }
+      
       List<SortedKeyValueIterator<Key,Value>> iters = new ArrayList<SortedKeyValueIterator<Key,Value>>(mapfiles.size() + memIters.size());
       
       iters.addAll(mapfiles);
@@ -2799,16 +2817,45 @@ public class Tablet {
     return location;
   }
   
-  private class CompactionRunner implements Runnable, Comparable<CompactionRunner> {
+  private class CompactionRunner implements Runnable, Comparable<CompactionRunner>, CompactionQueue.Task {
     
     long queued;
     long start;
     boolean failed = false;
     private MajorCompactionReason reason;
+    // the compaction queue keeps runners in a heap, so the number of files is read once instead of changing under it, a runner whose priority class changes
+    // is replaced in the queue by reprioritizeMajorCompaction()
+    private final int numFiles;
+    private final CompactionQueue.Priority priority;
     
     public CompactionRunner(MajorCompactionReason reason) {
       queued = System.currentTimeMillis();
       this.reason = reason;
+      synchronized (Tablet.this) {
+        numFiles = datafileManager.datafileSizes.size();
+      }
+      this.priority = choosePriority();
+    }
+    
+    private CompactionQueue.Priority choosePriority() {
+      switch (reason) {
+        case ALL:
+          return CompactionQueue.Priority.USER;
+        case CHOP:
+          return CompactionQueue.Priority.CHOP;
+        case IDLE:
+          return CompactionQueue.Priority.IDLE;
+        default:
+          int fileLimit = Math.min(acuTableConf.getMaxFilesPerTablet(), acuTableConf.getCount(Property.TSERV_SCAN_MAX_OPENFILES));
+          if (numFiles >= fileLimit - 1)
+            return CompactionQueue.Priority.FILE_LIMIT;
+          return CompactionQueue.Priority.NORMAL;
+      }
+    }
+    
+    @Override
+    public CompactionQueue.Priority getPriority() {
+      return priority;
     }
     
     public void run() {
@@ -2844,10 +2891,9 @@ public class Tablet {
       }
     }
     
-    private int getNumFiles() {
-      synchronized (Tablet.this) {
-        return datafileManager.datafileSizes.size();
-      }
+    @Override
+    public String getTableId() {
+      return extent.getTableId().toString();
     }
     
     @Override
@@ -2863,23 +2909,48 @@ public class Tablet {
           return cmp;
       }
       
-      return o.getNumFiles() - this.getNumFiles();
+      return o.numFiles - this.numFiles;
     }
   }
   
   synchronized boolean initiateMajorCompaction(MajorCompactionReason reason) {
     
+    if (majorCompactionQueued && reason == MajorCompactionReason.NORMAL)
+      reprioritizeMajorCompaction();
+    
     if (closing || closed || !needsMajorCompaction(reason) || majorCompactionInProgress || majorCompactionQueued) {
       return false;
     }
     
     majorCompactionQueued = true;
     
-    tabletResources.executeMajorCompaction(getExtent(), new CompactionRunner(reason));
+    queuedMajorCompaction = new CompactionRunner(reason);
+    tabletResources.executeMajorCompaction(getExtent(), queuedMajorCompaction);
     
     return false;
   }
   
+  /**
+   * Files were added while a normal compaction was queued. If the tablet now has enough files for the compaction to move to another priority class, queue it
+   * again in that class, otherwise it would wait behind compactions of tablets that are further from their file limit.
+   */
+  private synchronized void reprioritizeMajorCompaction() {
+    CompactionRunner queued = queuedMajorCompaction;
+    if (closing || closed || queued == null || queued.reason != MajorCompactionReason.NORMAL)
+      return;
+    
+    CompactionRunner runner = new CompactionRunner(queued.reason);
+    if (runner.getPriority() == queued.getPriority())
+      return;
+    
+    // when the runner already left the queue it is about to compact, and will see the new files
+    if (tabletResources.removeMajorCompaction(getExtent(), queued)) {
+      runner.queued = queued.queued;
+      queuedMajorCompaction = runner;
+      tabletResources.executeMajorCompaction(getExtent(), runner);
+    }
+  }
+  
   /**
    * Returns true if a major compaction should be performed on the tablet.
    * 
@@ -3316,6 +3387,7 @@ public class Tablet {
       synchronized (this) {
         // check that compaction is still needed - defer to splitting
         majorCompactionQueued = false;
+        queuedMajorCompaction = null;
         
         if (closing || closed || !needsMajorCompaction(reason) || majorCompactionInProgress || needsSplit()) {
           return null;
@@ -3827,4 +3899,11 @@ public class Tablet {
   public TableConfiguration getTableConfiguration() {
     return tabletServer.getTableConfiguration(extent);
   }
+  
+  /**
+   * @return how mutations for this tablet are written to the write-ahead log, as of the last change to the table configuration
+   */
+  public Durability getDurability() {
+    return durability;
+  }
 }
@@ -99,6 +99,7 @@ import org.apache.accumulo.core.data.thrift.TMutation;
 import org.apache.accumulo.core.data.thrift.TRange;
 import org.apache.accumulo.core.data.thrift.UpdateErrors;
 import org.apache.accumulo.core.file.FileUtil;
+import org.apache.accumulo.core.file.rfile.RFile;
 import org.apache.accumulo.core.iterators.IterationInterruptedException;
 import org.apache.accumulo.core.master.thrift.Compacting;
 import org.apache.accumulo.core.master.thrift.MasterClientService;
@@ -106,6 +107,7 @@ import org.apache.accumulo.core.master.thrift.TableInfo;
 import org.apache.accumulo.core.master.thrift.TabletLoadState;
 import org.apache.accumulo.core.master.thrift.TabletServerStatus;
 import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.core.security.CompiledVisibility;
 import org.apache.accumulo.core.security.SystemPermission;
 import org.apache.accumulo.core.security.TablePermission;
 import org.apache.accumulo.core.security.thrift.AuthInfo;
@@ -475,7 +477,7 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
         
         if (session instanceof ScanSession) {
           ScanSession ss = (ScanSession) session;
-          nbt = ss.nextBatchTask;
+          nbt = ss.nextBatchTask();
           tableID = ss.extent.getTableId().toString();
         } else if (session instanceof MultiScanSession) {
           MultiScanSession mss = (MultiScanSession) session;
@@ -516,7 +518,7 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
           
           ScanState state = ScanState.RUNNING;
           
-          ScanTask<ScanBatch> nbt = ss.nextBatchTask;
+          ScanTask<ScanBatch> nbt = ss.nextBatchTask();
           if (nbt == null) {
             state = ScanState.IDLE;
           } else {
@@ -732,15 +734,22 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
     public long entriesReturned = 0;
     public Stat nbTimes = new Stat();
     public long batchCount = 0;
-    public volatile ScanTask<ScanBatch> nextBatchTask;
+    public ReadAheadQueue<ScanTask<ScanBatch>> nextBatchTasks;
     public AtomicBoolean interruptFlag;
     public Scanner scanner;
     
+    public ScanTask<ScanBatch> nextBatchTask() {
+      return nextBatchTasks == null ? null : nextBatchTasks.peek();
+    }
+    
     @Override
     public void cleanup() {
       try {
-        if (nextBatchTask != null)
-          nextBatchTask.cancel(true);
+        if (interruptFlag != null)
+          interruptFlag.set(true);
+        // stops tasks that are done from queuing more
+        if (nextBatchTasks != null)
+          nextBatchTasks.close();
       } finally {
         if (scanner != null)
           scanner.close();
@@ -919,6 +928,7 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
         
         ScanSession scanSession = (ScanSession) sessionManager.getSession(scanID);
         String oldThreadName = Thread.currentThread().getName();
+        boolean more = false;
         
         try {
           runState.set(ScanRunState.RUNNING);
@@ -946,6 +956,7 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
           // capacity it means there is code
           // problem somewhere
           addResult(batch);
+          more = batch.more;
         } catch (TabletClosedException e) {
           addResult(new org.apache.accumulo.core.tabletserver.thrift.NotServingTabletException(scanSession.extent.toThrift()));
         } catch (IterationInterruptedException iie) {
@@ -959,13 +970,29 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
           log.warn("exception while scanning tablet " + scanSession.extent, e);
           addResult(e);
         } finally {
+          // the last batch was read or the scan failed, so there is nothing more to read ahead
+          if (!more && scanSession != null)
+            scanSession.nextBatchTasks.end();
           runState.set(ScanRunState.FINISHED);
           Thread.currentThread().setName(oldThreadName);
         }
         
+        // keep reading while the client transmits and processes earlier batches
+        if (more && scanSession.batchCount > 3)
+          readAhead(scanID, scanSession);
       }
     }
     
+    /**
+     * Start reading the next batch of a scan after the batches already queued, unless the session has queued as many batches as it may or the last batch is
+     * still being read. Only one batch of a scan is read at a time, so each task queues the one after it when it finishes.
+     */
+    private void readAhead(long scanID, ScanSession scanSession) {
+      NextBatchTask task = new NextBatchTask(scanID, scanSession.interruptFlag);
+      if (scanSession.nextBatchTasks.offer(task))
+        resourceManager.executeReadAhead(scanSession.extent, task);
+    }
+    
     private class LookupTask extends ScanTask<MultiScanResult> {
       
       private long scanID;
@@ -1133,6 +1160,7 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
       scanSession.ssiList = ssiList;
       scanSession.ssio = ssio;
       scanSession.interruptFlag = new AtomicBoolean();
+      scanSession.nextBatchTasks = new ReadAheadQueue<ScanTask<ScanBatch>>(acuConf.getCount(Property.TSERV_SCAN_READ_AHEAD_BATCHES));
       
       for (TColumn tcolumn : columns) {
         scanSession.columnSet.add(new Column(tcolumn));
@@ -1174,15 +1202,14 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
     private ScanResult continueScan(TInfo tinfo, long scanID, ScanSession scanSession) throws NoSuchScanIDException, NotServingTabletException,
         org.apache.accumulo.core.tabletserver.thrift.TooManyFilesException {
       
-      if (scanSession.nextBatchTask == null) {
-        scanSession.nextBatchTask = new NextBatchTask(scanID, scanSession.interruptFlag);
-        resourceManager.executeReadAhead(scanSession.extent, scanSession.nextBatchTask);
-      }
+      // starts reading a batch if none is queued
+      readAhead(scanID, scanSession);
+      ScanTask<ScanBatch> nextBatchTask = scanSession.nextBatchTask();
       
       ScanBatch bresult;
       try {
-        bresult = scanSession.nextBatchTask.get(MAX_TIME_TO_WAIT_FOR_SCAN_RESULT_MILLIS, TimeUnit.MILLISECONDS);
-        scanSession.nextBatchTask = null;
+        bresult = nextBatchTask.get(MAX_TIME_TO_WAIT_FOR_SCAN_RESULT_MILLIS, TimeUnit.MILLISECONDS);
+        scanSession.nextBatchTasks.remove(nextBatchTask);
       } catch (ExecutionException e) {
         sessionManager.removeSession(scanID);
         if (e.getCause() instanceof NotServingTabletException)
@@ -1209,7 +1236,7 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
         throw new RuntimeException(t);
       }
       
-      ScanResult scanResult = new ScanResult(Key.compress(bresult.results), bresult.more);
+      ScanResult scanResult = new ScanResult(bresult.results, bresult.more);
       
       scanSession.entriesReturned += scanResult.results.size();
       
@@ -1218,8 +1245,7 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
       if (scanResult.more && scanSession.batchCount > 3) {
         // start reading next batch while current batch is transmitted
         // to client
-        scanSession.nextBatchTask = new NextBatchTask(scanID, scanSession.interruptFlag);
-        resourceManager.executeReadAhead(scanSession.extent, scanSession.nextBatchTask);
+        readAhead(scanID, scanSession);
       }
       
       if (!scanResult.more)
@@ -2756,6 +2782,7 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
       StandardMBean mbean = new StandardMBean(this, TabletServerMBean.class, false);
       this.register(mbean);
       mincMetrics.register();
+      resourceManager.getMajorCompactionMetrics().register();
     } catch (Exception e) {
       log.error("Error registering with JMX", e);
     }
@@ -3058,6 +3085,12 @@ public class TabletServer extends AbstractMetricsImpl implements org.apache.accu
     SimpleTimer.getInstance().schedule(gcDebugTask, 0, 1000);
     
     this.resourceManager = new TabletServerResourceManager(instance, fs);
+    CompiledVisibility.setCacheSize(getSystemConfiguration().getCount(Property.TSERV_VISIBILITYCACHE_SIZE));
+    RFile.setPrefetch(getSystemConfiguration().getCount(Property.TSERV_FILE_PREFETCH_THREADS),
+        getSystemConfiguration().getCount(Property.TSERV_FILE_PREFETCH_BLOCKS));
+    RFile.setLookupPrefetch(getSystemConfiguration().getCount(Property.TSERV_FILE_PREFETCH_LOOKUP_BLOCKS));
+    RFile.setPrefetchMemory(getSystemConfiguration().getMemoryInBytes(Property.TSERV_FILE_PREFETCH_MEMORY));
+    RFile.setMetadataCacheSize(getSystemConfiguration().getMemoryInBytes(Property.TSERV_FILE_METADATA_CACHE_SIZE));
     
     lastPingTime = System.currentTimeMillis();
     
@@ -42,7 +42,10 @@ import org.apache.accumulo.core.client.Instance;
 import org.apache.accumulo.core.conf.AccumuloConfiguration;
 import org.apache.accumulo.core.conf.Property;
 import org.apache.accumulo.core.data.KeyExtent;
+import org.apache.accumulo.core.file.blockfile.cache.BlockCache;
 import org.apache.accumulo.core.file.blockfile.cache.LruBlockCache;
+import org.apache.accumulo.core.file.blockfile.cache.OffHeapBlockCache;
+import org.apache.accumulo.core.file.blockfile.cache.TinyLfuBlockCache;
 import org.apache.accumulo.core.util.Daemon;
 import org.apache.accumulo.core.util.LoggingRunnable;
 import org.apache.accumulo.core.util.NamingThreadFactory;
@@ -51,6 +54,9 @@ import org.apache.accumulo.core.util.UtilWaitThread;
 import org.apache.accumulo.server.conf.ServerConfiguration;
 import org.apache.accumulo.server.tabletserver.FileManager.ScanFileManager;
 import org.apache.accumulo.server.tabletserver.Tablet.MajorCompactionReason;
+import org.apache.accumulo.server.tabletserver.compaction.CompactionPlanner;
+import org.apache.accumulo.server.tabletserver.compaction.DefaultCompactionPlanner;
+import org.apache.accumulo.server.tabletserver.metrics.TabletServerMajCMetrics;
 import org.apache.accumulo.server.util.time.SimpleTimer;
 import org.apache.accumulo.start.classloader.AccumuloClassLoader;
 import org.apache.hadoop.fs.FileSystem;
@@ -66,6 +72,7 @@ public class TabletServerResourceManager {
   
   private ExecutorService minorCompactionThreadPool;
   private ExecutorService majorCompactionThreadPool;
+  private CompactionQueue majorCompactionQueue;
   private ExecutorService rootMajorCompactionThreadPool;
   private ExecutorService defaultMajorCompactionThreadPool;
   private ExecutorService splitThreadPool;
@@ -86,9 +93,12 @@ public class TabletServerResourceManager {
   
   private MemoryManagementFramework memMgmt;
   
-  private final LruBlockCache _dCache;
-  private final LruBlockCache _iCache;
+  private final TabletServerMajCMetrics majcMetrics = new TabletServerMajCMetrics();
+  
+  private final BlockCache _dCache;
+  private final BlockCache _iCache;
   private final ServerConfiguration conf;
+  private final FileSystem fs;
   
   private static final Logger log = Logger.getLogger(TabletServerResourceManager.class);
   
@@ -140,8 +150,24 @@ public class TabletServerResourceManager {
     return addEs(name, new ThreadPoolExecutor(min, max, timeout, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamingThreadFactory(name)));
   }
   
+  private static BlockCache createCache(AccumuloConfiguration acuConf, Property type, long size, long blockSize) {
+    String cacheType = acuConf.get(type);
+    if (cacheType.equals("offheap"))
+      return new OffHeapBlockCache(size);
+    if (cacheType.equals("tinylfu"))
+      return new TinyLfuBlockCache(size, blockSize);
+    if (!cacheType.equals("lru"))
+      log.warn("Unknown " + type.getKey() + " " + cacheType + ", using lru");
+    return new LruBlockCache(size, blockSize);
+  }
+  
+  private static long heapSize(BlockCache cache, long size) {
+    return cache instanceof OffHeapBlockCache ? 0 : size;
+  }
+  
   public TabletServerResourceManager(Instance instance, FileSystem fs) {
     this.conf = new ServerConfiguration(instance);
+    this.fs = fs;
     final AccumuloConfiguration acuConf = conf.getConfiguration();
     
     long maxMemory = acuConf.getMemoryInBytes(Property.TSERV_MAXMEM);
@@ -151,13 +177,16 @@ public class TabletServerResourceManager {
     long dCacheSize = acuConf.getMemoryInBytes(Property.TSERV_DATACACHE_SIZE);
     long iCacheSize = acuConf.getMemoryInBytes(Property.TSERV_INDEXCACHE_SIZE);
     
-    _iCache = new LruBlockCache(iCacheSize, blockSize);
-    _dCache = new LruBlockCache(dCacheSize, blockSize);
+    _iCache = createCache(acuConf, Property.TSERV_INDEXCACHE_TYPE, iCacheSize, blockSize);
+    _dCache = createCache(acuConf, Property.TSERV_DATACACHE_TYPE, dCacheSize, blockSize);
+    
+    // off-heap caches do not count against the java heap
+    long heapCacheSize = heapSize(_iCache, iCacheSize) + heapSize(_dCache, dCacheSize);
     
     Runtime runtime = Runtime.getRuntime();
-    if (!usingNativeMap && maxMemory + dCacheSize + iCacheSize > runtime.maxMemory()) {
+    if (!usingNativeMap && maxMemory + heapCacheSize > runtime.maxMemory()) {
       throw new IllegalArgumentException(String.format(
-          "Maximum tablet server map memory %,d and block cache sizes %,d is too large for this JVM configuration %,d", maxMemory, dCacheSize + iCacheSize,
+          "Maximum tablet server map memory %,d and block cache sizes %,d is too large for this JVM configuration %,d", maxMemory, heapCacheSize,
           runtime.maxMemory()));
     }
     runtime.gc();
@@ -172,7 +201,8 @@ public class TabletServerResourceManager {
     
     // make this thread pool have a priority queue... and execute tablets with the most
     // files first!
-    majorCompactionThreadPool = createEs(Property.TSERV_MAJC_MAXCONCURRENT, "major compactor", new CompactionQueue());
+    majorCompactionQueue = new CompactionQueue(majcMetrics);
+    majorCompactionThreadPool = createEs(Property.TSERV_MAJC_MAXCONCURRENT, "major compactor", majorCompactionQueue);
     rootMajorCompactionThreadPool = createEs(0, 1, 300, "md root major compactor");
     defaultMajorCompactionThreadPool = createEs(0, 1, 300, "md major compactor");
     
@@ -476,6 +506,23 @@ public class TabletServerResourceManager {
     
     private AccumuloConfiguration tableConf;
     
+    private volatile CompactionPlanner compactionPlanner = null;
+    
+    // files are never rewritten, so the time of a file's data only needs to be looked up once
+    private final Map<String,Long> dataTimes = Collections.synchronizedMap(new HashMap<String,Long>());
+    
+    private final CompactionPlanner.FileTimes fileTimes = new CompactionPlanner.FileTimes() {
+      @Override
+      public long getDataTime(String file) throws IOException {
+        Long time = dataTimes.get(file);
+        if (time == null) {
+          time = Compactor.getDataTime(file, fs, fs.getConf(), tableConf);
+          dataTimes.put(file, time);
+        }
+        return time;
+      }
+    };
+    
     TabletResourceManager() {}
     
     void setTablet(Tablet tablet, AccumuloConfiguration tableConf) {
@@ -541,10 +588,48 @@ public class TabletServerResourceManager {
     
     // END methods that Tablets call to manage memory
     
+    private CompactionPlanner getCompactionPlanner() {
+      CompactionPlanner planner = compactionPlanner;
+      if (planner == null) {
+        String clazzName = tableConf.get(Property.TABLE_COMPACTION_PLANNER);
+        try {
+          Class<? extends CompactionPlanner> clazz = AccumuloClassLoader.loadClass(clazzName, CompactionPlanner.class);
+          planner = clazz.newInstance();
+        } catch (Exception e) {
+          log.warn("Failed to load compaction planner " + clazzName + ", using default", e);
+          planner = new DefaultCompactionPlanner();
+        }
+        planner.init(tableConf);
+        compactionPlanner = planner;
+      }
+      return planner;
+    }
+    
+    /**
+     * Called when the table's compaction planner settings change, the planner is reloaded the next time it is needed.
+     */
+    void compactionPlannerChanged() {
+      compactionPlanner = null;
+    }
+    
     // BEGIN methods that Tablets call to make decisions about major compaction
     // when too many files are open, we may want tablets to compact down
     // to one map file
     Map<String,Long> findMapFilesToCompact(SortedMap<String,DataFileValue> tabletFiles, MajorCompactionReason reason) {
+      Map<String,Long> files = planCompaction(tabletFiles, reason);
+      if (files != null && reason != MajorCompactionReason.ALL && log.isDebugEnabled()) {
+        try {
+          log.debug(String.format("%s chose %d of %d files to compact for %s, estimated write amplification %.2f", getCompactionPlanner().getClass()
+              .getSimpleName(), files.size(), tabletFiles.size(), tablet.getExtent(), getCompactionPlanner().estimateWriteAmplification(tabletFiles,
+              fileTimes)));
+        } catch (IOException e) {
+          log.debug("Failed to estimate write amplification for " + tablet.getExtent() + " : " + e.getMessage());
+        }
+      }
+      return files;
+    }
+    
+    private Map<String,Long> planCompaction(SortedMap<String,DataFileValue> tabletFiles, MajorCompactionReason reason) {
       if (reason == MajorCompactionReason.ALL) {
         Map<String,Long> files = new HashMap<String,Long>();
         for (Entry<String,DataFileValue> entry : tabletFiles.entrySet()) {
@@ -555,48 +640,19 @@ public class TabletServerResourceManager {
       
       if (tabletFiles.size() <= 1)
         return null;
-      TreeSet<MapFileInfo> candidateFiles = new TreeSet<MapFileInfo>(new Comparator<MapFileInfo>() {
-        @Override
-        public int compare(MapFileInfo o1, MapFileInfo o2) {
-          if (o1 == o2)
-            return 0;
-          if (o1.size < o2.size)
-            return -1;
-          if (o1.size > o2.size)
-            return 1;
-          return o1.path.compareTo(o2.path);
-        }
-      });
       
-      double ratio = tableConf.getFraction(Property.TABLE_MAJC_RATIO);
       int maxFilesToCompact = tableConf.getCount(Property.TSERV_MAJC_THREAD_MAXOPEN);
       int maxFilesPerTablet = tableConf.getMaxFilesPerTablet();
       
-      for (Entry<String,DataFileValue> entry : tabletFiles.entrySet()) {
-        candidateFiles.add(new MapFileInfo(entry.getKey(), entry.getValue().getSize()));
-      }
-      
-      long totalSize = 0;
-      for (MapFileInfo mfi : candidateFiles) {
-        totalSize += mfi.size;
-      }
+      dataTimes.keySet().retainAll(tabletFiles.keySet());
       
       Map<String,Long> files = new HashMap<String,Long>();
-      
-      while (candidateFiles.size() > 1) {
-        MapFileInfo max = candidateFiles.last();
-        if (max.size * ratio <= totalSize) {
-          files.clear();
-          for (MapFileInfo mfi : candidateFiles) {
-            files.put(mfi.path, mfi.size);
-            if (files.size() >= maxFilesToCompact)
-              break;
-          }
-          
-          break;
-        }
-        totalSize -= max.size;
-        candidateFiles.remove(max);
+      try {
+        Map<String,Long> planned = getCompactionPlanner().findFilesToCompact(tabletFiles, maxFilesToCompact, fileTimes);
+        if (planned != null)
+          files.putAll(planned);
+      } catch (IOException e) {
+        log.warn("Compaction planner failed for " + tablet.getExtent() + " : " + e.getMessage());
       }
       
       int totalFilesToCompact = 0;
@@ -611,7 +667,18 @@ public class TabletServerResourceManager {
         tfc.keySet().removeAll(files.keySet());
         
         // put data in candidateFiles to sort it
-        candidateFiles.clear();
+        TreeSet<MapFileInfo> candidateFiles = new TreeSet<MapFileInfo>(new Comparator<MapFileInfo>() {
+          @Override
+          public int compare(MapFileInfo o1, MapFileInfo o2) {
+            if (o1 == o2)
+              return 0;
+            if (o1.size < o2.size)
+              return -1;
+            if (o1.size > o2.size)
+              return 1;
+            return o1.path.compareTo(o2.path);
+          }
+        });
         for (Entry<String,DataFileValue> entry : tfc.entrySet())
           candidateFiles.add(new MapFileInfo(entry.getKey(), entry.getValue().getSize()));
         
@@ -655,7 +722,7 @@ public class TabletServerResourceManager {
         * else{ threshold = tableConf.getCount(Property.TABLE_MAJC_THRESHOLD); }
         */
       
-      return findMapFilesToCompact(tabletFiles, reason) != null;
+      return planCompaction(tabletFiles, reason) != null;
     }
     
     // END methods that Tablets call to make decisions about major compaction
@@ -694,6 +761,10 @@ public class TabletServerResourceManager {
       TabletServerResourceManager.this.executeMajorCompaction(tablet, compactionTask);
     }
     
+    boolean removeMajorCompaction(KeyExtent tablet, Runnable compactionTask) {
+      return TabletServerResourceManager.this.removeMajorCompaction(tablet, compactionTask);
+    }
+    
   }
   
   public void executeSplit(KeyExtent tablet, Runnable splitTask) {
@@ -718,6 +789,18 @@ public class TabletServerResourceManager {
     }
   }
   
+  /**
+   * Takes a major compaction that has not started yet out of the queue, so that it can be queued again with a different priority. Compactions of the metadata
+   * tablets are queued in order and are never taken out.
+   * 
+   * @return true if the compaction was removed, false if it already started
+   */
+  public boolean removeMajorCompaction(KeyExtent tablet, Runnable compactionTask) {
+    if (tablet.isMeta())
+      return false;
+    return majorCompactionQueue.remove(compactionTask);
+  }
+  
   public void executeReadAhead(KeyExtent tablet, Runnable task) {
     if (tablet.isRootTablet()) {
       task.run();
@@ -792,12 +875,16 @@ public class TabletServerResourceManager {
     }
   }
   
-  public LruBlockCache getIndexCache() {
+  public BlockCache getIndexCache() {
     return _iCache;
   }
   
-  public LruBlockCache getDataCache() {
+  public BlockCache getDataCache() {
     return _dCache;
   }
   
+  public TabletServerMajCMetrics getMajorCompactionMetrics() {
+    return majcMetrics;
+  }
+  
 }
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver.compaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.util.MetadataTable.DataFileValue;
+
+/**
+ * Decides which of a tablet's files a normal major compaction should merge. The planner for a table is set with table.compaction.planner and it reads its
+ * options from properties that start with table.compaction.planner.opts.
+ * <p>
+ * The tablet server handles the cases every planner has in common. It compacts all files when a user or idle compaction asks for it, and it adds the smallest
+ * remaining files to a compaction when a tablet has more than table.file.max files.
+ */
+public abstract class CompactionPlanner {
+  
+  /**
+   * Looks up how old the data in a file is, for planners that group files by age.
+   */
+  public interface FileTimes {
+    /**
+     * @return the time the newest data in the file was written, compacting files does not change the time of their data
+     */
+    long getDataTime(String file) throws IOException;
+  }
+  
+  protected AccumuloConfiguration tableConf;
+  protected Map<String,String> options = new HashMap<String,String>();
+  
+  public void init(AccumuloConfiguration tableConf) {
+    this.tableConf = tableConf;
+    String prefix = Property.TABLE_COMPACTION_PLANNER_OPTS.getKey();
+    for (Entry<String,String> entry : tableConf) {
+      if (entry.getKey().startsWith(prefix))
+        options.put(entry.getKey().substring(prefix.length()), entry.getValue());
+    }
+  }
+  
+  /**
+   * @param files
+   *          the tablet's files, keyed by path
+   * @param maxFilesToCompact
+   *          the most files a single compaction should merge
+   * @return the files to compact and their sizes, or null if nothing needs to be compacted
+   */
+  public abstract Map<String,Long> findFilesToCompact(SortedMap<String,DataFileValue> files, int maxFilesToCompact, FileTimes times) throws IOException;
+  
+  /**
+   * Estimates how many times a byte written to the tablet is written to disk, counting the minor compaction, by the time it reaches a file this planner no
+   * longer compacts.
+   */
+  public abstract double estimateWriteAmplification(SortedMap<String,DataFileValue> files, FileTimes times) throws IOException;
+  
+  protected String getOption(String name, String defaultValue) {
+    String value = options.get(name);
+    return value == null ? defaultValue : value;
+  }
+  
+  protected int getCountOption(String name, int defaultValue) {
+    return Integer.parseInt(getOption(name, "" + defaultValue));
+  }
+  
+  protected double getFractionOption(String name, double defaultValue) {
+    String value = options.get(name);
+    return value == null ? defaultValue : tableConf.getFraction(value);
+  }
+  
+  protected long getTimeOption(String name, String defaultValue) {
+    return AccumuloConfiguration.getTimeInMillis(getOption(name, defaultValue));
+  }
+  
+  private static final Comparator<Entry<String,Long>> SIZE_COMPARATOR = new Comparator<Entry<String,Long>>() {
+    @Override
+    public int compare(Entry<String,Long> o1, Entry<String,Long> o2) {
+      int cmp = o1.getValue().compareTo(o2.getValue());
+      if (cmp == 0)
+        return o1.getKey().compareTo(o2.getKey());
+      return cmp;
+    }
+  };
+  
+  /**
+   * @return the file sizes from smallest to largest, files of equal size are ordered by path
+   */
+  protected static List<Entry<String,Long>> sortBySize(Map<String,Long> files) {
+    List<Entry<String,Long>> sorted = new ArrayList<Entry<String,Long>>(files.entrySet());
+    Collections.sort(sorted, SIZE_COMPARATOR);
+    return sorted;
+  }
+  
+  protected static Map<String,Long> getSizes(SortedMap<String,DataFileValue> files) {
+    Map<String,Long> sizes = new HashMap<String,Long>();
+    for (Entry<String,DataFileValue> entry : files.entrySet())
+      sizes.put(entry.getKey(), entry.getValue().getSize());
+    return sizes;
+  }
+  
+  protected static long totalSize(Map<String,Long> files) {
+    long total = 0;
+    for (Long size : files.values())
+      total += size;
+    return total;
+  }
+  
+  /**
+   * @return how many times data in files as small as smallest must grow by growth to reach total, which is how many compactions the data goes through
+   */
+  protected static double levels(long total, long smallest, double growth) {
+    if (smallest <= 0 || total <= smallest || growth <= 1)
+      return 0;
+    return Math.log((double) total / smallest) / Math.log(growth);
+  }
+  
+  protected static long smallest(Map<String,Long> files) {
+    long smallest = Long.MAX_VALUE;
+    for (Long size : files.values())
+      smallest = Math.min(smallest, size);
+    return smallest;
+  }
+}
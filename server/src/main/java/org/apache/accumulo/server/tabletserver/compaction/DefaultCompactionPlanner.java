@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver.compaction;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.util.MetadataTable.DataFileValue;
+
+/**
+ * Compacts the smallest set of files whose total size is at least table.compaction.major.ratio times the size of the largest file in the set. Dropping the
+ * largest file until the ratio holds means a file is only rewritten once the data merged into it has grown by the ratio, so each byte is written about once
+ * per power of the ratio.
+ */
+public class DefaultCompactionPlanner extends CompactionPlanner {
+  
+  @Override
+  public Map<String,Long> findFilesToCompact(SortedMap<String,DataFileValue> files, int maxFilesToCompact, FileTimes times) {
+    return findFilesToCompact(getSizes(files), tableConf.getFraction(Property.TABLE_MAJC_RATIO), maxFilesToCompact);
+  }
+  
+  static Map<String,Long> findFilesToCompact(Map<String,Long> sizes, double ratio, int maxFilesToCompact) {
+    if (sizes.size() <= 1)
+      return null;
+    
+    List<Entry<String,Long>> candidates = sortBySize(sizes);
+    long totalSize = totalSize(sizes);
+    
+    while (candidates.size() > 1) {
+      Entry<String,Long> max = candidates.get(candidates.size() - 1);
+      if (max.getValue() * ratio <= totalSize) {
+        Map<String,Long> toCompact = new HashMap<String,Long>();
+        for (Entry<String,Long> entry : candidates) {
+          toCompact.put(entry.getKey(), entry.getValue());
+          if (toCompact.size() >= maxFilesToCompact)
+            break;
+        }
+        return toCompact;
+      }
+      totalSize -= max.getValue();
+      candidates.remove(candidates.size() - 1);
+    }
+    
+    return null;
+  }
+  
+  @Override
+  public double estimateWriteAmplification(SortedMap<String,DataFileValue> files, FileTimes times) {
+    Map<String,Long> sizes = getSizes(files);
+    return 1 + levels(totalSize(sizes), smallest(sizes), tableConf.getFraction(Property.TABLE_MAJC_RATIO));
+  }
+}
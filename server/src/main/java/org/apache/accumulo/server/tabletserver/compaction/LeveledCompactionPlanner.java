@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver.compaction;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+
+import org.apache.accumulo.core.util.MetadataTable.DataFileValue;
+
+/**
+ * Keeps each file at least fanout times larger than all the smaller files combined. When the files below a file add up to more than its size divided by
+ * fanout they are merged into it, so a tablet holds about one file per level and scans open few files.
+ * <p>
+ * A byte is rewritten about fanout / 2 times on each level, so this writes more than the tiered planners. Use it for tables that are read far more than they
+ * are written.
+ * <p>
+ * Options: fanout (default 10).
+ */
+public class LeveledCompactionPlanner extends CompactionPlanner {
+  
+  private int getFanout() {
+    return Math.max(2, getCountOption("fanout", 10));
+  }
+  
+  @Override
+  public Map<String,Long> findFilesToCompact(SortedMap<String,DataFileValue> files, int maxFilesToCompact, FileTimes times) {
+    if (files.size() <= 1)
+      return null;
+    
+    int fanout = getFanout();
+    List<Entry<String,Long>> sorted = sortBySize(getSizes(files));
+    
+    long[] below = new long[sorted.size()];
+    for (int i = 1; i < sorted.size(); i++)
+      below[i] = below[i - 1] + sorted.get(i - 1).getValue();
+    
+    // find the largest file that has overflowed, merging into it also merges every level under it
+    for (int i = sorted.size() - 1; i > 0; i--) {
+      if (below[i] * fanout >= sorted.get(i).getValue()) {
+        Map<String,Long> toCompact = new HashMap<String,Long>();
+        for (int j = 0; j <= i && toCompact.size() < maxFilesToCompact; j++)
+          toCompact.put(sorted.get(j).getKey(), sorted.get(j).getValue());
+        return toCompact;
+      }
+    }
+    
+    return null;
+  }
+  
+  @Override
+  public double estimateWriteAmplification(SortedMap<String,DataFileValue> files, FileTimes times) {
+    Map<String,Long> sizes = getSizes(files);
+    int fanout = getFanout();
+    return 1 + (fanout + 1) / 2.0 * levels(totalSize(sizes), smallest(sizes), fanout);
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver.compaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+
+import org.apache.accumulo.core.util.MetadataTable.DataFileValue;
+
+/**
+ * Groups files of similar size into tiers and merges a tier once it holds enough files. A file joins a tier when it is no more than bucketRatio times the
+ * size of the smallest file in the tier. When several tiers are ready, the tier of the smallest files is compacted first since it is the cheapest.
+ * <p>
+ * Data is rewritten once per tier, so this writes less than the default planner for the same amount of ingest, at the cost of keeping up to minFiles - 1
+ * files in every tier.
+ * <p>
+ * Options: minFiles (default 4) and bucketRatio (default 2).
+ */
+public class SizeTieredCompactionPlanner extends CompactionPlanner {
+  
+  private int getMinFiles() {
+    return Math.max(2, getCountOption("minFiles", 4));
+  }
+  
+  @Override
+  public Map<String,Long> findFilesToCompact(SortedMap<String,DataFileValue> files, int maxFilesToCompact, FileTimes times) {
+    int minFiles = getMinFiles();
+    double bucketRatio = getFractionOption("bucketRatio", 2.0);
+    
+    List<Entry<String,Long>> tier = new ArrayList<Entry<String,Long>>();
+    for (Entry<String,Long> entry : sortBySize(getSizes(files))) {
+      if (!tier.isEmpty() && entry.getValue() > tier.get(0).getValue() * bucketRatio) {
+        if (tier.size() >= minFiles)
+          break;
+        tier.clear();
+      }
+      tier.add(entry);
+    }
+    
+    if (tier.size() < minFiles)
+      return null;
+    
+    Map<String,Long> toCompact = new HashMap<String,Long>();
+    for (Entry<String,Long> entry : tier) {
+      toCompact.put(entry.getKey(), entry.getValue());
+      if (toCompact.size() >= maxFilesToCompact)
+        break;
+    }
+    return toCompact;
+  }
+  
+  @Override
+  public double estimateWriteAmplification(SortedMap<String,DataFileValue> files, FileTimes times) {
+    Map<String,Long> sizes = getSizes(files);
+    return 1 + levels(totalSize(sizes), smallest(sizes), getMinFiles());
+  }
+}
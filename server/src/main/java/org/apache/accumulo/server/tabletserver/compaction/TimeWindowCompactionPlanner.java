@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver.compaction;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.util.MetadataTable.DataFileValue;
+
+/**
+ * Groups files by the time window their newest data was written in and never merges files from different windows. Files in the current window are compacted
+ * with table.compaction.major.ratio like the default planner. Once a window has passed, its files are merged into one file and are not compacted again.
+ * <p>
+ * This suits tables that are written in time order and mostly read by recent time, since data older than a window stops being rewritten.
+ * <p>
+ * Options: window (default 1d).
+ */
+public class TimeWindowCompactionPlanner extends CompactionPlanner {
+  
+  private SortedMap<Long,Map<String,Long>> getWindows(SortedMap<String,DataFileValue> files, FileTimes times) throws IOException {
+    long window = Math.max(1, getTimeOption("window", "1d"));
+    SortedMap<Long,Map<String,Long>> windows = new TreeMap<Long,Map<String,Long>>();
+    for (Entry<String,DataFileValue> entry : files.entrySet()) {
+      Long start = times.getDataTime(entry.getKey()) / window * window;
+      Map<String,Long> sizes = windows.get(start);
+      if (sizes == null)
+        windows.put(start, sizes = new HashMap<String,Long>());
+      sizes.put(entry.getKey(), entry.getValue().getSize());
+    }
+    return windows;
+  }
+  
+  @Override
+  public Map<String,Long> findFilesToCompact(SortedMap<String,DataFileValue> files, int maxFilesToCompact, FileTimes times) throws IOException {
+    if (files.size() <= 1)
+      return null;
+    
+    SortedMap<Long,Map<String,Long>> windows = getWindows(files, times);
+    Long current = windows.lastKey();
+    long now = System.currentTimeMillis();
+    long window = Math.max(1, getTimeOption("window", "1d"));
+    
+    if (current + window > now) {
+      Map<String,Long> toCompact = DefaultCompactionPlanner.findFilesToCompact(windows.get(current), tableConf.getFraction(Property.TABLE_MAJC_RATIO),
+          maxFilesToCompact);
+      if (toCompact != null)
+        return toCompact;
+      windows.remove(current);
+    }
+    
+    // settle the most recent window that has passed first, it is the most likely to be read
+    while (!windows.isEmpty()) {
+      Map<String,Long> sizes = windows.remove(windows.lastKey());
+      if (sizes.size() > 1) {
+        Map<String,Long> toCompact = new HashMap<String,Long>();
+        for (Entry<String,Long> entry : sortBySize(sizes)) {
+          toCompact.put(entry.getKey(), entry.getValue());
+          if (toCompact.size() >= maxFilesToCompact)
+            break;
+        }
+        return toCompact;
+      }
+    }
+    
+    return null;
+  }
+  
+  @Override
+  public double estimateWriteAmplification(SortedMap<String,DataFileValue> files, FileTimes times) throws IOException {
+    if (files.isEmpty())
+      return 1;
+    SortedMap<Long,Map<String,Long>> windows = getWindows(files, times);
+    Map<String,Long> current = windows.get(windows.lastKey());
+    // the ratio compactions in the current window, plus the final merge when the window closes
+    return 2 + levels(totalSize(current), smallest(current), tableConf.getFraction(Property.TABLE_MAJC_RATIO));
+  }
+}
@@ -31,6 +31,8 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.accumulo.core.Constants;
 import org.apache.accumulo.core.conf.AccumuloConfiguration;
@@ -75,31 +77,78 @@ public class DfsLogger {
   
   private String closeLock = new String("foo");
   
-  private static final DfsLogger.LogWork CLOSED_MARKER = new DfsLogger.LogWork(null, null);
+  private static final DfsLogger.LogWork CLOSED_MARKER = new DfsLogger.LogWork(null, null, 0);
   
   private static final LogFileValue EMPTY = new LogFileValue();
   
   private boolean closed = false;
 
+  // group commit settings, read when the log is opened
+  private long groupWait = 0;
+  private long groupSize = 0;
+  // the number of times the log was synced, writers that were grouped together share one
+  private final AtomicLong syncs = new AtomicLong(0);
+
   private class LogSyncingTask implements Runnable {
 
+    /**
+     * Wait up to groupWait ms for more work to show up, so that many writers can share one sync. Stops early once groupSize bytes are pending or the log is
+     * being closed.
+     */
+    private void gather(ArrayList<DfsLogger.LogWork> work) {
+      long bytes = 0;
+      for (DfsLogger.LogWork logWork : work) {
+        if (logWork == CLOSED_MARKER)
+          return;
+        bytes += logWork.size;
+      }
+
+      long deadline = System.currentTimeMillis() + groupWait;
+      while (bytes < groupSize) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0)
+          break;
+        DfsLogger.LogWork logWork;
+        try {
+          logWork = workQueue.poll(remaining, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+          // sync what was gathered, run() takes care of the interrupt
+          Thread.currentThread().interrupt();
+          break;
+        }
+        if (logWork == null)
+          break;
+        work.add(logWork);
+        if (logWork == CLOSED_MARKER)
+          break;
+        bytes += logWork.size;
+      }
+    }
+
     @Override
     public void run() {
       ArrayList<DfsLogger.LogWork> work = new ArrayList<DfsLogger.LogWork>();
+      // writers wait on this thread, so it keeps syncing until the log is closed and only then passes an interrupt on
+      boolean interrupted = false;
       while (true) {
         work.clear();
         
         try {
           work.add(workQueue.take());
         } catch (InterruptedException ex) {
+          interrupted = true;
           continue;
         }
         workQueue.drainTo(work);
         
+        if (groupWait > 0)
+          gather(work);
+
         synchronized (closeLock) {
           if (!closed) {
             try {
               logFile.sync();
+              syncs.incrementAndGet();
             } catch (IOException ex) {
               log.warn("Exception syncing " + ex);
               for (DfsLogger.LogWork logWork : work) {
@@ -127,17 +176,21 @@ public class DfsLogger {
           break;
         }
       }
+      if (interrupted)
+        Thread.currentThread().interrupt();
     }
   }
 
   static class LogWork {
     List<TabletMutations> mutations;
     CountDownLatch latch;
+    long size;
     volatile Exception exception;
     
-    public LogWork(List<TabletMutations> mutations, CountDownLatch latch) {
+    public LogWork(List<TabletMutations> mutations, CountDownLatch latch, long size) {
       this.mutations = mutations;
       this.latch = latch;
+      this.size = size;
     }
   }
 
@@ -225,6 +278,8 @@ public class DfsLogger {
       key.tserverSession = filename;
       key.filename = filename;
       write(key, EMPTY);
+      groupWait = conf.getConfiguration().getTimeInMillis(Property.TSERV_WAL_SYNC_GROUP_WAIT);
+      groupSize = conf.getConfiguration().getMemoryInBytes(Property.TSERV_WAL_SYNC_GROUP_SIZE);
       log.debug("Got new write-ahead log: " + this);
     } catch (IOException ex) {
       if (logFile != null)
@@ -254,6 +309,10 @@ public class DfsLogger {
     return logPath.getName();
   }
   
+  long getSyncCount() {
+    return syncs.get();
+  }
+  
   public void close() throws IOException {
     
     synchronized (closeLock) {
@@ -310,11 +369,28 @@ public class DfsLogger {
   }
 
   public LoggerOperation log(int seq, int tid, Mutation mutation) throws IOException {
-    return logManyTablets(Collections.singletonList(new TabletMutations(tid, seq, Collections.singletonList(mutation))));
+    return log(seq, tid, mutation, Durability.SYNC);
+  }
+  
+  public LoggerOperation log(int seq, int tid, Mutation mutation, Durability durability) throws IOException {
+    return logManyTablets(Collections.singletonList(new TabletMutations(tid, seq, Collections.singletonList(mutation))), durability);
   }
   
   public LoggerOperation logManyTablets(List<TabletMutations> mutations) throws IOException {
-    DfsLogger.LogWork work = new DfsLogger.LogWork(mutations, new CountDownLatch(1));
+    return logManyTablets(mutations, Durability.SYNC);
+  }
+  
+  /**
+   * Write mutations to the log. When durability is {@link Durability#SYNC} the returned operation waits for the log sync thread, otherwise the mutations are
+   * flushed to the log stream and the operation completes immediately; they will be synced along with the next synced write.
+   */
+  public LoggerOperation logManyTablets(List<TabletMutations> mutations, Durability durability) throws IOException {
+    long size = 0;
+    for (TabletMutations tabletMutations : mutations)
+      for (Mutation m : tabletMutations.getMutations())
+        size += m.numBytes();
+    
+    DfsLogger.LogWork work = new DfsLogger.LogWork(mutations, new CountDownLatch(1), size);
     
     synchronized (DfsLogger.this) {
       try {
@@ -327,11 +403,22 @@ public class DfsLogger {
           value.mutations = tabletMutations.getMutations();
           write(key, value);
         }
+        if (durability != Durability.SYNC)
+          logFile.flush();
       } catch (Exception e) {
         log.error(e, e);
         work.exception = e;
       }
     }
+    
+    if (durability != Durability.SYNC && work.exception == null) {
+      synchronized (closeLock) {
+        if (closed)
+          throw new LogClosedException();
+      }
+      work.latch.countDown();
+      return new LoggerOperation(work);
+    }
 
     synchronized (closeLock) {
       // use a different lock for close check so that adding to work queue does not need
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver.log;
+
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.log4j.Logger;
+
+/**
+ * How much effort the write-ahead log makes to persist mutations for a table before the write is acknowledged to the client.
+ *
+ * The order of the constants matters: when mutations for several tables are logged together, the strongest durability requested wins.
+ */
+public enum Durability {
+  /**
+   * mutations are not written to the write-ahead log
+   */
+  NONE,
+  /**
+   * mutations are written and flushed to the log stream, but the writer does not wait for them to be synced
+   */
+  FLUSH,
+  /**
+   * the writer waits until the log has been synced
+   */
+  SYNC;
+
+  private static final Logger log = Logger.getLogger(Durability.class);
+
+  public static Durability fromString(String value) {
+    try {
+      return valueOf(value.trim().toUpperCase());
+    } catch (IllegalArgumentException ex) {
+      log.warn("Unknown durability " + value + ", using " + SYNC);
+      return SYNC;
+    }
+  }
+
+  public static Durability fromConfiguration(AccumuloConfiguration conf) {
+    if (!conf.getBoolean(Property.TABLE_WALOG_ENABLED))
+      return NONE;
+    return fromString(conf.get(Property.TABLE_DURABILITY));
+  }
+
+  public static Durability max(Durability a, Durability b) {
+    return a.compareTo(b) >= 0 ? a : b;
+  }
+}
@@ -16,25 +16,36 @@
  */
 package org.apache.accumulo.server.tabletserver.log;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.accumulo.core.Constants;
 import org.apache.accumulo.core.client.Instance;
 import org.apache.accumulo.core.conf.AccumuloConfiguration;
 import org.apache.accumulo.core.conf.Property;
 import org.apache.accumulo.core.master.thrift.RecoveryStatus;
-import org.apache.accumulo.core.util.Pair;
 import org.apache.accumulo.core.util.SimpleThreadPool;
 import org.apache.accumulo.core.zookeeper.ZooUtil;
+import org.apache.accumulo.server.logger.LogEvents;
 import org.apache.accumulo.server.logger.LogFileKey;
 import org.apache.accumulo.server.logger.LogFileValue;
 import org.apache.accumulo.server.zookeeper.DistributedWorkQueue;
@@ -58,10 +69,201 @@ public class LogSorter {
   
   private Map<String,LogProcessor> currentWork = Collections.synchronizedMap(new HashMap<String,LogProcessor>());
 
+  /**
+   * Copies every byte read through it into a buffer, so that log entries can be kept in their serialized form after they are decoded.
+   */
+  static class RecordingInputStream extends FilterInputStream {
+    private SortBuffer recording = null;
+    
+    RecordingInputStream(InputStream in) {
+      super(in);
+    }
+    
+    void record(SortBuffer buffer) {
+      this.recording = buffer;
+    }
+    
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0 && recording != null)
+        recording.data.write(b);
+      return b;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0 && recording != null)
+        recording.data.write(b, off, n);
+      return n;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+      // read the skipped bytes, so that they are recorded like any others
+      byte[] scratch = new byte[(int) Math.min(Math.max(n, 0), 4096)];
+      long skipped = 0;
+      while (skipped < n) {
+        int read = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+        if (read < 0)
+          break;
+        skipped += read;
+      }
+      return skipped;
+    }
+  }
+  
+  private static class Bytes extends ByteArrayOutputStream {
+    Bytes(int size) {
+      super(size);
+    }
+    
+    byte[] getData() {
+      return buf;
+    }
+    
+    void truncate(int length) {
+      count = length;
+    }
+  }
+  
+  /**
+   * A run of log entries kept in their serialized form in one byte array, along with the fields of {@link LogFileKey} needed to sort them. This avoids
+   * holding a key and value object per entry while a buffer waits to be sorted and written.
+   */
+  static class SortBuffer {
+    private final Bytes data;
+    private int[] offsets = new int[1024];
+    private byte[] types = new byte[1024];
+    private int[] tids = new int[1024];
+    private long[] seqs = new long[1024];
+    private int size = 0;
+    
+    // the span of the log this buffer was read from
+    long start;
+    long end;
+    
+    SortBuffer(long expectedSize) {
+      data = new Bytes((int) Math.min(Math.max(expectedSize, 1024), Integer.MAX_VALUE - 8));
+    }
+    
+    SortBuffer() {
+      this(1024);
+    }
+    
+    int size() {
+      return size;
+    }
+    
+    int getLength() {
+      return data.size();
+    }
+    
+    private void grow() {
+      int newSize = offsets.length * 2;
+      offsets = Arrays.copyOf(offsets, newSize);
+      types = Arrays.copyOf(types, newSize);
+      tids = Arrays.copyOf(tids, newSize);
+      seqs = Arrays.copyOf(seqs, newSize);
+    }
+    
+    /**
+     * Read one key and value from a stream that is recording into this buffer. If the entry is incomplete, its bytes are discarded and the exception is
+     * passed on.
+     */
+    void read(DataInputStream in, LogFileKey key, LogFileValue value) throws IOException {
+      int offset = data.size();
+      try {
+        key.readFields(in);
+        value.readFields(in);
+      } catch (IOException ex) {
+        data.truncate(offset);
+        throw ex;
+      }
+      add(offset, key);
+    }
+    
+    /**
+     * Append a key and value that were not read through a recording stream.
+     */
+    void append(LogFileKey key, LogFileValue value) throws IOException {
+      int offset = data.size();
+      DataOutputStream out = new DataOutputStream(data);
+      key.write(out);
+      value.write(out);
+      out.flush();
+      add(offset, key);
+    }
+    
+    private void add(int offset, LogFileKey key) {
+      if (size == offsets.length)
+        grow();
+      offsets[size] = offset;
+      types[size] = (byte) LogFileKey.eventType(key.event);
+      // all OPEN events sort the same, regardless of what else is in the key
+      tids[size] = key.event == LogEvents.OPEN ? 0 : key.tid;
+      seqs[size] = key.event == LogEvents.OPEN ? 0 : key.seq;
+      size++;
+    }
+    
+    private int compare(int a, int b) {
+      if (types[a] != types[b])
+        return types[a] - types[b];
+      if (tids[a] != tids[b])
+        return tids[a] < tids[b] ? -1 : 1;
+      if (seqs[a] != seqs[b])
+        return seqs[a] < seqs[b] ? -1 : 1;
+      return 0;
+    }
+    
+    /**
+     * @return the indexes of the entries in the order defined by {@link LogFileKey#compareTo(LogFileKey)}; entries that compare equal keep the order they
+     *         were read in
+     */
+    int[] sortedOrder() {
+      int[] order = new int[size];
+      for (int i = 0; i < size; i++)
+        order[i] = i;
+      mergeSort(order, new int[size], 0, size);
+      return order;
+    }
+    
+    private void mergeSort(int[] order, int[] tmp, int low, int high) {
+      if (high - low < 2)
+        return;
+      int mid = (low + high) >>> 1;
+      mergeSort(order, tmp, low, mid);
+      mergeSort(order, tmp, mid, high);
+      if (compare(order[mid - 1], order[mid]) <= 0)
+        return;
+      System.arraycopy(order, low, tmp, low, high - low);
+      int i = low, j = mid;
+      for (int k = low; k < high; k++) {
+        if (j >= high || (i < mid && compare(tmp[i], tmp[j]) <= 0))
+          order[k] = tmp[i++];
+        else
+          order[k] = tmp[j++];
+      }
+    }
+    
+    /**
+     * Decode the entry at the given index into the key and value objects
+     */
+    void get(int index, LogFileKey key, LogFileValue value) throws IOException {
+      int end = index + 1 < size ? offsets[index + 1] : data.size();
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(data.getData(), offsets[index], end - offsets[index]));
+      key.readFields(in);
+      value.readFields(in);
+    }
+  }
+
   class LogProcessor implements Processor {
     
     private FSDataInputStream input;
     private long bytesCopied = -1;
+    private long fileLength = 0;
+    private final AtomicLong bytesSorted = new AtomicLong(0);
     private long sortStart = 0;
     private long sortStop = -1;
     
@@ -99,39 +301,93 @@ public class LogSorter {
 
       String formerThreadName = Thread.currentThread().getName();
       int part = 0;
+      List<Future<?>> parts = new ArrayList<Future<?>>();
+      final AtomicBoolean failed = new AtomicBoolean(false);
       try {
         
         // the following call does not throw an exception if the file/dir does not exist
         fs.delete(new Path(destPath), true);
 
+        long length = fs.getFileStatus(srcPath).getLen();
         FSDataInputStream tmpInput = fs.open(srcPath);
         synchronized (this) {
           this.input = tmpInput;
+          this.fileLength = length;
         }
 
-        final long bufferSize = conf.getMemoryInBytes(Property.TSERV_SORT_BUFFER_SIZE);
+        // This thread decodes the log while sort threads sort and write the parts that were read earlier. The memory used for sorting is shared by the
+        // buffer being filled and the buffers being written, and a permit is held for each buffer in memory.
+        final Semaphore buffers = new Semaphore(sortThreads + 1);
+        final long bufferSize = conf.getMemoryInBytes(Property.TSERV_SORT_BUFFER_SIZE) / (sortThreads + 1);
+        RecordingInputStream recorder = new RecordingInputStream(input);
+        DataInputStream in = new DataInputStream(recorder);
+        LogFileKey key = new LogFileKey();
+        LogFileValue value = new LogFileValue();
         Thread.currentThread().setName("Sorting " + name + " for recovery");
-        while (true) {
-          final ArrayList<Pair<LogFileKey,LogFileValue>> buffer = new ArrayList<Pair<LogFileKey,LogFileValue>>();
+        boolean eof = false;
+        while (!eof) {
+          buffers.acquire();
+          boolean submitted = false;
           try {
-            long start = input.getPos();
-            while (input.getPos() - start < bufferSize) {
-              LogFileKey key = new LogFileKey();
-              LogFileValue value = new LogFileValue();
-              key.readFields(input);
-              value.readFields(input);
-              buffer.add(new Pair<LogFileKey,LogFileValue>(key, value));
+            // leave some room for the entry that crosses the end of the buffer, and do not allocate a full buffer for the tail of the log
+            final SortBuffer buffer = new SortBuffer(Math.min(bufferSize, Math.max(0, length - input.getPos())) + 64 * 1024);
+            recorder.record(buffer);
+            buffer.start = input.getPos();
+            try {
+              while (input.getPos() - buffer.start < bufferSize) {
+                buffer.read(in, key, value);
+              }
+            } catch (EOFException ex) {
+              eof = true;
             }
-            writeBuffer(destPath, buffer, part++);
-            buffer.clear();
-          } catch (EOFException ex) {
-            writeBuffer(destPath, buffer, part++);
-            break;
+            recorder.record(null);
+            buffer.end = input.getPos();
+            
+            final String partPath = destPath + String.format("/part-r-%05d", part++);
+            parts.add(sortThreadPool.submit(new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  if (failed.get())
+                    return;
+                  writeBuffer(partPath, buffer, failed);
+                  bytesSorted.addAndGet(buffer.end - buffer.start);
+                } catch (IOException ex) {
+                  throw new RuntimeException(ex);
+                } finally {
+                  buffers.release();
+                }
+              }
+            }));
+            submitted = true;
+          } finally {
+            if (!submitted)
+              buffers.release();
+          }
+        }
+        
+        for (Future<?> future : parts) {
+          try {
+            future.get();
+          } catch (ExecutionException ex) {
+            throw ex.getCause();
           }
         }
         fs.create(new Path(destPath, "finished")).close();
         log.info("Finished log sort " + name + " " + getBytesCopied() + " bytes " + part + " parts in " + getSortTime() + "ms");
       } catch (Throwable t) {
+        // stop the sort threads and wait for them, so that no part is written after the sort is marked as failed
+        failed.set(true);
+        for (Future<?> future : parts) {
+          try {
+            future.get();
+          } catch (ExecutionException e) {
+            // already failing
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
         try {
           // parent dir may not exist
           fs.mkdirs(new Path(destPath));
@@ -153,18 +409,16 @@ public class LogSorter {
       }
     }
     
-    private void writeBuffer(String destPath, ArrayList<Pair<LogFileKey,LogFileValue>> buffer, int part) throws IOException {
-      String path = destPath + String.format("/part-r-%05d", part++);
+    private void writeBuffer(String path, SortBuffer buffer, AtomicBoolean failed) throws IOException {
       MapFile.Writer output = new MapFile.Writer(fs.getConf(), fs, path, LogFileKey.class, LogFileValue.class);
       try {
-        Collections.sort(buffer, new Comparator<Pair<LogFileKey,LogFileValue>>() {
-          @Override
-          public int compare(Pair<LogFileKey,LogFileValue> o1, Pair<LogFileKey,LogFileValue> o2) {
-            return o1.getFirst().compareTo(o2.getFirst());
-          }
-        });
-        for (Pair<LogFileKey,LogFileValue> entry : buffer) {
-          output.append(entry.getFirst(), entry.getSecond());
+        LogFileKey key = new LogFileKey();
+        LogFileValue value = new LogFileValue();
+        for (int index : buffer.sortedOrder()) {
+          if (failed.get())
+            throw new IOException("Sort of " + path + " abandoned");
+          buffer.get(index, key, value);
+          output.append(key, value);
         }
       } finally {
         output.close();
@@ -189,9 +443,25 @@ public class LogSorter {
     synchronized long getBytesCopied() throws IOException {
       return input == null ? bytesCopied : input.getPos();
     }
+    
+    /**
+     * @return the fraction of the log that has been sorted and written out
+     */
+    double getProgress() throws IOException {
+      long total;
+      synchronized (this) {
+        // the length reported for a log that was not closed may be short
+        total = Math.max(fileLength, getBytesCopied());
+      }
+      if (total <= 0)
+        total = conf.getMemoryInBytes(Property.TSERV_WALOG_MAX_SIZE);
+      return bytesSorted.get() / (0.0 + total);
+    }
   }
   
   ThreadPoolExecutor threadPool;
+  private ThreadPoolExecutor sortThreadPool;
+  private final int sortThreads;
   private Instance instance;
   
   public LogSorter(Instance instance, FileSystem fs, AccumuloConfiguration conf) {
@@ -200,6 +470,8 @@ public class LogSorter {
     this.conf = conf;
     int threadPoolSize = conf.getCount(Property.TSERV_RECOVERY_MAX_CONCURRENT);
     this.threadPool = new SimpleThreadPool(threadPoolSize, this.getClass().getName());
+    this.sortThreads = Math.max(1, conf.getCount(Property.TSERV_SORT_THREADS));
+    this.sortThreadPool = new SimpleThreadPool(threadPoolSize * sortThreads, "log sort writer");
   }
 
   public void startWatchingForRecoveryLogs(ThreadPoolExecutor distWorkQThreadPool) throws KeeperException, InterruptedException {
@@ -214,7 +486,7 @@ public class LogSorter {
         RecoveryStatus status = new RecoveryStatus();
         status.name = entries.getKey();
         try {
-          status.progress = entries.getValue().getBytesCopied() / (0.0 + conf.getMemoryInBytes(Property.TSERV_WALOG_MAX_SIZE));
+          status.progress = entries.getValue().getProgress();
         } catch (IOException ex) {
           log.warn("Error getting bytes read");
         }
@@ -30,7 +30,6 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.apache.accumulo.core.conf.Property;
 import org.apache.accumulo.core.data.KeyExtent;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.util.UtilWaitThread;
@@ -74,8 +73,12 @@ public class TabletServerLogger {
   
   private final AtomicInteger seqGen = new AtomicInteger();
   
+  private static Durability durability(CommitSession commitSession) {
+    return commitSession.getTablet().getDurability();
+  }
+  
   private static boolean enabled(Tablet tablet) {
-    return tablet.getTableConfiguration().getBoolean(Property.TABLE_WALOG_ENABLED);
+    return tablet.getDurability() != Durability.NONE;
   }
   
   private static boolean enabled(CommitSession commitSession) {
@@ -337,12 +340,13 @@ public class TabletServerLogger {
   }
   
   public int log(final CommitSession commitSession, final int tabletSeq, final Mutation m) throws IOException {
-    if (!enabled(commitSession))
+    final Durability durability = durability(commitSession);
+    if (durability == Durability.NONE)
       return -1;
     int seq = write(commitSession, false, new Writer() {
       @Override
       public LoggerOperation write(DfsLogger logger, int ignored) throws Exception {
-        return logger.log(tabletSeq, commitSession.getLogId(), m);
+        return logger.log(tabletSeq, commitSession.getLogId(), m, durability);
       }
     });
     logSizeEstimate.addAndGet(m.numBytes());
@@ -352,13 +356,19 @@ public class TabletServerLogger {
   public int logManyTablets(Map<CommitSession,List<Mutation>> mutations) throws IOException {
     
     final Map<CommitSession,List<Mutation>> loggables = new HashMap<CommitSession,List<Mutation>>(mutations);
+    Durability max = Durability.NONE;
     for (CommitSession t : mutations.keySet()) {
-      if (!enabled(t))
+      Durability durability = durability(t);
+      if (durability == Durability.NONE)
         loggables.remove(t);
+      max = Durability.max(max, durability);
     }
     if (loggables.size() == 0)
       return -1;
     
+    // mutations for all tablets share one log write, so they all get the strongest durability requested
+    final Durability durability = max;
+    
     int seq = write(loggables.keySet(), false, new Writer() {
       @Override
       public LoggerOperation write(DfsLogger logger, int ignored) throws Exception {
@@ -367,7 +377,7 @@ public class TabletServerLogger {
           CommitSession cs = entry.getKey();
           copy.add(new TabletMutations(cs.getLogId(), cs.getWALogSeq(), entry.getValue()));
         }
-        return logger.logManyTablets(copy);
+        return logger.logManyTablets(copy, durability);
       }
     });
     for (List<Mutation> entry : loggables.values()) {
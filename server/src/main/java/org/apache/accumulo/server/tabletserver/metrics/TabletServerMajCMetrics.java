@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.apache.accumulo.server.metrics.AbstractMetricsImpl;
+import org.apache.accumulo.server.tabletserver.CompactionQueue.Priority;
+
+public class TabletServerMajCMetrics extends AbstractMetricsImpl implements TabletServerMajCMetricsMBean {
+  
+  static final org.apache.log4j.Logger log = org.apache.log4j.Logger.getLogger(TabletServerMajCMetrics.class);
+  
+  private static final String METRICS_PREFIX = "tserver.majc";
+  
+  private static ObjectName OBJECT_NAME = null;
+  
+  private final AtomicLong[] depths = new AtomicLong[Priority.values().length];
+  
+  public TabletServerMajCMetrics() {
+    super();
+    for (int i = 0; i < depths.length; i++)
+      depths[i] = new AtomicLong();
+    reset();
+    try {
+      OBJECT_NAME = new ObjectName("accumulo.server.metrics:service=TServerInfo,name=TabletServerMajCMetricsMBean,instance=" + Thread.currentThread().getName());
+    } catch (Exception e) {
+      log.error("Exception setting MBean object name", e);
+    }
+  }
+  
+  @Override
+  protected ObjectName getObjectName() {
+    return OBJECT_NAME;
+  }
+  
+  @Override
+  protected String getMetricsPrefix() {
+    return METRICS_PREFIX;
+  }
+  
+  private static String queue(Priority priority) {
+    return "queue." + priority.name().toLowerCase();
+  }
+  
+  public void queued(Priority priority) {
+    depths[priority.ordinal()].incrementAndGet();
+  }
+  
+  public void started(Priority priority, long waitTime) {
+    depths[priority.ordinal()].decrementAndGet();
+    if (isEnabled())
+      add(queue(priority), waitTime);
+  }
+  
+  public void removed(Priority priority) {
+    depths[priority.ordinal()].decrementAndGet();
+  }
+  
+  private long getDepth(Priority priority) {
+    return depths[priority.ordinal()].get();
+  }
+  
+  public long getUserQueueDepth() {
+    return getDepth(Priority.USER);
+  }
+  
+  public long getUserQueueAvgTime() {
+    return getMetricAvg(queue(Priority.USER));
+  }
+  
+  public long getUserQueueMaxTime() {
+    return getMetricMax(queue(Priority.USER));
+  }
+  
+  public long getChopQueueDepth() {
+    return getDepth(Priority.CHOP);
+  }
+  
+  public long getChopQueueAvgTime() {
+    return getMetricAvg(queue(Priority.CHOP));
+  }
+  
+  public long getChopQueueMaxTime() {
+    return getMetricMax(queue(Priority.CHOP));
+  }
+  
+  public long getFileLimitQueueDepth() {
+    return getDepth(Priority.FILE_LIMIT);
+  }
+  
+  public long getFileLimitQueueAvgTime() {
+    return getMetricAvg(queue(Priority.FILE_LIMIT));
+  }
+  
+  public long getFileLimitQueueMaxTime() {
+    return getMetricMax(queue(Priority.FILE_LIMIT));
+  }
+  
+  public long getNormalQueueDepth() {
+    return getDepth(Priority.NORMAL);
+  }
+  
+  public long getNormalQueueAvgTime() {
+    return getMetricAvg(queue(Priority.NORMAL));
+  }
+  
+  public long getNormalQueueMaxTime() {
+    return getMetricMax(queue(Priority.NORMAL));
+  }
+  
+  public long getIdleQueueDepth() {
+    return getDepth(Priority.IDLE);
+  }
+  
+  public long getIdleQueueAvgTime() {
+    return getMetricAvg(queue(Priority.IDLE));
+  }
+  
+  public long getIdleQueueMaxTime() {
+    return getMetricMax(queue(Priority.IDLE));
+  }
+  
+  public void reset() {
+    for (Priority priority : Priority.values())
+      createMetric(queue(priority));
+  }
+  
+}
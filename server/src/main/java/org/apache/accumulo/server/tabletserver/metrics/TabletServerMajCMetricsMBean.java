@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver.metrics;
+
+/**
+ * Depth of the major compaction queue and the time compactions waited in it, for each priority class of
+ * {@link org.apache.accumulo.server.tabletserver.CompactionQueue}.
+ */
+public interface TabletServerMajCMetricsMBean {
+  
+  public long getUserQueueDepth();
+  
+  public long getUserQueueAvgTime();
+  
+  public long getUserQueueMaxTime();
+  
+  public long getChopQueueDepth();
+  
+  public long getChopQueueAvgTime();
+  
+  public long getChopQueueMaxTime();
+  
+  public long getFileLimitQueueDepth();
+  
+  public long getFileLimitQueueAvgTime();
+  
+  public long getFileLimitQueueMaxTime();
+  
+  public long getNormalQueueDepth();
+  
+  public long getNormalQueueAvgTime();
+  
+  public long getNormalQueueMaxTime();
+  
+  public long getIdleQueueDepth();
+  
+  public long getIdleQueueAvgTime();
+  
+  public long getIdleQueueMaxTime();
+  
+  public void reset();
+  
+}
@@ -18,6 +18,7 @@ package org.apache.accumulo.server.gc;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -33,6 +34,7 @@ import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.mock.MockInstance;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.thrift.AuthInfo;
 import org.apache.accumulo.core.util.CachedConfiguration;
@@ -92,6 +94,52 @@ public class TestConfirmDeletes {
     test1(metadata, deletes, 1, 0);
   }
   
+  @Test
+  public void testMetadataRanges() throws Exception {
+    Instance instance = new MockInstance("testMetadataRanges");
+    Connector conn = instance.getConnector(auth);
+    // one table id is a prefix of the other
+    conn.tableOperations().create("2");
+    conn.tableOperations().create("2a");
+    
+    SimpleGarbageCollector gc = new SimpleGarbageCollector();
+    gc.init(FileSystem.getLocal(CachedConfiguration.getInstance()), instance, auth);
+    List<Range> ranges = gc.getMetadataRanges();
+    
+    // the ranges cover the keyspace without holes or overlaps
+    Assert.assertEquals(Constants.METADATA_KEYSPACE.getStartKey(), ranges.get(0).getStartKey());
+    Assert.assertTrue(ranges.get(0).isStartKeyInclusive());
+    for (int i = 1; i < ranges.size(); i++) {
+      Assert.assertEquals(ranges.get(i - 1).getEndKey(), ranges.get(i).getStartKey());
+      Assert.assertFalse(ranges.get(i - 1).isEndKeyInclusive());
+      Assert.assertTrue(ranges.get(i).isStartKeyInclusive());
+    }
+    Range last = ranges.get(ranges.size() - 1);
+    Assert.assertEquals(Constants.METADATA_KEYSPACE.getEndKey(), last.getEndKey());
+    Assert.assertEquals(Constants.METADATA_KEYSPACE.isEndKeyInclusive(), last.isEndKeyInclusive());
+    
+    // every tablet of a table, including its last, is in the same range
+    Range table2 = rangeOf(ranges, new Key("2;m"));
+    Assert.assertEquals(table2, rangeOf(ranges, new Key("2<")));
+    Assert.assertEquals(new Key("2;"), table2.getStartKey());
+    Range table2a = rangeOf(ranges, new Key("2a;m"));
+    Assert.assertEquals(table2a, rangeOf(ranges, new Key("2a<")));
+    Assert.assertEquals(new Key("2a;"), table2a.getStartKey());
+    Assert.assertFalse(table2.equals(table2a));
+  }
+  
+  private static Range rangeOf(List<Range> ranges, Key key) {
+    Range found = null;
+    for (Range range : ranges) {
+      if (range.contains(key)) {
+        Assert.assertNull(key + " is in more than one range", found);
+        found = range;
+      }
+    }
+    Assert.assertNotNull(key + " is in no range", found);
+    return found;
+  }
+  
   private void test1(String[] metadata, String[] deletes, int expectedInitial, int expected) throws Exception {
     Instance instance = new MockInstance();
     FileSystem fs = FileSystem.getLocal(CachedConfiguration.getInstance());
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.master.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.accumulo.core.data.KeyExtent;
+import org.apache.accumulo.core.master.thrift.TableInfo;
+import org.apache.accumulo.core.master.thrift.TabletServerStatus;
+import org.apache.accumulo.core.security.thrift.ThriftSecurityException;
+import org.apache.accumulo.core.tabletserver.thrift.TabletStats;
+import org.apache.accumulo.core.util.AddressUtil;
+import org.apache.accumulo.server.master.state.TServerInstance;
+import org.apache.accumulo.server.master.state.TabletMigration;
+import org.apache.hadoop.io.Text;
+import org.apache.thrift.TException;
+import org.junit.Test;
+
+public class CostBasedLoadBalancerTest {
+  
+  class FakeTServer {
+    Map<KeyExtent,Double> ingestRates = new HashMap<KeyExtent,Double>();
+    
+    TabletServerStatus getStatus() {
+      TabletServerStatus result = new TabletServerStatus();
+      result.tableMap = new HashMap<String,TableInfo>();
+      for (Entry<KeyExtent,Double> entry : ingestRates.entrySet()) {
+        String table = entry.getKey().getTableId().toString();
+        TableInfo info = result.tableMap.get(table);
+        if (info == null)
+          result.tableMap.put(table, info = new TableInfo());
+        info.onlineTablets++;
+        info.ingestRate += entry.getValue();
+        info.ingestByteRate += 100 * entry.getValue();
+      }
+      return result;
+    }
+  }
+  
+  Map<TServerInstance,FakeTServer> servers = new TreeMap<TServerInstance,FakeTServer>();
+  
+  class TestCostBasedLoadBalancer extends CostBasedLoadBalancer {
+    @Override
+    public List<TabletStats> getOnlineTabletsForTable(TServerInstance tserver, String table) throws ThriftSecurityException, TException {
+      List<TabletStats> result = new ArrayList<TabletStats>();
+      for (Entry<KeyExtent,Double> entry : servers.get(tserver).ingestRates.entrySet())
+        if (entry.getKey().getTableId().toString().equals(table))
+          result.add(new TabletStats(entry.getKey().toThrift(), null, null, null, 0l, entry.getValue(), 0., 0));
+      return result;
+    }
+  }
+  
+  private static KeyExtent makeExtent(String table, String end, String prev) {
+    return new KeyExtent(new Text(table), toText(end), toText(prev));
+  }
+  
+  private static Text toText(String value) {
+    if (value != null)
+      return new Text(value);
+    return null;
+  }
+  
+  private TServerInstance addServer(int port, double... rates) {
+    TServerInstance server = new TServerInstance(AddressUtil.parseAddress("127.0.0.1", port), Integer.toString(port));
+    FakeTServer fake = new FakeTServer();
+    String prev = null;
+    for (int i = 0; i < rates.length; i++) {
+      String end = i == rates.length - 1 ? null : port + "_" + i;
+      fake.ingestRates.put(makeExtent("t", end, prev), rates[i]);
+      prev = end;
+    }
+    servers.put(server, fake);
+    return server;
+  }
+  
+  private SortedMap<TServerInstance,TabletServerStatus> getStatus() {
+    SortedMap<TServerInstance,TabletServerStatus> result = new TreeMap<TServerInstance,TabletServerStatus>();
+    for (Entry<TServerInstance,FakeTServer> entry : servers.entrySet())
+      result.put(entry.getKey(), entry.getValue().getStatus());
+    return result;
+  }
+  
+  @Test
+  public void testMovesLoadNotCounts() {
+    servers.clear();
+    TServerInstance hot = addServer(1234, 1000., 10., 10., 10.);
+    TServerInstance cold = addServer(1235, 10., 10., 10., 10.);
+    
+    CostBasedLoadBalancer balancer = new TestCostBasedLoadBalancer();
+    List<TabletMigration> plan = balancer.plan(getStatus(), Collections.<KeyExtent> emptySet(), CostBasedLoadBalancer.parseWeights("tablets:1,ingest:1"),
+        0.2, 10);
+    
+    // moving the hot tablet would leave the servers further apart, so the small ones move instead
+    assertEquals(3, plan.size());
+    for (TabletMigration migration : plan) {
+      assertEquals(hot, migration.oldServer);
+      assertEquals(cold, migration.newServer);
+      assertEquals(10., servers.get(hot).ingestRates.get(migration.tablet), 0.);
+    }
+    
+    // the limit on migrations is honored
+    assertEquals(1, balancer.plan(getStatus(), Collections.<KeyExtent> emptySet(), CostBasedLoadBalancer.parseWeights("tablets:1,ingest:1"), 0.2, 1).size());
+    
+    // balanced by tablet count alone, so nothing moves when ingest is not weighed
+    assertEquals(0, balancer.plan(getStatus(), Collections.<KeyExtent> emptySet(), CostBasedLoadBalancer.parseWeights("tablets:1"), 0.2, 10).size());
+  }
+  
+  @Test
+  public void testBalance() {
+    servers.clear();
+    addServer(1234, 1000., 1000., 10., 10.);
+    addServer(1235, 10., 10., 10., 10.);
+    addServer(1236, 10., 10.);
+    
+    CostBasedLoadBalancer balancer = new TestCostBasedLoadBalancer();
+    int passes = 0;
+    while (true) {
+      List<TabletMigration> migrationsOut = new ArrayList<TabletMigration>();
+      balancer.balance(getStatus(), Collections.<KeyExtent> emptySet(), migrationsOut);
+      assertEquals(balancer.getLastPlan(), migrationsOut);
+      if (migrationsOut.isEmpty())
+        break;
+      for (TabletMigration migration : migrationsOut) {
+        Double rate = servers.get(migration.oldServer).ingestRates.remove(migration.tablet);
+        servers.get(migration.newServer).ingestRates.put(migration.tablet, rate);
+      }
+      if (++passes > 10)
+        fail("balancing did not settle");
+    }
+    
+    // the two hot tablets end up on different servers
+    int hotServers = 0;
+    for (FakeTServer server : servers.values())
+      if (server.ingestRates.containsValue(1000.)) {
+        assertFalse(server.ingestRates.size() > 2);
+        hotServers++;
+      }
+    assertEquals(2, hotServers);
+  }
+  
+  @Test
+  public void testParseWeights() {
+    double[] weights = CostBasedLoadBalancer.parseWeights(" tablets:2, hold:0.5 ");
+    assertEquals(2., weights[CostBasedLoadBalancer.TABLETS], 0.);
+    assertEquals(0., weights[CostBasedLoadBalancer.INGEST], 0.);
+    assertEquals(0.5, weights[CostBasedLoadBalancer.HOLD], 0.);
+    try {
+      CostBasedLoadBalancer.parseWeights("bogus:1");
+      fail("accepted unknown load");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.accumulo.cloudtrace.instrument.TraceRunnable;
+import org.apache.accumulo.server.tabletserver.CompactionQueue.Priority;
+
+public class CompactionQueueTest extends TestCase {
+  
+  private static class TestTask implements Runnable, Comparable<TestTask>, CompactionQueue.Task {
+    final String tableId;
+    final Priority priority;
+    final int order;
+    
+    TestTask(String tableId, Priority priority, int order) {
+      this.tableId = tableId;
+      this.priority = priority;
+      this.order = order;
+    }
+    
+    @Override
+    public void run() {}
+    
+    @Override
+    public int compareTo(TestTask o) {
+      return order - o.order;
+    }
+    
+    @Override
+    public Priority getPriority() {
+      return priority;
+    }
+    
+    @Override
+    public String getTableId() {
+      return tableId;
+    }
+    
+    @Override
+    public String toString() {
+      return tableId + order;
+    }
+  }
+  
+  private static String drain(CompactionQueue queue) {
+    StringBuilder sb = new StringBuilder();
+    Runnable r;
+    while ((r = queue.poll()) != null)
+      sb.append(r).append(' ');
+    return sb.toString().trim();
+  }
+  
+  public void testPriority() throws Exception {
+    CompactionQueue queue = new CompactionQueue();
+    queue.offer(new TestTask("a", Priority.IDLE, 1));
+    queue.offer(new TestTask("a", Priority.NORMAL, 3));
+    queue.offer(new TestTask("a", Priority.NORMAL, 2));
+    queue.offer(new TestTask("a", Priority.FILE_LIMIT, 9));
+    queue.offer(new TestTask("a", Priority.USER, 5));
+    assertEquals(5, queue.size());
+    assertEquals(2, queue.size(Priority.NORMAL));
+    assertEquals("a5", queue.peek().toString());
+    assertEquals("a5 a9 a2 a3 a1", drain(queue));
+    assertNull(queue.peek());
+    assertEquals(0, queue.size());
+  }
+  
+  public void testTablesTakeTurns() throws Exception {
+    CompactionQueue queue = new CompactionQueue();
+    for (int i = 0; i < 4; i++)
+      queue.offer(new TestTask("a", Priority.NORMAL, i));
+    queue.offer(new TestTask("b", Priority.NORMAL, 7));
+    queue.offer(new TestTask("c", Priority.NORMAL, 8));
+    queue.offer(new TestTask("b", Priority.NORMAL, 6));
+    assertEquals("a0 b6 c8 a1 b7 a2 a3", drain(queue));
+  }
+  
+  public void testRemove() throws Exception {
+    CompactionQueue queue = new CompactionQueue();
+    TestTask b = new TestTask("b", Priority.NORMAL, 1);
+    queue.offer(new TestTask("a", Priority.NORMAL, 1));
+    queue.offer(b);
+    queue.offer(new TestTask("a", Priority.CHOP, 2));
+    
+    Iterator<Runnable> iter = queue.iterator();
+    assertEquals("a2", iter.next().toString());
+    assertTrue(queue.remove(b));
+    assertFalse(queue.remove(b));
+    iter.remove();
+    assertEquals(1, queue.size());
+    
+    List<Runnable> drained = new ArrayList<Runnable>();
+    assertEquals(1, queue.drainTo(drained));
+    assertEquals("a1", drained.get(0).toString());
+    assertEquals(0, queue.size());
+  }
+  
+  public void testOtherRunnables() throws Exception {
+    CompactionQueue queue = new CompactionQueue();
+    Runnable r1 = new Runnable() {
+      public void run() {}
+    };
+    Runnable r2 = new Runnable() {
+      public void run() {}
+    };
+    queue.offer(r1);
+    queue.offer(new TestTask("a", Priority.IDLE, 1));
+    queue.offer(r2);
+    assertSame(r1, queue.poll());
+    assertSame(r2, queue.poll());
+    assertEquals("a1", queue.poll().toString());
+  }
+  
+  public void testTracedTasks() throws Exception {
+    // a tracing executor queues its tasks wrapped, they keep their priority and table
+    CompactionQueue queue = new CompactionQueue();
+    TestTask a3 = new TestTask("a", Priority.NORMAL, 3);
+    queue.offer(new TraceRunnable(a3));
+    queue.offer(new TraceRunnable(new TestTask("a", Priority.NORMAL, 2)));
+    queue.offer(new TraceRunnable(new TestTask("b", Priority.NORMAL, 4)));
+    queue.offer(new TraceRunnable(new TestTask("a", Priority.USER, 5)));
+    assertEquals(1, queue.size(Priority.USER));
+    assertEquals(3, queue.size(Priority.NORMAL));
+    
+    // a task is removed by the task that was wrapped, and queued again at another priority when its tablet reaches its file limit
+    assertTrue(queue.remove(a3));
+    assertFalse(queue.remove(a3));
+    queue.offer(new TraceRunnable(new TestTask("a", Priority.FILE_LIMIT, 3)));
+    
+    StringBuilder sb = new StringBuilder();
+    Runnable r;
+    while ((r = queue.poll()) != null)
+      sb.append(((TraceRunnable) r).getRunnable()).append(' ');
+    assertEquals("a5 a3 a2 b4", sb.toString().trim());
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.conf.ConfigurationCopy;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.KeyExtent;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.file.FileOperations;
+import org.apache.accumulo.core.file.FileSKVIterator;
+import org.apache.accumulo.core.file.FileSKVWriter;
+import org.apache.accumulo.core.file.NoSuchMetaStoreException;
+import org.apache.accumulo.core.file.rfile.RFile;
+import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import org.apache.accumulo.core.util.CachedConfiguration;
+import org.apache.accumulo.core.util.MetadataTable.DataFileValue;
+import org.apache.accumulo.server.tabletserver.Compactor.CompactionEnv;
+import org.apache.accumulo.server.tabletserver.compaction.CompactionPlanner;
+import org.apache.accumulo.server.tabletserver.compaction.TimeWindowCompactionPlanner;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+public class CompactorTest extends TestCase {
+  
+  private static final long HOUR = 60 * 60 * 1000l;
+  
+  private static final CompactionEnv MAJC = new CompactionEnv() {
+    @Override
+    public boolean isCompactionEnabled() {
+      return true;
+    }
+    
+    @Override
+    public IteratorScope getIteratorScope() {
+      return IteratorScope.majc;
+    }
+  };
+  
+  private Configuration conf;
+  private FileSystem fs;
+  private Path dir;
+  
+  @Override
+  protected void setUp() throws Exception {
+    conf = CachedConfiguration.getInstance();
+    fs = FileSystem.getLocal(conf);
+    dir = new Path(System.getProperty("java.io.tmpdir"), "CompactorTest_" + System.currentTimeMillis());
+    fs.mkdirs(dir);
+  }
+  
+  @Override
+  protected void tearDown() throws Exception {
+    fs.delete(dir, true);
+  }
+  
+  private static ConfigurationCopy tableConf(String planner) {
+    ConfigurationCopy acuconf = new ConfigurationCopy(AccumuloConfiguration.getDefaultConfiguration());
+    acuconf.set(Property.TABLE_COMPACTION_PLANNER, planner);
+    acuconf.set(Property.TABLE_COMPACTION_PLANNER_OPTS.getKey() + "window", "1h");
+    return acuconf;
+  }
+  
+  // writes a file like one written by an earlier compaction of data from the given time
+  private String writeFile(String name, int rows, long dataTime, AccumuloConfiguration acuconf) throws IOException {
+    String file = new Path(dir, name + "." + RFile.EXTENSION).toString();
+    FileSKVWriter writer = FileOperations.getInstance().openWriter(file, fs, conf, acuconf);
+    writer.startDefaultLocalityGroup();
+    for (int i = 0; i < rows; i++)
+      writer.append(new Key(new Text(String.format("%s_%04d", name, i)), new Text("cf"), new Text("cq")), new Value(("" + i).getBytes()));
+    DataOutputStream out = writer.createMetaStore(Compactor.DATA_TIME_STORE);
+    out.writeLong(dataTime);
+    out.close();
+    writer.close();
+    return file;
+  }
+  
+  private String compact(Map<String,DataFileValue> files, String name, AccumuloConfiguration acuconf) throws Exception {
+    String output = new Path(dir, name + "." + RFile.EXTENSION).toString();
+    Compactor compactor = new Compactor(conf, fs, files, null, output, false, acuconf, new KeyExtent(new Text("1"), null, null), MAJC);
+    assertEquals(files.size() * 100, compactor.call().getEntriesWritten());
+    return output;
+  }
+  
+  public void testOldWindowKept() throws Exception {
+    final AccumuloConfiguration acuconf = tableConf(TimeWindowCompactionPlanner.class.getName());
+    final long now = System.currentTimeMillis();
+    
+    SortedMap<String,DataFileValue> files = new TreeMap<String,DataFileValue>();
+    files.put(writeFile("F0", 100, now - 5 * HOUR, acuconf), new DataFileValue(1000, 100));
+    files.put(writeFile("F1", 100, now - 6 * HOUR, acuconf), new DataFileValue(1000, 100));
+    String compacted = compact(files, "F2", acuconf);
+    
+    // the output holds the newest time of its inputs, not the time it was written
+    assertEquals(now - 5 * HOUR, Compactor.getDataTime(compacted, fs, conf, acuconf));
+    
+    // so the planner keeps it out of the current window, where it would have been merged with the new files
+    files.clear();
+    files.put(compacted, new DataFileValue(1000, 200));
+    files.put(writeFile("F3", 100, now, acuconf), new DataFileValue(1000, 100));
+    files.put(writeFile("F4", 100, now, acuconf), new DataFileValue(1000, 100));
+    CompactionPlanner planner = new TimeWindowCompactionPlanner();
+    planner.init(acuconf);
+    CompactionPlanner.FileTimes written = new CompactionPlanner.FileTimes() {
+      @Override
+      public long getDataTime(String file) {
+        return now;
+      }
+    };
+    assertEquals(3, planner.findFilesToCompact(files, 10, written).size());
+    CompactionPlanner.FileTimes dataTimes = new CompactionPlanner.FileTimes() {
+      @Override
+      public long getDataTime(String file) throws IOException {
+        return Compactor.getDataTime(file, fs, conf, acuconf);
+      }
+    };
+    assertNull(planner.findFilesToCompact(files, 10, dataTimes));
+  }
+  
+  public void testDataTimeNotRecorded() throws Exception {
+    // tables that do not window files by time do not pay for recording it
+    AccumuloConfiguration acuconf = tableConf(Property.TABLE_COMPACTION_PLANNER.getDefaultValue());
+    SortedMap<String,DataFileValue> files = new TreeMap<String,DataFileValue>();
+    files.put(writeFile("F0", 100, System.currentTimeMillis() - 5 * HOUR, acuconf), new DataFileValue(1000, 100));
+    String compacted = compact(files, "F1", acuconf);
+    
+    FileSKVIterator reader = FileOperations.getInstance().openReader(compacted, false, fs, conf, acuconf);
+    try {
+      reader.getMetaStore(Compactor.DATA_TIME_STORE);
+      fail("data time recorded for " + acuconf.get(Property.TABLE_COMPACTION_PLANNER));
+    } catch (NoSuchMetaStoreException e) {
+      // expected
+    } finally {
+      reader.close();
+    }
+    
+    // files without it fall back to their modification time
+    assertEquals(fs.getFileStatus(new Path(compacted)).getModificationTime(), Compactor.getDataTime(compacted, fs, conf, acuconf));
+  }
+}
@@ -18,7 +18,10 @@ package org.apache.accumulo.server.tabletserver;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 
@@ -291,4 +294,124 @@ public class InMemoryMapTest extends TestCase {
     ae(skvi1, "r1", "foo:cq", 3, "v2");
     ae(skvi1, "r1", "foo:cq", 3, "v1");
   }
+  
+  public void testConcurrentMutate() throws Exception {
+    // the java and slab maps take writes without the write lock
+    testConcurrentMutate(new InMemoryMap(false, "/tmp"));
+    testConcurrentMutate(new InMemoryMap(false, true, "/tmp"));
+  }
+  
+  public void testConcurrentSlabWriters() throws Exception {
+    final InMemoryMap imm = new InMemoryMap(false, true, "/tmp");
+    final int writers = 8;
+    final int rows = 500;
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final AtomicInteger running = new AtomicInteger(writers);
+    
+    Thread[] threads = new Thread[writers];
+    for (int t = 0; t < writers; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < rows; i++) {
+              Mutation m = new Mutation(new Text(String.format("r%03d_%d", i, id)));
+              for (int c = 0; c < 3; c++)
+                m.put(new Text("cf"), new Text("cq" + c), 3, new Value(("v" + i).getBytes()));
+              imm.mutate(Collections.singletonList(m));
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            running.decrementAndGet();
+          }
+        }
+      };
+    }
+    
+    // a reader never sees part of a mutation while writers are adding to the map
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (running.get() > 0) {
+            MemoryIterator iter = imm.skvIterator();
+            iter.seek(new Range(), LocalityGroupUtil.EMPTY_CF_SET, false);
+            while (iter.hasTop()) {
+              Text row = iter.getTopKey().getRow();
+              for (int c = 0; c < 3; c++) {
+                assertTrue(iter.hasTop());
+                assertEquals(new Key(row, new Text("cf"), new Text("cq" + c), 3), iter.getTopKey());
+                iter.next();
+              }
+            }
+            iter.close();
+          }
+        } catch (Throwable e) {
+          failure.set(e);
+        }
+      }
+    };
+    
+    for (Thread t : threads)
+      t.start();
+    reader.start();
+    for (Thread t : threads)
+      t.join();
+    reader.join();
+    
+    assertNull(failure.get());
+    MemoryIterator iter = imm.skvIterator();
+    iter.seek(new Range(), LocalityGroupUtil.EMPTY_CF_SET, false);
+    for (int i = 0; i < rows; i++)
+      for (int t = 0; t < writers; t++)
+        for (int c = 0; c < 3; c++)
+          ae(iter, String.format("r%03d_%d", i, t), "cf:cq" + c, 3, "v" + i);
+    assertFalse(iter.hasTop());
+    iter.close();
+  }
+  
+  private void testConcurrentMutate(final InMemoryMap imm) throws Exception {
+    final AtomicInteger badWrites = new AtomicInteger(0);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 100; i++) {
+              mutate(imm, String.format("r%d_%03d", id, i), "foo:cq", 3, "v" + i);
+              if (id == 0) {
+                // a bad write fails for its own writer, and not for the writers it was combined with
+                try {
+                  imm.mutate(Arrays.asList(new Mutation(new Text("bad")), null));
+                  failure.set(new AssertionError("bad write did not fail"));
+                } catch (NullPointerException e) {
+                  badWrites.incrementAndGet();
+                }
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          }
+        }
+      };
+    }
+    for (Thread t : threads)
+      t.start();
+    for (Thread t : threads)
+      t.join();
+    
+    assertNull(failure.get());
+    assertEquals(100, badWrites.get());
+    MemoryIterator skvi1 = imm.skvIterator();
+    skvi1.seek(new Range(), LocalityGroupUtil.EMPTY_CF_SET, false);
+    for (int t = 0; t < threads.length; t++)
+      for (int i = 0; i < 100; i++)
+        ae(skvi1, String.format("r%d_%03d", t, i), "foo:cq", 3, "v" + i);
+    assertFalse(skvi1.hasTop());
+  }
 }
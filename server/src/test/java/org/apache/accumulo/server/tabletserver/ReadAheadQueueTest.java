@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+/**
+ * Reads batches the way a tablet server scan session does: each task queues the next batch when it finishes, and the client takes batches from the head of
+ * the queue.
+ */
+public class ReadAheadQueueTest extends TestCase {
+  
+  private static class TestScanner {
+    final int batches;
+    final int failAt;
+    final CountDownLatch readingAt1 = new CountDownLatch(1);
+    final CountDownLatch blockAt1 = new CountDownLatch(1);
+    final boolean block;
+    final AtomicBoolean reading = new AtomicBoolean(false);
+    volatile boolean overlapped = false;
+    volatile int reads = 0;
+    
+    TestScanner(int batches, int failAt, boolean block) {
+      this.batches = batches;
+      this.failAt = failAt;
+      this.block = block;
+    }
+    
+    int read() throws Exception {
+      if (!reading.compareAndSet(false, true))
+        overlapped = true;
+      try {
+        int batch;
+        synchronized (this) {
+          batch = reads++;
+        }
+        if (batch == failAt)
+          throw new IllegalStateException("failed to read batch " + batch);
+        if (block && batch == 1) {
+          readingAt1.countDown();
+          blockAt1.await();
+        }
+        return batch;
+      } finally {
+        reading.set(false);
+      }
+    }
+  }
+  
+  private ExecutorService threadPool;
+  private ReadAheadQueue<BatchTask> queue;
+  private TestScanner scanner;
+  
+  private class BatchTask extends FutureTask<Integer> {
+    boolean more = false;
+    
+    BatchTask() {
+      super(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          try {
+            int batch = scanner.read();
+            if (batch == scanner.batches - 1)
+              queue.end();
+            return batch;
+          } catch (Exception e) {
+            queue.end();
+            throw e;
+          }
+        }
+      });
+    }
+    
+    @Override
+    public void run() {
+      super.run();
+      try {
+        more = !isCancelled() && get() < scanner.batches - 1;
+      } catch (Exception e) {
+        more = false;
+      }
+      if (more)
+        readAhead();
+    }
+  }
+  
+  private void readAhead() {
+    BatchTask task = new BatchTask();
+    if (queue.offer(task))
+      threadPool.execute(task);
+  }
+  
+  private int nextBatch() throws Exception {
+    readAhead();
+    BatchTask task = queue.peek();
+    int batch = task.get(30, TimeUnit.SECONDS);
+    queue.remove(task);
+    readAhead();
+    return batch;
+  }
+  
+  @Override
+  protected void setUp() throws Exception {
+    threadPool = Executors.newFixedThreadPool(4);
+  }
+  
+  @Override
+  protected void tearDown() throws Exception {
+    threadPool.shutdownNow();
+  }
+  
+  public void testOrder() throws Exception {
+    queue = new ReadAheadQueue<BatchTask>(3);
+    scanner = new TestScanner(100, -1, false);
+    int mostQueued = 0;
+    for (int i = 0; i < scanner.batches; i++) {
+      assertEquals(i, nextBatch());
+      // give the tasks time to read ahead while this batch is "processed"
+      Thread.sleep(5);
+      mostQueued = Math.max(mostQueued, queue.size());
+      assertTrue(queue.size() <= 3);
+    }
+    assertTrue("read ahead " + mostQueued, mostQueued > 1);
+    assertFalse("batches were read at the same time", scanner.overlapped);
+    // nothing is read after the last batch
+    assertEquals(0, queue.size());
+    assertEquals(scanner.batches, scanner.reads);
+  }
+  
+  public void testClose() throws Exception {
+    queue = new ReadAheadQueue<BatchTask>(3);
+    scanner = new TestScanner(100, -1, true);
+    assertEquals(0, nextBatch());
+    
+    // the second batch is being read
+    assertTrue(scanner.readingAt1.await(30, TimeUnit.SECONDS));
+    BatchTask reading = queue.peek();
+    assertNotNull(reading);
+    assertFalse(reading.isDone());
+    assertFalse(queue.offer(new BatchTask()));
+    
+    queue.close();
+    assertTrue(reading.isCancelled());
+    assertFalse(queue.offer(new BatchTask()));
+    
+    scanner.blockAt1.countDown();
+    assertEquals(1, queue.size());
+    assertEquals(2, scanner.reads);
+  }
+  
+  public void testError() throws Exception {
+    queue = new ReadAheadQueue<BatchTask>(3);
+    scanner = new TestScanner(100, 5, false);
+    for (int i = 0; i < 5; i++)
+      assertEquals(i, nextBatch());
+    try {
+      nextBatch();
+      fail("read a batch after the one that failed");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    // nothing is read after the failed batch
+    Thread.sleep(50);
+    assertEquals(1, queue.size());
+    assertEquals(6, scanner.reads);
+  }
+}
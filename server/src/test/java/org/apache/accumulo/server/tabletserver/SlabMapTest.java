@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.accumulo.core.data.ColumnUpdate;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.util.LocalityGroupUtil;
+import org.apache.hadoop.io.Text;
+
+public class SlabMapTest extends TestCase {
+
+  private static String r(Random random, int max) {
+    return String.format("%04d", random.nextInt(max));
+  }
+
+  private static Mutation randomMutation(Random random) {
+    Mutation m = new Mutation(new Text(r(random, 100)));
+    int updates = random.nextInt(3) + 1;
+    for (int i = 0; i < updates; i++) {
+      if (random.nextInt(5) == 0)
+        m.putDelete(new Text(r(random, 3)), new Text(r(random, 10)), random.nextInt(3));
+      else
+        m.put(new Text(r(random, 3)), new Text(r(random, 10)), random.nextInt(3), new Value(r(random, 1000).getBytes()));
+    }
+    return m;
+  }
+
+  /**
+   * Put the mutations in a TreeMap, the way the default in-memory map orders them
+   */
+  private static TreeMap<Key,Value> expected(List<Mutation> mutations, int kvCount) {
+    TreeMap<Key,Value> expected = new TreeMap<Key,Value>(new MemKeyComparator());
+    for (Mutation m : mutations) {
+      for (int i = 0; i < m.getUpdates().size(); i++) {
+        ColumnUpdate cvp = m.getUpdates().get(i);
+        expected.put(new MemKey(m.getRow(), cvp.getColumnFamily(), cvp.getColumnQualifier(), cvp.getColumnVisibility(), cvp.getTimestamp(), cvp.isDeleted(),
+            false, kvCount++), new Value(cvp.getValue()));
+      }
+    }
+    return expected;
+  }
+
+  private static void assertEntries(Iterator<Entry<Key,Value>> expected, SortedKeyValueIterator<Key,Value> actual) throws Exception {
+    while (expected.hasNext()) {
+      Entry<Key,Value> entry = expected.next();
+      assertTrue(actual.hasTop());
+      assertEquals(entry.getKey(), actual.getTopKey());
+      assertEquals(((MemKey) entry.getKey()).kvCount, ((MemKey) actual.getTopKey()).kvCount);
+      assertEquals(entry.getValue(), actual.getTopValue());
+      actual.next();
+    }
+    assertFalse(actual.hasTop());
+  }
+
+  public void testOrder() throws Exception {
+    Random random = new Random(5);
+    List<Mutation> mutations = new ArrayList<Mutation>();
+    for (int i = 0; i < 2000; i++)
+      mutations.add(randomMutation(random));
+
+    SlabMap map = new SlabMap();
+    map.mutate(mutations, 1);
+    TreeMap<Key,Value> expected = expected(mutations, 1);
+    assertEquals(expected.size(), map.size());
+
+    SortedKeyValueIterator<Key,Value> iter = map.skvIterator();
+    iter.seek(new Range(), LocalityGroupUtil.EMPTY_CF_SET, false);
+    assertEntries(expected.entrySet().iterator(), iter);
+
+    // seek to plain keys and to mem keys
+    for (int i = 0; i < 100; i++) {
+      Key start = new Key(new Text(r(random, 100)), new Text(r(random, 3)), new Text(r(random, 10)), random.nextInt(3));
+      Key end = new Key(new Text(r(random, 100)));
+      if (end.compareTo(start) < 0)
+        continue;
+      iter.seek(new Range(start, true, end, false), LocalityGroupUtil.EMPTY_CF_SET, false);
+      assertEntries(expected.subMap(start, end).entrySet().iterator(), iter);
+
+      Key memStart = expected.higherKey(start);
+      if (memStart != null) {
+        iter.seek(new Range(memStart, false, null, true), LocalityGroupUtil.EMPTY_CF_SET, false);
+        assertEntries(expected.tailMap(memStart, false).entrySet().iterator(), iter);
+      }
+    }
+
+    Key first = expected.firstKey();
+    assertEquals(expected.get(first), map.get(first));
+    assertNull(map.get(new Key(new Text("none"))));
+  }
+
+  public void testConcurrentWriters() throws Exception {
+    final SlabMap map = new SlabMap();
+    final List<Mutation> mutations = new ArrayList<Mutation>();
+    Random random = new Random(9);
+    for (int i = 0; i < 8000; i++)
+      mutations.add(randomMutation(random));
+
+    final int[] kvCounts = new int[mutations.size() + 1];
+    kvCounts[0] = 1;
+    for (int i = 0; i < mutations.size(); i++)
+      kvCounts[i + 1] = kvCounts[i] + mutations.get(i).size();
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final int offset = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int i = offset; i < mutations.size(); i += 4)
+            map.mutate(Collections.singletonList(mutations.get(i)), kvCounts[i]);
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+
+    TreeMap<Key,Value> expected = expected(mutations, 1);
+    assertEquals(expected.size(), map.size());
+    SortedKeyValueIterator<Key,Value> iter = map.skvIterator();
+    iter.seek(new Range(), LocalityGroupUtil.EMPTY_CF_SET, false);
+    assertEntries(expected.entrySet().iterator(), iter);
+  }
+
+  public void testLargeValues() throws Exception {
+    SlabMap map = new SlabMap();
+    Mutation m = new Mutation(new Text("row"));
+    m.put(new Text("cf"), new Text("big"), new Value(new byte[3 * SlabMap.SLAB_SIZE]));
+    m.put(new Text("cf"), new Text("small"), new Value("v".getBytes()));
+    map.mutate(Collections.singletonList(m), 1);
+
+    Iterator<Entry<Key,Value>> iter = map.iterator(new Key());
+    assertEquals(3 * SlabMap.SLAB_SIZE, iter.next().getValue().getSize());
+    assertEquals("v", iter.next().getValue().toString());
+    assertFalse(iter.hasNext());
+    assertTrue(map.getMemoryUsed() > 3 * SlabMap.SLAB_SIZE);
+  }
+
+  public void testDelete() throws Exception {
+    SlabMap map = new SlabMap();
+    Random random = new Random(3);
+    long memory = map.getMemoryUsed();
+    for (int i = 0; i < 30000; i++) {
+      map.mutate(Collections.singletonList(randomMutation(random)), 1 + 3 * i);
+      assertTrue(map.getMemoryUsed() >= memory);
+      memory = map.getMemoryUsed();
+    }
+    assertTrue(memory > SlabMap.SLAB_SIZE);
+
+    SortedKeyValueIterator<Key,Value> iter = map.skvIterator();
+    iter.seek(new Range(), LocalityGroupUtil.EMPTY_CF_SET, false);
+    int pooled = SlabMap.pooledSlabs();
+    map.delete();
+    assertTrue(SlabMap.pooledSlabs() > pooled);
+    assertEquals(0, map.getMemoryUsed());
+
+    try {
+      iter.next();
+      fail("read from deleted map");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  public void testAllocationSizes() throws Exception {
+    // more chunks than the doubling can shift without overflowing, up to the most chunks a map can have
+    int previous = 0;
+    for (int chunks = 0; chunks < 2048; chunks++) {
+      int size = SlabMap.chunkSize(chunks);
+      assertTrue(size >= previous);
+      assertTrue(size <= 1 << 20);
+      previous = size;
+    }
+    assertEquals(1 << 20, SlabMap.chunkSize(21));
+    assertEquals(1 << 20, SlabMap.chunkSize(2047));
+
+    // far more slabs than fit in a long shift
+    previous = 0;
+    for (int slabs = 0; slabs < 200; slabs++) {
+      int size = SlabMap.slabSize(slabs, 100);
+      assertTrue(size >= previous);
+      assertTrue(size <= SlabMap.SLAB_SIZE);
+      previous = size;
+    }
+    assertEquals(SlabMap.SLAB_SIZE, SlabMap.slabSize(49, 100));
+    assertEquals(SlabMap.SLAB_SIZE, SlabMap.slabSize(64, 100));
+    assertEquals(SlabMap.SLAB_SIZE, SlabMap.slabSize(65, 100));
+    assertEquals(SlabMap.SLAB_SIZE + 1, SlabMap.slabSize(65, SlabMap.SLAB_SIZE + 1));
+  }
+
+  public void testManySlabs() throws Exception {
+    // values of half a slab put one value in each full size slab, so this passes 64 slabs
+    SlabMap map = new SlabMap();
+    byte[] val = new byte[SlabMap.SLAB_SIZE / 2 + 1];
+    List<Mutation> mutations = new ArrayList<Mutation>();
+    for (int i = 0; i < 70; i++) {
+      Mutation m = new Mutation(new Text(String.format("%04d", i)));
+      m.put(new Text("cf"), new Text("cq"), new Value(val));
+      mutations.add(m);
+      map.mutate(Collections.singletonList(m), i);
+    }
+    assertEquals(70, map.size());
+    assertTrue(map.getMemoryUsed() >= 64L * SlabMap.SLAB_SIZE);
+
+    SortedKeyValueIterator<Key,Value> iter = map.skvIterator();
+    iter.seek(new Range(), LocalityGroupUtil.EMPTY_CF_SET, false);
+    assertEntries(expected(mutations, 0).entrySet().iterator(), iter);
+    map.delete();
+  }
+}
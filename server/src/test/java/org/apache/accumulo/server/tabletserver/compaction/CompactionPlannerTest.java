@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver.compaction;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.conf.ConfigurationCopy;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.util.MetadataTable.DataFileValue;
+
+public class CompactionPlannerTest extends TestCase {
+  
+  private static final long HOUR = 60 * 60 * 1000l;
+  
+  private static SortedMap<String,DataFileValue> files(long... sizes) {
+    SortedMap<String,DataFileValue> files = new TreeMap<String,DataFileValue>();
+    for (int i = 0; i < sizes.length; i++)
+      files.put("/t-0001/F" + i + ".rf", new DataFileValue(sizes[i], sizes[i] / 10));
+    return files;
+  }
+  
+  private static CompactionPlanner init(CompactionPlanner planner, String... options) {
+    ConfigurationCopy conf = new ConfigurationCopy(AccumuloConfiguration.getDefaultConfiguration());
+    for (int i = 0; i < options.length; i += 2)
+      conf.set(Property.TABLE_COMPACTION_PLANNER_OPTS.getKey() + options[i], options[i + 1]);
+    planner.init(conf);
+    return planner;
+  }
+  
+  private static final CompactionPlanner.FileTimes NOW = new CompactionPlanner.FileTimes() {
+    @Override
+    public long getDataTime(String file) {
+      return System.currentTimeMillis();
+    }
+  };
+  
+  public void testDefault() throws Exception {
+    CompactionPlanner planner = init(new DefaultCompactionPlanner());
+    assertNull(planner.findFilesToCompact(files(1000, 10), 10, NOW));
+    Map<String,Long> toCompact = planner.findFilesToCompact(files(1000, 10, 10, 10), 10, NOW);
+    assertEquals(3, toCompact.size());
+    assertFalse(toCompact.containsKey("/t-0001/F0.rf"));
+    assertEquals(2, planner.findFilesToCompact(files(1000, 10, 10, 10), 2, NOW).size());
+  }
+  
+  public void testSizeTiered() throws Exception {
+    CompactionPlanner planner = init(new SizeTieredCompactionPlanner(), "minFiles", "3");
+    assertNull(planner.findFilesToCompact(files(1000, 900, 10, 15), 10, NOW));
+    Map<String,Long> toCompact = planner.findFilesToCompact(files(1000, 900, 800, 10, 15), 10, NOW);
+    assertEquals(3, toCompact.size());
+    assertFalse(toCompact.containsKey("/t-0001/F3.rf"));
+    // the tier of small files is compacted first
+    toCompact = planner.findFilesToCompact(files(1000, 900, 800, 10, 15, 12), 10, NOW);
+    assertEquals(3, toCompact.size());
+    assertTrue(toCompact.containsKey("/t-0001/F3.rf"));
+  }
+  
+  public void testLeveled() throws Exception {
+    CompactionPlanner planner = init(new LeveledCompactionPlanner(), "fanout", "10");
+    assertNull(planner.findFilesToCompact(files(10000, 50), 10, NOW));
+    // the two small files merge with each other, but not yet into the large file
+    assertEquals(2, planner.findFilesToCompact(files(10000, 50, 40), 10, NOW).size());
+    assertEquals(3, planner.findFilesToCompact(files(10000, 900, 200), 10, NOW).size());
+  }
+  
+  public void testTimeWindow() throws Exception {
+    CompactionPlanner planner = init(new TimeWindowCompactionPlanner(), "window", "1h");
+    final long now = System.currentTimeMillis();
+    CompactionPlanner.FileTimes times = new CompactionPlanner.FileTimes() {
+      @Override
+      public long getDataTime(String file) {
+        // F0 and F1 are from an old window, the rest were just written
+        return file.contains("F0") || file.contains("F1") ? now - 5 * HOUR : now;
+      }
+    };
+    Map<String,Long> toCompact = planner.findFilesToCompact(files(1000, 10, 500), 10, times);
+    assertEquals(2, toCompact.size());
+    assertTrue(toCompact.containsKey("/t-0001/F0.rf"));
+    assertTrue(toCompact.containsKey("/t-0001/F1.rf"));
+    
+    toCompact = planner.findFilesToCompact(files(1000, 10, 100, 100, 100), 10, times);
+    assertEquals(3, toCompact.size());
+    assertFalse(toCompact.containsKey("/t-0001/F0.rf"));
+  }
+  
+  public void testWriteAmplification() throws Exception {
+    SortedMap<String,DataFileValue> files = files(100000, 10000, 1000, 100, 10);
+    double tiered = init(new SizeTieredCompactionPlanner()).estimateWriteAmplification(files, NOW);
+    double leveled = init(new LeveledCompactionPlanner()).estimateWriteAmplification(files, NOW);
+    double ratio = init(new DefaultCompactionPlanner()).estimateWriteAmplification(files, NOW);
+    assertTrue(tiered > 1);
+    assertTrue(tiered < ratio);
+    assertTrue(ratio < leveled);
+    assertEquals(1.0, init(new DefaultCompactionPlanner()).estimateWriteAmplification(files(10), NOW));
+  }
+}
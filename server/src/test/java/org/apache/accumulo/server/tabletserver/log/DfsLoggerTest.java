@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.conf.ConfigurationCopy;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.server.data.ServerMutation;
+import org.apache.accumulo.server.master.state.TServerInstance;
+import org.apache.accumulo.server.tabletserver.log.DfsLogger.LogClosedException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DfsLoggerTest {
+
+  private static ConfigurationCopy tableConf(String walogEnabled, String durability) {
+    ConfigurationCopy conf = new ConfigurationCopy(AccumuloConfiguration.getDefaultConfiguration());
+    conf.set(Property.TABLE_WALOG_ENABLED, walogEnabled);
+    conf.set(Property.TABLE_DURABILITY, durability);
+    return conf;
+  }
+
+  @Test
+  public void testTableDurability() {
+    Assert.assertEquals(Durability.SYNC, Durability.fromConfiguration(new ConfigurationCopy(AccumuloConfiguration.getDefaultConfiguration())));
+    Assert.assertEquals(Durability.SYNC, Durability.fromConfiguration(tableConf("true", "sync")));
+    Assert.assertEquals(Durability.FLUSH, Durability.fromConfiguration(tableConf("true", " Flush ")));
+    Assert.assertEquals(Durability.NONE, Durability.fromConfiguration(tableConf("true", "none")));
+    // a table with its log disabled is never logged, whatever its durability says
+    Assert.assertEquals(Durability.NONE, Durability.fromConfiguration(tableConf("false", "sync")));
+    // an unknown value falls back to the safest durability
+    Assert.assertEquals(Durability.SYNC, Durability.fromConfiguration(tableConf("true", "fsync")));
+
+    Assert.assertEquals(Durability.SYNC, Durability.max(Durability.FLUSH, Durability.SYNC));
+    Assert.assertEquals(Durability.FLUSH, Durability.max(Durability.FLUSH, Durability.NONE));
+    Assert.assertEquals(Durability.NONE, Durability.max(Durability.NONE, Durability.NONE));
+  }
+
+  private static DfsLogger open(long groupWait) throws IOException {
+    final ConfigurationCopy conf = new ConfigurationCopy(AccumuloConfiguration.getDefaultConfiguration());
+    File dir = new File(System.getProperty("java.io.tmpdir"), "DfsLoggerTest_" + System.currentTimeMillis());
+    dir.deleteOnExit();
+    conf.set(Property.INSTANCE_DFS_DIR, dir.getAbsolutePath());
+    conf.set(Property.TSERV_WAL_SYNC_GROUP_WAIT, groupWait + "ms");
+    conf.set(Property.TSERV_WAL_SYNC_GROUP_SIZE, "1G");
+    final FileSystem fs = FileSystem.getLocal(new Configuration());
+    DfsLogger logger = new DfsLogger(new DfsLogger.ServerResources() {
+      @Override
+      public AccumuloConfiguration getConfiguration() {
+        return conf;
+      }
+
+      @Override
+      public FileSystem getFileSystem() {
+        return fs;
+      }
+
+      @Override
+      public Set<TServerInstance> getCurrentTServers() {
+        return Collections.emptySet();
+      }
+    });
+    logger.open("localhost:9997");
+    return logger;
+  }
+
+  private static Mutation mutation(int row) {
+    Mutation m = new ServerMutation(new Text("row" + row));
+    m.put(new Text("cf"), new Text("cq"), new Value(("" + row).getBytes()));
+    return m;
+  }
+
+  @Test
+  public void testGroupCommit() throws Exception {
+    final DfsLogger logger = open(500);
+    int writers = 16;
+    ExecutorService pool = Executors.newFixedThreadPool(writers);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Future<Void>> writes = new ArrayList<Future<Void>>();
+      for (int i = 0; i < writers; i++) {
+        final int row = i;
+        writes.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            start.await();
+            logger.log(row, 1, mutation(row), Durability.SYNC).await();
+            return null;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Void> write : writes)
+        write.get(30, TimeUnit.SECONDS);
+
+      // every writer waited for a sync, but they shared them
+      Assert.assertTrue(logger.getSyncCount() > 0);
+      Assert.assertTrue(logger.getSyncCount() < writers);
+    } finally {
+      pool.shutdownNow();
+      logger.close();
+    }
+  }
+
+  @Test
+  public void testFlushDoesNotWaitForSync() throws Exception {
+    DfsLogger logger = open(0);
+    try {
+      for (int i = 0; i < 10; i++)
+        logger.log(i, 1, mutation(i), Durability.FLUSH).await();
+      Assert.assertEquals(0, logger.getSyncCount());
+
+      logger.log(10, 1, mutation(10), Durability.SYNC).await();
+      Assert.assertEquals(1, logger.getSyncCount());
+    } finally {
+      logger.close();
+    }
+  }
+
+  @Test
+  public void testClosed() throws Exception {
+    DfsLogger logger = open(0);
+    logger.close();
+    for (Durability durability : new Durability[] {Durability.FLUSH, Durability.SYNC}) {
+      try {
+        logger.log(0, 1, mutation(0), durability);
+        Assert.fail("logged to a closed log with " + durability);
+      } catch (LogClosedException e) {
+        // expected
+      }
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.server.tabletserver.log;
+
+import static org.apache.accumulo.server.logger.LogEvents.COMPACTION_FINISH;
+import static org.apache.accumulo.server.logger.LogEvents.COMPACTION_START;
+import static org.apache.accumulo.server.logger.LogEvents.DEFINE_TABLET;
+import static org.apache.accumulo.server.logger.LogEvents.MANY_MUTATIONS;
+import static org.apache.accumulo.server.logger.LogEvents.OPEN;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.accumulo.core.data.KeyExtent;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.server.data.ServerMutation;
+import org.apache.accumulo.server.logger.LogEvents;
+import org.apache.accumulo.server.logger.LogFileKey;
+import org.apache.accumulo.server.logger.LogFileValue;
+import org.apache.accumulo.server.tabletserver.log.LogSorter.RecordingInputStream;
+import org.apache.accumulo.server.tabletserver.log.LogSorter.SortBuffer;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogSorterTest {
+
+  private static LogFileKey key(LogEvents event, long seq, int tid) {
+    LogFileKey key = new LogFileKey();
+    key.event = event;
+    key.seq = seq;
+    key.tid = tid;
+    key.tserverSession = "session";
+    key.filename = "/t/f" + seq;
+    key.tablet = new KeyExtent(new Text("t"), null, null);
+    return key;
+  }
+
+  private static LogFileValue value(long seq) {
+    LogFileValue value = new LogFileValue();
+    if (seq % 2 == 0) {
+      Mutation m = new ServerMutation(new Text("row" + seq));
+      m.put(new Text("cf"), new Text("cq"), new Value(("" + seq).getBytes()));
+      value.mutations = Collections.singletonList(m);
+    }
+    return value;
+  }
+
+  @Test
+  public void testSortedOrder() throws IOException {
+    Random random = new Random(42);
+    LogEvents[] events = {COMPACTION_START, COMPACTION_FINISH, DEFINE_TABLET, MANY_MUTATIONS};
+    List<LogFileKey> keys = new ArrayList<LogFileKey>();
+    SortBuffer buffer = new SortBuffer();
+
+    LogFileKey open = key(OPEN, -1, -1);
+    buffer.append(open, new LogFileValue());
+    keys.add(open);
+    for (int i = 0; i < 5000; i++) {
+      LogFileKey key = key(events[random.nextInt(events.length)], random.nextInt(100), random.nextInt(10));
+      buffer.append(key, value(key.seq));
+      keys.add(key);
+    }
+    Assert.assertEquals(keys.size(), buffer.size());
+
+    // Collections.sort is stable, so equal keys keep the order they were added in
+    List<LogFileKey> expected = new ArrayList<LogFileKey>(keys);
+    Collections.sort(expected);
+
+    LogFileKey key = new LogFileKey();
+    LogFileValue value = new LogFileValue();
+    int[] order = buffer.sortedOrder();
+    Assert.assertEquals(expected.size(), order.length);
+    for (int i = 0; i < order.length; i++) {
+      Assert.assertSame(expected.get(i), keys.get(order[i]));
+      buffer.get(order[i], key, value);
+      Assert.assertEquals(0, expected.get(i).compareTo(key));
+      Assert.assertEquals(expected.get(i).event, key.event);
+      Assert.assertEquals(value(key.seq).mutations, value.mutations);
+    }
+  }
+
+  @Test
+  public void testPartialEntry() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (int i = 0; i < 10; i++) {
+      key(MANY_MUTATIONS, i, 1).write(out);
+      value(i).write(out);
+    }
+    out.close();
+
+    SortBuffer expected = new SortBuffer();
+    SortBuffer buffer = new SortBuffer();
+    LogFileKey key = new LogFileKey();
+    LogFileValue value = new LogFileValue();
+    // chop off the end of the last entry
+    RecordingInputStream recorder = new RecordingInputStream(new ByteArrayInputStream(bytes.toByteArray(), 0, bytes.size() - 3));
+    recorder.record(buffer);
+    DataInputStream in = new DataInputStream(recorder);
+    try {
+      while (true) {
+        buffer.read(in, key, value);
+        expected.append(key, value);
+      }
+    } catch (EOFException ex) {
+      // expected
+    }
+    Assert.assertEquals(9, buffer.size());
+    Assert.assertEquals(expected.getLength(), buffer.getLength());
+  }
+
+  @Test
+  public void testSkipIsRecorded() throws IOException {
+    SortBuffer buffer = new SortBuffer();
+    RecordingInputStream recorder = new RecordingInputStream(new ByteArrayInputStream(new byte[10000]));
+    recorder.record(buffer);
+    Assert.assertEquals(5000, recorder.skip(5000));
+    Assert.assertEquals(5000, buffer.getLength());
+    Assert.assertEquals(100, recorder.read(new byte[100]));
+    Assert.assertEquals(5100, buffer.getLength());
+    // only the bytes that are left can be skipped
+    Assert.assertEquals(4900, recorder.skip(6000));
+    Assert.assertEquals(10000, buffer.getLength());
+    Assert.assertEquals(0, recorder.skip(10));
+  }
+}
@@ -34,6 +34,13 @@ public class TraceRunnable implements Runnable, Comparable<TraceRunnable> {
     this.runnable = runnable;
   }
   
+  /**
+   * @return the wrapped runnable
+   */
+  public Runnable getRunnable() {
+    return runnable;
+  }
+  
   @Override
   public void run() {
     if (parent != null) {